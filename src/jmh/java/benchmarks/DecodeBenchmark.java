@@ -0,0 +1,53 @@
+package benchmarks;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a scan with OpenCV (from file and from memory) and with the DJL image factory used by
+ * {@code NationalIDProcessor}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Benchmark
+    public int opencvImread(ScanState scan) {
+        Mat mat = Imgcodecs.imread(scan.file.toString());
+        int rows = mat.rows();
+        mat.release();
+        return rows;
+    }
+
+    @Benchmark
+    public int opencvImdecode(ScanState scan) {
+        MatOfByte encoded = new MatOfByte(scan.bytes);
+        Mat mat = Imgcodecs.imdecode(encoded, Imgcodecs.IMREAD_COLOR);
+        int rows = mat.rows();
+        mat.release();
+        encoded.release();
+        return rows;
+    }
+
+    @Benchmark
+    public Image djlImageFactory(ScanState scan) throws IOException {
+        return ImageFactory.getInstance().fromInputStream(new ByteArrayInputStream(scan.bytes));
+    }
+}
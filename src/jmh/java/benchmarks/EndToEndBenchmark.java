@@ -0,0 +1,36 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole classification path for one scan, through the production {@code NationalIDCardExtractor}: read and
+ * decode the file at a reduced scale, letterbox it to the 256x156 model input into a pooled Mat, hand the HWC
+ * pixels to {@code MatTranslator}, run the forward pass and pick the top class.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    @Benchmark
+    public int imageToClass(ScanState scan, ExtractorState state) throws Throwable {
+        float[] logits = RepoAccess.extractFeatures(state.extractor, scan.file.toString());
+        int best = 0;
+        for (int i = 1; i < logits.length; i++) {
+            if (logits[i] > logits[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,28 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.file.Paths;
+
+/**
+ * The production {@code NationalIDCardExtractor} over the FP32 checkpoint, with a single pooled predictor so the
+ * benchmark thread always gets the same one. Set {@code -Dmodel.dir=...} to benchmark another checkpoint.
+ */
+@State(Scope.Benchmark)
+public class ExtractorState {
+    AutoCloseable extractor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        extractor = RepoAccess.newExtractor(Paths.get(System.getProperty("model.dir", "models/national_id_card")), 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        extractor.close();
+    }
+}
@@ -0,0 +1,53 @@
+package benchmarks;
+
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.translate.TranslateException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single forward pass of the ResNet-18 classifier on a prepared [1, 3, 256, 256] input.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ForwardPassBenchmark {
+    private NDManager manager;
+    private NDList input;
+
+    @Setup(Level.Trial)
+    public void setUp(ModelState state) {
+        manager = state.model.getNDManager().newSubManager();
+        input = new NDList(manager.randomUniform(-1, 1, new Shape(1, 3, 256, 256)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        manager.close();
+    }
+
+    @Benchmark
+    public long forward(ModelState state) throws TranslateException {
+        NDList output = state.predictor.predict(input);
+        long size = output.head().size();
+        output.close();
+        return size;
+    }
+}
@@ -0,0 +1,41 @@
+package benchmarks;
+
+import ai.djl.MalformedModelException;
+import ai.djl.Model;
+import ai.djl.basicmodelzoo.cv.classification.ResNetV1;
+import ai.djl.inference.Predictor;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.translate.NoopTranslator;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * The ResNet-18 ID card classifier trained by {@code TrainingNationalIDCardDetector}, loaded once per trial.
+ * Set {@code -Dmodel.dir=...} to benchmark another checkpoint.
+ */
+@State(Scope.Benchmark)
+public class ModelState {
+    Model model;
+    Predictor<NDList, NDList> predictor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, MalformedModelException {
+        model = Model.newInstance("resnet");
+        model.setBlock(ResNetV1.builder().setImageShape(new Shape(3, 256, 256)).setOutSize(10).setNumLayers(18).build());
+        model.load(Paths.get(System.getProperty("model.dir", "models/national_id_card")), "national_id_card");
+        predictor = model.newPredictor(new NoopTranslator());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        predictor.close();
+        model.close();
+    }
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import ai.djl.modality.cv.util.NDImageUtils;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Normalising a model-sized input: the {@code ImageTranslator} mean/std step and DJL's {@code ToTensor}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NormalizeBenchmark {
+    private NDManager manager;
+    private NDArray image;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        manager = NDManager.newBaseManager();
+        image = manager.randomUniform(0, 255, new Shape(256, 256, 3)).toType(DataType.UINT8, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        manager.close();
+    }
+
+    @Benchmark
+    public long imageTranslator() throws Throwable {
+        try (NDManager scope = manager.newSubManager()) {
+            NDArray input = image.duplicate();
+            input.attach(scope);
+            return RepoAccess.normalize(input).head().size();
+        }
+    }
+
+    @Benchmark
+    public long toTensor() {
+        try (NDManager scope = manager.newSubManager()) {
+            NDArray input = image.duplicate();
+            input.attach(scope);
+            return NDImageUtils.toTensor(input).size();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package benchmarks;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import org.opencv.core.Mat;
+
+import java.awt.image.BufferedImage;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+
+/**
+ * The application classes live in the default package, which cannot be imported from a named package and JMH
+ * refuses benchmarks in the default package. This bridge resolves the methods under test once through
+ * reflection, so each benchmark call is a plain method handle invocation.
+ */
+final class RepoAccess {
+    private static final Class<?> BUFFER_POOL = load("BufferPool");
+    private static final MethodHandle RESIZE_MAT = find("ResizeExampleByOpenCV", "resize",
+            Mat.class, int.class, int.class, boolean.class);
+    private static final MethodHandle RESIZE_POOLED = find("ResizeExampleByOpenCV", "resize",
+            Mat.class, int.class, int.class, boolean.class, BUFFER_POOL);
+    private static final MethodHandle PREPROCESS = find("NationalIDProcessor", "preprocessInto",
+            BufferedImage.class, BufferedImage.class);
+    private static final MethodHandle NEW_MAT_POOL = find("BufferPool", "forMats", int.class);
+    private static final MethodHandle NEW_IMAGE_POOL = find("BufferPool", "forImages", int.class);
+    private static final MethodHandle ACQUIRE = find(BUFFER_POOL, "acquire", int.class, int.class, int.class);
+    private static final MethodHandle GIVE_BACK = find(BUFFER_POOL, "giveBack", Object.class);
+    private static final MethodHandle TO_NDARRAY = find("MatNDArrayConverter", "toNDArray", NDManager.class, Mat.class);
+    private static final MethodHandle NORMALIZE = find("ImageTranslator", "normalize", NDArray.class);
+    private static final MethodHandle LETTERBOX_FIT = find("LetterboxTransform", "fit",
+            NDArray.class, int.class, int.class, Image.Interpolation.class);
+    private static final MethodHandle LETTERBOX_PAD = find("LetterboxTransform", "pad", NDArray.class, int.class, int.class);
+    private static final Class<?> EXTRACTOR = load("NationalIDCardExtractor");
+    private static final Class<?> MODEL_VARIANT = load("ModelVariant");
+    private static final MethodHandle EXTRACT_FEATURES = find(EXTRACTOR, "extractFeatures", String.class);
+
+    private RepoAccess() {
+    }
+
+    static Mat resize(Mat image, int width, int height, boolean addPadding) throws Throwable {
+        return (Mat) RESIZE_MAT.invoke(image, width, height, addPadding);
+    }
+
+    static Mat resize(Mat image, int width, int height, boolean addPadding, Object pool) throws Throwable {
+        return (Mat) RESIZE_POOLED.invoke(image, width, height, addPadding, pool);
+    }
+
+    static void preprocessInto(BufferedImage source, BufferedImage target) throws Throwable {
+        PREPROCESS.invoke(source, target);
+    }
+
+    static Object newMatPool(int maxPerKey) throws Throwable {
+        return NEW_MAT_POOL.invoke(maxPerKey);
+    }
+
+    static Object newImagePool(int maxPerKey) throws Throwable {
+        return NEW_IMAGE_POOL.invoke(maxPerKey);
+    }
+
+    static Object acquire(Object pool, int width, int height, int type) throws Throwable {
+        return ACQUIRE.invoke(pool, width, height, type);
+    }
+
+    static void giveBack(Object pool, Object buffer) throws Throwable {
+        GIVE_BACK.invoke(pool, buffer);
+    }
+
+    static NDArray toNDArray(NDManager manager, Mat mat) throws Throwable {
+        return (NDArray) TO_NDARRAY.invoke(manager, mat);
+    }
+
+    static NDList normalize(NDArray array) throws Throwable {
+        return (NDList) NORMALIZE.invoke(array);
+    }
+
+    static NDArray letterbox(NDArray array, int width, int height) throws Throwable {
+        NDArray fitted = (NDArray) LETTERBOX_FIT.invoke(array, width, height, Image.Interpolation.BILINEAR);
+        return (NDArray) LETTERBOX_PAD.invoke(fitted, width, height);
+    }
+
+    /**
+     * A {@code NationalIDCardExtractor} serving the FP32 variant, as the extraction service creates it.
+     */
+    static AutoCloseable newExtractor(Path modelFolder, int poolSize) throws Throwable {
+        Object fp32 = MODEL_VARIANT.getField("FP32").get(null);
+        return (AutoCloseable) EXTRACTOR.getConstructor(String.class, Path.class, int.class, MODEL_VARIANT)
+                .newInstance("resnet", modelFolder, poolSize, fp32);
+    }
+
+    /**
+     * The extractor's file path: reduced-scale decode, pooled 256x156 letterbox and {@code MatTranslator}.
+     */
+    static float[] extractFeatures(Object extractor, String imagePath) throws Throwable {
+        return (float[]) EXTRACT_FEATURES.invoke(extractor, imagePath);
+    }
+
+    private static Class<?> load(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Cannot load " + className, e);
+        }
+    }
+
+    private static MethodHandle find(String className, String name, Class<?>... parameterTypes) {
+        return find(load(className), name, parameterTypes);
+    }
+
+    private static MethodHandle find(Class<?> owner, String name, Class<?>... parameterTypes) {
+        try {
+            Method method = owner.getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot resolve " + owner.getName() + "." + name, e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package benchmarks;
+
+import ai.djl.modality.cv.ImageFactory;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The three resize/pad implementations in the tree on an already decoded scan: OpenCV
+ * ({@code ResizeExampleByOpenCV.resize}), DJL NDArray ({@code LetterboxTransform}) and Java2D
+ * ({@code NationalIDProcessor.preprocessInto}). The OpenCV and Java2D paths are measured both with fresh buffers
+ * and with pooled ones, run with the gc profiler to see the pooled paths allocate nothing per call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResizeBenchmark {
+    private NDManager manager;
+    private NDArray array;
+    private BufferedImage image;
+    private Object matPool;
+    private Object imagePool;
+
+    @Setup(Level.Trial)
+    public void setUp(ScanState scan) throws Throwable {
+        manager = NDManager.newBaseManager();
+        array = RepoAccess.toNDArray(manager, scan.decoded);
+        image = (BufferedImage) ImageFactory.getInstance().fromFile(scan.file).getWrappedImage();
+        matPool = RepoAccess.newMatPool(2);
+        imagePool = RepoAccess.newImagePool(2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        manager.close();
+    }
+
+    @Benchmark
+    public int opencv(ScanState scan) throws Throwable {
+        Mat resized = RepoAccess.resize(scan.decoded, 256, 156, true);
+        int rows = resized.rows();
+        resized.release();
+        return rows;
+    }
+
+    @Benchmark
+    public int opencvPooled(ScanState scan) throws Throwable {
+        Mat resized = RepoAccess.resize(scan.decoded, 256, 156, true, matPool);
+        int rows = resized.rows();
+        RepoAccess.giveBack(matPool, resized);
+        return rows;
+    }
+
+    @Benchmark
+    public long djlNDArray() throws Throwable {
+        try (NDManager scope = manager.newSubManager()) {
+            NDArray input = array.duplicate();
+            input.attach(scope);
+            return RepoAccess.letterbox(input, 256, 156).size();
+        }
+    }
+
+    @Benchmark
+    public int java2d() throws Throwable {
+        BufferedImage target = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        RepoAccess.preprocessInto(image, target);
+        return target.getWidth();
+    }
+
+    @Benchmark
+    public int java2dPooled() throws Throwable {
+        BufferedImage target = (BufferedImage) RepoAccess.acquire(imagePool, 640, 480, BufferedImage.TYPE_INT_RGB);
+        RepoAccess.preprocessInto(image, target);
+        RepoAccess.giveBack(imagePool, target);
+        return target.getWidth();
+    }
+}
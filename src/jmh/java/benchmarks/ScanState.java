@@ -0,0 +1,80 @@
+package benchmarks;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A synthetic card scan encoded as JPEG, at the sizes we see in production: a small web upload, a typical
+ * scanner output and a 24 MP phone photo.
+ */
+@State(Scope.Benchmark)
+public class ScanState {
+    static {
+        // Initialising the repo class loads the OpenCV natives the same way the application does
+        try {
+            Class.forName("ResizeExampleByOpenCV");
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Param({"small", "typical", "large"})
+    public String scanSize;
+
+    Path file;
+    byte[] bytes;
+    Mat decoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int width;
+        int height;
+        switch (scanSize) {
+            case "small":
+                width = 480;
+                height = 300;
+                break;
+            case "typical":
+                width = 1600;
+                height = 1000;
+                break;
+            default:
+                width = 6000;
+                height = 4000;
+                break;
+        }
+
+        // Noise plus a card-like rectangle, so the JPEG is neither trivially small nor unrealistic
+        Mat scan = new Mat(height, width, CvType.CV_8UC3);
+        Core.randu(scan, 0, 255);
+        Imgproc.rectangle(scan, new Point(width * 0.1, height * 0.15), new Point(width * 0.9, height * 0.85),
+                new Scalar(200, 180, 160), -1);
+
+        file = Files.createTempFile("scan-" + scanSize + "-", ".jpg");
+        Imgcodecs.imwrite(file.toString(), scan);
+        scan.release();
+        bytes = Files.readAllBytes(file);
+        decoded = Imgcodecs.imread(file.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        decoded.release();
+        Files.deleteIfExists(file);
+    }
+}
@@ -0,0 +1,334 @@
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+import ai.djl.modality.cv.output.DetectedObjects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Non-blocking front end of the pipeline. Every call returns a {@link CompletableFuture} right away and the
+ * request moves through its stages on two executors: file reads and writes run on virtual threads, decoding,
+ * localization and inference on a bounded pool of platform threads sized to the cores. A caller therefore
+ * holds no thread while its request is in flight, and blocking I/O never occupies a compute thread.
+ *
+ * <p>When the compute queue is full a request fails right away with a
+ * {@link java.util.concurrent.RejectedExecutionException}, so callers can shed load instead of queueing
+ * without bound.
+ *
+ * <p>Cancelling the returned future, or reaching the request's timeout, skips the stages that have not
+ * started and interrupts the one running. An interrupted inference stops waiting for a predictor, but a
+ * forward pass already inside the engine runs to the end and its result is dropped.
+ */
+public class AsyncNationalIDService implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncNationalIDService.class);
+
+    private final ExecutorService io;
+    private final ThreadPoolExecutor compute;
+    private final Duration defaultTimeout;
+    private final NationalIDCardExtractor extractor;
+
+    private AsyncNationalIDService(Builder builder) {
+        this.io = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("nationalid-io-", 0).factory());
+        AtomicInteger threads = new AtomicInteger();
+        this.compute = new ThreadPoolExecutor(builder.computeThreads, builder.computeThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(builder.computeQueueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "nationalid-compute-" + threads.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.defaultTimeout = builder.defaultTimeout;
+        this.extractor = builder.extractor;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public CompletableFuture<DetectedObjects> detect(Path imageFile) {
+        return detect(imageFile, defaultTimeout);
+    }
+
+    /**
+     * Detects the national ID in an image file, the same as {@link NationalIDProcessor#detectNationalID(byte[])}.
+     */
+    public CompletableFuture<DetectedObjects> detect(Path imageFile, Duration timeout) {
+        return start(timeout, request -> stage(request, io, () -> read(imageFile))
+                .thenCompose(bytes -> stage(request, compute, () -> NationalIDProcessor.detectNationalID(bytes))));
+    }
+
+    public CompletableFuture<Boolean> process(Path imageFile, Path outputFile) {
+        return process(imageFile, outputFile, defaultTimeout);
+    }
+
+    /**
+     * Extracts the upright card from an image file and saves it, completing with false when the image holds no
+     * card. The format follows the extension of {@code outputFile}.
+     */
+    public CompletableFuture<Boolean> process(Path imageFile, Path outputFile, Duration timeout) {
+        return start(timeout, request -> stage(request, io, () -> read(imageFile))
+                .thenCompose(bytes -> stage(request, compute, () -> {
+                    long start = System.nanoTime();
+                    Image image = ImageFactory.getInstance().fromInputStream(new ByteArrayInputStream(bytes));
+                    PipelineMetrics.Stage.DECODE.recordSince(start);
+                    return NationalIDProcessor.extractNationalID(image);
+                }))
+                .thenCompose(card -> card == null
+                        ? CompletableFuture.completedFuture(false)
+                        : stage(request, io, () -> save(card, outputFile))));
+    }
+
+    public CompletableFuture<float[]> extractFeatures(Path imageFile) {
+        return extractFeatures(imageFile, defaultTimeout);
+    }
+
+    /**
+     * Extracts the feature vector of an image file with the extractor given to the builder.
+     */
+    public CompletableFuture<float[]> extractFeatures(Path imageFile, Duration timeout) {
+        if (extractor == null) {
+            throw new IllegalStateException("No extractor set, use optExtractor");
+        }
+        return start(timeout, request -> stage(request, io, () -> read(imageFile))
+                .thenCompose(bytes -> stage(request, compute, () -> extractor.extractFeatures(bytes))));
+    }
+
+    private static byte[] read(Path file) throws Exception {
+        long start = System.nanoTime();
+        byte[] bytes = Files.readAllBytes(file);
+        PipelineMetrics.Stage.FILE_READ.recordSince(start);
+        return bytes;
+    }
+
+    private static boolean save(Image card, Path outputFile) throws Exception {
+        long start = System.nanoTime();
+        String name = outputFile.getFileName().toString().toLowerCase(Locale.ROOT);
+        try (OutputStream out = Files.newOutputStream(outputFile)) {
+            card.save(out, name.endsWith(".png") ? "png" : "jpg");
+        }
+        PipelineMetrics.Stage.SAVE.recordSince(start);
+        return true;
+    }
+
+    /**
+     * Creates the request, wires cancellation and timeout of its result to the stage running at that moment and
+     * starts the first stage.
+     */
+    private <T> CompletableFuture<T> start(Duration timeout, Function<Request<T>, CompletableFuture<T>> pipeline) {
+        Request<T> request = new Request<>();
+        request.result.whenComplete((value, error) -> {
+            if (error != null) {
+                Future<?> running = request.running.get();
+                if (running != null) {
+                    running.cancel(true);
+                }
+            }
+        });
+        if (timeout != null && !timeout.isZero()) {
+            request.result.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        pipeline.apply(request).whenComplete((value, error) -> {
+            if (error == null) {
+                request.result.complete(value);
+            } else {
+                request.result.completeExceptionally(unwrap(error));
+            }
+        });
+        return request.result;
+    }
+
+    /**
+     * Runs one stage of a request on an executor. The stage is skipped when the request has already completed,
+     * which is how a cancellation or timeout stops the stages after the running one.
+     */
+    private static <S> CompletableFuture<S> stage(Request<?> request, ExecutorService executor, Callable<S> task) {
+        CompletableFuture<S> stage = new CompletableFuture<>();
+        if (request.result.isDone()) {
+            stage.cancel(false);
+            return stage;
+        }
+        Future<?> running = executor.submit(() -> {
+            if (request.result.isDone()) {
+                stage.cancel(false);
+                return;
+            }
+            try {
+                stage.complete(task.call());
+            } catch (Throwable e) {
+                stage.completeExceptionally(e);
+            }
+        });
+        request.running.set(running);
+        // The request may have been cancelled between the check and the submit
+        if (request.result.isDone()) {
+            running.cancel(true);
+        }
+        return stage;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    public int getQueuedCount() {
+        return compute.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return compute.getActiveCount();
+    }
+
+    /**
+     * Stops accepting requests and waits up to {@code timeout} for the ones in flight.
+     */
+    public void shutdown(Duration timeout) throws InterruptedException {
+        compute.shutdown();
+        io.shutdown();
+        long deadline = System.nanoTime() + timeout.toNanos();
+        compute.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        io.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void close() {
+        compute.shutdownNow();
+        io.shutdownNow();
+    }
+
+    /**
+     * Processes every image of a folder concurrently and saves the extracted cards to the output folder. At most
+     * {@code maxInFlight} requests are submitted at a time, so a large folder neither overflows the compute queue
+     * nor spends its timeouts waiting in it.
+     *
+     * <p>Usage: {@code AsyncNationalIDService [inputFolder] [outputFolder] [timeoutSeconds] [maxInFlight]}
+     */
+    public static void main(String[] args) throws Exception {
+        Path inputFolder = Paths.get(args.length > 0 ? args[0] : "samples");
+        Path outputFolder = Paths.get(args.length > 1 ? args[1] : "results");
+        Duration timeout = Duration.ofSeconds(args.length > 2 ? Long.parseLong(args[2]) : 30);
+        int maxInFlight = args.length > 3 ? Integer.parseInt(args[3]) : 2 * Runtime.getRuntime().availableProcessors();
+        Files.createDirectories(outputFolder);
+        PipelineMetrics.startFromSystemProperties();
+
+        List<Path> files = new ArrayList<>();
+        collect(inputFolder.toFile(), files);
+        try (AsyncNationalIDService service = AsyncNationalIDService.builder().optDefaultTimeout(timeout).build()) {
+            long start = System.nanoTime();
+            Semaphore inFlight = new Semaphore(maxInFlight);
+            List<CompletableFuture<Void>> requests = new ArrayList<>();
+            for (Path file : files) {
+                Path output = outputFolder.resolve(file.getFileName().toString().replaceAll("\\.[^.]+$", "") + ".jpg");
+                inFlight.acquire();
+                requests.add(service.process(file, output).handle((saved, error) -> {
+                    inFlight.release();
+                    if (error instanceof TimeoutException) {
+                        logger.warn("Timed out after {}: {}", timeout, file);
+                    } else if (error instanceof CancellationException) {
+                        logger.warn("Cancelled: {}", file);
+                    } else if (error != null) {
+                        logger.error("Failed: {}", file, error);
+                    } else if (!saved) {
+                        logger.warn("No national ID found in {}", file);
+                    }
+                    return null;
+                }));
+            }
+            CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0])).join();
+            logger.info("Processed {} images in {} ms", files.size(), (System.nanoTime() - start) / 1_000_000);
+        }
+        PipelineMetrics.logSummary();
+        PipelineMetrics.stop();
+    }
+
+    private static void collect(File file, List<Path> files) {
+        if (file.isDirectory()) {
+            for (File child : Objects.requireNonNull(file.listFiles())) {
+                collect(child, files);
+            }
+        } else {
+            String name = file.getName().toLowerCase(Locale.ROOT);
+            if (name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png")) {
+                files.add(file.toPath());
+            }
+        }
+    }
+
+    /**
+     * A request in flight: the future handed to the caller and the stage task currently running for it.
+     */
+    private static final class Request<T> {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final AtomicReference<Future<?>> running = new AtomicReference<>();
+    }
+
+    public static final class Builder {
+        private int computeThreads = Runtime.getRuntime().availableProcessors();
+        private int computeQueueCapacity = 256;
+        private Duration defaultTimeout = Duration.ZERO;
+        private NationalIDCardExtractor extractor;
+
+        private Builder() {
+        }
+
+        /**
+         * The platform threads for decoding and inference, by default one per core.
+         */
+        public Builder optComputeThreads(int computeThreads) {
+            this.computeThreads = computeThreads;
+            return this;
+        }
+
+        /**
+         * How many compute stages may wait for a thread before new requests are rejected.
+         */
+        public Builder optComputeQueueCapacity(int computeQueueCapacity) {
+            this.computeQueueCapacity = computeQueueCapacity;
+            return this;
+        }
+
+        /**
+         * The timeout of requests submitted without one, zero for none.
+         */
+        public Builder optDefaultTimeout(Duration defaultTimeout) {
+            this.defaultTimeout = defaultTimeout;
+            return this;
+        }
+
+        /**
+         * The feature extractor used by {@link #extractFeatures(Path)}. The service does not close it.
+         */
+        public Builder optExtractor(NationalIDCardExtractor extractor) {
+            this.extractor = extractor;
+            return this;
+        }
+
+        public AsyncNationalIDService build() {
+            return new AsyncNationalIDService(this);
+        }
+    }
+}
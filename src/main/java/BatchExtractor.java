@@ -0,0 +1,258 @@
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+import ai.djl.modality.cv.output.DetectedObjects;
+import ai.djl.modality.cv.output.Rectangle;
+import ai.djl.util.JsonUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Runs detection and cropping over whole directories and zip archives. Zip entries are read straight from the
+ * archive stream into memory and never extracted to disk.
+ *
+ * <p>Every item produces one line in {@code manifest.jsonl} in the output folder, and a crop in
+ * {@code crops/} when a card was found. Failures are also written with their stack trace to
+ * {@code errors.log}. Progress and throughput are logged while the batch runs.
+ *
+ * <p>Usage: {@code BatchExtractor <outputFolder> <folder or .zip>... [--threads N]}
+ */
+public class BatchExtractor {
+    private static final Logger logger = LoggerFactory.getLogger(BatchExtractor.class);
+
+    private final Path outputFolder;
+    private final int threads;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong noDetection = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private BufferedWriter manifest;
+    private BufferedWriter errors;
+
+    public BatchExtractor(Path outputFolder, int threads) {
+        this.outputFolder = outputFolder;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: BatchExtractor <outputFolder> <folder or .zip>... [--threads N]");
+            return;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> inputs = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                inputs.add(Paths.get(args[i]));
+            }
+        }
+        PipelineMetrics.startFromSystemProperties();
+        new BatchExtractor(Paths.get(args[0]), threads).run(inputs);
+        PipelineMetrics.logSummary();
+        PipelineMetrics.stop();
+    }
+
+    public void run(List<Path> inputs) throws IOException, InterruptedException {
+        Files.createDirectories(outputFolder.resolve("crops"));
+
+        // A bounded queue with caller-runs keeps the reader from pulling the whole archive into memory
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "batch-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long start = System.nanoTime();
+        reporter.scheduleAtFixedRate(() -> report(start), 5, 5, TimeUnit.SECONDS);
+        try (BufferedWriter manifestWriter = Files.newBufferedWriter(outputFolder.resolve("manifest.jsonl"), StandardCharsets.UTF_8);
+             BufferedWriter errorWriter = Files.newBufferedWriter(outputFolder.resolve("errors.log"), StandardCharsets.UTF_8)) {
+            manifest = manifestWriter;
+            errors = errorWriter;
+            for (Path input : inputs) {
+                if (Files.isDirectory(input)) {
+                    submitFolder(workers, input);
+                } else if (input.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".zip")) {
+                    submitZip(workers, input);
+                } else {
+                    submitFile(workers, input.toString(), "", input);
+                }
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            reporter.shutdownNow();
+        }
+        report(start);
+    }
+
+    private void submitFolder(ThreadPoolExecutor workers, Path folder) throws IOException {
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.filter(Files::isRegularFile).forEach(file ->
+                    submitFile(workers, folder.toString(), folder.relativize(file).toString().replace('\\', '/'), file));
+        }
+    }
+
+    private void submitFile(ThreadPoolExecutor workers, String source, String entry, Path file) {
+        long sequence = submitted.incrementAndGet();
+        // Directory files are read on the worker, so disk reads run in parallel too
+        workers.execute(() -> {
+            try {
+                long start = System.nanoTime();
+                byte[] bytes = Files.readAllBytes(file);
+                PipelineMetrics.Stage.FILE_READ.recordSince(start);
+                process(sequence, source, entry, bytes);
+            } catch (IOException e) {
+                recordFailure(sequence, source, entry, e);
+            }
+        });
+    }
+
+    private void submitZip(ThreadPoolExecutor workers, Path zip) throws IOException {
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                byte[] bytes = in.readAllBytes();
+                long sequence = submitted.incrementAndGet();
+                String name = entry.getName();
+                workers.execute(() -> process(sequence, zip.toString(), name, bytes));
+            }
+        }
+    }
+
+    private void process(long sequence, String source, String entry, byte[] bytes) {
+        long start = System.nanoTime();
+        try {
+            Image image = ImageFactory.getInstance().fromInputStream(new ByteArrayInputStream(bytes));
+            PipelineMetrics.Stage.DECODE.recordSince(start);
+            DetectedObjects detection = NationalIDProcessor.detectNationalID(image);
+            Image crop = NationalIDProcessor.cropToBestDetection(image, detection);
+
+            Map<String, Object> line = newLine(sequence, source, entry);
+            line.put("width", image.getWidth());
+            line.put("height", image.getHeight());
+            line.put("detections", toJson(detection));
+            if (crop == null) {
+                line.put("status", "no_detection");
+                noDetection.incrementAndGet();
+            } else {
+                Path cropPath = outputFolder.resolve("crops").resolve(cropName(sequence, entry.isEmpty() ? source : entry));
+                long saveStart = System.nanoTime();
+                try (OutputStream os = Files.newOutputStream(cropPath)) {
+                    crop.save(os, "png");
+                }
+                PipelineMetrics.Stage.SAVE.recordSince(saveStart);
+                line.put("status", "ok");
+                line.put("crop", outputFolder.relativize(cropPath).toString().replace('\\', '/'));
+                succeeded.incrementAndGet();
+            }
+            line.put("millis", (System.nanoTime() - start) / 1_000_000);
+            writeManifest(line);
+        } catch (Exception e) {
+            recordFailure(sequence, source, entry, e);
+        }
+    }
+
+    private void recordFailure(long sequence, String source, String entry, Exception e) {
+        failed.incrementAndGet();
+        PipelineMetrics.increment("failed");
+        Map<String, Object> line = newLine(sequence, source, entry);
+        line.put("status", "error");
+        line.put("error", String.valueOf(e.getMessage()));
+        StringWriter trace = new StringWriter();
+        e.printStackTrace(new PrintWriter(trace));
+        try {
+            writeManifest(line);
+            synchronized (errors) {
+                errors.write("#" + sequence + " " + source + (entry.isEmpty() ? "" : "!" + entry));
+                errors.newLine();
+                errors.write(trace.toString());
+                errors.flush();
+            }
+        } catch (IOException io) {
+            logger.error("Failed to record error for {} {}", source, entry, io);
+        }
+    }
+
+    private static Map<String, Object> newLine(long sequence, String source, String entry) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("id", sequence);
+        line.put("source", source);
+        if (!entry.isEmpty()) {
+            line.put("entry", entry);
+        }
+        return line;
+    }
+
+    private static List<Map<String, Object>> toJson(DetectedObjects detection) {
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (DetectedObjects.DetectedObject obj : detection.<DetectedObjects.DetectedObject>items()) {
+            Rectangle rect = obj.getBoundingBox().getBounds();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("class", obj.getClassName());
+            item.put("probability", obj.getProbability());
+            item.put("x", rect.getX());
+            item.put("y", rect.getY());
+            item.put("width", rect.getWidth());
+            item.put("height", rect.getHeight());
+            list.add(item);
+        }
+        return list;
+    }
+
+    private void writeManifest(Map<String, Object> line) throws IOException {
+        String json = JsonUtils.GSON_COMPACT.toJson(line);
+        synchronized (manifest) {
+            manifest.write(json);
+            manifest.newLine();
+            manifest.flush();
+        }
+    }
+
+    private static String cropName(long sequence, String name) {
+        String base = name.substring(name.lastIndexOf('/') + 1);
+        int dot = base.lastIndexOf('.');
+        if (dot > 0) {
+            base = base.substring(0, dot);
+        }
+        return String.format("%08d_%s.png", sequence, base.replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+
+    private void report(long start) {
+        long done = succeeded.get() + noDetection.get() + failed.get();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        logger.info("Processed {}/{} items ({} cropped, {} without detection, {} failed), {} items/sec",
+                done, submitted.get(), succeeded.get(), noDetection.get(), failed.get(),
+                String.format("%.1f", seconds == 0 ? 0 : done / seconds));
+    }
+}
@@ -0,0 +1,259 @@
+import ai.djl.inference.Predictor;
+import ai.djl.translate.TranslateException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects single requests from concurrent callers into batched {@link Predictor#batchPredict(List)} calls.
+ *
+ * <p>A batch is closed as soon as it holds {@code maxBatchSize} inputs or the oldest input has waited
+ * {@code maxDelayMillis}. Larger batches and longer delays trade latency for throughput. The wrapped predictor
+ * must use a translator with a STACK batchifier and is only ever touched by the scheduler thread.
+ */
+public class BatchingPredictor<I, O> implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(BatchingPredictor.class);
+
+    private final Predictor<I, O> predictor;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Request<I, O>> queue;
+    private final Thread scheduler;
+    private volatile boolean running = true;
+
+    private final AtomicLongArray batchSizeHistogram;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong dequeued = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong totalPredictNanos = new AtomicLong();
+
+    private BatchingPredictor(Builder<I, O> builder) {
+        this.predictor = builder.predictor;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(builder.maxDelayMillis);
+        this.queue = new ArrayBlockingQueue<>(builder.queueCapacity);
+        this.batchSizeHistogram = new AtomicLongArray(maxBatchSize + 1);
+        this.scheduler = new Thread(this::runLoop, "batching-predictor");
+        this.scheduler.setDaemon(true);
+        this.scheduler.start();
+    }
+
+    public static <I, O> Builder<I, O> builder(Predictor<I, O> predictor) {
+        return new Builder<>(predictor);
+    }
+
+    /**
+     * Queues an input for the next batch. When the queue is full the returned future fails immediately
+     * with a {@link RejectedExecutionException} so callers can shed load instead of blocking. An input that
+     * races {@link #close()} is either still predicted or its future fails, it is never left pending.
+     */
+    public CompletableFuture<O> submit(I input) {
+        if (!running) {
+            throw new IllegalStateException("BatchingPredictor is closed");
+        }
+        Request<I, O> request = new Request<>(input);
+        if (queue.offer(request)) {
+            // close() may have drained the queue before this offer, then nobody would take the request out
+            if (!running && queue.remove(request)) {
+                request.future.completeExceptionally(new IllegalStateException("BatchingPredictor is closed"));
+            } else {
+                submitted.incrementAndGet();
+            }
+        } else {
+            rejected.incrementAndGet();
+            request.future.completeExceptionally(new RejectedExecutionException("Batch queue is full"));
+        }
+        return request.future;
+    }
+
+    private void runLoop() {
+        List<Request<I, O>> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Request<I, O> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Keep filling until the size cap or the deadline of the oldest request
+                long deadline = first.enqueuedNanos + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        queue.drainTo(batch, maxBatchSize - batch.size());
+                        break;
+                    }
+                    Request<I, O> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                execute(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void execute(List<Request<I, O>> batch) {
+        List<I> inputs = new ArrayList<>(batch.size());
+        long now = System.nanoTime();
+        for (Request<I, O> request : batch) {
+            inputs.add(request.input);
+            totalWaitNanos.addAndGet(now - request.enqueuedNanos);
+        }
+        dequeued.addAndGet(batch.size());
+
+        batchSizeHistogram.incrementAndGet(batch.size());
+        batches.incrementAndGet();
+        try {
+            List<O> outputs = predictor.batchPredict(inputs);
+            totalPredictNanos.addAndGet(System.nanoTime() - now);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(outputs.get(i));
+            }
+        } catch (TranslateException | RuntimeException e) {
+            logger.error("Batch of {} inputs failed", batch.size(), e);
+            failed.addAndGet(batch.size());
+            for (Request<I, O> request : batch) {
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Returns how many batches ran with each size, indexed by batch size.
+     */
+    public long[] getBatchSizeHistogram() {
+        long[] histogram = new long[batchSizeHistogram.length()];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = batchSizeHistogram.get(i);
+        }
+        return histogram;
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public double getAverageBatchSize() {
+        long count = batches.get();
+        long items = 0;
+        for (int i = 1; i < batchSizeHistogram.length(); i++) {
+            items += i * batchSizeHistogram.get(i);
+        }
+        return count == 0 ? 0 : (double) items / count;
+    }
+
+    public double getAverageQueueWaitMillis() {
+        // Only the inputs whose wait ended, whether their batch is still running or not
+        long items = dequeued.get();
+        return items == 0 ? 0 : totalWaitNanos.get() / 1_000_000.0 / items;
+    }
+
+    public double getAveragePredictMillis() {
+        long count = batches.get();
+        return count == 0 ? 0 : totalPredictNanos.get() / 1_000_000.0 / count;
+    }
+
+    public void logStats() {
+        logger.info("Batches: {}, avg size: {}, avg queue wait: {} ms, avg predict: {} ms, queue depth: {}, rejected: {}, failed: {}",
+                batches.get(), String.format("%.2f", getAverageBatchSize()),
+                String.format("%.2f", getAverageQueueWaitMillis()), String.format("%.2f", getAveragePredictMillis()),
+                getQueueDepth(), rejected.get(), failed.get());
+    }
+
+    /**
+     * Stops accepting new inputs, drains what is already queued and closes the wrapped predictor.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            scheduler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Request<I, O> leftover;
+        while ((leftover = queue.poll()) != null) {
+            leftover.future.completeExceptionally(new IllegalStateException("BatchingPredictor is closed"));
+        }
+        predictor.close();
+    }
+
+    private static final class Request<I, O> {
+        final I input;
+        final long enqueuedNanos = System.nanoTime();
+        final CompletableFuture<O> future = new CompletableFuture<>();
+
+        Request(I input) {
+            this.input = input;
+        }
+    }
+
+    public static final class Builder<I, O> {
+        private final Predictor<I, O> predictor;
+        private int maxBatchSize = 8;
+        private long maxDelayMillis = 10;
+        private int queueCapacity = 256;
+
+        private Builder(Predictor<I, O> predictor) {
+            this.predictor = predictor;
+        }
+
+        public Builder<I, O> optMaxBatchSize(int maxBatchSize) {
+            if (maxBatchSize < 1) {
+                throw new IllegalArgumentException("maxBatchSize must be at least 1");
+            }
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        public Builder<I, O> optMaxDelayMillis(long maxDelayMillis) {
+            this.maxDelayMillis = Math.max(0, maxDelayMillis);
+            return this;
+        }
+
+        public Builder<I, O> optQueueCapacity(int queueCapacity) {
+            if (queueCapacity < 1) {
+                throw new IllegalArgumentException("queueCapacity must be at least 1");
+            }
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public BatchingPredictor<I, O> build() {
+            return new BatchingPredictor<>(this);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
+
+/**
+ * The interleaved 8-bit BGR pixels of a Java2D image, the layout of an OpenCV {@code CV_8UC3} Mat. Kept apart
+ * from {@link CardLocalizer} so it needs no native library.
+ */
+public class BgrImages {
+
+    private BgrImages() {
+    }
+
+    /**
+     * The image's pixels as {@code height * width * 3} bytes in BGR order. A {@code TYPE_3BYTE_BGR} image that
+     * owns its whole buffer is returned as is, anything else is drawn into a new one. That includes subimages,
+     * whose raster shares the parent's buffer: reading that buffer directly would return the parent's pixels.
+     */
+    public static byte[] bytes(BufferedImage image) {
+        if (ownsPackedBuffer(image)) {
+            return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        }
+        BufferedImage bgr = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = bgr.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return ((DataBufferByte) bgr.getRaster().getDataBuffer()).getData();
+    }
+
+    private static boolean ownsPackedBuffer(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            return false;
+        }
+        WritableRaster raster = image.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        return raster.getParent() == null
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && buffer.getOffset() == 0
+                && buffer.getSize() == image.getWidth() * image.getHeight() * 3;
+    }
+}
@@ -0,0 +1,192 @@
+import ai.djl.engine.Engine;
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Gets a worker from a cold JVM to serving. The OpenCV native library is loaded here once for every class that
+ * needs it. The startup work runs in parallel: loading the DJL engines' natives, loading and warming the
+ * detection model, the ResNet-18 classifier when the cascade uses it, and the first OpenCV calls of the
+ * localizer. The detector weights are still parsed from
+ * {@code .params}, but that now overlaps the rest.
+ *
+ * <p>Class loading is the other large share of startup. {@link StartupReport} builds an AppCDS archive from a run
+ * of {@link #main(String[])} and measures the time to the first result with and without it.
+ */
+public final class Bootstrap {
+    private static final Logger logger = LoggerFactory.getLogger(Bootstrap.class);
+
+    private static boolean nativesLoaded;
+
+    private final Map<String, Callable<?>> tasks;
+
+    private Bootstrap(Builder builder) {
+        this.tasks = builder.tasks;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Loads the OpenCV native library, once per JVM. Classes using OpenCV call this from their static
+     * initializer.
+     */
+    public static synchronized void loadNativeLibraries() {
+        if (!nativesLoaded) {
+            System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+            nativesLoaded = true;
+        }
+    }
+
+    /**
+     * The startup of the extraction pipeline: OpenCV, the engines listed in {@code -Dnationalid.engines}
+     * (MXNet by default), the warm detector, the warm cascade gate when {@code -Dnationalid.cascade=true} and
+     * the localizer.
+     */
+    public static Bootstrap forPipeline() {
+        Builder builder = builder().optTask("opencv", () -> {
+            loadNativeLibraries();
+            return null;
+        });
+        for (String engine : System.getProperty("nationalid.engines", "MXNet").split(",")) {
+            builder.optEngine(engine.trim());
+        }
+        if (Boolean.getBoolean("nationalid.cascade")) {
+            builder.optTask("classifier", () -> {
+                // The ResNet-18 gate in front of the detector, installed once it is warm
+                CascadeGate gate = NationalIDProcessor.cascadeGateFromSystemProperties();
+                try {
+                    gate.warmUp(3);
+                } catch (Exception e) {
+                    gate.close();
+                    throw e;
+                }
+                NationalIDProcessor.setCascadeGate(gate);
+                return null;
+            });
+        }
+        return builder
+                .optTask("detector", () -> {
+                    NationalIDProcessor.warmUp(3);
+                    return null;
+                })
+                .optTask("localizer", () -> {
+                    // Compiles the contour search and loads the OpenCV kernels it uses
+                    loadNativeLibraries();
+                    Mat blank = Mat.zeros(480, 640, CvType.CV_8UC3);
+                    try {
+                        CardLocalizer.builder().build().locate(blank);
+                    } finally {
+                        blank.release();
+                    }
+                    return null;
+                })
+                .build();
+    }
+
+    /**
+     * Runs every task in parallel and waits for all of them. The first failure is thrown once the others are
+     * done, so a broken engine cannot leave a half-started worker behind.
+     */
+    public Map<String, Long> run() throws Exception {
+        long start = System.nanoTime();
+        Map<String, Long> millis = new LinkedHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size(), runnable -> {
+            Thread thread = new Thread(runnable, "bootstrap");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Map<String, Future<Long>> running = new LinkedHashMap<>();
+            for (Map.Entry<String, Callable<?>> task : tasks.entrySet()) {
+                running.put(task.getKey(), executor.submit(() -> {
+                    long taskStart = System.nanoTime();
+                    task.getValue().call();
+                    return (System.nanoTime() - taskStart) / 1_000_000;
+                }));
+            }
+            Exception failure = null;
+            for (Map.Entry<String, Future<Long>> task : running.entrySet()) {
+                try {
+                    millis.put(task.getKey(), task.getValue().get());
+                } catch (ExecutionException e) {
+                    logger.error("Startup task {} failed", task.getKey(), e.getCause());
+                    if (failure == null) {
+                        failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        long total = (System.nanoTime() - start) / 1_000_000;
+        logger.info("Started in {} ms, {} ms since JVM start: {}", total, sinceJvmStart(), millis);
+        return millis;
+    }
+
+    static long sinceJvmStart() {
+        return System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+
+    /**
+     * Starts the pipeline and extracts the card of one image, then prints the time to the first result. This is
+     * the workload {@link StartupReport} measures and trains the CDS archive with.
+     *
+     * <p>Usage: {@code Bootstrap [image]}
+     */
+    public static void main(String[] args) throws Exception {
+        Path imagePath = Paths.get(args.length > 0 ? args[0] : "samples/tai-phoi-can-cuoc-cong-dan-psd.png");
+        forPipeline().run();
+        Image image = ImageFactory.getInstance().fromFile(imagePath);
+        Image card = NationalIDProcessor.extractNationalID(image);
+        System.out.println("time-to-first-result " + sinceJvmStart() + " ms, card " + (card == null ? "not found" : "found"));
+        // Engine threads would keep the JVM alive, and the CDS archive is written at exit
+        System.exit(0);
+    }
+
+    public static final class Builder {
+        private final Map<String, Callable<?>> tasks = new LinkedHashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Loads an engine's native library, for instance {@code MXNet} or {@code TensorFlow}.
+         */
+        public Builder optEngine(String engineName) {
+            tasks.put("engine-" + engineName, () -> Engine.getEngine(engineName));
+            return this;
+        }
+
+        public Builder optTask(String name, Callable<?> task) {
+            tasks.put(name, task);
+            return this;
+        }
+
+        public Bootstrap build() {
+            if (tasks.isEmpty()) {
+                throw new IllegalArgumentException("Nothing to start");
+            }
+            return new Bootstrap(this);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+import org.opencv.core.Mat;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of pre-sized, reusable pixel buffers keyed by (width, height, type), so the preprocessing hot path
+ * stops allocating a fresh decoded, resized and padded image for every request.
+ *
+ * <p>Each key keeps at most {@code maxPerKey} idle buffers; buffers handed back beyond that are disposed. Keys
+ * are looked up by a linear scan over a small array and idle buffers sit in array-backed queues, so neither
+ * {@link #acquire} nor {@link #giveBack} allocates once the pool is warm. A buffer must not be used after it
+ * was handed back.
+ *
+ * <p>At most {@code maxKeys} shapes are kept. Handing back a buffer of a new shape when the pool is full
+ * evicts the least recently used shape and disposes its idle buffers, so buffers of ever-changing shapes cannot
+ * pile up.
+ */
+public class BufferPool<T> {
+    public static final int DEFAULT_MAX_KEYS = 8;
+
+    private final Factory<T> factory;
+    private final Describer<T> describer;
+    private final Disposer<T> disposer;
+    private final int maxPerKey;
+    private final int maxKeys;
+    private volatile Slot<T>[] slots;
+    private final AtomicLong clock = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public BufferPool(Factory<T> factory, Describer<T> describer, Disposer<T> disposer, int maxPerKey) {
+        this(factory, describer, disposer, maxPerKey, DEFAULT_MAX_KEYS);
+    }
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(Factory<T> factory, Describer<T> describer, Disposer<T> disposer, int maxPerKey, int maxKeys) {
+        this.factory = factory;
+        this.describer = describer;
+        this.disposer = disposer;
+        this.maxPerKey = Math.max(1, maxPerKey);
+        this.maxKeys = Math.max(1, maxKeys);
+        this.slots = (Slot<T>[]) new Slot<?>[0];
+    }
+
+    /**
+     * A pool of OpenCV Mats, created and released through {@link PipelineMetrics} so pooled native memory stays
+     * visible in the metrics.
+     */
+    public static BufferPool<Mat> forMats(int maxPerKey) {
+        return new BufferPool<>(
+                (width, height, type) -> PipelineMetrics.trackMat(new Mat(height, width, type)),
+                new Describer<Mat>() {
+                    @Override
+                    public int width(Mat mat) {
+                        return mat.cols();
+                    }
+
+                    @Override
+                    public int height(Mat mat) {
+                        return mat.rows();
+                    }
+
+                    @Override
+                    public int type(Mat mat) {
+                        return mat.type();
+                    }
+                },
+                PipelineMetrics::releaseMat,
+                maxPerKey);
+    }
+
+    public static BufferPool<BufferedImage> forImages(int maxPerKey) {
+        return new BufferPool<>(
+                BufferedImage::new,
+                new Describer<BufferedImage>() {
+                    @Override
+                    public int width(BufferedImage image) {
+                        return image.getWidth();
+                    }
+
+                    @Override
+                    public int height(BufferedImage image) {
+                        return image.getHeight();
+                    }
+
+                    @Override
+                    public int type(BufferedImage image) {
+                        return image.getType();
+                    }
+                },
+                BufferedImage::flush,
+                maxPerKey);
+    }
+
+    /**
+     * Returns an idle buffer of the given shape, or a new one when none is idle. Its content is undefined.
+     */
+    public T acquire(int width, int height, int type) {
+        Slot<T> slot = find(width, height, type);
+        if (slot != null) {
+            slot.lastUsed = clock.incrementAndGet();
+        }
+        T buffer = slot == null ? null : slot.idle.poll();
+        if (buffer != null) {
+            hits.increment();
+            return buffer;
+        }
+        misses.increment();
+        return factory.create(width, height, type);
+    }
+
+    public void giveBack(T buffer) {
+        int width = describer.width(buffer);
+        int height = describer.height(buffer);
+        int type = describer.type(buffer);
+        Slot<T> slot = find(width, height, type);
+        if (slot == null) {
+            slot = addSlot(width, height, type);
+        }
+        slot.lastUsed = clock.incrementAndGet();
+        if (!slot.idle.offer(buffer)) {
+            disposer.dispose(buffer);
+        } else if (slot.evicted) {
+            // Evicted while this buffer went in, nobody would take it out again
+            drain(slot);
+        }
+    }
+
+    /**
+     * The number of shapes the pool currently keeps buffers for.
+     */
+    public int getKeyCount() {
+        return slots.length;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Disposes every idle buffer. Buffers still acquired are disposed when they are handed back.
+     */
+    public void clear() {
+        for (Slot<T> slot : slots) {
+            drain(slot);
+        }
+    }
+
+    private void drain(Slot<T> slot) {
+        T buffer;
+        while ((buffer = slot.idle.poll()) != null) {
+            disposer.dispose(buffer);
+        }
+    }
+
+    private Slot<T> find(int width, int height, int type) {
+        for (Slot<T> slot : slots) {
+            if (slot.width == width && slot.height == height && slot.type == type) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private synchronized Slot<T> addSlot(int width, int height, int type) {
+        Slot<T> slot = find(width, height, type);
+        if (slot == null) {
+            Slot<T>[] current = slots;
+            if (current.length >= maxKeys) {
+                int eldest = 0;
+                for (int i = 1; i < current.length; i++) {
+                    if (current[i].lastUsed < current[eldest].lastUsed) {
+                        eldest = i;
+                    }
+                }
+                Slot<T> evicted = current[eldest];
+                current = Arrays.copyOf(current, current.length);
+                current[eldest] = current[current.length - 1];
+                current = Arrays.copyOf(current, current.length - 1);
+                evicted.evicted = true;
+                drain(evicted);
+            }
+            Slot<T>[] grown = Arrays.copyOf(current, current.length + 1);
+            slot = new Slot<>(width, height, type, maxPerKey);
+            grown[grown.length - 1] = slot;
+            slots = grown;
+        }
+        return slot;
+    }
+
+    public interface Factory<T> {
+        T create(int width, int height, int type);
+    }
+
+    public interface Describer<T> {
+        int width(T buffer);
+
+        int height(T buffer);
+
+        int type(T buffer);
+    }
+
+    public interface Disposer<T> {
+        void dispose(T buffer);
+    }
+
+    private static final class Slot<T> {
+        final int width;
+        final int height;
+        final int type;
+        final ArrayBlockingQueue<T> idle;
+        volatile long lastUsed;
+        volatile boolean evicted;
+
+        Slot(int width, int height, int type, int capacity) {
+            this.width = width;
+            this.height = height;
+            this.type = type;
+            this.idle = new ArrayBlockingQueue<>(capacity);
+        }
+    }
+}
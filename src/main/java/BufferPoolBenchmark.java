@@ -0,0 +1,122 @@
+import ai.djl.ndarray.NDManager;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * Compares the allocating preprocessing calls against their pooled resize-into-destination versions. For every
+ * variant it prints the time per image, the heap bytes allocated per image and how many new native buffers
+ * the pool had to create during the measured loop, which is 0 once the pooled path is in its steady state.
+ * The decode and conversion rows are the extractor's per-request path: decoding into a reused Mat and
+ * converting to an NDArray through a pooled direct buffer.
+ *
+ * <p>Usage: {@code BufferPoolBenchmark [imageFolder] [iterations]}
+ */
+public class BufferPoolBenchmark {
+    static {
+        Bootstrap.loadNativeLibraries();  // Load OpenCV library once per JVM
+    }
+
+    private static final int WARMUP_ITERATIONS = 50;
+
+    public static void main(String[] args) throws Exception {
+        Path imageFolder = Paths.get(args.length > 0 ? args[0] : "original");
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        List<File> files = new ArrayList<>();
+        collect(imageFolder.toFile(), files);
+        if (files.isEmpty()) {
+            System.out.println("No images found in " + imageFolder);
+            return;
+        }
+        List<Mat> mats = new ArrayList<>();
+        List<BufferedImage> images = new ArrayList<>();
+        for (File file : files) {
+            mats.add(Imgcodecs.imread(file.getPath()));
+            images.add(ImageIO.read(file));
+        }
+
+        BufferPool<Mat> matPool = BufferPool.forMats(4);
+        Mat decodeBuffer = new Mat();
+        DecodeBuffers decodeBuffers = new DecodeBuffers(4);
+        run("decode new", iterations, null, i -> Imgcodecs.imread(files.get(0).getPath()).release());
+        run("decode into", iterations, null, i -> ResizeExampleByOpenCV.decodeInto(files.get(0).toPath(), decodeBuffer));
+        run("decode pooled", iterations, decodeBuffers::getCreatedCount,
+                i -> decodeBuffers.giveBack(decodeBuffers.decode(files.get(0).toPath(), Imgcodecs.IMREAD_COLOR)));
+        run("resize new", iterations, null,
+                i -> ResizeExampleByOpenCV.resize(mats.get(i % mats.size()), 256, 156, true).release());
+        run("resize pooled", iterations, matPool::getMissCount,
+                i -> matPool.giveBack(ResizeExampleByOpenCV.resize(mats.get(i % mats.size()), 256, 156, true, matPool)));
+
+        Mat input = ResizeExampleByOpenCV.resize(mats.get(0), 256, 156, true);
+        BufferPool<MatNDArrayConverter.RgbBuffer> conversionPool = MatNDArrayConverter.newBufferPool(4);
+        try (NDManager manager = NDManager.newBaseManager()) {
+            run("convert new", iterations, null, i -> MatNDArrayConverter.toNDArray(manager, input).close());
+            run("convert pooled", iterations, conversionPool::getMissCount,
+                    i -> MatNDArrayConverter.toNDArray(manager, input, conversionPool).close());
+        }
+
+        BufferPool<BufferedImage> imagePool = BufferPool.forImages(4);
+        run("preprocess new", iterations, null, i -> {
+            BufferedImage target = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+            NationalIDProcessor.preprocessInto(images.get(i % images.size()), target);
+        });
+        run("preprocess pooled", iterations, imagePool::getMissCount, i -> {
+            BufferedImage target = imagePool.acquire(640, 480, BufferedImage.TYPE_INT_RGB);
+            NationalIDProcessor.preprocessInto(images.get(i % images.size()), target);
+            imagePool.giveBack(target);
+        });
+
+        decodeBuffer.release();
+        decodeBuffers.close();
+        input.release();
+        conversionPool.clear();
+        matPool.clear();
+        mats.forEach(Mat::release);
+    }
+
+    private static void collect(File file, List<File> files) {
+        if (file.isDirectory()) {
+            for (File child : Objects.requireNonNull(file.listFiles())) {
+                collect(child, files);
+            }
+        } else {
+            files.add(file);
+        }
+    }
+
+    private static void run(String name, int iterations, LongSupplier created, Step step) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            step.apply(i);
+        }
+
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        long createdBefore = created == null ? 0 : created.getAsLong();
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            step.apply(i);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        String newBuffers = created == null ? "-" : String.valueOf(created.getAsLong() - createdBefore);
+
+        System.out.printf("%-18s %10.1f us/image %10d heap bytes/image %8s new pooled buffers%n",
+                name, elapsed / 1000.0 / iterations, allocated / iterations, newBuffers);
+    }
+
+    private interface Step {
+        void apply(int iteration) throws Exception;
+    }
+}
@@ -0,0 +1,220 @@
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Measures the {@link CardLocalizer} on the card images of a folder, by default {@code original/}.
+ *
+ * <p>Latency: locate and extract on every image as it is, single threaded, with the fraction of images the
+ * localizer is confident about (the rest would go to the detector).
+ *
+ * <p>Crop accuracy: the images carry no box annotations, so every card is first cropped by the localizer (or
+ * taken whole), then pasted with a random perspective, rotation and scale onto a cluttered background. The
+ * known corners give the IoU of the found outline, the corner error relative to the card diagonal and whether
+ * the extracted card comes out the right way up.
+ *
+ * <p>Usage: {@code CardLocalizerBenchmark [imageFolder] [iterations] [syntheticPerImage]}
+ */
+public class CardLocalizerBenchmark {
+    static {
+        Bootstrap.loadNativeLibraries();  // Load OpenCV library once per JVM
+    }
+
+    public static void main(String[] args) {
+        Path imageFolder = Paths.get(args.length > 0 ? args[0] : "original");
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int syntheticPerImage = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        List<Path> files = new ArrayList<>();
+        collect(imageFolder.toFile(), files);
+        if (files.isEmpty()) {
+            System.out.println("No images found in " + imageFolder);
+            return;
+        }
+        CardLocalizer localizer = CardLocalizer.builder().build();
+
+        LatencyHistogram latency = new LatencyHistogram();
+        long confident = 0;
+        long runs = 0;
+        List<Mat> cards = new ArrayList<>();
+        for (Path file : files) {
+            Mat image = Imgcodecs.imread(file.toString(), Imgcodecs.IMREAD_COLOR);
+            if (image.empty()) {
+                continue;
+            }
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                CardLocalizer.Quad quad = localizer.locate(image);
+                boolean found = localizer.isConfident(quad);
+                if (found) {
+                    localizer.extract(image, quad).release();
+                }
+                latency.record(System.nanoTime() - start);
+                confident += found ? 1 : 0;
+                runs++;
+            }
+            cards.add(referenceCard(localizer, image));
+            image.release();
+        }
+        System.out.printf("latency on %d images: p50 %.2f ms, p99 %.2f ms, max %.2f ms, confident on %.1f%%%n",
+                cards.size(), latency.getValueAtQuantile(0.5) / 1e6, latency.getValueAtQuantile(0.99) / 1e6,
+                latency.getMaxNanos() / 1e6, 100.0 * confident / Math.max(1, runs));
+
+        Random random = new Random(42);
+        double iouSum = 0;
+        double cornerErrorSum = 0;
+        long located = 0;
+        long upright = 0;
+        long total = 0;
+        for (Mat card : cards) {
+            for (int i = 0; i < syntheticPerImage; i++) {
+                total++;
+                Point[] truth = randomQuad(random, card, 1280, 960);
+                Mat scene = compose(random, card, truth, 1280, 960);
+                CardLocalizer.Quad quad = localizer.locate(scene);
+                if (localizer.isConfident(quad)) {
+                    located++;
+                    CardLocalizer.Quad expected = new CardLocalizer.Quad(CardLocalizer.order(truth), 1);
+                    iouSum += quad.iou(expected);
+                    cornerErrorSum += cornerError(quad, expected);
+                    Mat extracted = localizer.extract(scene, quad);
+                    upright += isUpright(extracted, card) ? 1 : 0;
+                    extracted.release();
+                }
+                scene.release();
+            }
+        }
+        System.out.printf("synthetic scenes: %d, located %.1f%%, mean IoU %.3f, mean corner error %.2f%% of the diagonal, upright %.1f%%%n",
+                total, 100.0 * located / Math.max(1, total), iouSum / Math.max(1, located),
+                100 * cornerErrorSum / Math.max(1, located), 100.0 * upright / Math.max(1, located));
+        for (Mat card : cards) {
+            card.release();
+        }
+    }
+
+    /**
+     * The card as the ground truth of the synthetic scenes: the localizer's crop when it is confident, else the
+     * whole image turned to landscape.
+     */
+    private static Mat referenceCard(CardLocalizer localizer, Mat image) {
+        CardLocalizer.Quad quad = localizer.locate(image);
+        if (localizer.isConfident(quad)) {
+            return localizer.extract(image, quad);
+        }
+        Mat card = new Mat();
+        Imgproc.resize(image, card, new Size(localizer.getOutputWidth(), localizer.getOutputHeight()));
+        return card;
+    }
+
+    /**
+     * Corners of the card in the scene, listed in the card's own top-left, top-right, bottom-right, bottom-left
+     * order, so the rotation of the list is the rotation of the card.
+     */
+    private static Point[] randomQuad(Random random, Mat card, int width, int height) {
+        double scale = (0.4 + 0.4 * random.nextDouble()) * width / card.cols();
+        double w = card.cols() * scale;
+        double h = card.rows() * scale;
+        double angle = Math.toRadians(random.nextInt(4) * 90 + (random.nextDouble() - 0.5) * 30);
+        double cx = width / 2.0 + (random.nextDouble() - 0.5) * width * 0.2;
+        double cy = height / 2.0 + (random.nextDouble() - 0.5) * height * 0.2;
+        double[][] offsets = {{-w / 2, -h / 2}, {w / 2, -h / 2}, {w / 2, h / 2}, {-w / 2, h / 2}};
+        Point[] corners = new Point[4];
+        for (int i = 0; i < 4; i++) {
+            // Perspective: every corner moves by up to 4% of the card width
+            double x = offsets[i][0] + (random.nextDouble() - 0.5) * 0.08 * w;
+            double y = offsets[i][1] + (random.nextDouble() - 0.5) * 0.08 * w;
+            corners[i] = new Point(cx + x * Math.cos(angle) - y * Math.sin(angle), cy + x * Math.sin(angle) + y * Math.cos(angle));
+        }
+        return corners;
+    }
+
+    private static Mat compose(Random random, Mat card, Point[] corners, int width, int height) {
+        // Background: smooth noise with a few random rectangles, like a desk or a table cloth
+        Mat scene = new Mat(height, width, CvType.CV_8UC3);
+        Core.randu(scene, 60, 200);
+        Imgproc.GaussianBlur(scene, scene, new Size(21, 21), 0);
+        for (int i = 0; i < 6; i++) {
+            Point a = new Point(random.nextInt(width), random.nextInt(height));
+            Point b = new Point(a.x + random.nextInt(width / 4), a.y + random.nextInt(height / 4));
+            Imgproc.rectangle(scene, a, b, new Scalar(random.nextInt(256), random.nextInt(256), random.nextInt(256)), 2);
+        }
+
+        MatOfPoint2f from = new MatOfPoint2f(new Point(0, 0), new Point(card.cols() - 1, 0),
+                new Point(card.cols() - 1, card.rows() - 1), new Point(0, card.rows() - 1));
+        MatOfPoint2f to = new MatOfPoint2f(corners);
+        Mat transform = Imgproc.getPerspectiveTransform(from, to);
+        Mat mask = new Mat(card.size(), CvType.CV_8UC1, Scalar.all(255));
+        Mat warped = new Mat();
+        Mat warpedMask = new Mat();
+        Imgproc.warpPerspective(card, warped, transform, scene.size());
+        Imgproc.warpPerspective(mask, warpedMask, transform, scene.size(), Imgproc.INTER_NEAREST);
+        warped.copyTo(scene, warpedMask);
+        from.release();
+        to.release();
+        transform.release();
+        mask.release();
+        warped.release();
+        warpedMask.release();
+        return scene;
+    }
+
+    private static double cornerError(CardLocalizer.Quad found, CardLocalizer.Quad expected) {
+        Point[] a = found.getCorners();
+        Point[] b = expected.getCorners();
+        double diagonal = Math.hypot(b[0].x - b[2].x, b[0].y - b[2].y);
+        double error = 0;
+        for (int i = 0; i < 4; i++) {
+            error += Math.hypot(a[i].x - b[i].x, a[i].y - b[i].y) / 4;
+        }
+        return error / diagonal;
+    }
+
+    /**
+     * Whether the extracted card is closer to the reference than to the reference turned upside down.
+     */
+    private static boolean isUpright(Mat extracted, Mat reference) {
+        Mat resized = new Mat();
+        Mat flipped = new Mat();
+        Mat diff = new Mat();
+        try {
+            Imgproc.resize(reference, resized, extracted.size());
+            Core.rotate(resized, flipped, Core.ROTATE_180);
+            Core.absdiff(extracted, resized, diff);
+            double straight = Core.sumElems(diff).val[0];
+            Core.absdiff(extracted, flipped, diff);
+            return straight <= Core.sumElems(diff).val[0];
+        } finally {
+            resized.release();
+            flipped.release();
+            diff.release();
+        }
+    }
+
+    private static void collect(File file, List<Path> files) {
+        if (file.isDirectory()) {
+            for (File child : Objects.requireNonNull(file.listFiles())) {
+                collect(child, files);
+            }
+        } else {
+            String name = file.getName().toLowerCase(Locale.ROOT);
+            if (name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png")) {
+                files.add(file.toPath());
+            }
+        }
+    }
+}
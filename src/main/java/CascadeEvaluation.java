@@ -0,0 +1,135 @@
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+import ai.djl.modality.cv.output.DetectedObjects;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Measures what the cascade gate saves and what it costs in recall. Every image of a folder of cards and a
+ * folder of non-card images runs through the gate and the SSD detector once, then the cascade is replayed
+ * offline for a range of reject thresholds: mean compute per image, the fraction passed to the detector and
+ * the recall on the cards (a card counts as found when the detector alone finds it and the gate passes it).
+ *
+ * <p>The non-card folder must exist and hold images, without it the speedup of the gate cannot be measured.
+ *
+ * <p>Usage: {@code CascadeEvaluation [cardFolder] [otherFolder] [modelFolder]}
+ */
+public class CascadeEvaluation {
+    private static final float[] REJECT_THRESHOLDS = {0.01f, 0.02f, 0.05f, 0.1f, 0.2f, 0.3f, 0.5f};
+
+    public static void main(String[] args) throws Exception {
+        Path cardFolder = Paths.get(args.length > 0 ? args[0] : "dataset");
+        Path otherFolder = Paths.get(args.length > 1 ? args[1] : "negatives");
+        Path modelFolder = Paths.get(args.length > 2 ? args[2] : "models/national_id_card");
+
+        if (!Files.isDirectory(otherFolder)) {
+            throw new IllegalArgumentException("Non-card folder " + otherFolder.toAbsolutePath() + " does not exist, "
+                    + "pass a folder of images without a card as the second argument");
+        }
+        List<Path> cards = new ArrayList<>();
+        collect(cardFolder.toFile(), cards);
+        List<Path> others = new ArrayList<>();
+        collect(otherFolder.toFile(), others);
+        if (cards.isEmpty()) {
+            System.out.println("No card images found in " + cardFolder);
+            return;
+        }
+        if (others.isEmpty()) {
+            throw new IllegalArgumentException("No non-card images found in " + otherFolder.toAbsolutePath());
+        }
+
+        try (CascadeGate gate = CascadeGate.builder(modelFolder).build()) {
+            if (!gate.hasNegativeClass()) {
+                System.out.println("The classifier has no background class, the gate cannot reject anything");
+            }
+            // Warm both models up, so the first images do not carry the load time
+            Image first = ImageFactory.getInstance().fromFile(cards.get(0));
+            for (int i = 0; i < 3; i++) {
+                gate.score(first);
+                NationalIDProcessor.detectNationalID(first);
+            }
+
+            List<Sample> samples = new ArrayList<>();
+            for (Path file : cards) {
+                samples.add(measure(gate, file, true));
+            }
+            for (Path file : others) {
+                samples.add(measure(gate, file, false));
+            }
+
+            double detectorMillis = 0;
+            long cardsFound = 0;
+            for (Sample sample : samples) {
+                detectorMillis += sample.detectMillis;
+                cardsFound += sample.card && sample.detected ? 1 : 0;
+            }
+            System.out.printf("%d card and %d other images%n", cards.size(), others.size());
+            System.out.printf("%-10s %12s %10s %10s %10s%n", "reject", "ms/image", "speedup", "passed", "recall");
+            System.out.printf("%-10s %12.2f %10s %9.1f%% %9.1f%%%n", "detector", detectorMillis / samples.size(), "1.00x",
+                    100.0, 100.0 * cardsFound / Math.max(1, cards.size()));
+            for (float threshold : REJECT_THRESHOLDS) {
+                double millis = 0;
+                long passed = 0;
+                long found = 0;
+                for (Sample sample : samples) {
+                    millis += sample.gateMillis;
+                    if (sample.score >= threshold) {
+                        passed++;
+                        millis += sample.detectMillis;
+                        found += sample.card && sample.detected ? 1 : 0;
+                    }
+                }
+                System.out.printf("%-10.2f %12.2f %9.2fx %9.1f%% %9.1f%%%n", threshold, millis / samples.size(),
+                        detectorMillis / millis, 100.0 * passed / samples.size(), 100.0 * found / Math.max(1, cards.size()));
+            }
+        }
+        PipelineMetrics.stop();
+    }
+
+    private static Sample measure(CascadeGate gate, Path file, boolean card) throws Exception {
+        Image image = ImageFactory.getInstance().fromFile(file);
+        long start = System.nanoTime();
+        float score = gate.score(image);
+        double gateMillis = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        DetectedObjects detection = NationalIDProcessor.detectNationalID(image);
+        double detectMillis = (System.nanoTime() - start) / 1e6;
+        return new Sample(card, score, detection.getNumberOfObjects() > 0, gateMillis, detectMillis);
+    }
+
+    private static void collect(File file, List<Path> files) {
+        if (file.isDirectory()) {
+            for (File child : Objects.requireNonNull(file.listFiles())) {
+                collect(child, files);
+            }
+        } else {
+            String name = file.getName().toLowerCase(Locale.ROOT);
+            if (name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png")) {
+                files.add(file.toPath());
+            }
+        }
+    }
+
+    private static final class Sample {
+        final boolean card;
+        final float score;
+        final boolean detected;
+        final double gateMillis;
+        final double detectMillis;
+
+        Sample(boolean card, float score, boolean detected, double gateMillis, double detectMillis) {
+            this.card = card;
+            this.score = score;
+            this.detected = detected;
+            this.gateMillis = gateMillis;
+            this.detectMillis = detectMillis;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+import ai.djl.Model;
+import ai.djl.ModelException;
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+import ai.djl.modality.cv.util.NDImageUtils;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.translate.Batchifier;
+import ai.djl.translate.TranslateException;
+import ai.djl.translate.Translator;
+import ai.djl.translate.TranslatorContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * The first stage of the detection cascade: the ResNet-18 ID card classifier scores every image and only the
+ * ambiguous and positive ones go on to the SSD detector. The score is the softmax probability of the card
+ * classes, so an image the classifier places outside of them is rejected without running the detector.
+ *
+ * <p>The card classes are the classes of the model's {@code synset.txt} except those named like a background
+ * class ({@link #NEGATIVE_CLASS_NAMES}). The gate can only reject anything once the classifier has been trained
+ * with such a class, for example a {@code dataset/background} folder of images without a card. Trained on card
+ * folders alone, every image scores close to 1 and the gate is a no-op that only adds the classifier's cost; it
+ * logs a warning when built like that.
+ *
+ * <p>Images scoring below {@code rejectBelow} are rejected, images scoring at least {@code positiveAbove}
+ * are counted as positive and everything in between as ambiguous. Keep {@code rejectBelow} low, a card the
+ * gate rejects is lost, while a junk image it passes only costs a detector run. {@code CascadeEvaluation}
+ * shows recall and compute for a range of thresholds.
+ */
+public class CascadeGate implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(CascadeGate.class);
+
+    // Class names, compared in lower case, of the dataset folders that hold images without a card
+    public static final Set<String> NEGATIVE_CLASS_NAMES = Set.of("background", "negative", "negatives", "other", "no-card");
+
+    public enum Decision {
+        REJECT,
+        AMBIGUOUS,
+        POSITIVE;
+
+        public boolean passes() {
+            return this != REJECT;
+        }
+    }
+
+    private final Model model;
+    private final PredictorPool<Image, Float> predictors;
+    private final float rejectBelow;
+    private final float positiveAbove;
+    private final boolean negativeClass;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder ambiguous = new LongAdder();
+    private final LongAdder positive = new LongAdder();
+    private final LongAdder detected = new LongAdder();
+
+    private CascadeGate(Builder builder) throws IOException, ModelException {
+        this.rejectBelow = builder.rejectBelow;
+        this.positiveAbove = builder.positiveAbove;
+        int[] cardClasses = builder.cardClasses;
+        if (cardClasses == null) {
+            List<String> classes = ModelVariant.readClasses(builder.modelFolder);
+            cardClasses = cardClasses(classes);
+            negativeClass = cardClasses.length < classes.size();
+        } else {
+            negativeClass = true;
+        }
+        if (!negativeClass) {
+            logger.warn("The classifier in {} has no background class, so every image scores as a card and the "
+                    + "cascade gate passes everything. Train it with one of {} to make the gate reject images",
+                    builder.modelFolder, NEGATIVE_CLASS_NAMES);
+        }
+        model = builder.variant.load("cascade-gate", builder.modelFolder);
+        int[] finalCardClasses = cardClasses;
+        predictors = PredictorPool.builder(() -> model.newPredictor(new CardScoreTranslator(finalCardClasses)))
+                .optSize(builder.poolSize)
+                .build();
+        PipelineMetrics.watch("cascade-gate", model::getNDManager);
+    }
+
+    public static Builder builder(Path modelFolder) {
+        return new Builder(modelFolder);
+    }
+
+    /**
+     * The indices of the classes that are not named like a background class.
+     */
+    static int[] cardClasses(List<String> classes) {
+        int[] cardClasses = IntStream.range(0, classes.size())
+                .filter(c -> !NEGATIVE_CLASS_NAMES.contains(classes.get(c).toLowerCase(Locale.ROOT)))
+                .toArray();
+        if (cardClasses.length == 0) {
+            throw new IllegalArgumentException("No card class among " + classes);
+        }
+        return cardClasses;
+    }
+
+    /**
+     * The probability that the image shows an ID card, according to the classifier.
+     */
+    public float score(Image image) throws TranslateException {
+        try {
+            return predictors.predict(image);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TranslateException("Interrupted while waiting for a gate predictor", e);
+        } catch (TimeoutException e) {
+            throw new TranslateException(e);
+        }
+    }
+
+    /**
+     * Scores a blank image a few times, so the first request does not pay for the engine's first passes. The
+     * scores are not counted.
+     */
+    public void warmUp(int iterations) throws TranslateException {
+        Image blank = ImageFactory.getInstance().fromImage(new BufferedImage(256, 256, BufferedImage.TYPE_3BYTE_BGR));
+        for (int i = 0; i < iterations; i++) {
+            score(blank);
+        }
+    }
+
+    /**
+     * Scores the image and counts the decision.
+     */
+    public Decision decide(Image image) throws TranslateException {
+        long start = System.nanoTime();
+        float score = score(image);
+        PipelineMetrics.Stage.GATE.recordSince(start);
+        Decision decision = decide(score);
+        switch (decision) {
+            case REJECT:
+                rejected.increment();
+                break;
+            case AMBIGUOUS:
+                ambiguous.increment();
+                break;
+            default:
+                positive.increment();
+        }
+        PipelineMetrics.increment("cascade_" + decision.name().toLowerCase(Locale.ROOT));
+        return decision;
+    }
+
+    public Decision decide(float score) {
+        if (score < rejectBelow) {
+            return Decision.REJECT;
+        }
+        return score >= positiveAbove ? Decision.POSITIVE : Decision.AMBIGUOUS;
+    }
+
+    /**
+     * Counts the outcome of the detector for an image the gate passed.
+     */
+    public void recordDetection(boolean found) {
+        if (found) {
+            detected.increment();
+        }
+    }
+
+    public float getRejectBelow() {
+        return rejectBelow;
+    }
+
+    public float getPositiveAbove() {
+        return positiveAbove;
+    }
+
+    /**
+     * Whether the classifier was trained with a background class. Without one the gate rejects nothing.
+     */
+    public boolean hasNegativeClass() {
+        return negativeClass;
+    }
+
+    /**
+     * The fraction of scored images passed on to the detector.
+     */
+    public double getPassThroughRate() {
+        long total = rejected.sum() + ambiguous.sum() + positive.sum();
+        return total == 0 ? 0 : (double) (ambiguous.sum() + positive.sum()) / total;
+    }
+
+    public void logSummary() {
+        long passed = ambiguous.sum() + positive.sum();
+        long total = rejected.sum() + passed;
+        if (total == 0) {
+            return;
+        }
+        logger.info("Cascade gate: {} images, {} rejected, {} ambiguous, {} positive, {}% passed to the detector",
+                total, rejected.sum(), ambiguous.sum(), positive.sum(), String.format("%.1f", 100.0 * passed / total));
+        if (passed > 0) {
+            logger.info("Cascade detector: {} of {} passed images had a detection ({}%)",
+                    detected.sum(), passed, String.format("%.1f", 100.0 * detected.sum() / passed));
+        }
+    }
+
+    @Override
+    public void close() {
+        predictors.close();
+        model.close();
+    }
+
+    public static final class Builder {
+        private final Path modelFolder;
+        private ModelVariant variant = ModelVariant.FP32;
+        private int[] cardClasses;
+        private float rejectBelow = 0.1f;
+        private float positiveAbove = 0.9f;
+        private int poolSize = Runtime.getRuntime().availableProcessors();
+
+        private Builder(Path modelFolder) {
+            this.modelFolder = modelFolder;
+        }
+
+        public Builder optVariant(ModelVariant variant) {
+            this.variant = variant;
+            return this;
+        }
+
+        /**
+         * Sets the card classes instead of reading them from the model's synset, the caller then vouches for a
+         * background class among the others.
+         */
+        public Builder optCardClasses(int... cardClasses) {
+            this.cardClasses = cardClasses.clone();
+            return this;
+        }
+
+        public Builder optRejectBelow(float rejectBelow) {
+            this.rejectBelow = rejectBelow;
+            return this;
+        }
+
+        public Builder optPositiveAbove(float positiveAbove) {
+            this.positiveAbove = positiveAbove;
+            return this;
+        }
+
+        public Builder optPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+            return this;
+        }
+
+        public CascadeGate build() throws IOException, ModelException {
+            if (rejectBelow > positiveAbove) {
+                throw new IllegalArgumentException("rejectBelow " + rejectBelow + " is above positiveAbove " + positiveAbove);
+            }
+            return new CascadeGate(this);
+        }
+    }
+
+    /**
+     * Resizes the image to the 256x256 the classifier is trained on and sums the probabilities of the card classes.
+     */
+    private static final class CardScoreTranslator implements Translator<Image, Float> {
+        private final int[] cardClasses;
+
+        CardScoreTranslator(int[] cardClasses) {
+            this.cardClasses = cardClasses;
+        }
+
+        @Override
+        public NDList processInput(TranslatorContext ctx, Image input) {
+            NDArray array = input.toNDArray(ctx.getNDManager(), Image.Flag.COLOR);
+            array = NDImageUtils.resize(array, 256, 256);
+            return new NDList(NDImageUtils.toTensor(array));
+        }
+
+        @Override
+        public Float processOutput(TranslatorContext ctx, NDList list) {
+            float[] probabilities = list.singletonOrThrow().softmax(0).toFloatArray();
+            float score = 0;
+            for (int c : cardClasses) {
+                score += probabilities[c];
+            }
+            return score;
+        }
+
+        @Override
+        public Batchifier getBatchifier() {
+            return Batchifier.STACK;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * The index of a training dataset in the {@code ImageFolder} layout, persisted as {@code manifest.tsv} in the
+ * dataset folder. Every image has an entry with its label, its dimensions, the size, modification time and
+ * CRC32 of the file it was made from, and the preprocessing that made it.
+ *
+ * <p>Updates are appended, one line per changed image, so adding a few scans writes a few lines. The last line
+ * of a path wins and {@code -} in place of the label removes it. {@link #compact()} rewrites the file with only
+ * the live entries. Reading the manifest replaces walking the tree and deriving labels from the folder names.
+ *
+ * <p>A line only counts once its newline is written. An interrupted append leaves a torn last line, which is
+ * ignored when the manifest is read and cut off before the next append, so the image is simply redone.
+ */
+public class DatasetManifest implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(DatasetManifest.class);
+
+    public static final String FILE_NAME = "manifest.tsv";
+    private static final String HEADER = "#nationalid-manifest\t1";
+    private static final String REMOVED = "-";
+    // Preprocessing of images indexed as they are, not made by the preparation pipeline
+    public static final String EXTERNAL = "external";
+
+    private final Path datasetRoot;
+    private final Map<String, Entry> entries = new TreeMap<>();
+    private int superseded;
+    private BufferedWriter writer;
+
+    private DatasetManifest(Path datasetRoot) {
+        this.datasetRoot = datasetRoot;
+    }
+
+    /**
+     * Reads the manifest of a dataset folder, empty when it has none yet.
+     */
+    public static DatasetManifest load(Path datasetRoot) throws IOException {
+        DatasetManifest manifest = new DatasetManifest(datasetRoot);
+        Path file = datasetRoot.resolve(FILE_NAME);
+        if (Files.exists(file)) {
+            String content = Files.readString(file, StandardCharsets.UTF_8);
+            List<String> lines = new ArrayList<>(List.of(content.split("\r?\n")));
+            if (!content.isEmpty() && !content.endsWith("\n")) {
+                // The torn last line of an interrupted append, even when all its fields look complete
+                lines.remove(lines.size() - 1);
+            }
+            if (lines.isEmpty() || !lines.get(0).equals(HEADER)) {
+                throw new IOException("Not a dataset manifest or a different version: " + file);
+            }
+            for (String line : lines.subList(1, lines.size())) {
+                // Keep empty fields, images at the top of the tree have an empty label
+                String[] parts = line.split("\t", -1);
+                if (parts.length == 2 && parts[1].equals(REMOVED)) {
+                    manifest.superseded += manifest.entries.remove(parts[0]) == null ? 1 : 2;
+                } else if (parts.length == 8) {
+                    Entry entry = new Entry(parts[0], parts[1], Integer.parseInt(parts[2]), Integer.parseInt(parts[3]),
+                            Long.parseLong(parts[4]), Long.parseLong(parts[5]), Long.parseLong(parts[6]), parts[7]);
+                    manifest.superseded += manifest.entries.put(entry.path, entry) == null ? 0 : 1;
+                }
+                // Anything else is not a line this class wrote, it is skipped like a torn one
+            }
+        }
+        return manifest;
+    }
+
+    public Path getDatasetRoot() {
+        return datasetRoot;
+    }
+
+    public synchronized Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * The live entries, ordered by path.
+     */
+    public synchronized List<Entry> entries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * The labels in use, sorted the way {@code ImageFolder} numbers its classes.
+     */
+    public synchronized List<String> labels() {
+        TreeSet<String> labels = new TreeSet<>();
+        for (Entry entry : entries.values()) {
+            labels.add(entry.label);
+        }
+        return new ArrayList<>(labels);
+    }
+
+    public synchronized void put(Entry entry) throws IOException {
+        append(format(entry));
+        superseded += entries.put(entry.path, entry) == null ? 0 : 1;
+    }
+
+    public synchronized void remove(String path) throws IOException {
+        if (entries.remove(path) != null) {
+            append(path + "\t" + REMOVED);
+            superseded += 2;
+        }
+    }
+
+    private static String format(Entry entry) {
+        return String.join("\t", entry.path, entry.label, String.valueOf(entry.width), String.valueOf(entry.height),
+                String.valueOf(entry.sourceSize), String.valueOf(entry.sourceModified), String.valueOf(entry.hash),
+                entry.preprocessing);
+    }
+
+    private void append(String line) throws IOException {
+        if (writer == null) {
+            Files.createDirectories(datasetRoot);
+            Path file = datasetRoot.resolve(FILE_NAME);
+            if (Files.exists(file)) {
+                // The first new entry has to start on a line of its own
+                dropTornLine(file);
+            }
+            boolean fresh = !Files.exists(file) || Files.size(file) == 0;
+            writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            if (fresh) {
+                writer.write(HEADER);
+                writer.newLine();
+            }
+        }
+        writer.write(line);
+        writer.newLine();
+        writer.flush();
+    }
+
+    /**
+     * Adds the images under the dataset folder that have no entry yet, re-reads the images replaced in place and
+     * removes the entries whose image is gone. The label is the first folder of the path. An image indexed before
+     * is only hashed again when its size or modification time changed, and only new or changed images are read
+     * for their dimensions, so an index of an unchanged folder costs one directory walk. Returns whether any
+     * image was added, changed or removed.
+     */
+    public boolean index() throws IOException {
+        List<Path> added = new ArrayList<>();
+        List<Path> touched = new ArrayList<>();
+        TreeSet<String> seen = new TreeSet<>();
+        try (Stream<Path> paths = Files.walk(datasetRoot)) {
+            for (Path image : (Iterable<Path>) paths.filter(DatasetManifest::isImage)::iterator) {
+                String path = relativeKey(datasetRoot, image);
+                seen.add(path);
+                // ImageFolder only takes images inside a label folder
+                if (path.indexOf('/') < 0) {
+                    continue;
+                }
+                Entry entry = get(path);
+                if (entry == null) {
+                    added.add(image);
+                } else if (entry.preprocessing.equals(EXTERNAL) && (entry.sourceSize != Files.size(image)
+                        || entry.sourceModified != Files.getLastModifiedTime(image).toMillis())) {
+                    // Prepared images describe their source, which DatasetPreparationPipeline keeps up to date
+                    touched.add(image);
+                }
+            }
+        }
+        int removed = 0;
+        for (Entry entry : entries()) {
+            if (!seen.contains(entry.path)) {
+                remove(entry.path);
+                removed++;
+            }
+        }
+        int changed = 0;
+        for (Path image : touched) {
+            Entry entry = get(relativeKey(datasetRoot, image));
+            long hash = crc32(image);
+            if (hash == entry.hash) {
+                // Only touched, remember the new size and time so the next index does not hash it again
+                put(new Entry(entry.path, entry.label, entry.width, entry.height, Files.size(image),
+                        Files.getLastModifiedTime(image).toMillis(), hash, EXTERNAL));
+            } else if (indexImage(image, hash)) {
+                changed++;
+            } else {
+                removed++;
+            }
+        }
+        int indexed = 0;
+        for (Path image : added) {
+            if (indexImage(image, crc32(image))) {
+                indexed++;
+            }
+        }
+        if (indexed > 0 || changed > 0 || removed > 0) {
+            logger.info("Indexed {}: {} images added, {} changed, {} removed, {} in total", datasetRoot, indexed,
+                    changed, removed, size());
+        }
+        return indexed > 0 || changed > 0 || removed > 0;
+    }
+
+    private boolean indexImage(Path image, long hash) throws IOException {
+        String path = relativeKey(datasetRoot, image);
+        int[] size = dimensions(image);
+        if (size == null) {
+            logger.warn("Skipping unreadable image {}", image);
+            // A replaced image that no longer decodes must not keep serving the old pixels
+            remove(path);
+            return false;
+        }
+        put(new Entry(path, path.substring(0, path.indexOf('/')), size[0], size[1], Files.size(image),
+                Files.getLastModifiedTime(image).toMillis(), hash, EXTERNAL));
+        return true;
+    }
+
+    /**
+     * Rewrites the file with only the live entries, through a temporary file and an atomic move. Worth it once
+     * superseded lines make up a good part of the file.
+     */
+    public synchronized void compact() throws IOException {
+        if (superseded == 0) {
+            return;
+        }
+        closeWriter();
+        Path file = datasetRoot.resolve(FILE_NAME);
+        Path temp = file.resolveSibling(FILE_NAME + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.newLine();
+            for (Entry entry : entries.values()) {
+                out.write(format(entry));
+                out.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        superseded = 0;
+    }
+
+    /**
+     * Compacts when more than half of the lines are superseded.
+     */
+    public synchronized void compactIfWasteful() throws IOException {
+        if (superseded > entries.size()) {
+            compact();
+        }
+    }
+
+    private void closeWriter() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeWriter();
+    }
+
+    /**
+     * Cuts the file back to its last newline. Ending a torn line instead could turn it into an entry with a cut
+     * off hash or preprocessing.
+     */
+    private static void dropTornLine(Path file) throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            long end = channel.size();
+            while (end > 0) {
+                long from = Math.max(0, end - buffer.capacity());
+                buffer.clear().limit((int) (end - from));
+                channel.position(from);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // Fill the window
+                }
+                for (int i = (int) (end - from) - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        if (from + i + 1 < channel.size()) {
+                            logger.warn("Dropping the torn last line of {}", file);
+                            channel.truncate(from + i + 1);
+                        }
+                        return;
+                    }
+                }
+                end = from;
+            }
+            // Not even the header line was finished
+            channel.truncate(0);
+        }
+    }
+
+    static String relativeKey(Path root, Path file) {
+        return root.relativize(file).toString().replace('\\', '/');
+    }
+
+    static boolean isImage(Path file) {
+        // Dot files are the temporaries of writes in progress
+        String name = file.getFileName().toString();
+        return !name.startsWith(".") && Files.isRegularFile(file) && name.matches("(?i).*\\.(jpe?g|png|bmp)");
+    }
+
+    static long crc32(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Width and height from the image header, without decoding the pixels, or null when no reader knows it.
+     */
+    private static int[] dimensions(Path image) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(image.toFile())) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return new int[]{reader.getWidth(0), reader.getHeight(0)};
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * One image of the dataset. {@code path} is relative to the dataset folder with {@code /} separators, the
+     * source fields describe the original it was prepared from, or the image itself for external entries.
+     */
+    public static final class Entry {
+        final String path;
+        final String label;
+        final int width;
+        final int height;
+        final long sourceSize;
+        final long sourceModified;
+        final long hash;
+        final String preprocessing;
+
+        public Entry(String path, String label, int width, int height, long sourceSize, long sourceModified, long hash,
+                     String preprocessing) {
+            this.path = path;
+            this.label = label;
+            this.width = width;
+            this.height = height;
+            this.sourceSize = sourceSize;
+            this.sourceModified = sourceModified;
+            this.hash = hash;
+            this.preprocessing = preprocessing;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public long getHash() {
+            return hash;
+        }
+
+        public String getPreprocessing() {
+            return preprocessing;
+        }
+
+        /**
+         * Identifies the content of the prepared image: a new source or new preprocessing changes it.
+         */
+        String signature() {
+            return hash + ":" + preprocessing;
+        }
+    }
+
+    /**
+     * Brings the manifest of a dataset folder up to date with the images in it.
+     *
+     * <p>Usage: {@code DatasetManifest [datasetFolder]}
+     */
+    public static void main(String[] args) throws IOException {
+        Path datasetRoot = Path.of(args.length > 0 ? args[0] : "dataset");
+        try (DatasetManifest manifest = load(datasetRoot)) {
+            manifest.index();
+            manifest.compactIfWasteful();
+            Collection<String> labels = manifest.labels();
+            System.out.println(manifest.size() + " images of " + labels.size() + " labels " + labels);
+        }
+    }
+}
@@ -0,0 +1,444 @@
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Prepares the training dataset from the original scans with one bounded queue between each stage:
+ * walk -> decode -> resize/pad -> encode/write. Every stage runs on its own threads, so decoding, resizing
+ * and disk I/O overlap instead of running one file at a time.
+ *
+ * <p>Files are written through a temporary file and an atomic move, then recorded in the
+ * {@link DatasetManifest} of the output folder with their label, dimensions, source hash and preprocessing. A
+ * later run only processes sources that are new or changed since, judged by size and modification time, or by
+ * CRC32 when only the modification time differs, and everything when the target size or padding changed.
+ * Outputs of deleted sources are removed with their entries.
+ */
+public class DatasetPreparationPipeline {
+    static {
+        Bootstrap.loadNativeLibraries();  // Load OpenCV library once per JVM
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(DatasetPreparationPipeline.class);
+    // Bump when the resize code changes what it writes, every image is then prepared again
+    private static final int PREPROCESSING_VERSION = 1;
+    private static final Job END = new Job(null, null, null, 0);
+
+    private final Path sourceRoot;
+    private final Path targetRoot;
+    private final int targetWidth;
+    private final int targetHeight;
+    private final boolean addPadding;
+    private final int decodeThreads;
+    private final int resizeThreads;
+    private final int writeThreads;
+    private final int queueCapacity;
+    private final long reportIntervalSeconds;
+
+    private final String preprocessing;
+    private final Set<String> seen = new HashSet<>();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final BufferPool<Mat> resizedBuffers;
+    private DatasetManifest manifest;
+
+    private DatasetPreparationPipeline(Builder builder) {
+        this.sourceRoot = builder.sourceRoot;
+        this.targetRoot = builder.targetRoot;
+        this.targetWidth = builder.targetWidth;
+        this.targetHeight = builder.targetHeight;
+        this.addPadding = builder.addPadding;
+        this.decodeThreads = builder.decodeThreads;
+        this.resizeThreads = builder.resizeThreads;
+        this.writeThreads = builder.writeThreads;
+        this.queueCapacity = builder.queueCapacity;
+        this.reportIntervalSeconds = builder.reportIntervalSeconds;
+        this.preprocessing = "resize-v" + PREPROCESSING_VERSION + "-" + targetWidth + "x" + targetHeight + (addPadding ? "-pad" : "");
+        // Enough idle Mats for every resized image that can be queued or in flight at once
+        this.resizedBuffers = BufferPool.forMats(queueCapacity + resizeThreads + writeThreads);
+    }
+
+    public static Builder builder(Path sourceRoot, Path targetRoot) {
+        return new Builder(sourceRoot, targetRoot);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path originalFolder = Paths.get(args.length > 0 ? args[0] : "original");
+        Path datasetFolder = Paths.get(args.length > 1 ? args[1] : "dataset");
+
+        DatasetPreparationPipeline.builder(originalFolder, datasetFolder)
+                .optTargetSize(300, 300)
+                .build()
+                .run();
+    }
+
+    public void run() throws IOException, InterruptedException {
+        if (!Files.exists(sourceRoot)) {
+            logger.warn("Source folder {} does not exist", sourceRoot);
+            return;
+        }
+        Files.createDirectories(targetRoot);
+        manifest = DatasetManifest.load(targetRoot);
+
+        BlockingQueue<Job> decodeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Job> resizeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Job> writeQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        Stage walk = new Stage("walk", 1, null, decodeQueue, null);
+        Stage decode = new Stage("decode", decodeThreads, decodeQueue, resizeQueue, this::decode);
+        Stage resize = new Stage("resize", resizeThreads, resizeQueue, writeQueue, this::resize);
+        Stage write = new Stage("write", writeThreads, writeQueue, null, this::write);
+        List<Stage> stages = List.of(walk, decode, resize, write);
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pipeline-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> report(stages), reportIntervalSeconds, reportIntervalSeconds, TimeUnit.SECONDS);
+
+        long start = System.nanoTime();
+        int removed;
+        try {
+            decode.start();
+            resize.start();
+            write.start();
+            walk(walk, decodeQueue);
+            decode.join();
+            resize.join();
+            write.join();
+            removed = removeDeleted();
+            manifest.compactIfWasteful();
+        } finally {
+            reporter.shutdownNow();
+            resizedBuffers.clear();
+            manifest.close();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        report(stages);
+        logger.info("Prepared {} images in {} s ({} images/sec), skipped {} up to date, removed {}, {} failed",
+                write.processed.get(), String.format("%.1f", seconds),
+                String.format("%.1f", write.processed.get() / seconds), skipped.get(), removed, failed.get());
+    }
+
+    private void walk(Stage stage, BlockingQueue<Job> out) throws IOException, InterruptedException {
+        try (Stream<Path> paths = Files.walk(sourceRoot)) {
+            for (Path source : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                long start = System.nanoTime();
+                Path target = targetRoot.resolve(sourceRoot.relativize(source).toString());
+                seen.add(relativeKey(source));
+                boolean upToDate = isUpToDate(source, target);
+                stage.record(start);
+                if (upToDate) {
+                    skipped.incrementAndGet();
+                } else {
+                    out.put(new Job(source, target, null, 0));
+                }
+            }
+        } finally {
+            out.put(END);
+        }
+    }
+
+    private Job decode(Job job) throws IOException {
+        // Decode large JPEGs straight at a reduced scale that still covers the target size
+        JpegHeader header = JpegHeader.read(job.source);
+        Mat image = Imgcodecs.imread(job.source.toString(), ResizeExampleByOpenCV.reducedReadFlag(header, targetWidth, targetHeight));
+        if (image.empty()) {
+            logger.error("Failed to load image: {}", job.source);
+            failed.incrementAndGet();
+            return null;
+        }
+        return new Job(job.source, job.target, image, ResizeExampleByOpenCV.sourceAspectRatio(header, image));
+    }
+
+    private Job resize(Job job) {
+        try {
+            Mat resized = ResizeExampleByOpenCV.resize(job.mat, job.aspectRatio, targetWidth, targetHeight, addPadding, resizedBuffers);
+            return new Job(job.source, job.target, resized, job.aspectRatio);
+        } finally {
+            job.mat.release();
+        }
+    }
+
+    private Job write(Job job) {
+        try {
+            Files.createDirectories(job.target.getParent());
+            // Write next to the target and move it in place, so a crash never leaves a truncated image behind
+            Path temp = job.target.resolveSibling(".tmp-" + job.target.getFileName());
+            if (!Imgcodecs.imwrite(temp.toString(), job.mat)) {
+                throw new IOException("imwrite returned false");
+            }
+            Files.move(temp, job.target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            String key = relativeKey(job.source);
+            manifest.put(new DatasetManifest.Entry(key, key.indexOf('/') < 0 ? "" : key.substring(0, key.indexOf('/')),
+                    job.mat.cols(), job.mat.rows(), Files.size(job.source), Files.getLastModifiedTime(job.source).toMillis(),
+                    DatasetManifest.crc32(job.source), preprocessing));
+            return job;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to write {}", job.target, e);
+            failed.incrementAndGet();
+            return null;
+        } finally {
+            if (addPadding) {
+                // Back to the pool for the next resize, pooled Mats are never released by the stages
+                resizedBuffers.giveBack(job.mat);
+            } else {
+                // Unpadded outputs follow the aspect ratio, they were allocated for this image and never pooled
+                job.mat.release();
+            }
+        }
+    }
+
+    private boolean isUpToDate(Path source, Path target) throws IOException {
+        DatasetManifest.Entry entry = manifest.get(relativeKey(source));
+        if (entry == null || !entry.getPreprocessing().equals(preprocessing) || !Files.exists(target)) {
+            return false;
+        }
+        if (entry.sourceSize != Files.size(source)) {
+            return false;
+        }
+        // Same size but touched since the last run, only the content hash can tell
+        return entry.sourceModified == Files.getLastModifiedTime(source).toMillis() || entry.getHash() == DatasetManifest.crc32(source);
+    }
+
+    /**
+     * Deletes the outputs whose source is gone and their manifest entries. Images indexed from the output folder
+     * itself have no source and stay.
+     */
+    private int removeDeleted() throws IOException {
+        int removed = 0;
+        for (DatasetManifest.Entry entry : manifest.entries()) {
+            if (!seen.contains(entry.getPath()) && !entry.getPreprocessing().equals(DatasetManifest.EXTERNAL)) {
+                Files.deleteIfExists(targetRoot.resolve(entry.getPath()));
+                manifest.remove(entry.getPath());
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private String relativeKey(Path source) {
+        return sourceRoot.relativize(source).toString().replace('\\', '/');
+    }
+
+    private void report(List<Stage> stages) {
+        StringBuilder sb = new StringBuilder("Pipeline throughput:");
+        for (Stage stage : stages) {
+            sb.append(String.format(" %s=%.1f img/s (%d done, queue %d)", stage.name, stage.throughput(),
+                    stage.processed.get(), stage.in == null ? 0 : stage.in.size()));
+        }
+        logger.info(sb.toString());
+    }
+
+    private static final class Job {
+        final Path source;
+        final Path target;
+        final Mat mat;
+        // Of the full-size source, the decoded Mat may be a reduced-scale decode
+        final double aspectRatio;
+
+        Job(Path source, Path target, Mat mat, double aspectRatio) {
+            this.source = source;
+            this.target = target;
+            this.mat = mat;
+            this.aspectRatio = aspectRatio;
+        }
+    }
+
+    private interface StageFunction {
+        Job apply(Job job) throws Exception;
+    }
+
+    /**
+     * A pool of workers that take jobs from one queue and hand results to the next. The last worker to see
+     * the end marker forwards it, so downstream stages drain fully before they stop.
+     */
+    private final class Stage {
+        final String name;
+        final int threads;
+        final BlockingQueue<Job> in;
+        final BlockingQueue<Job> out;
+        final StageFunction function;
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+        final AtomicInteger running;
+        final List<Thread> workers = new ArrayList<>();
+
+        Stage(String name, int threads, BlockingQueue<Job> in, BlockingQueue<Job> out, StageFunction function) {
+            this.name = name;
+            this.threads = threads;
+            this.in = in;
+            this.out = out;
+            this.function = function;
+            this.running = new AtomicInteger(threads);
+        }
+
+        void start() {
+            for (int i = 0; i < threads; i++) {
+                Thread worker = new Thread(this::work, name + "-" + i);
+                workers.add(worker);
+                worker.start();
+            }
+        }
+
+        void join() throws InterruptedException {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+
+        void record(long startNanos) {
+            busyNanos.addAndGet(System.nanoTime() - startNanos);
+            processed.incrementAndGet();
+        }
+
+        /**
+         * Images per second of busy time across all workers of the stage.
+         */
+        double throughput() {
+            long busy = busyNanos.get();
+            return busy == 0 ? 0 : processed.get() * threads / (busy / 1e9);
+        }
+
+        private void work() {
+            try {
+                while (true) {
+                    Job job = in.take();
+                    if (job == END) {
+                        // Let sibling workers see the marker too
+                        in.put(END);
+                        break;
+                    }
+                    long start = System.nanoTime();
+                    Job result = null;
+                    try {
+                        result = function.apply(job);
+                    } catch (Exception e) {
+                        // Every stage function releases or gives back the Mat of its input itself
+                        logger.error("Stage {} failed on {}", name, job.source, e);
+                        failed.incrementAndGet();
+                    }
+                    if (result != null) {
+                        record(start);
+                        if (out != null) {
+                            out.put(result);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (running.decrementAndGet() == 0) {
+                    in.clear();
+                    if (out != null) {
+                        sendEnd();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Hands the end marker downstream. It waits for room in the bounded queue, losing the marker would leave
+         * the next stage waiting forever. When interrupted, the run is being aborted: queued jobs are dropped to
+         * make room instead.
+         */
+        private void sendEnd() {
+            try {
+                out.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                while (!out.offer(END)) {
+                    Job dropped = out.poll();
+                    if (dropped != null) {
+                        failed.incrementAndGet();
+                        if (dropped.mat != null) {
+                            // Never reaches a stage that would hand it back to the pool
+                            dropped.mat.release();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public static final class Builder {
+        private final Path sourceRoot;
+        private final Path targetRoot;
+        private int targetWidth = 300;
+        private int targetHeight = 300;
+        private boolean addPadding = true;
+        private int decodeThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        private int resizeThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        private int writeThreads = 2;
+        private int queueCapacity = 64;
+        private long reportIntervalSeconds = 5;
+
+        private Builder(Path sourceRoot, Path targetRoot) {
+            this.sourceRoot = sourceRoot;
+            this.targetRoot = targetRoot;
+        }
+
+        public Builder optTargetSize(int targetWidth, int targetHeight) {
+            this.targetWidth = targetWidth;
+            this.targetHeight = targetHeight;
+            return this;
+        }
+
+        public Builder optAddPadding(boolean addPadding) {
+            this.addPadding = addPadding;
+            return this;
+        }
+
+        public Builder optDecodeThreads(int decodeThreads) {
+            this.decodeThreads = Math.max(1, decodeThreads);
+            return this;
+        }
+
+        public Builder optResizeThreads(int resizeThreads) {
+            this.resizeThreads = Math.max(1, resizeThreads);
+            return this;
+        }
+
+        public Builder optWriteThreads(int writeThreads) {
+            this.writeThreads = Math.max(1, writeThreads);
+            return this;
+        }
+
+        /**
+         * Bounds every inter-stage queue, which also bounds how many decoded images are held in memory.
+         */
+        public Builder optQueueCapacity(int queueCapacity) {
+            this.queueCapacity = Math.max(1, queueCapacity);
+            return this;
+        }
+
+        public Builder optReportIntervalSeconds(long reportIntervalSeconds) {
+            this.reportIntervalSeconds = Math.max(1, reportIntervalSeconds);
+            return this;
+        }
+
+        public DatasetPreparationPipeline build() {
+            return new DatasetPreparationPipeline(this);
+        }
+    }
+}
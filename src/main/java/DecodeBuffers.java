@@ -0,0 +1,73 @@
+import org.opencv.core.Mat;
+
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reusable destinations for {@link ResizeExampleByOpenCV#decodeInto}. Decoded images have the size of their
+ * source, so unlike a {@link BufferPool} the idle Mats are not keyed by shape: any idle Mat is taken and OpenCV
+ * keeps its pixel buffer when the next image decodes to the same size, which it does in steady state. At most
+ * {@code capacity} idle Mats are kept, extra ones handed back are released.
+ */
+public class DecodeBuffers implements AutoCloseable {
+    private final ArrayBlockingQueue<Mat> idle;
+    private final LongAdder created = new LongAdder();
+    private volatile boolean closed;
+
+    public DecodeBuffers(int capacity) {
+        idle = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    /**
+     * Decodes the file into an idle Mat, tracked in {@link PipelineMetrics} with its decoded size. The Mat is
+     * empty when the file cannot be decoded, it goes back through {@link #giveBack} either way.
+     */
+    public Mat decode(Path imagePath, int flags) {
+        Mat mat = idle.poll();
+        if (mat == null) {
+            mat = new Mat();
+            created.increment();
+        } else {
+            PipelineMetrics.untrackMat(mat);
+        }
+        try {
+            ResizeExampleByOpenCV.decodeInto(imagePath, mat, flags);
+        } finally {
+            PipelineMetrics.trackMat(mat);
+        }
+        return mat;
+    }
+
+    public void giveBack(Mat mat) {
+        if (closed || !idle.offer(mat)) {
+            PipelineMetrics.releaseMat(mat);
+        } else if (closed) {
+            // Closed while this Mat went in, nobody would take it out again
+            drain();
+        }
+    }
+
+    /**
+     * The number of Mats created because none was idle.
+     */
+    public long getCreatedCount() {
+        return created.sum();
+    }
+
+    /**
+     * Releases every idle Mat. Mats still in use are released when they are handed back.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        drain();
+    }
+
+    private void drain() {
+        Mat mat;
+        while ((mat = idle.poll()) != null) {
+            PipelineMetrics.releaseMat(mat);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+import ai.djl.modality.cv.output.BoundingBox;
+import ai.djl.modality.cv.output.DetectedObjects;
+import ai.djl.modality.cv.output.Rectangle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores detection results in the disk tier of a {@link ResultCache} as class name, probability and box.
+ */
+public class DetectedObjectsCodec implements ResultCache.Codec<DetectedObjects> {
+
+    @Override
+    public byte[] encode(DetectedObjects value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            List<DetectedObjects.DetectedObject> items = value.items();
+            out.writeInt(items.size());
+            for (DetectedObjects.DetectedObject obj : items) {
+                Rectangle rect = obj.getBoundingBox().getBounds();
+                out.writeUTF(obj.getClassName());
+                out.writeDouble(obj.getProbability());
+                out.writeDouble(rect.getX());
+                out.writeDouble(rect.getY());
+                out.writeDouble(rect.getWidth());
+                out.writeDouble(rect.getHeight());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public DetectedObjects decode(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            int count = in.readInt();
+            List<String> classNames = new ArrayList<>(count);
+            List<Double> probabilities = new ArrayList<>(count);
+            List<BoundingBox> boxes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                classNames.add(in.readUTF());
+                probabilities.add(in.readDouble());
+                boxes.add(new Rectangle(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble()));
+            }
+            return new DetectedObjects(classNames, probabilities, boxes);
+        }
+    }
+}
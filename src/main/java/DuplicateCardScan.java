@@ -0,0 +1,88 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Indexes the embeddings of a folder of card images in a {@link VectorIndex} and reports every image whose
+ * nearest earlier submission is more similar than the threshold, candidates for a reused or edited card. An
+ * existing index is opened and extended, so later runs compare new submissions against all earlier ones; images
+ * already in the index are skipped.
+ *
+ * <p>The vectors are {@link NationalIDCardExtractor#extractEmbedding(String) embeddings}, the pooled channels
+ * before the classifier head. The class logits would put every card of the same class next to each other.
+ *
+ * <p>Usage: {@code DuplicateCardScan [imageFolder] [indexFolder] [threshold] [lists]}
+ */
+public class DuplicateCardScan {
+
+    public static void main(String[] args) throws Exception {
+        Path imageFolder = Paths.get(args.length > 0 ? args[0] : "original");
+        Path indexFolder = Paths.get(args.length > 1 ? args[1] : "indexes/cards");
+        float threshold = args.length > 2 ? Float.parseFloat(args[2]) : 0.95f;
+        int lists = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+
+        // Ids of an earlier run only carry an index position, so the paths are kept next to the index
+        Path names = indexFolder.resolve("names.txt");
+        boolean exists = Files.exists(indexFolder.resolve("centroids.f32"));
+        List<String> indexed = exists ? new ArrayList<>(Files.readAllLines(names)) : new ArrayList<>();
+        Set<String> seen = new HashSet<>(indexed);
+
+        List<File> files = new ArrayList<>();
+        collect(imageFolder.toFile(), files);
+        files.removeIf(file -> seen.contains(file.getPath()));
+        if (files.isEmpty()) {
+            System.out.printf("No new images, %d cards indexed%n", indexed.size());
+            return;
+        }
+
+        try (NationalIDCardExtractor extractor = new NationalIDCardExtractor("resnet", Paths.get("models/national_id_card"),
+                Runtime.getRuntime().availableProcessors(), ModelVariant.FP32)) {
+            List<float[]> features = new ArrayList<>();
+            for (File file : files) {
+                features.add(extractor.extractEmbedding(file.getPath()));
+            }
+
+            try (VectorIndex index = exists
+                    ? VectorIndex.open(indexFolder)
+                    : VectorIndex.create(indexFolder, Math.min(lists, features.size()), features, 42)) {
+                if (index.getDimension() != features.get(0).length) {
+                    throw new IllegalStateException("The index in " + indexFolder + " holds " + index.getDimension()
+                            + "-dimensional vectors, not embeddings, delete it to rebuild it");
+                }
+                int flagged = 0;
+                for (int i = 0; i < files.size(); i++) {
+                    VectorIndex.Neighbor[] nearest = index.search(features.get(i), 1, 4);
+                    if (nearest.length > 0 && nearest[0].getSimilarity() >= threshold) {
+                        flagged++;
+                        System.out.printf("%.4f  %s  resembles  %s%n", nearest[0].getSimilarity(),
+                                files.get(i).getPath(), indexed.get(nearest[0].getId()));
+                    }
+                    index.add(features.get(i));
+                    indexed.add(files.get(i).getPath());
+                }
+                index.flush();
+                Files.write(names, indexed);
+                System.out.printf("%d of %d images flagged, %d cards indexed%n", flagged, files.size(), index.size());
+            }
+        }
+    }
+
+    private static void collect(File folder, List<File> files) {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collect(child, files);
+            } else if (child.getName().matches("(?i).*\\.(jpe?g|png)")) {
+                files.add(child);
+            }
+        }
+    }
+}
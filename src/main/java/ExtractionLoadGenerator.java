@@ -0,0 +1,124 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for {@link ExtractionServer}. Requests are sent at a fixed rate whatever the
+ * response times are, so queueing at the server shows up in the latency instead of slowing the generator
+ * down. The rate steps up until the server stops keeping up. Each step reports p50/p99 latency of the
+ * successful requests and the counts of 429, 503 and failures. The highest step with at least 99% successes
+ * and p99 within the latency target is reported as the maximum sustainable rate.
+ *
+ * <p>Usage: {@code ExtractionLoadGenerator [url] [imageFile] [secondsPerStep] [startRps] [maxRps] [stepRps] [p99TargetMillis]}
+ */
+public class ExtractionLoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        URI url = URI.create(args.length > 0 ? args[0] : "http://localhost:8080/extract");
+        Path imageFile = Paths.get(args.length > 1 ? args[1] : "samples/tai-phoi-can-cuoc-cong-dan-psd.png");
+        int secondsPerStep = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int startRps = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        int maxRps = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+        int stepRps = args.length > 5 ? Integer.parseInt(args[5]) : 2;
+        double p99TargetMillis = args.length > 6 ? Double.parseDouble(args[6]) : 1000;
+
+        byte[] image = Files.readAllBytes(imageFile);
+        String contentType = imageFile.toString().toLowerCase(Locale.ROOT).endsWith(".png") ? "image/png" : "image/jpeg";
+        HttpClient client = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        // Warm up the connection pool and the server
+        for (int i = 0; i < 5; i++) {
+            client.send(request(url, image, contentType), HttpResponse.BodyHandlers.discarding());
+        }
+
+        System.out.printf("%8s %8s %10s %10s %8s %8s %8s %8s%n", "rps", "sent", "p50 ms", "p99 ms", "ok", "429", "503", "errors");
+        int sustainable = 0;
+        for (int rps = startRps; rps <= maxRps; rps += stepRps) {
+            Step step = run(client, url, image, contentType, rps, secondsPerStep);
+            step.print(rps);
+            double successRate = (double) step.ok.get() / Math.max(1, step.sent);
+            if (successRate >= 0.99 && step.latency.getValueAtQuantile(0.99) / 1e6 <= p99TargetMillis) {
+                sustainable = rps;
+            } else if (successRate < 0.5) {
+                // Far beyond capacity, higher rates only add noise
+                break;
+            }
+        }
+        System.out.printf("max sustainable rate: %d requests/sec (>= 99%% ok, p99 <= %.0f ms)%n", sustainable, p99TargetMillis);
+    }
+
+    private static Step run(HttpClient client, URI url, byte[] image, String contentType, int rps, int seconds) {
+        Step step = new Step();
+        ConcurrentLinkedQueue<CompletableFuture<?>> inFlight = new ConcurrentLinkedQueue<>();
+        long interval = TimeUnit.SECONDS.toNanos(1) / rps;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long next = start;
+        while (next < end) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            // Latency counts from the scheduled send time, so a late generator cannot hide queueing
+            long scheduled = next;
+            step.sent++;
+            inFlight.add(client.sendAsync(request(url, image, contentType), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        if (error != null) {
+                            step.errors.incrementAndGet();
+                        } else if (response.statusCode() == 200 || response.statusCode() == 204) {
+                            step.ok.incrementAndGet();
+                            step.latency.record(System.nanoTime() - scheduled);
+                        } else if (response.statusCode() == 429) {
+                            step.tooMany.incrementAndGet();
+                        } else if (response.statusCode() == 503) {
+                            step.unavailable.incrementAndGet();
+                        } else {
+                            step.errors.incrementAndGet();
+                        }
+                    }));
+            next += interval;
+        }
+        CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0])).exceptionally(e -> null).join();
+        return step;
+    }
+
+    private static HttpRequest request(URI url, byte[] image, String contentType) {
+        return HttpRequest.newBuilder(url)
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", contentType)
+                .header("Accept", "image/jpeg")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(image))
+                .build();
+    }
+
+    private static final class Step {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong ok = new AtomicLong();
+        final AtomicLong tooMany = new AtomicLong();
+        final AtomicLong unavailable = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        long sent;
+
+        void print(int rps) {
+            System.out.printf("%8d %8d %10.1f %10.1f %8d %8d %8d %8d%n", rps, sent,
+                    latency.getValueAtQuantile(0.5) / 1e6, latency.getValueAtQuantile(0.99) / 1e6,
+                    ok.get(), tooMany.get(), unavailable.get(), errors.get());
+        }
+    }
+}
@@ -0,0 +1,354 @@
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP front end of the extraction pipeline, on the HTTP server built into the JDK.
+ *
+ * <p>{@code POST /extract} takes an image as the raw request body or as the file part of a
+ * {@code multipart/form-data} body. The body is decoded straight from the socket, without a temporary file.
+ * The card is extracted with the shared, warm models of {@link NationalIDProcessor}. The response is JSON with
+ * the metadata and the crop as base64 JPEG, or only the JPEG when the request accepts {@code image/jpeg}.
+ * {@code POST /extract?all=true} is for scans holding several cards: the JSON lists one crop per detection.
+ * {@code GET /health} answers 200 once the models are loaded.
+ *
+ * <p>Admission control: every connection is served on a virtual thread, but only {@code workers} requests run
+ * the pipeline at a time. Up to {@code queueCapacity} more wait for a worker. Beyond that a request is turned
+ * away with 429 before its body is read. A request that waits longer than {@code queueTimeoutMillis} gets 503,
+ * because the workers are not keeping up. Both carry {@code Retry-After}. A slot is held while the body is
+ * decoded, so very slow uploads occupy a worker. Limit them with {@code -Dsun.net.httpserver.maxReqTime}.
+ */
+public class ExtractionServer implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ExtractionServer.class);
+
+    private final int port;
+    private final int queueCapacity;
+    private final long queueTimeoutMillis;
+    private final Semaphore workers;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private HttpServer server;
+    private volatile boolean ready;
+
+    private ExtractionServer(Builder builder) {
+        this.port = builder.port;
+        this.queueCapacity = builder.queueCapacity;
+        this.queueTimeoutMillis = builder.queueTimeoutMillis;
+        this.workers = new Semaphore(builder.workers);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Binds the port and starts serving. Requests are answered with 503 until {@link #setReady()} is called.
+     */
+    public ExtractionServer start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 128);
+        server.createContext("/extract", this::handleExtract);
+        server.createContext("/health", this::handleHealth);
+        server.setExecutor(executor);
+        server.start();
+        logger.info("Extraction service listening on http://localhost:{}/extract", getPort());
+        return this;
+    }
+
+    public void setReady() {
+        ready = true;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        try {
+            send(exchange, ready ? 200 : 503, "text/plain; charset=utf-8", (ready ? "ok" : "loading").getBytes(StandardCharsets.UTF_8));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleExtract(HttpExchange exchange) throws IOException {
+        long arrival = System.nanoTime();
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (!ready) {
+                reject(exchange, 503, "The models are loading");
+                return;
+            }
+            if (waiting.incrementAndGet() > queueCapacity) {
+                waiting.decrementAndGet();
+                reject(exchange, 429, "Too many requests queued");
+                return;
+            }
+            boolean admitted;
+            try {
+                admitted = workers.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                admitted = false;
+            } finally {
+                waiting.decrementAndGet();
+            }
+            if (!admitted) {
+                reject(exchange, 503, "No worker became free in time");
+                return;
+            }
+            try {
+                extract(exchange, arrival);
+            } finally {
+                workers.release();
+            }
+        } catch (Exception e) {
+            logger.error("Extraction failed", e);
+            PipelineMetrics.increment("http_500");
+            try {
+                sendJson(exchange, 500, "{\"error\":" + quote(String.valueOf(e.getMessage())) + "}");
+            } catch (IOException | IllegalStateException ignored) {
+                // The response had already started, the client sees a cut connection
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void extract(HttpExchange exchange, long arrival) throws Exception {
+        long start = System.nanoTime();
+        double queueMillis = (start - arrival) / 1e6;
+        InputStream body = exchange.getRequestBody();
+        String boundary = MultipartBodyStream.boundary(exchange.getRequestHeaders().getFirst("Content-Type"));
+        BufferedImage decoded;
+        try {
+            InputStream imageStream = boundary == null
+                    ? new BufferedInputStream(body, 64 * 1024)
+                    : MultipartBodyStream.firstFilePart(new BufferedInputStream(body, 64 * 1024), boundary);
+            if (imageStream == null) {
+                PipelineMetrics.increment("http_400");
+                sendJson(exchange, 400, "{\"error\":\"No file part in the multipart body\"}");
+                return;
+            }
+            decoded = ImageIO.read(imageStream);
+        } catch (IOException e) {
+            if (!MultipartBodyStream.isMalformedBody(e)) {
+                throw e;
+            }
+            PipelineMetrics.increment("http_400");
+            sendJson(exchange, 400, "{\"error\":" + quote(e.getMessage()) + "}");
+            return;
+        }
+        PipelineMetrics.Stage.DECODE.recordSince(start);
+        if (decoded == null) {
+            PipelineMetrics.increment("http_415");
+            sendJson(exchange, 415, "{\"error\":\"The body is not a readable image\"}");
+            return;
+        }
+
+        if (extractsAll(exchange.getRequestURI().getQuery())) {
+            extractAll(exchange, decoded, arrival, queueMillis, start);
+            return;
+        }
+
+        long extractStart = System.nanoTime();
+        Image card = NationalIDProcessor.extractNationalID(ImageFactory.getInstance().fromImage(decoded));
+        double extractMillis = (System.nanoTime() - extractStart) / 1e6;
+        double decodeMillis = (extractStart - start) / 1e6;
+
+        byte[] jpeg = null;
+        if (card != null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+            card.save(out, "jpg");
+            jpeg = out.toByteArray();
+        }
+        double totalMillis = (System.nanoTime() - arrival) / 1e6;
+        PipelineMetrics.increment("http_200");
+
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        if (accept != null && accept.toLowerCase(Locale.ROOT).contains("image/jpeg")) {
+            exchange.getResponseHeaders().set("X-Total-Millis", String.format(Locale.ROOT, "%.1f", totalMillis));
+            if (jpeg == null) {
+                exchange.sendResponseHeaders(204, -1);
+            } else {
+                exchange.getResponseHeaders().set("X-Card-Size", card.getWidth() + "x" + card.getHeight());
+                send(exchange, 200, "image/jpeg", jpeg);
+            }
+            return;
+        }
+
+        StringBuilder json = new StringBuilder(jpeg == null ? 256 : 256 + jpeg.length * 4 / 3);
+        json.append("{\"found\":").append(card != null)
+                .append(",\"image\":{\"width\":").append(decoded.getWidth()).append(",\"height\":").append(decoded.getHeight()).append('}');
+        if (card != null) {
+            json.append(",\"card\":{\"width\":").append(card.getWidth()).append(",\"height\":").append(card.getHeight())
+                    .append(",\"format\":\"jpeg\",\"data\":\"").append(Base64.getEncoder().encodeToString(jpeg)).append("\"}");
+        }
+        json.append(String.format(Locale.ROOT, ",\"timings\":{\"queue_ms\":%.1f,\"decode_ms\":%.1f,\"extract_ms\":%.1f,\"total_ms\":%.1f}}",
+                queueMillis, decodeMillis, extractMillis, totalMillis));
+        sendJson(exchange, 200, json.toString());
+    }
+
+    /**
+     * Answers with every card of a multi-card scan, each cropped and turned upright, as a JSON list.
+     */
+    private void extractAll(HttpExchange exchange, BufferedImage decoded, long arrival, double queueMillis, long start)
+            throws Exception {
+        long extractStart = System.nanoTime();
+        List<Image> cards = NationalIDProcessor.extractAllNationalIDs(ImageFactory.getInstance().fromImage(decoded));
+        double extractMillis = (System.nanoTime() - extractStart) / 1e6;
+        double decodeMillis = (extractStart - start) / 1e6;
+
+        StringBuilder json = new StringBuilder(256 + cards.size() * 64 * 1024);
+        json.append("{\"found\":").append(cards.size())
+                .append(",\"image\":{\"width\":").append(decoded.getWidth()).append(",\"height\":").append(decoded.getHeight()).append('}')
+                .append(",\"cards\":[");
+        for (int i = 0; i < cards.size(); i++) {
+            Image card = cards.get(i);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+            card.save(out, "jpg");
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"width\":").append(card.getWidth()).append(",\"height\":").append(card.getHeight())
+                    .append(",\"format\":\"jpeg\",\"data\":\"").append(Base64.getEncoder().encodeToString(out.toByteArray())).append("\"}");
+        }
+        double totalMillis = (System.nanoTime() - arrival) / 1e6;
+        json.append(String.format(Locale.ROOT, "],\"timings\":{\"queue_ms\":%.1f,\"decode_ms\":%.1f,\"extract_ms\":%.1f,\"total_ms\":%.1f}}",
+                queueMillis, decodeMillis, extractMillis, totalMillis));
+        PipelineMetrics.increment("http_200");
+        sendJson(exchange, 200, json.toString());
+    }
+
+    private static boolean extractsAll(String query) {
+        if (query == null) {
+            return false;
+        }
+        for (String parameter : query.split("&")) {
+            if (parameter.equalsIgnoreCase("all") || parameter.equalsIgnoreCase("all=true")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void reject(HttpExchange exchange, int status, String reason) throws IOException {
+        PipelineMetrics.increment("http_" + status);
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        sendJson(exchange, status, "{\"error\":" + quote(reason) + "}");
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        send(exchange, status, "application/json; charset=utf-8", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    @Override
+    public void close() {
+        ready = false;
+        if (server != null) {
+            // Give requests in flight a moment to finish
+            server.stop(2);
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Usage: {@code ExtractionServer [port] [workers] [queueCapacity] [queueTimeoutMillis]}
+     */
+    public static void main(String[] args) throws Exception {
+        ExtractionServer server = ExtractionServer.builder()
+                .optPort(args.length > 0 ? Integer.parseInt(args[0]) : 8080)
+                .optWorkers(args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors())
+                .optQueueCapacity(args.length > 2 ? Integer.parseInt(args[2]) : 64)
+                .optQueueTimeoutMillis(args.length > 3 ? Long.parseLong(args[3]) : 2000)
+                .build()
+                .start();
+        PipelineMetrics.startFromSystemProperties();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            PipelineMetrics.logSummary();
+            PipelineMetrics.stop();
+        }));
+
+        // Load the natives and the shared models in parallel before taking traffic, /health reports 503 until then
+        Bootstrap.forPipeline().run();
+        server.setReady();
+        logger.info("Models loaded, accepting requests");
+    }
+
+    public static final class Builder {
+        private int port = 8080;
+        private int workers = Runtime.getRuntime().availableProcessors();
+        private int queueCapacity = 64;
+        private long queueTimeoutMillis = 2000;
+
+        private Builder() {
+        }
+
+        public Builder optPort(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * How many requests run the pipeline at the same time, by default one per core.
+         */
+        public Builder optWorkers(int workers) {
+            this.workers = workers;
+            return this;
+        }
+
+        /**
+         * How many requests may wait for a worker before new ones get 429.
+         */
+        public Builder optQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * How long a request waits for a worker before it gets 503.
+         */
+        public Builder optQueueTimeoutMillis(long queueTimeoutMillis) {
+            this.queueTimeoutMillis = queueTimeoutMillis;
+            return this;
+        }
+
+        public ExtractionServer build() {
+            return new ExtractionServer(this);
+        }
+    }
+}
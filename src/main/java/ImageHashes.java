@@ -0,0 +1,99 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+public class ImageHashes {
+
+    private ImageHashes() {
+    }
+
+    /**
+     * A 96-bit key built from CRC32C, CRC32 and the length of the raw bytes. Both checksums are hardware
+     * accelerated, so hashing a multi-megabyte scan takes tens of microseconds. It detects resubmissions reliably
+     * but is not collision resistant against someone crafting collisions on purpose, use {@link #strongHash} for that.
+     */
+    public static String contentHash(byte[] bytes) {
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(bytes, 0, bytes.length);
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length);
+        return String.format("%08x%08x%08x", crc32c.getValue(), crc32.getValue(), bytes.length);
+    }
+
+    /**
+     * SHA-256 of the raw bytes as hex.
+     */
+    public static String strongHash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 64-bit difference hash: the image is shrunk to 9x8 grey pixels and each bit says whether a pixel is brighter
+     * than its right neighbour. Re-encoded, rescaled or slightly recoloured copies of a scan land within a few bits.
+     */
+    public static long dHash(BufferedImage image) {
+        BufferedImage small = new BufferedImage(9, 8, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = small.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, 9, 8, null);
+        g.dispose();
+
+        long hash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                int left = small.getRaster().getSample(x, y, 0);
+                int right = small.getRaster().getSample(x + 1, y, 0);
+                hash = (hash << 1) | (left > right ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * The same difference hash for a decoded BGR Mat.
+     */
+    public static long dHash(Mat image) {
+        Mat gray = new Mat();
+        Mat small = new Mat();
+        try {
+            Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
+            Imgproc.resize(gray, small, new Size(9, 8), 0, 0, Imgproc.INTER_AREA);
+            byte[] pixels = new byte[9 * 8];
+            small.get(0, 0, pixels);
+
+            long hash = 0;
+            for (int y = 0; y < 8; y++) {
+                for (int x = 0; x < 8; x++) {
+                    int left = pixels[y * 9 + x] & 0xff;
+                    int right = pixels[y * 9 + x + 1] & 0xff;
+                    hash = (hash << 1) | (left > right ? 1 : 0);
+                }
+            }
+            return hash;
+        } finally {
+            gray.release();
+            small.release();
+        }
+    }
+
+    public static int hammingDistance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
@@ -0,0 +1,49 @@
+import ai.djl.modality.cv.Image;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.translate.Batchifier;
+import ai.djl.translate.Translator;
+import ai.djl.translate.TranslatorContext;
+
+/**
+ * Returns the model output copied into a Java array, so nothing of the predictor's per-call NDManager outlives
+ * the prediction.
+ */
+public class ImageTranslator implements Translator<Image, float[]> {
+    @Override
+    public NDList processInput(TranslatorContext ctx, Image input) throws Exception {
+        long start = System.nanoTime();
+        // Convert image to NDArray directly
+        NDList list = normalize(input.toNDArray(ctx.getNDManager()));
+        PipelineMetrics.Stage.PROCESS_INPUT.recordSince(start);
+        PipelineMetrics.markForwardStart();
+        return list;
+    }
+
+    static NDList normalize(NDArray ndArray) {
+//        // Resize the NDArray to 256x256 (adjust to three channels)
+//        ndArray = ndArray.getNDArrayInternal().resize(256, 256, 1);
+
+        // Normalize the NDArray with mean and standard deviation
+        ndArray = ndArray.sub(0.5f).div(0.5f); // Alternatively, you can customize for your use case
+
+        // The batch dimension is added by the STACK batchifier, so single and batched predictions share this path
+        return new NDList(ndArray);
+    }
+
+    @Override
+    public float[] processOutput(TranslatorContext ctx, NDList list) throws Exception {
+        PipelineMetrics.markForwardEnd();
+        long start = System.nanoTime();
+        float[] result = list.singletonOrThrow().toFloatArray(); // Copy the first item in the NDList out of native memory
+        PipelineMetrics.Stage.PROCESS_OUTPUT.recordSince(start);
+        return result;
+    }
+
+    @Override
+    public Batchifier getBatchifier() {
+        // Stack N [H, W, C] inputs into one [N, H, W, C] array so batchPredict runs a single forward pass
+        return Batchifier.STACK;
+    }
+
+}
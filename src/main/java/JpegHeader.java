@@ -0,0 +1,123 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads the pixel size of a JPEG from its frame header without decoding any image data. Only the marker segments
+ * up to the first start-of-frame are read, usually well under 100 KB even with a large EXIF block.
+ */
+public class JpegHeader {
+    private final int width;
+    private final int height;
+
+    private JpegHeader(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * The largest libjpeg DCT scale factor, 8, 4 or 2, at which this image still covers its letterboxed fit of
+     * the target size, or 1 when none does. The EXIF orientation may swap width and height after the header was
+     * read, so the reduced image has to cover the target either way round.
+     */
+    public int reducedScale(int targetWidth, int targetHeight) {
+        for (int factor = 8; factor > 1; factor /= 2) {
+            if (covers(width, height, factor, targetWidth, targetHeight) && covers(height, width, factor, targetWidth, targetHeight)) {
+                return factor;
+            }
+        }
+        return 1;
+    }
+
+    private static boolean covers(int width, int height, int factor, int targetWidth, int targetHeight) {
+        double aspectRatio = (double) width / height;
+        // libjpeg rounds scaled dimensions up
+        return (width + factor - 1) / factor >= LetterboxTransform.fitWidth(aspectRatio, targetWidth, targetHeight)
+                && (height + factor - 1) / factor >= LetterboxTransform.fitHeight(aspectRatio, targetWidth, targetHeight);
+    }
+
+    /**
+     * Reads the header of a JPEG file, or returns null when it is not one.
+     */
+    public static JpegHeader read(Path file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Returns the header of the JPEG in the stream, or null when the stream is not a JPEG or has no frame header.
+     * Sizes are as stored, before any EXIF orientation is applied.
+     */
+    public static JpegHeader read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        try {
+            if (in.readUnsignedByte() != 0xFF || in.readUnsignedByte() != 0xD8) {
+                return null;
+            }
+            while (true) {
+                int marker = nextMarker(in);
+                if (marker == 0xD9 || marker == 0xDA) {
+                    // End of image or start of scan before any frame header
+                    return null;
+                }
+                if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                    // Markers without a length field
+                    continue;
+                }
+                int length = in.readUnsignedShort();
+                if (isStartOfFrame(marker)) {
+                    in.readUnsignedByte(); // sample precision
+                    int height = in.readUnsignedShort();
+                    int width = in.readUnsignedShort();
+                    return width > 0 && height > 0 ? new JpegHeader(width, height) : null;
+                }
+                skipFully(in, length - 2);
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static int nextMarker(DataInputStream in) throws IOException {
+        int b = in.readUnsignedByte();
+        while (b != 0xFF) {
+            b = in.readUnsignedByte();
+        }
+        // Any number of 0xFF fill bytes may precede the marker code
+        while (b == 0xFF) {
+            b = in.readUnsignedByte();
+        }
+        return b;
+    }
+
+    private static void skipFully(DataInputStream in, int count) throws IOException {
+        int remaining = count;
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                // skipBytes may stop short without being at the end, read one byte to find out
+                in.readUnsignedByte();
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        // SOF0..SOF15 share the 0xC0 range with DHT (C4), JPG (C8) and DAC (CC)
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+}
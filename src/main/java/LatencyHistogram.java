@@ -0,0 +1,85 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with HDR-style log-linear buckets: every power of two is split into 32 linear
+ * sub-buckets, so any recorded value is reported within about 3% of its true value. Recording is a couple of
+ * atomic increments, cheap enough to leave on in production.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values above 2^44 ns (about 4.9 hours) land in the last bucket
+    private static final int MAX_EXPONENT = 44;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // Retry until this value is stored or a larger one won
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSumNanos() {
+        return sum.get();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value at the given quantile (0..1) in nanoseconds, as the upper bound of its bucket.
+     */
+    public long getValueAtQuantile(double quantile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                // The last bucket is open-ended, only the maximum bounds it
+                return i == BUCKETS - 1 ? max.get() : Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        if (exponent == MAX_EXPONENT && value >= (1L << (MAX_EXPONENT + 1))) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((long) (SUB_BUCKETS + sub) << shift) + (1L << shift) - 1;
+    }
+}
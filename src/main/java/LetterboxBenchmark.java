@@ -0,0 +1,67 @@
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.index.NDIndex;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+
+/**
+ * Compares the former per-pixel NDIndex padding loop of {@link ResizeExample} with
+ * {@link LetterboxTransform#pad(NDArray, int, int)} on a synthetic resized image.
+ *
+ * <p>Usage: {@code LetterboxBenchmark [width] [height] [targetSize]}
+ */
+public class LetterboxBenchmark {
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 190;
+        int target = args.length > 2 ? Integer.parseInt(args[2]) : 300;
+
+        try (NDManager manager = NDManager.newBaseManager()) {
+            NDArray resized = manager.randomUniform(0, 255, new Shape(height, width, 3)).toType(DataType.UINT8, false);
+
+            // The loop is several orders of magnitude slower, a couple of runs are enough
+            double loopMillis = time(3, () -> {
+                try (NDManager scope = manager.newSubManager()) {
+                    NDArray input = resized.duplicate();
+                    input.attach(scope);
+                    NDArray canvas = scope.zeros(new Shape(target, target, 3));
+                    padPerPixel(input, canvas, width, height, target);
+                }
+            });
+            double bulkMillis = time(200, () -> {
+                try (NDManager scope = manager.newSubManager()) {
+                    NDArray input = resized.duplicate();
+                    input.attach(scope);
+                    LetterboxTransform.pad(input, target, target).toType(DataType.FLOAT32, false);
+                }
+            });
+
+            System.out.printf("per-pixel loop %10.2f ms/image%n", loopMillis);
+            System.out.printf("bulk letterbox %10.2f ms/image (%.0fx faster)%n", bulkMillis, loopMillis / bulkMillis);
+        }
+    }
+
+    private static double time(int iterations, Runnable task) {
+        task.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            task.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / iterations;
+    }
+
+    // Same loop that ResizeExample.resizeAndSaveFile used before the bulk letterbox
+    private static void padPerPixel(NDArray resized, NDArray padded, int newWidth, int newHeight, int target) {
+        int offsetX = (target - newWidth) / 2;
+        int offsetY = (target - newHeight) / 2;
+        for (int y = 0; y < newHeight; y++) {
+            for (int x = 0; x < newWidth; x++) {
+                for (int c = 0; c < 3; c++) {
+                    NDArray pixel = resized.get(new NDIndex(y, x, c)).toType(DataType.FLOAT32, true);
+                    padded.set(new NDIndex(offsetY + y, offsetX + x, c), pixel);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.util.NDImageUtils;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDArrays;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.translate.Transform;
+
+/**
+ * Resizes an HWC image so it fits inside the target size with its aspect ratio preserved, then pads it with
+ * black borders to exactly the target size, keeping the image centred.
+ *
+ * <p>The padding is built from a handful of zero blocks joined with {@code concat}, so the whole operation is a
+ * few bulk tensor calls regardless of the image size. It can be added to an {@code ImageFolder} builder in
+ * place of {@link ai.djl.modality.cv.transform.Resize} when inputs are not square.
+ */
+public class LetterboxTransform implements Transform {
+    private final int targetWidth;
+    private final int targetHeight;
+    private final Image.Interpolation interpolation;
+
+    public LetterboxTransform(int targetWidth, int targetHeight) {
+        this(targetWidth, targetHeight, Image.Interpolation.BILINEAR);
+    }
+
+    public LetterboxTransform(int targetWidth, int targetHeight, Image.Interpolation interpolation) {
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        this.interpolation = interpolation;
+    }
+
+    @Override
+    public NDArray transform(NDArray array) {
+        return pad(fit(array, targetWidth, targetHeight, interpolation), targetWidth, targetHeight);
+    }
+
+    /**
+     * Resizes an HWC array to the largest size that fits inside the target while keeping its aspect ratio.
+     */
+    public static NDArray fit(NDArray array, int targetWidth, int targetHeight, Image.Interpolation interpolation) {
+        Shape shape = array.getShape();
+        long originalHeight = shape.get(0);
+        long originalWidth = shape.get(1);
+
+        double aspectRatio = (double) originalWidth / originalHeight;
+        return NDImageUtils.resize(array, fitWidth(aspectRatio, targetWidth, targetHeight),
+                fitHeight(aspectRatio, targetWidth, targetHeight), interpolation);
+    }
+
+    /**
+     * The width of an image with the given aspect ratio scaled by the tighter side to fit inside the target.
+     */
+    public static int fitWidth(double aspectRatio, int targetWidth, int targetHeight) {
+        // Images wider than the target fill its width, the others its height
+        return aspectRatio >= (double) targetWidth / targetHeight
+                ? targetWidth
+                : Math.max(1, Math.min(targetWidth, (int) (targetHeight * aspectRatio)));
+    }
+
+    public static int fitHeight(double aspectRatio, int targetWidth, int targetHeight) {
+        return aspectRatio >= (double) targetWidth / targetHeight
+                ? Math.max(1, Math.min(targetHeight, (int) (targetWidth / aspectRatio)))
+                : targetHeight;
+    }
+
+    /**
+     * Centres an HWC array on a black canvas of the given size. The array must not be larger than the canvas.
+     */
+    public static NDArray pad(NDArray array, int targetWidth, int targetHeight) {
+        Shape shape = array.getShape();
+        long height = shape.get(0);
+        long width = shape.get(1);
+        long channels = shape.get(2);
+        if (width == targetWidth && height == targetHeight) {
+            return array;
+        }
+
+        long left = (targetWidth - width) / 2;
+        long right = targetWidth - width - left;
+        long top = (targetHeight - height) / 2;
+        long bottom = targetHeight - height - top;
+
+        NDManager manager = array.getManager();
+        NDArray row = array;
+        if (left > 0 || right > 0) {
+            NDList columns = new NDList();
+            if (left > 0) {
+                columns.add(manager.zeros(new Shape(height, left, channels), array.getDataType()));
+            }
+            columns.add(array);
+            if (right > 0) {
+                columns.add(manager.zeros(new Shape(height, right, channels), array.getDataType()));
+            }
+            row = NDArrays.concat(columns, 1);
+        }
+        if (top > 0 || bottom > 0) {
+            NDList rows = new NDList();
+            if (top > 0) {
+                rows.add(manager.zeros(new Shape(top, targetWidth, channels), array.getDataType()));
+            }
+            rows.add(row);
+            if (bottom > 0) {
+                rows.add(manager.zeros(new Shape(bottom, targetWidth, channels), array.getDataType()));
+            }
+            row = NDArrays.concat(rows, 0);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,204 @@
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.training.dataset.RandomAccessDataset;
+import ai.djl.training.dataset.Record;
+import ai.djl.util.Progress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Reads samples written by {@link ShardPacker} straight out of a memory-mapped file. Each record is an RGB
+ * HWC uint8 image handed to the engine from a slice of the mapping, so no image is decoded or resized while
+ * training. Add {@code ToTensor} to the builder to get the same CHW float input that {@code ImageFolder} gives.
+ */
+public class MappedShardDataset extends RandomAccessDataset {
+    private final Path shardFile;
+    private final List<MappedByteBuffer> regions = new ArrayList<>();
+    private final List<String> classes = new ArrayList<>();
+    private int[] labels;
+    // The manifest path of every sample, in shard order, or null when the sidecar does not match the shard
+    private List<String> paths;
+    private Shape sampleShape;
+    private int sampleBytes;
+    private int samplesPerRegion;
+    private boolean prepared;
+
+    private MappedShardDataset(Builder builder) {
+        super(builder);
+        this.shardFile = builder.shardFile;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public void prepare(Progress progress) throws IOException {
+        if (prepared) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(shardFile, StandardOpenOption.READ)) {
+            ByteBuffer fixed = ByteBuffer.allocate(7 * Integer.BYTES + 2 * Long.BYTES);
+            boolean whole = readFully(channel, fixed, 0);
+            fixed.flip();
+            if (!whole || fixed.getInt() != ShardPacker.MAGIC) {
+                throw new IOException("Not a shard file: " + shardFile);
+            }
+            int version = fixed.getInt();
+            if (version == ShardPacker.APPENDING) {
+                throw new IOException("An append to " + shardFile + " was interrupted, sync the shard again");
+            }
+            if (version != ShardPacker.VERSION) {
+                throw new IOException("Unsupported shard version " + version + " in " + shardFile);
+            }
+            int count = fixed.getInt();
+            int height = fixed.getInt();
+            int width = fixed.getInt();
+            int channels = fixed.getInt();
+            int classCount = fixed.getInt();
+            long dataOffset = fixed.getLong();
+            long labelsOffset = fixed.getLong();
+
+            ByteBuffer names = channel.map(FileChannel.MapMode.READ_ONLY, fixed.capacity(), dataOffset - fixed.capacity());
+            for (int i = 0; i < classCount; i++) {
+                byte[] bytes = new byte[names.getShort()];
+                names.get(bytes);
+                classes.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+
+            ByteBuffer labelBuffer = channel.map(FileChannel.MapMode.READ_ONLY, labelsOffset, (long) count * Integer.BYTES);
+            labels = new int[count];
+            labelBuffer.asIntBuffer().get(labels);
+
+            sampleShape = new Shape(height, width, channels);
+            sampleBytes = height * width * channels;
+            // A single mapping is limited to 2 GB, so larger shards are split on sample boundaries
+            samplesPerRegion = Integer.MAX_VALUE / sampleBytes;
+            for (long first = 0; first < count; first += samplesPerRegion) {
+                long samples = Math.min(samplesPerRegion, count - first);
+                regions.add(channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + first * sampleBytes, samples * sampleBytes));
+            }
+
+            Map<String, String> index = ShardIndex.read(shardFile, width, height);
+            paths = index == null || index.size() != count ? null : new ArrayList<>(index.keySet());
+        }
+        prepared = true;
+    }
+
+    @Override
+    public Record get(NDManager manager, long index) {
+        int i = Math.toIntExact(index);
+        int offset = (i % samplesPerRegion) * sampleBytes;
+        ByteBuffer sample = regions.get(i / samplesPerRegion).duplicate();
+        sample.position(offset).limit(offset + sampleBytes);
+
+        NDArray data = manager.create(sample.slice(), sampleShape, DataType.UINT8);
+        NDArray label = manager.create(labels[i]);
+        return new Record(new NDList(data), new NDList(label));
+    }
+
+    @Override
+    protected long availableSize() {
+        return labels == null ? 0 : labels.length;
+    }
+
+    public List<String> getClasses() {
+        return classes;
+    }
+
+    /**
+     * The samples of one {@link Split} of the prepared shard. The split follows from the manifest path of each
+     * sample in the shard's {@link ShardIndex}, not from its position, so a sample stays in its split when
+     * {@link ShardPacker#sync} appends to or repacks the shard.
+     */
+    public RandomAccessDataset split(Split split) {
+        if (!prepared) {
+            throw new IllegalStateException("Prepare the dataset before splitting it");
+        }
+        if (paths == null) {
+            throw new IllegalStateException("The sample index of " + shardFile + " does not match it, sync the shard again");
+        }
+        List<Long> indices = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i++) {
+            if (Split.of(paths.get(i)) == split) {
+                indices.add((long) i);
+            }
+        }
+        return subDataset(indices);
+    }
+
+    /**
+     * Reads from {@code position} until the buffer is full. Returns false when the file ends first.
+     */
+    static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    /**
+     * A fixed partition of the dataset: about one image in ten is held out to calibrate the quantized models and
+     * another one in ten to evaluate them, the rest is trained on.
+     */
+    public enum Split {
+        TRAINING,
+        CALIBRATION,
+        EVALUATION;
+
+        /**
+         * The split of an image by its manifest path. A CRC-32 of the path, so it is the same in every run and
+         * does not depend on which other images are in the dataset.
+         */
+        static Split of(String path) {
+            CRC32 crc = new CRC32();
+            crc.update(path.getBytes(StandardCharsets.UTF_8));
+            switch ((int) (crc.getValue() % 10)) {
+                case 8:
+                    return CALIBRATION;
+                case 9:
+                    return EVALUATION;
+                default:
+                    return TRAINING;
+            }
+        }
+    }
+
+    public static final class Builder extends BaseBuilder<Builder> {
+        private Path shardFile;
+
+        public Builder setShardFile(Path shardFile) {
+            this.shardFile = shardFile;
+            return this;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        public MappedShardDataset build() {
+            if (shardFile == null) {
+                throw new IllegalArgumentException("The shard file must be set");
+            }
+            return new MappedShardDataset(this);
+        }
+    }
+}
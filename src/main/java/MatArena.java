@@ -0,0 +1,48 @@
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the OpenCV Mats allocated while serving one request and releases all of them on {@link #close()},
+ * so a request cannot leave native pixel buffers behind on any exit path. Not thread-safe, an arena belongs to
+ * the thread serving its request.
+ */
+public class MatArena implements AutoCloseable {
+    private final List<Mat> mats = new ArrayList<>();
+    private final List<BufferPool<Mat>> pools = new ArrayList<>();
+
+    public <T extends Mat> T track(T mat) {
+        mats.add(PipelineMetrics.trackMat(mat));
+        pools.add(null);
+        return mat;
+    }
+
+    /**
+     * Registers a Mat taken from a pool, it is handed back to the pool instead of released.
+     */
+    public Mat track(Mat mat, BufferPool<Mat> pool) {
+        mats.add(mat);
+        pools.add(pool);
+        return mat;
+    }
+
+    public int size() {
+        return mats.size();
+    }
+
+    @Override
+    public void close() {
+        // Release in reverse order, so views are released before the Mats they point into
+        for (int i = mats.size() - 1; i >= 0; i--) {
+            BufferPool<Mat> pool = pools.get(i);
+            if (pool == null) {
+                PipelineMetrics.releaseMat(mats.get(i));
+            } else {
+                pool.giveBack(mats.get(i));
+            }
+        }
+        mats.clear();
+        pools.clear();
+    }
+}
@@ -0,0 +1,104 @@
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class MatNDArrayConverter {
+
+    private MatNDArrayConverter() {
+    }
+
+    /**
+     * Converts a decoded OpenCV BGR image into an RGB HWC uint8 NDArray, the same layout that
+     * {@link ai.djl.modality.cv.Image#toNDArray(NDManager)} produces.
+     *
+     * <p>The colour conversion writes straight into a direct (off-heap) buffer that is handed to the
+     * engine, so no intermediate encoded image or heap byte[] is created.
+     */
+    public static NDArray toNDArray(NDManager manager, Mat mat) {
+        checkInput(mat);
+        RgbBuffer rgb = new RgbBuffer(mat.cols(), mat.rows(), CvType.CV_8UC3);
+        try {
+            return convert(manager, mat, rgb);
+        } finally {
+            rgb.mat.release();
+        }
+    }
+
+    /**
+     * Converts like {@link #toNDArray(NDManager, Mat)}, but through a direct buffer taken from {@code buffers}
+     * and handed back once the engine copied it, so converting inputs of one size allocates nothing.
+     */
+    public static NDArray toNDArray(NDManager manager, Mat mat, BufferPool<RgbBuffer> buffers) {
+        checkInput(mat);
+        RgbBuffer rgb = buffers.acquire(mat.cols(), mat.rows(), CvType.CV_8UC3);
+        try {
+            return convert(manager, mat, rgb);
+        } finally {
+            buffers.giveBack(rgb);
+        }
+    }
+
+    private static NDArray convert(NDManager manager, Mat mat, RgbBuffer rgb) {
+        // The destination Mat wraps the direct buffer, so cvtColor fills it in place
+        Imgproc.cvtColor(mat, rgb.mat, Imgproc.COLOR_BGR2RGB);
+        rgb.buffer.clear();
+        // The engine copies the pixels into its own memory before create returns
+        return manager.create(rgb.buffer, new Shape(mat.rows(), mat.cols(), 3), DataType.UINT8);
+    }
+
+    /**
+     * A pool of direct conversion buffers, each wrapped once as the RGB Mat that cvtColor writes into.
+     */
+    public static BufferPool<RgbBuffer> newBufferPool(int maxPerKey) {
+        return new BufferPool<>(
+                RgbBuffer::new,
+                new BufferPool.Describer<RgbBuffer>() {
+                    @Override
+                    public int width(RgbBuffer buffer) {
+                        return buffer.mat.cols();
+                    }
+
+                    @Override
+                    public int height(RgbBuffer buffer) {
+                        return buffer.mat.rows();
+                    }
+
+                    @Override
+                    public int type(RgbBuffer buffer) {
+                        return buffer.mat.type();
+                    }
+                },
+                // The Mat only points into the buffer, which is freed once it is unreachable
+                buffer -> buffer.mat.release(),
+                maxPerKey);
+    }
+
+    private static void checkInput(Mat mat) {
+        if (mat.empty()) {
+            throw new IllegalArgumentException("Cannot convert an empty Mat");
+        }
+        if (mat.type() != CvType.CV_8UC3) {
+            throw new IllegalArgumentException("Expected an 8-bit BGR Mat but got " + CvType.typeToString(mat.type()));
+        }
+    }
+
+    /**
+     * A direct buffer and the Mat header over it.
+     */
+    public static final class RgbBuffer {
+        final ByteBuffer buffer;
+        final Mat mat;
+
+        RgbBuffer(int width, int height, int type) {
+            buffer = ByteBuffer.allocateDirect(width * height * CvType.channels(type)).order(ByteOrder.nativeOrder());
+            mat = new Mat(height, width, type, buffer);
+        }
+    }
+}
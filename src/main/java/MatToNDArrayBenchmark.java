@@ -0,0 +1,89 @@
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Compares the old JPEG round trip (imencode -> byte[] -> ImageFactory) against the direct
+ * Mat -> NDArray conversion used by {@link NationalIDCardExtractor}.
+ *
+ * <p>Usage: {@code MatToNDArrayBenchmark [imageFolder] [iterations]}
+ */
+public class MatToNDArrayBenchmark {
+    static {
+        Bootstrap.loadNativeLibraries();  // Load OpenCV library once per JVM
+    }
+
+    private static final int WARMUP_ITERATIONS = 20;
+
+    public static void main(String[] args) throws Exception {
+        Path imageFolder = Paths.get(args.length > 0 ? args[0] : "original");
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        List<Mat> mats = new ArrayList<>();
+        collect(imageFolder.toFile(), mats);
+        if (mats.isEmpty()) {
+            System.out.println("No images found in " + imageFolder);
+            return;
+        }
+
+        try (NDManager manager = NDManager.newBaseManager()) {
+            run("jpeg round trip", mats, iterations, mat -> viaJpeg(manager, mat));
+            run("direct buffer", mats, iterations, mat -> MatNDArrayConverter.toNDArray(manager, mat));
+        }
+        mats.forEach(Mat::release);
+    }
+
+    private static void collect(File file, List<Mat> mats) throws Exception {
+        if (file.isDirectory()) {
+            for (File child : Objects.requireNonNull(file.listFiles())) {
+                collect(child, mats);
+            }
+        } else {
+            mats.add(ResizeExampleByOpenCV.resize(file.toPath(), 256, 156, true));
+        }
+    }
+
+    private static NDArray viaJpeg(NDManager manager, Mat mat) throws Exception {
+        MatOfByte matOfByte = new MatOfByte();
+        Imgcodecs.imencode(".jpg", mat, matOfByte);
+        Image img = ImageFactory.getInstance().fromInputStream(new ByteArrayInputStream(matOfByte.toArray()));
+        matOfByte.release();
+        return img.toNDArray(manager);
+    }
+
+    private static void run(String name, List<Mat> mats, int iterations, Conversion conversion) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            conversion.apply(mats.get(i % mats.size())).close();
+        }
+
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            conversion.apply(mats.get(i % mats.size())).close();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        System.out.printf("%-16s %10.1f us/image %12d heap bytes/image%n",
+                name, elapsed / 1000.0 / iterations, allocated / iterations);
+    }
+
+    private interface Conversion {
+        NDArray apply(Mat mat) throws Exception;
+    }
+}
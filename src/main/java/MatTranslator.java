@@ -0,0 +1,51 @@
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import ai.djl.translate.Batchifier;
+import ai.djl.translate.Translator;
+import ai.djl.translate.TranslatorContext;
+import org.opencv.core.Mat;
+
+/**
+ * Feeds an OpenCV {@link Mat} to the extractor model without re-encoding it, see {@link MatNDArrayConverter}.
+ */
+public class MatTranslator implements Translator<Mat, float[]> {
+    private final BufferPool<MatNDArrayConverter.RgbBuffer> buffers;
+
+    public MatTranslator() {
+        this(null);
+    }
+
+    /**
+     * Converts through direct buffers taken from {@code buffers}, which the predictors of one model can share.
+     */
+    public MatTranslator(BufferPool<MatNDArrayConverter.RgbBuffer> buffers) {
+        this.buffers = buffers;
+    }
+
+    @Override
+    public NDList processInput(TranslatorContext ctx, Mat input) {
+        long start = System.nanoTime();
+        // Hand the OpenCV pixel buffer to the engine without an intermediate JPEG
+        NDManager manager = ctx.getNDManager();
+        NDList list = ImageTranslator.normalize(buffers == null
+                ? MatNDArrayConverter.toNDArray(manager, input)
+                : MatNDArrayConverter.toNDArray(manager, input, buffers));
+        PipelineMetrics.Stage.PROCESS_INPUT.recordSince(start);
+        PipelineMetrics.markForwardStart();
+        return list;
+    }
+
+    @Override
+    public float[] processOutput(TranslatorContext ctx, NDList list) {
+        PipelineMetrics.markForwardEnd();
+        long start = System.nanoTime();
+        float[] result = list.singletonOrThrow().toFloatArray();
+        PipelineMetrics.Stage.PROCESS_OUTPUT.recordSince(start);
+        return result;
+    }
+
+    @Override
+    public Batchifier getBatchifier() {
+        return Batchifier.STACK;
+    }
+}
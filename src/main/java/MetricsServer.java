@@ -0,0 +1,64 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves {@link PipelineMetrics} at {@code /metrics} in the Prometheus text format, using the HTTP server built
+ * into the JDK so no extra dependency is needed.
+ */
+public class MetricsServer implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsServer.class);
+
+    private final HttpServer server;
+
+    private MetricsServer(HttpServer server) {
+        this.server = server;
+    }
+
+    public static MetricsServer start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", MetricsServer::handle);
+        // One daemon thread is plenty for a scrape every few seconds and never keeps the JVM alive
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        logger.info("Metrics endpoint listening on http://localhost:{}/metrics", server.getAddress().getPort());
+        return new MetricsServer(server);
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = PipelineMetrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,67 @@
+import ai.djl.Model;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Exports the INT8 variants of the ID card model next to the FP32 checkpoint. The pruned variant is calibrated
+ * on the held-out calibration split of the dataset, which neither training nor {@link QuantizationReport}
+ * uses: starting from the requested ratio, the pruning ratio is lowered until the quantized, pruned model
+ * agrees with the FP32 predictions on at least {@code minAgreement} of the sample. Pruning only shrinks the
+ * file, the pruned filters run as dense zeros.
+ *
+ * <p>Usage: {@code ModelQuantizer [modelFolder] [datasetFolder] [pruneRatio] [samples] [minAgreement]}
+ */
+public class ModelQuantizer {
+    private static final Logger logger = LoggerFactory.getLogger(ModelQuantizer.class);
+
+    public static void main(String[] args) throws Exception {
+        Path modelFolder = Paths.get(args.length > 0 ? args[0] : "models/national_id_card");
+        Path datasetFolder = Paths.get(args.length > 1 ? args[1] : "dataset");
+        float pruneRatio = args.length > 2 ? Float.parseFloat(args[2]) : 0.3f;
+        int samples = args.length > 3 ? Integer.parseInt(args[3]) : 128;
+        double minAgreement = args.length > 4 ? Double.parseDouble(args[4]) : 0.99;
+
+        try (NDManager manager = NDManager.newBaseManager();
+             Model fp32 = ModelVariant.FP32.load("resnet", modelFolder)) {
+            QuantizedWeights int8 = QuantizedWeights.quantize(fp32.getBlock(), 0);
+            int8.write(ModelVariant.INT8.file(modelFolder));
+            logger.info("Wrote {}", ModelVariant.INT8.file(modelFolder));
+            if (pruneRatio <= 0) {
+                return;
+            }
+
+            QuantizationReport.CalibrationSet set = QuantizationReport.CalibrationSet.load(datasetFolder,
+                    MappedShardDataset.Split.CALIBRATION, samples, manager);
+            QuantizationReport.Evaluation reference = QuantizationReport.evaluate(fp32, set, null);
+            for (float ratio = pruneRatio; ratio >= 0.05f; ratio -= 0.05f) {
+                QuantizedWeights pruned = QuantizedWeights.quantize(fp32.getBlock(), ratio);
+                double agreement = agreement(pruned, set, reference);
+                logger.info("Pruning {}% of filters ({}% of weights): {}% agreement with FP32",
+                        String.format("%.0f", 100 * ratio), String.format("%.1f", 100 * pruned.getSparsity()),
+                        String.format("%.2f", 100 * agreement));
+                if (agreement >= minAgreement) {
+                    pruned.write(ModelVariant.INT8_PRUNED.file(modelFolder));
+                    logger.info("Wrote {}", ModelVariant.INT8_PRUNED.file(modelFolder));
+                    return;
+                }
+            }
+            logger.warn("No pruning ratio up to {} keeps {}% agreement, the pruned variant was not written",
+                    pruneRatio, 100 * minAgreement);
+        }
+    }
+
+    private static double agreement(QuantizedWeights weights, QuantizationReport.CalibrationSet set,
+                                    QuantizationReport.Evaluation reference) throws Exception {
+        try (Model candidate = Model.newInstance("resnet")) {
+            candidate.setBlock(ModelVariant.newBlock());
+            candidate.getBlock().initialize(candidate.getNDManager(), DataType.FLOAT32, ModelVariant.INPUT_SHAPE);
+            weights.applyTo(candidate.getBlock());
+            return QuantizationReport.evaluate(candidate, set, reference).agreement;
+        }
+    }
+}
@@ -0,0 +1,613 @@
+import ai.djl.Model;
+import ai.djl.modality.cv.util.NDImageUtils;
+import ai.djl.ndarray.NDList;
+import ai.djl.translate.Batchifier;
+import ai.djl.translate.TranslateException;
+import ai.djl.translate.Translator;
+import ai.djl.translate.TranslatorContext;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Serves several classifier models side by side, for example the FP32 and INT8 {@link ModelVariant}s or the
+ * same network exported for another engine, to compare them or roll a new one out on live traffic.
+ *
+ * <p>An image is decoded and resized once and the same input is handed to every model that runs, in parallel.
+ * In {@link Mode#ENSEMBLE} all serving models run and their class probabilities are averaged by weight. In
+ * {@link Mode#SPLIT} every request is served by one model, picked by its traffic percentage, for A/B tests.
+ * Shadow models run on a sample of the requests in both modes after the answer is complete, so they never add
+ * latency and their output is only compared.
+ *
+ * <p>For every model the registry keeps the latency, the errors and how often its top class agrees with the
+ * answer, with the mean absolute difference of the probabilities. {@link #logSummary()} reports them.
+ */
+public class ModelRegistry implements AutoCloseable {
+    static {
+        Bootstrap.loadNativeLibraries();  // Load OpenCV library once per JVM
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(ModelRegistry.class);
+
+    public enum Mode {
+        ENSEMBLE,
+        SPLIT
+    }
+
+    private final Mode mode;
+    private final List<Entry> serving;
+    private final List<Entry> shadows;
+    private final int shadowSamplePercent;
+    private final int inputWidth;
+    private final int inputHeight;
+    private final BufferPool<Mat> inputBuffers;
+    // Model calls block on a predictor, a virtual thread per call keeps the fan-out cheap
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private ModelRegistry(Builder builder) {
+        this.mode = builder.mode;
+        this.shadowSamplePercent = builder.shadowSamplePercent;
+        this.inputWidth = builder.inputWidth;
+        this.inputHeight = builder.inputHeight;
+        this.inputBuffers = BufferPool.forMats(builder.poolSize * 2);
+        List<Entry> serving = new ArrayList<>();
+        List<Entry> shadows = new ArrayList<>();
+        for (Builder.Spec spec : builder.specs) {
+            Entry entry = new Entry(spec, builder.translatorFactory, builder.poolSize);
+            (spec.shadow ? shadows : serving).add(entry);
+        }
+        this.serving = Collections.unmodifiableList(serving);
+        this.shadows = Collections.unmodifiableList(shadows);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Classifies an encoded image. It is decoded and resized once, whatever the number of models.
+     */
+    public Result predict(byte[] imageBytes) throws TranslateException {
+        try (MatArena mats = new MatArena()) {
+            JpegHeader header = JpegHeader.read(new ByteArrayInputStream(imageBytes));
+            long start = System.nanoTime();
+            MatOfByte encoded = mats.track(new MatOfByte(imageBytes));
+            Mat decoded = mats.track(Imgcodecs.imdecode(encoded, ResizeExampleByOpenCV.reducedReadFlag(header, inputWidth, inputHeight)));
+            PipelineMetrics.Stage.DECODE.recordSince(start);
+            if (decoded.empty()) {
+                throw new IllegalArgumentException("Cannot decode image");
+            }
+            double aspectRatio = ResizeExampleByOpenCV.sourceAspectRatio(header, decoded);
+            // resize records the RESIZE stage itself
+            Mat input = mats.track(ResizeExampleByOpenCV.resize(decoded, aspectRatio, inputWidth, inputHeight, true, inputBuffers), inputBuffers);
+            return predict(input);
+        } catch (IOException e) {
+            throw new TranslateException(e);
+        }
+    }
+
+    /**
+     * Classifies an image already resized to the input size. The Mat is only read and may be released as soon
+     * as this returns.
+     */
+    public Result predict(Mat input) throws TranslateException {
+        Map<String, float[]> outputs = new LinkedHashMap<>();
+        float[] answer;
+        String servedBy;
+        if (mode == Mode.ENSEMBLE) {
+            List<CompletableFuture<float[]>> futures = new ArrayList<>(serving.size());
+            for (Entry entry : serving) {
+                futures.add(CompletableFuture.supplyAsync(() -> entry.predict(input), executor));
+            }
+            answer = null;
+            double totalWeight = 0;
+            for (int i = 0; i < serving.size(); i++) {
+                float[] output = join(futures.get(i));
+                if (output == null) {
+                    continue;
+                }
+                Entry entry = serving.get(i);
+                outputs.put(entry.name, output);
+                if (answer == null) {
+                    answer = new float[output.length];
+                }
+                for (int c = 0; c < output.length; c++) {
+                    answer[c] += (float) (output[c] * entry.weight);
+                }
+                totalWeight += entry.weight;
+            }
+            if (answer == null) {
+                throw new TranslateException("Every model of the ensemble failed");
+            }
+            for (int c = 0; c < answer.length; c++) {
+                answer[c] /= (float) totalWeight;
+            }
+            for (Map.Entry<String, float[]> output : outputs.entrySet()) {
+                find(output.getKey()).stats.compare(output.getValue(), answer);
+            }
+            servedBy = "ensemble";
+        } else {
+            Entry entry = pick();
+            answer = entry.predict(input);
+            if (answer == null) {
+                throw new TranslateException("Model " + entry.name + " failed");
+            }
+            outputs.put(entry.name, answer);
+            servedBy = entry.name;
+        }
+        runShadows(input, answer);
+        return new Result(answer, servedBy, outputs);
+    }
+
+    /**
+     * A serving model by traffic percentage.
+     */
+    private Entry pick() {
+        int ticket = ThreadLocalRandom.current().nextInt(100);
+        for (Entry entry : serving) {
+            ticket -= entry.trafficPercent;
+            if (ticket < 0) {
+                return entry;
+            }
+        }
+        return serving.get(serving.size() - 1);
+    }
+
+    private void runShadows(Mat input, float[] answer) {
+        if (shadows.isEmpty() || ThreadLocalRandom.current().nextInt(100) >= shadowSamplePercent) {
+            return;
+        }
+        // The caller may release its input once the answer is back, the shadows work on a copy
+        Mat copy = input.clone();
+        List<CompletableFuture<?>> running = new ArrayList<>(shadows.size());
+        for (Entry shadow : shadows) {
+            running.add(CompletableFuture.runAsync(() -> {
+                float[] output = shadow.predict(copy);
+                if (output != null) {
+                    shadow.stats.compare(output, answer);
+                }
+            }, executor));
+        }
+        CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, error) -> copy.release());
+    }
+
+    private static float[] join(CompletableFuture<float[]> future) throws TranslateException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TranslateException("Interrupted while waiting for the models", e);
+        } catch (ExecutionException e) {
+            throw new TranslateException(e.getCause());
+        }
+    }
+
+    private Entry find(String name) {
+        for (Entry entry : serving) {
+            if (entry.name.equals(name)) {
+                return entry;
+            }
+        }
+        for (Entry entry : shadows) {
+            if (entry.name.equals(name)) {
+                return entry;
+            }
+        }
+        throw new IllegalArgumentException("No model " + name);
+    }
+
+    public Stats getStats(String name) {
+        return find(name).stats;
+    }
+
+    public void logSummary() {
+        logger.info("Model registry in {} mode", mode.name().toLowerCase(Locale.ROOT));
+        List<Entry> all = new ArrayList<>(serving);
+        all.addAll(shadows);
+        for (Entry entry : all) {
+            Stats stats = entry.stats;
+            // A model serving alone in split mode is the answer, there is nothing to compare it with
+            String agreement = stats.compared.sum() == 0 ? "-" : String.format(Locale.ROOT, "%.1f%%, mean abs drift %.4f",
+                    100 * stats.getAgreement(), stats.getMeanAbsDrift());
+            logger.info("  {} ({}): {} requests, p50 {} ms, p99 {} ms, {} errors, agreement {}",
+                    entry.name, entry.role(mode), stats.latency.getCount(),
+                    String.format(Locale.ROOT, "%.2f", stats.latency.getValueAtQuantile(0.5) / 1e6),
+                    String.format(Locale.ROOT, "%.2f", stats.latency.getValueAtQuantile(0.99) / 1e6),
+                    stats.errors.sum(), agreement);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            // Let shadow runs finish before their predictors go away
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Entry entry : serving) {
+            entry.close();
+        }
+        for (Entry entry : shadows) {
+            entry.close();
+        }
+        inputBuffers.clear();
+    }
+
+    /**
+     * The answer to one request with the output of every serving model that ran. Shadow outputs are not part of
+     * it, they may still be running.
+     */
+    public static final class Result {
+        private final float[] probabilities;
+        private final String servedBy;
+        private final Map<String, float[]> outputs;
+
+        Result(float[] probabilities, String servedBy, Map<String, float[]> outputs) {
+            this.probabilities = probabilities;
+            this.servedBy = servedBy;
+            this.outputs = outputs;
+        }
+
+        public float[] getProbabilities() {
+            return probabilities;
+        }
+
+        public int getTopClass() {
+            return argMax(probabilities);
+        }
+
+        /**
+         * The model that answered, or {@code ensemble}.
+         */
+        public String getServedBy() {
+            return servedBy;
+        }
+
+        public Map<String, float[]> getOutputs() {
+            return outputs;
+        }
+    }
+
+    /**
+     * Latency and agreement of one model with the answers, updated concurrently.
+     */
+    public static final class Stats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder compared = new LongAdder();
+        private final LongAdder agreed = new LongAdder();
+        private final DoubleAdder drift = new DoubleAdder();
+
+        void compare(float[] output, float[] answer) {
+            compared.increment();
+            if (argMax(output) == argMax(answer)) {
+                agreed.increment();
+            }
+            double sum = 0;
+            for (int c = 0; c < Math.min(output.length, answer.length); c++) {
+                sum += Math.abs(output[c] - answer[c]);
+            }
+            drift.add(sum / answer.length);
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /**
+         * The fraction of compared requests on which the top class matched the answer.
+         */
+        public double getAgreement() {
+            long n = compared.sum();
+            return n == 0 ? 0 : (double) agreed.sum() / n;
+        }
+
+        public double getMeanAbsDrift() {
+            long n = compared.sum();
+            return n == 0 ? 0 : drift.sum() / n;
+        }
+    }
+
+    private static int argMax(float[] values) {
+        int best = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static final class Entry {
+        final String name;
+        final Model model;
+        final double weight;
+        final int trafficPercent;
+        final boolean shadow;
+        final PredictorPool<Mat, float[]> predictors;
+        final Stats stats = new Stats();
+
+        Entry(Builder.Spec spec, Supplier<Translator<Mat, float[]>> translatorFactory, int poolSize) {
+            this.name = spec.name;
+            this.model = spec.model;
+            this.weight = spec.weight;
+            this.trafficPercent = spec.trafficPercent;
+            this.shadow = spec.shadow;
+            this.predictors = PredictorPool.builder(() -> model.newPredictor(translatorFactory.get()))
+                    .optSize(poolSize)
+                    .build();
+            PipelineMetrics.watch("registry-" + name, model::getNDManager);
+        }
+
+        /**
+         * The model's output, or null when it failed. A failing model is counted, not propagated, so one broken
+         * candidate cannot fail the requests of the others.
+         */
+        float[] predict(Mat input) {
+            long start = System.nanoTime();
+            try {
+                float[] output = predictors.predict(input);
+                stats.latency.record(System.nanoTime() - start);
+                return output;
+            } catch (Exception e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                stats.errors.increment();
+                logger.warn("Model {} failed", name, e);
+                return null;
+            }
+        }
+
+        String role(Mode mode) {
+            if (shadow) {
+                return "shadow";
+            }
+            return mode == Mode.ENSEMBLE ? "weight " + weight : trafficPercent + "% of traffic";
+        }
+
+        void close() {
+            predictors.close();
+            model.close();
+        }
+    }
+
+    /**
+     * Feeds the resized image as a CHW float tensor and returns the softmax of the logits.
+     */
+    static final class ProbabilityTranslator implements Translator<Mat, float[]> {
+        @Override
+        public NDList processInput(TranslatorContext ctx, Mat input) {
+            long start = System.nanoTime();
+            NDList list = new NDList(NDImageUtils.toTensor(MatNDArrayConverter.toNDArray(ctx.getNDManager(), input)));
+            PipelineMetrics.Stage.PROCESS_INPUT.recordSince(start);
+            PipelineMetrics.markForwardStart();
+            return list;
+        }
+
+        @Override
+        public float[] processOutput(TranslatorContext ctx, NDList list) {
+            PipelineMetrics.markForwardEnd();
+            long start = System.nanoTime();
+            float[] probabilities = list.singletonOrThrow().softmax(-1).toFloatArray();
+            PipelineMetrics.Stage.PROCESS_OUTPUT.recordSince(start);
+            return probabilities;
+        }
+
+        @Override
+        public Batchifier getBatchifier() {
+            return Batchifier.STACK;
+        }
+    }
+
+    /**
+     * Runs the ResNet-18 variants found in the model folder over a folder of images, the FP32 model serving and
+     * the INT8 ones as shadows, or all together as an ensemble, and logs their statistics.
+     *
+     * <p>Usage: {@code ModelRegistry [imageFolder] [modelFolder] [split|ensemble]}
+     */
+    public static void main(String[] args) throws Exception {
+        Path imageFolder = Paths.get(args.length > 0 ? args[0] : "original");
+        Path modelFolder = Paths.get(args.length > 1 ? args[1] : "models/national_id_card");
+        Mode mode = args.length > 2 && args[2].equalsIgnoreCase("ensemble") ? Mode.ENSEMBLE : Mode.SPLIT;
+
+        Builder builder = ModelRegistry.builder().optMode(mode).optShadowSamplePercent(100);
+        for (ModelVariant variant : ModelVariant.values()) {
+            if (!Files.exists(variant.file(modelFolder))) {
+                continue;
+            }
+            Model model = variant.load("resnet-" + variant.name().toLowerCase(Locale.ROOT), modelFolder);
+            String name = variant.name().toLowerCase(Locale.ROOT);
+            if (variant == ModelVariant.FP32 || mode == Mode.ENSEMBLE) {
+                builder.addModel(name, model);
+            } else {
+                builder.addShadow(name, model);
+            }
+        }
+
+        List<File> files = new ArrayList<>();
+        collect(imageFolder.toFile(), files);
+        ModelRegistry registry = builder.build();
+        try {
+            for (File file : files) {
+                Result result = registry.predict(Files.readAllBytes(file.toPath()));
+                logger.info("{}: class {} served by {}", file, result.getTopClass(), result.getServedBy());
+            }
+        } finally {
+            // Closing waits for the last shadow runs, so the summary covers them
+            registry.close();
+            registry.logSummary();
+        }
+    }
+
+    private static void collect(File folder, List<File> files) {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collect(child, files);
+            } else if (child.getName().matches("(?i).*\\.(jpe?g|png)")) {
+                files.add(child);
+            }
+        }
+    }
+
+    public static final class Builder {
+        private final List<Spec> specs = new ArrayList<>();
+        private Mode mode = Mode.SPLIT;
+        private int shadowSamplePercent = 100;
+        private int poolSize = Runtime.getRuntime().availableProcessors();
+        private int inputWidth = 256;
+        private int inputHeight = 256;
+        private Supplier<Translator<Mat, float[]>> translatorFactory = ProbabilityTranslator::new;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a serving model. In split mode the traffic is shared equally among the models added this way.
+         * The registry owns the model and closes it.
+         */
+        public Builder addModel(String name, Model model) {
+            specs.add(new Spec(name, model, 1, -1, false));
+            return this;
+        }
+
+        /**
+         * Adds a serving model with its share of the traffic in split mode and its weight in the ensemble.
+         */
+        public Builder addModel(String name, Model model, int trafficPercent, double weight) {
+            specs.add(new Spec(name, model, weight, trafficPercent, false));
+            return this;
+        }
+
+        /**
+         * Adds a model that runs beside the serving ones and is only compared with their answer.
+         */
+        public Builder addShadow(String name, Model model) {
+            specs.add(new Spec(name, model, 0, 0, true));
+            return this;
+        }
+
+        public Builder optMode(Mode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * The percentage of requests the shadow models run on, to cap their cost on busy servers.
+         */
+        public Builder optShadowSamplePercent(int shadowSamplePercent) {
+            this.shadowSamplePercent = shadowSamplePercent;
+            return this;
+        }
+
+        /**
+         * Predictors per model, by default one per core.
+         */
+        public Builder optPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+            return this;
+        }
+
+        /**
+         * The size every image is resized to once, shared by all models.
+         */
+        public Builder optInputSize(int inputWidth, int inputHeight) {
+            this.inputWidth = inputWidth;
+            this.inputHeight = inputHeight;
+            return this;
+        }
+
+        /**
+         * How the shared input is fed to each model, for instance NHWC for an engine exported that way. By
+         * default a CHW float tensor in, class probabilities out.
+         */
+        public Builder optTranslator(Supplier<Translator<Mat, float[]>> translatorFactory) {
+            this.translatorFactory = translatorFactory;
+            return this;
+        }
+
+        public ModelRegistry build() {
+            List<Spec> serving = new ArrayList<>();
+            for (Spec spec : specs) {
+                if (!spec.shadow) {
+                    serving.add(spec);
+                }
+            }
+            if (serving.isEmpty()) {
+                throw new IllegalArgumentException("The registry needs at least one serving model");
+            }
+            // Models added without a share split what the others leave
+            int assigned = 0;
+            int unassigned = 0;
+            for (Spec spec : serving) {
+                if (spec.trafficPercent < 0) {
+                    unassigned++;
+                } else {
+                    assigned += spec.trafficPercent;
+                }
+            }
+            if (assigned > 100 || unassigned == 0 && assigned != 100) {
+                throw new IllegalArgumentException("The traffic percentages add up to " + assigned + ", not 100");
+            }
+            int remaining = 100 - assigned;
+            for (Spec spec : serving) {
+                if (spec.trafficPercent < 0) {
+                    spec.trafficPercent = remaining / unassigned;
+                    remaining -= spec.trafficPercent;
+                    unassigned--;
+                }
+            }
+            return new ModelRegistry(this);
+        }
+
+        private static final class Spec {
+            final String name;
+            final Model model;
+            final double weight;
+            final boolean shadow;
+            int trafficPercent;
+
+            Spec(String name, Model model, double weight, int trafficPercent, boolean shadow) {
+                this.name = name;
+                this.model = model;
+                this.weight = weight;
+                this.trafficPercent = trafficPercent;
+                this.shadow = shadow;
+            }
+        }
+    }
+}
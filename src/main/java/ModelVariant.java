@@ -0,0 +1,84 @@
+import ai.djl.MalformedModelException;
+import ai.djl.Model;
+import ai.djl.basicmodelzoo.cv.classification.ResNetV1;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.nn.Block;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The deployable forms of the ResNet-18 ID card model. {@link #FP32} is the checkpoint written by
+ * {@code TrainingNationalIDCardDetector}, the INT8 variants are written next to it by {@link ModelQuantizer}.
+ */
+public enum ModelVariant {
+    FP32(null),
+    INT8("-int8.qparams"),
+    INT8_PRUNED("-int8-pruned.qparams");
+
+    public static final String MODEL_NAME = "national_id_card";
+    public static final Shape INPUT_SHAPE = new Shape(1, 3, 256, 256);
+    public static final String SYNSET = "synset.txt";
+
+    private final String suffix;
+
+    ModelVariant(String suffix) {
+        this.suffix = suffix;
+    }
+
+    /**
+     * The block every variant is built on, the same one the model is trained with.
+     */
+    public static Block newBlock() {
+        return ResNetV1.builder().setImageShape(new Shape(3, 256, 256)).setOutSize(10).setNumLayers(18).build();
+    }
+
+    /**
+     * The file holding this variant's weights, for FP32 the folder DJL picks the latest epoch from.
+     */
+    public Path file(Path modelFolder) {
+        return suffix == null ? modelFolder : modelFolder.resolve(MODEL_NAME + suffix);
+    }
+
+    /**
+     * The class names of the trained outputs in label order, from the {@code synset.txt} the training writes
+     * next to the checkpoint. The outputs of the 10-way head past these are never trained.
+     */
+    public static List<String> readClasses(Path modelFolder) throws IOException {
+        Path file = modelFolder.resolve(SYNSET);
+        if (!Files.exists(file)) {
+            throw new FileNotFoundException("No " + SYNSET + " in " + modelFolder
+                    + ", retrain with TrainingNationalIDCardDetector to write it");
+        }
+        return Files.readAllLines(file).stream()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    public static void writeClasses(Path modelFolder, List<String> classes) throws IOException {
+        Files.write(modelFolder.resolve(SYNSET), classes);
+    }
+
+    public Model load(String name, Path modelFolder) throws IOException, MalformedModelException {
+        Model model = Model.newInstance(name);
+        model.setBlock(newBlock());
+        try {
+            if (this == FP32) {
+                model.load(modelFolder, MODEL_NAME);
+            } else {
+                model.getBlock().initialize(model.getNDManager(), DataType.FLOAT32, INPUT_SHAPE);
+                QuantizedWeights.read(file(modelFolder)).applyTo(model.getBlock());
+            }
+        } catch (IOException | MalformedModelException | RuntimeException e) {
+            model.close();
+            throw e;
+        }
+        return model;
+    }
+}
@@ -0,0 +1,199 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Streams the image of a {@code multipart/form-data} request body without buffering the body or writing it to a
+ * temporary file. The returned stream reads the part's content straight from the request and ends at the
+ * part's boundary, so it can be handed to the decoder as it is.
+ *
+ * <p>A body that ends inside a part's headers or content, before the part's closing delimiter, is malformed:
+ * reading it throws a {@link MalformedBodyException}, which a server answers with 400.
+ */
+public final class MultipartBodyStream {
+    private MultipartBodyStream() {
+    }
+
+    /**
+     * The boundary of a multipart content type, or null when it is not multipart.
+     */
+    public static String boundary(String contentType) {
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/")) {
+            return null;
+        }
+        for (String parameter : contentType.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.toLowerCase(Locale.ROOT).startsWith("boundary=")) {
+                String value = trimmed.substring("boundary=".length());
+                return value.startsWith("\"") && value.endsWith("\"") && value.length() > 1
+                        ? value.substring(1, value.length() - 1)
+                        : value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Positions the body at the first part that carries a file or an image and returns its content, or null when
+     * the body has no such part.
+     *
+     * @throws MalformedBodyException when the body ends before the file part's content starts
+     */
+    public static InputStream firstFilePart(InputStream body, String boundary) throws IOException {
+        String delimiter = "--" + boundary;
+        String line;
+        // Skip the preamble up to the first delimiter
+        do {
+            line = readLine(body);
+            if (line == null) {
+                return null;
+            }
+        } while (!line.equals(delimiter));
+
+        while (true) {
+            boolean file = false;
+            while (!(line = headerLine(body)).isEmpty()) {
+                String header = line.toLowerCase(Locale.ROOT);
+                if (header.startsWith("content-disposition:") && header.contains("filename=")
+                        || header.startsWith("content-type:") && header.contains("image/")) {
+                    file = true;
+                }
+            }
+            PartStream part = new PartStream(body, ("\r\n" + delimiter).getBytes(StandardCharsets.ISO_8859_1));
+            if (file) {
+                return part;
+            }
+            part.skipToEnd();
+            // "--" after the delimiter closes the body, otherwise the line ends and the next part starts
+            String rest = readLine(body);
+            if (rest == null || rest.startsWith("--")) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Whether the exception, or one it was caused by, reports a malformed body. Decoders wrap the errors of the
+     * stream they read from.
+     */
+    public static boolean isMalformedBody(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MalformedBodyException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String headerLine(InputStream in) throws IOException {
+        String line = readLine(in);
+        if (line == null) {
+            throw new MalformedBodyException("The multipart body ends inside the headers of a part");
+        }
+        return line;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+            }
+            line.write(b);
+        }
+        return line.size() == 0 ? null : line.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * The body is not well-formed multipart, for example it was cut off before the closing delimiter.
+     */
+    public static final class MalformedBodyException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public MalformedBodyException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The content of one part. A lookahead window of the delimiter's length holds the bytes not yet returned,
+     * the part ends when the window matches the delimiter. The body ending before that is an error, not the end
+     * of the part, so a truncated upload is never decoded as if it were complete.
+     */
+    private static final class PartStream extends InputStream {
+        private final InputStream in;
+        private final byte[] delimiter;
+        private final byte[] window;
+        private int start;
+        private boolean ended;
+
+        PartStream(InputStream in, byte[] delimiter) throws IOException {
+            this.in = in;
+            this.delimiter = delimiter;
+            this.window = new byte[delimiter.length];
+            for (int filled = 0; filled < window.length; filled++) {
+                window[filled] = (byte) next();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (ended || matches()) {
+                ended = true;
+                return -1;
+            }
+            int b = window[start] & 0xFF;
+            window[start] = (byte) next();
+            start = (start + 1) % window.length;
+            return b;
+        }
+
+        private int next() throws IOException {
+            int b = in.read();
+            if (b == -1) {
+                throw new MalformedBodyException("The multipart body ends before the part's closing delimiter");
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            int count = 0;
+            while (count < length) {
+                int b = read();
+                if (b == -1) {
+                    break;
+                }
+                buffer[offset + count++] = (byte) b;
+            }
+            return count == 0 ? -1 : count;
+        }
+
+        private boolean matches() {
+            // Compare the last byte first, it rarely matches inside image data
+            if (window[(start + window.length - 1) % window.length] != delimiter[delimiter.length - 1]) {
+                return false;
+            }
+            for (int i = 0; i < delimiter.length; i++) {
+                if (window[(start + i) % window.length] != delimiter[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void skipToEnd() throws IOException {
+            while (read() != -1) {
+                // Discard the part
+            }
+        }
+    }
+}
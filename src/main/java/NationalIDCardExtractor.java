@@ -1,94 +1,255 @@
 import ai.djl.Model;
 import ai.djl.ModelException;
-import ai.djl.inference.Predictor;
-import ai.djl.modality.cv.Image;
-import ai.djl.modality.cv.ImageFactory;
-import ai.djl.ndarray.NDArray;
-import ai.djl.ndarray.NDList;
-import ai.djl.translate.Batchifier;
+import ai.djl.nn.Block;
+import ai.djl.nn.SequentialBlock;
 import ai.djl.translate.TranslateException;
-import ai.djl.translate.TranslatorContext;
-import org.opencv.core.Core;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfByte;
 import org.opencv.imgcodecs.Imgcodecs;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-public class NationalIDCardExtractor {
+public class NationalIDCardExtractor implements AutoCloseable {
     static {
-        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);  // Load OpenCV library
+        Bootstrap.loadNativeLibraries();  // Load OpenCV library once per JVM
     }
 
     private Model model;
-    private Predictor<Image, NDArray> predictor;
+    private PredictorPool<Mat, float[]> predictors;
+    // Created on first use, the backbone without the classifier head
+    private Model embeddingModel;
+    private PredictorPool<Mat, float[]> embeddingPredictors;
+    private int poolSize;
+    private ResultCache<float[]> resultCache;
+    // Resized model inputs are all 256x156, so a handful of pooled Mats serves every request
+    private BufferPool<Mat> inputBuffers;
+    private DecodeBuffers decodeBuffers;
+    private BufferPool<MatNDArrayConverter.RgbBuffer> conversionBuffers;
 
     public NationalIDCardExtractor(String name, Path modelFolderPath) throws IOException, ModelException {
-        // Load the trained model
+        this(name, modelFolderPath, Runtime.getRuntime().availableProcessors());
+    }
+
+    public NationalIDCardExtractor(String name, Path modelFolderPath, int poolSize) throws IOException, ModelException {
+        // Load the trained model once, every pooled predictor shares its weights
         model = Model.newInstance(name);
         model.load(modelFolderPath);
-        predictor = model.newPredictor(new ImageTranslator());
+        initPredictors(name, poolSize);
     }
 
-    public NDArray extractFeatures(String imagePath) throws Exception {
-        // Load and process the image
-        Mat mat = ResizeExampleByOpenCV.resize(Paths.get(imagePath), 256, 156, true);
-        MatOfByte matOfByte = new MatOfByte();
-        Imgcodecs.imencode(".jpg", mat, matOfByte);
+    /**
+     * Serves one of the exported {@link ModelVariant}s, for instance the INT8 weights written by {@link ModelQuantizer}.
+     */
+    public NationalIDCardExtractor(String name, Path modelFolderPath, int poolSize, ModelVariant variant) throws IOException, ModelException {
+        model = variant.load(name, modelFolderPath);
+        initPredictors(name, poolSize);
+    }
 
-        Image img = ImageFactory.getInstance().fromInputStream(new ByteArrayInputStream(matOfByte.toArray()));
-        NDArray result = predictor.predict(img);
-        return result;
+    private void initPredictors(String name, int poolSize) {
+        this.poolSize = poolSize;
+        inputBuffers = BufferPool.forMats(poolSize * 2);
+        decodeBuffers = new DecodeBuffers(poolSize * 2);
+        conversionBuffers = MatNDArrayConverter.newBufferPool(poolSize * 2);
+        predictors = PredictorPool.builder(() -> model.newPredictor(new MatTranslator(conversionBuffers)))
+                .optSize(poolSize)
+                .build();
+        PipelineMetrics.watch("extractor-" + name, model::getNDManager);
     }
 
-    public static void main(String[] args) {
-        try {
-            NationalIDCardExtractor extractor = new NationalIDCardExtractor(
-                    "resnet", Paths.get("models/national_id_card"));
+    /**
+     * The 10 class logits of the image. They only say which class the card resembles, use
+     * {@link #extractEmbedding(String)} to tell cards apart.
+     */
+    public float[] extractFeatures(String imagePath) throws Exception {
+        return predict(predictors, imagePath);
+    }
 
-            // Path to the image you want to classify
-            String imagePath = "path/to/national_id_image.jpg";
-            NDArray result = extractor.extractFeatures(imagePath);
+    /**
+     * The image's embedding: the globally pooled channels of the last residual stage, the vector the classifier
+     * head reads. Two photos of the same card lie close together in it, while their logits are close for any two
+     * cards of the same class. Needs a model built on {@link ModelVariant#newBlock()}, as every
+     * {@link ModelVariant} constructor loads it.
+     */
+    public float[] extractEmbedding(String imagePath) throws Exception {
+        return predict(embeddingPredictors(), imagePath);
+    }
 
-            // Output the results
-            System.out.println("Extracted features: " + result);
-        } catch (Exception e) {
-            e.printStackTrace();
+    private synchronized PredictorPool<Mat, float[]> embeddingPredictors() {
+        if (embeddingPredictors == null) {
+            Block block = model.getBlock();
+            if (!(block instanceof SequentialBlock) || block.getChildren().size() < 3) {
+                throw new UnsupportedOperationException("Embeddings need the ResNet block, load the model through a ModelVariant");
+            }
+            // Drop the Linear head and the flatten after it, the flatten after global pooling stays
+            List<Block> layers = block.getChildren().values();
+            SequentialBlock backbone = new SequentialBlock();
+            backbone.addAll(layers.subList(0, layers.size() - 2));
+            embeddingModel = Model.newInstance(model.getName() + "-embedding");
+            embeddingModel.setBlock(backbone);
+            embeddingPredictors = PredictorPool.builder(() -> embeddingModel.newPredictor(new MatTranslator(conversionBuffers)))
+                    .optSize(poolSize)
+                    .build();
         }
+        return embeddingPredictors;
     }
-}
 
-class ImageTranslator implements ai.djl.translate.Translator<Image, NDArray> {
-    @Override
-    public NDList processInput(TranslatorContext ctx, Image input) throws Exception {
-        // Convert image to NDArray directly
-        NDArray ndArray = input.toNDArray(ctx.getNDManager());
-
-//        // Resize the NDArray to 256x256 (adjust to three channels)
-//        ndArray = ndArray.getNDArrayInternal().resize(256, 256, 1);
+    private float[] predict(PredictorPool<Mat, float[]> pool, String imagePath) throws Exception {
+        // Load and process the image, the decoded pixels go straight to the model without re-encoding
+        Path path = Paths.get(imagePath);
+        JpegHeader header = JpegHeader.read(path);
+        // Large JPEGs decode at a reduced scale, into a reused Mat that keeps its buffer for same-size images
+        Mat decoded = decodeBuffers.decode(path, ResizeExampleByOpenCV.reducedReadFlag(header, 256, 156));
+        try (MatArena mats = new MatArena()) {
+            if (decoded.empty()) {
+                throw new IllegalArgumentException("Cannot decode image " + imagePath);
+            }
+            double aspectRatio = ResizeExampleByOpenCV.sourceAspectRatio(header, decoded);
+            Mat mat = mats.track(ResizeExampleByOpenCV.resize(decoded, aspectRatio, 256, 156, true, inputBuffers), inputBuffers);
+            return pool.predict(mat);
+        } finally {
+            decodeBuffers.giveBack(decoded);
+        }
+    }
 
-        // Normalize the NDArray with mean and standard deviation
-        ndArray = ndArray.sub(0.5f).div(0.5f); // Alternatively, you can customize for your use case
+    /**
+     * Extracts the feature vector of an image given as encoded bytes. With a result cache set, a resubmitted
+     * image is answered from the cache without decoding or inference.
+     */
+    public float[] extractFeatures(byte[] imageBytes) throws Exception {
+        String key = null;
+        if (resultCache != null) {
+            key = resultCache.key(imageBytes);
+            float[] cached = resultCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
 
-        // Add batch dimension to the NDArray, making shape [1, 3, 256, 256]
-        ndArray = ndArray.expandDims(0); // Expand dims to add a batch size of 1
+        // Every Mat of this request is released when the arena closes, on success, cache hit or failure
+        try (MatArena mats = new MatArena()) {
+            JpegHeader header = JpegHeader.read(new ByteArrayInputStream(imageBytes));
+            long start = System.nanoTime();
+            MatOfByte encoded = mats.track(new MatOfByte(imageBytes));
+            Mat decoded = mats.track(Imgcodecs.imdecode(encoded, ResizeExampleByOpenCV.reducedReadFlag(header, 256, 156)));
+            PipelineMetrics.Stage.DECODE.recordSince(start);
+            if (decoded.empty()) {
+                throw new IllegalArgumentException("Cannot decode image");
+            }
+            double aspectRatio = ResizeExampleByOpenCV.sourceAspectRatio(header, decoded);
+            Mat mat = mats.track(ResizeExampleByOpenCV.resize(decoded, aspectRatio, 256, 156, true, inputBuffers), inputBuffers);
+
+            Long perceptualHash = null;
+            if (resultCache != null) {
+                perceptualHash = resultCache.isNearDuplicateEnabled() ? ImageHashes.dHash(decoded) : null;
+                float[] similar = resultCache.getSimilar(perceptualHash);
+                if (similar != null) {
+                    return similar;
+                }
+            }
+            float[] features = predictors.predict(mat);
+            if (resultCache != null) {
+                resultCache.put(key, features, perceptualHash);
+            }
+            return features;
+        }
+    }
 
-        return new NDList(ndArray);
+    public void setResultCache(ResultCache<float[]> resultCache) {
+        this.resultCache = resultCache;
     }
 
+    /**
+     * A feature-vector cache bounded to {@code maxBytes} in memory, with an optional disk tier when
+     * {@code diskFolder} is not null.
+     */
+    public static ResultCache<float[]> newResultCache(long maxBytes, Path diskFolder) {
+        ResultCache.Builder<float[]> builder = ResultCache.<float[]>builder()
+                .optMaxEntries(Long.MAX_VALUE)
+                .optMaxBytes(maxBytes, features -> 16L + features.length * Float.BYTES)
+                .optTtl(24, TimeUnit.HOURS)
+                // Callers own the arrays they get, the cached ones are never handed out
+                .optCopier(float[]::clone)
+                // Off unless asked for: cards of one template have near-identical hashes
+                .optNearDuplicateDistance(Integer.getInteger("nationalid.cache.near", -1));
+        if (diskFolder != null) {
+            builder.optDiskTier(diskFolder, new ResultCache.Codec<float[]>() {
+                @Override
+                public byte[] encode(float[] value) throws IOException {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + value.length * Float.BYTES);
+                    try (DataOutputStream out = new DataOutputStream(bytes)) {
+                        out.writeInt(value.length);
+                        for (float v : value) {
+                            out.writeFloat(v);
+                        }
+                    }
+                    return bytes.toByteArray();
+                }
+
+                @Override
+                public float[] decode(byte[] bytes) throws IOException {
+                    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+                        float[] value = new float[in.readInt()];
+                        for (int i = 0; i < value.length; i++) {
+                            value[i] = in.readFloat();
+                        }
+                        return value;
+                    }
+                }
+            });
+        }
+        return builder.build();
+    }
 
-    @Override
-    public NDArray processOutput(TranslatorContext ctx, NDList list) throws Exception {
-        return list.singletonOrThrow(); // Return the first item in the NDList
+    /**
+     * Creates a micro-batching front end over a dedicated predictor of the loaded model. Concurrent callers
+     * submit images and receive futures while the scheduler groups them into {@code batchPredict} calls.
+     */
+    public BatchingPredictor<Mat, float[]> newBatchingPredictor(int maxBatchSize, long maxDelayMillis, int queueCapacity) {
+        return BatchingPredictor.builder(model.newPredictor(new MatTranslator(conversionBuffers)))
+                .optMaxBatchSize(maxBatchSize)
+                .optMaxDelayMillis(maxDelayMillis)
+                .optQueueCapacity(queueCapacity)
+                .build();
     }
 
-    // Optionally implement getBatchifier if needed, otherwise return null
     @Override
-    public Batchifier getBatchifier() {
-        return null; // No batching necessary for individual images
+    public void close() {
+        predictors.close();
+        synchronized (this) {
+            if (embeddingPredictors != null) {
+                embeddingPredictors.close();
+                // The backbone's parameters belong to the main model, which closes them
+                embeddingModel.close();
+            }
+        }
+        model.close();
+        inputBuffers.clear();
+        decodeBuffers.close();
+        conversionBuffers.clear();
     }
 
+    public static void main(String[] args) {
+        try {
+            NationalIDCardExtractor extractor = new NationalIDCardExtractor(
+                    "resnet", Paths.get("models/national_id_card"));
+
+            // Path to the image you want to classify
+            String imagePath = "path/to/national_id_image.jpg";
+            float[] result = extractor.extractFeatures(imagePath);
+
+            // Output the results
+            System.out.println("Extracted features: " + Arrays.toString(result));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 }
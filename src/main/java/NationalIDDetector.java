@@ -0,0 +1,236 @@
+import ai.djl.Application;
+import ai.djl.MalformedModelException;
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+import ai.djl.modality.cv.output.DetectedObjects;
+import ai.djl.ndarray.NDManager;
+import ai.djl.repository.zoo.Criteria;
+import ai.djl.repository.zoo.ModelNotFoundException;
+import ai.djl.repository.zoo.ZooModel;
+import ai.djl.translate.TranslateException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived holder of the resnet50 SSD detection model. The model is loaded once and kept warm, so a call to
+ * {@link #detect(Image)} only pays for the forward pass. The model can be evicted to free native memory and is
+ * loaded again on the next call or through {@link #reload()}.
+ *
+ * <p>Predictions hold no lock. Each one pins the resident model it started on, and eviction or reload only swaps
+ * the reference: a replaced model is closed once its last prediction is done, so neither has to wait for
+ * traffic to stop.
+ */
+public class NationalIDDetector implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(NationalIDDetector.class);
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private final Criteria<Image, DetectedObjects> criteria;
+    private final int poolSize;
+    private final String metricsName;
+    // Serializes loads and swaps, predictions never take it
+    private final Object loadLock = new Object();
+    private volatile Resident resident;
+
+    public NationalIDDetector() {
+        this(defaultCriteria(), Runtime.getRuntime().availableProcessors());
+    }
+
+    public NationalIDDetector(Criteria<Image, DetectedObjects> criteria, int poolSize) {
+        this.criteria = criteria;
+        this.poolSize = poolSize;
+        metricsName = "detector-" + instances.incrementAndGet();
+        PipelineMetrics.watch(metricsName, this::getNDManager);
+    }
+
+    public static Criteria<Image, DetectedObjects> defaultCriteria() {
+        return Criteria.builder()
+                .setTypes(Image.class, DetectedObjects.class) // Define input and output types
+                .optApplication(Application.CV.OBJECT_DETECTION) // Specify application
+                .optFilter("size", "512") // Filter for size 512
+                .optFilter("backbone", "resnet50") // Use resnet50 backbone
+                .optFilter("flavor", "v1") // Specify flavor
+                .optFilter("dataset", "voc") // Dataset is VOC
+                .optGroupId("ai.djl.mxnet") // Specify MXNet engine
+                .optArtifactId("ssd") // Specify SSD model
+                .build();
+    }
+
+    /**
+     * Runs the detector on an already preprocessed image, loading the model first if it is not resident.
+     */
+    public DetectedObjects detect(Image image) throws IOException, MalformedModelException, TranslateException {
+        Resident current = acquire();
+        try {
+            return current.predictors.predict(image);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TranslateException("Interrupted while waiting for a detection predictor", e);
+        } catch (TimeoutException e) {
+            throw new TranslateException(e);
+        } finally {
+            current.release();
+        }
+    }
+
+    /**
+     * Runs the detector on several preprocessed images of the same size in one batched forward pass.
+     */
+    public List<DetectedObjects> detectBatch(List<Image> images) throws IOException, MalformedModelException, TranslateException {
+        Resident current = acquire();
+        try {
+            return current.predictors.batchPredict(images);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TranslateException("Interrupted while waiting for a detection predictor", e);
+        } catch (TimeoutException e) {
+            throw new TranslateException(e);
+        } finally {
+            current.release();
+        }
+    }
+
+    /**
+     * Loads the model if needed and runs a few predictions on a blank image, so JIT compilation and native
+     * kernel selection happen before the first real request.
+     */
+    public void warmUp(int iterations) throws IOException, MalformedModelException, TranslateException {
+        long start = System.nanoTime();
+        Image blank = ImageFactory.getInstance().fromImage(new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB));
+        for (int i = 0; i < iterations; i++) {
+            detect(blank);
+        }
+        logger.info("Detection model warmed up with {} iterations in {} ms", iterations, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private NDManager getNDManager() {
+        Resident current = resident;
+        return current == null ? null : current.model.getNDManager();
+    }
+
+    public boolean isLoaded() {
+        return resident != null;
+    }
+
+    /**
+     * Releases the model and its predictors once the predictions running on them are done. The next
+     * {@link #detect(Image)} loads it again.
+     */
+    public void evict() {
+        synchronized (loadLock) {
+            Resident evicted = resident;
+            if (evicted != null) {
+                resident = null;
+                evicted.retire();
+                logger.info("Detection model evicted");
+            }
+        }
+    }
+
+    /**
+     * Replaces the resident model with a freshly loaded one. Predictions keep running on the old model while the
+     * new one loads, the old one is closed once they are done.
+     */
+    public void reload() throws IOException, MalformedModelException {
+        synchronized (loadLock) {
+            Resident replaced = resident;
+            resident = load();
+            if (replaced != null) {
+                replaced.retire();
+            }
+        }
+    }
+
+    /**
+     * Pins the resident model for one prediction, loading it first if it is not resident.
+     */
+    private Resident acquire() throws IOException, MalformedModelException {
+        while (true) {
+            Resident current = resident;
+            if (current == null) {
+                synchronized (loadLock) {
+                    if (resident == null) {
+                        resident = load();
+                    }
+                }
+            } else if (current.acquire()) {
+                return current;
+            }
+            // Evicted or replaced since it was read, take the current one
+        }
+    }
+
+    private Resident load() throws IOException, MalformedModelException {
+        long start = System.nanoTime();
+        Resident loaded;
+        try {
+            ZooModel<Image, DetectedObjects> model = criteria.loadModel();
+            loaded = new Resident(model, PredictorPool.builder(model::newPredictor).optSize(poolSize).build());
+        } catch (ModelNotFoundException e) {
+            logger.error("Model not found", e);
+            throw new RuntimeException(e);
+        }
+        logger.info("Detection model loaded in {} ms", (System.nanoTime() - start) / 1_000_000);
+        return loaded;
+    }
+
+    @Override
+    public void close() {
+        evict();
+        PipelineMetrics.unwatch(metricsName);
+    }
+
+    /**
+     * A loaded model with its predictors and the number of predictions running on it.
+     */
+    private static final class Resident {
+        final ZooModel<Image, DetectedObjects> model;
+        final PredictorPool<Image, DetectedObjects> predictors;
+        private int users;
+        private boolean retired;
+
+        Resident(ZooModel<Image, DetectedObjects> model, PredictorPool<Image, DetectedObjects> predictors) {
+            this.model = model;
+            this.predictors = predictors;
+        }
+
+        synchronized boolean acquire() {
+            if (retired) {
+                return false;
+            }
+            users++;
+            return true;
+        }
+
+        void release() {
+            boolean last;
+            synchronized (this) {
+                last = --users == 0 && retired;
+            }
+            if (last) {
+                closeNow();
+            }
+        }
+
+        void retire() {
+            boolean idle;
+            synchronized (this) {
+                retired = true;
+                idle = users == 0;
+            }
+            if (idle) {
+                closeNow();
+            }
+        }
+
+        private void closeNow() {
+            predictors.close();
+            model.close();
+        }
+    }
+}
@@ -14,7 +14,6 @@ import ai.djl.nn.Block;
 import ai.djl.translate.Batchifier;
 import ai.djl.translate.Translator;
 import ai.djl.translate.TranslatorContext;
-import org.opencv.core.Core;
 
 import java.io.FileOutputStream;
 import java.io.OutputStream;
@@ -26,7 +25,7 @@ import java.util.stream.IntStream;
 
 public class NationalIDExtractor {
     static {
-        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);  // Load OpenCV library
+        Bootstrap.loadNativeLibraries();  // Load OpenCV library once per JVM
     }
 
     public static void main(String[] args) throws Exception {
@@ -1,138 +1,370 @@
-import ai.djl.Application;
 import ai.djl.MalformedModelException;
-import ai.djl.inference.Predictor;
-import ai.djl.modality.Classifications;
+import ai.djl.ModelException;
 import ai.djl.modality.cv.Image;
 import ai.djl.modality.cv.ImageFactory;
 import ai.djl.modality.cv.output.BoundingBox;
 import ai.djl.modality.cv.output.DetectedObjects;
-import ai.djl.repository.zoo.Criteria;
-import ai.djl.repository.zoo.ModelNotFoundException;
-import ai.djl.repository.zoo.ModelZoo;
-import ai.djl.repository.zoo.ZooModel;
+import ai.djl.modality.cv.output.Rectangle;
 import ai.djl.training.util.ProgressBar;
 import ai.djl.translate.TranslateException;
+import org.opencv.core.Mat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class NationalIDProcessor {
     private static final Logger logger = LoggerFactory.getLogger(NationalIDProcessor.class);
 
+    // Loaded once and shared by every call, so each image only pays for the forward pass
+    private static final NationalIDDetector detector = new NationalIDDetector();
+
+    // Resubmitted cards are answered from here, set -Dnationalid.cache.dir to keep results across restarts
+    private static final ResultCache<DetectedObjects> detectionCache = newDetectionCache();
+
+    // The 640x480 detector inputs are drawn into pooled images instead of a new one per call
+    private static final BufferPool<BufferedImage> preprocessBuffers =
+            BufferPool.forImages(Runtime.getRuntime().availableProcessors() * 2);
+
+    // Finds and deskews the card in a few milliseconds, before and instead of the detector when it is confident
+    private static final CardLocalizer localizer = CardLocalizer.builder().build();
+
+    // Set by the cascade mode, images the classifier rejects never reach the detector
+    private static volatile CascadeGate cascadeGate;
+
+    // Set by the tiled modes, large scans are detected tile by tile instead of squashed to 640x480
+    private static volatile TiledDetector tiledDetector;
+
+    // -Dnationalid.classes=a,b limits the detections served as cards to those classes, tiled or not
+    private static final Set<String> cardClasses = System.getProperty("nationalid.classes") == null
+            ? null : Set.of(System.getProperty("nationalid.classes").split(","));
+
     public static void main(String[] args) throws IOException, MalformedModelException, TranslateException {
         logger.info("Starting National ID Processor");
-        try {    // Load the image
-            Path imagePath = Paths.get("samples/tai-phoi-can-cuoc-cong-dan-psd.png");
-            Image image = ImageFactory.getInstance().fromFile(imagePath);
-
-            // Detect the national ID in the image
-            DetectedObjects detection = detectNationalID(image);
+        PipelineMetrics.startFromSystemProperties();
+        try {
+            setCascadeGate(cascadeGateFromSystemProperties());
 
-            if (detection.items().isEmpty()) {
-                logger.warn("No objects detected in the image. Please check if the image contains a national ID and if the model is appropriate for this task.");
-                return;
+            // -Dnationalid.tiled=tiled|coarse detects multi-card scans in overlapping tiles, coarse only where a
+            // low-resolution pass found something
+            String tiled = System.getProperty("nationalid.tiled");
+            if (tiled != null) {
+                setTiledDetector(TiledDetector.builder(detector)
+                        .optMode("coarse".equals(tiled) ? TiledDetector.Mode.COARSE_TO_FINE : TiledDetector.Mode.TILED)
+                        .optTileSize(Integer.getInteger("nationalid.tiled.size", 1024))
+                        .optCardClasses(cardClasses)
+                        .build());
             }
 
-            // Extract the national ID
-            Image extractedID = extractNationalID(image, detection);
+            // Load the detection model and run it a few times before the first real image
+            warmUp(3);
 
-            if (extractedID == null) {
-                logger.warn("Failed to extract the national ID. The detected object might not be a national ID.");
-                return;
-            }
+            // Load the image
+            Path imagePath = Paths.get("samples/tai-phoi-can-cuoc-cong-dan-psd.png");
+            long start = System.nanoTime();
+            Image image = ImageFactory.getInstance().fromFile(imagePath);
+            PipelineMetrics.Stage.DECODE.recordSince(start);
+
+            // -Dnationalid.multi=true saves every card of a scan holding several, one file per detection
+            if (Boolean.getBoolean("nationalid.multi")) {
+                List<Image> cards = extractAllNationalIDs(image);
+                if (cards.isEmpty()) {
+                    logger.warn("No national ID found in the image. Please check if the image contains a national ID and if the model is appropriate for this task.");
+                    return;
+                }
+                start = System.nanoTime();
+                for (int i = 0; i < cards.size(); i++) {
+                    try (FileOutputStream fileOutputStream = new FileOutputStream("results/tai-phoi-can-cuoc-cong-dan-psd-" + i + ".png")) {
+                        cards.get(i).save(fileOutputStream, "jpg");
+                    }
+                }
+            } else {
+                // Find the card geometrically, the detector only runs when the localizer is not confident
+                Image rotatedID = extractNationalID(image);
 
-            // Rotate the ID to the correct position
-            Image rotatedID = rotateIDToCorrectPosition(extractedID);
-            // Save the processed image
-            try (FileOutputStream fileOutputStream = new FileOutputStream("results/tai-phoi-can-cuoc-cong-dan-psd.png")) {
-                rotatedID.save(fileOutputStream, "jpg");
+                if (rotatedID == null) {
+                    logger.warn("No national ID found in the image. Please check if the image contains a national ID and if the model is appropriate for this task.");
+                    return;
+                }
+
+                // Save the processed image
+                start = System.nanoTime();
+                try (FileOutputStream fileOutputStream = new FileOutputStream("results/tai-phoi-can-cuoc-cong-dan-psd.png")) {
+                    rotatedID.save(fileOutputStream, "jpg");
+                }
             }
+            PipelineMetrics.Stage.SAVE.recordSince(start);
 
         } catch (Exception e) {
             logger.error("An error occurred during processing", e);
         }
         logger.info("Processed national ID saved successfully.");
+        PipelineMetrics.logSummary();
+        CascadeGate gate = cascadeGate;
+        if (gate != null) {
+            gate.logSummary();
+            gate.close();
+        }
+        PipelineMetrics.stop();
 
     }
 
-    private static DetectedObjects detectNationalID(Image image) throws IOException, MalformedModelException, TranslateException {
-        // Preprocess the image
-        image = preprocessImage(image);
-
-        Criteria<Image, DetectedObjects> criteria = Criteria.builder()
-                .setTypes(Image.class, DetectedObjects.class) // Define input and output types
-                .optApplication(Application.CV.OBJECT_DETECTION) // Specify application
-                .optFilter("size", "512") // Filter for size 512
-                .optFilter("backbone", "resnet50") // Use resnet50 backbone
-                .optFilter("flavor", "v1") // Specify flavor
-                .optFilter("dataset", "voc") // Dataset is VOC
-                .optGroupId("ai.djl.mxnet") // Specify MXNet engine
-                .optArtifactId("ssd") // Specify SSD model
-                .build();
+    /**
+     * Loads the shared detection model and runs it a few times, so the first request does not pay for it.
+     */
+    static void warmUp(int iterations) throws IOException, MalformedModelException, TranslateException {
+        detector.warmUp(iterations);
+    }
+
+    static DetectedObjects detectNationalID(Image image) throws IOException, MalformedModelException, TranslateException {
+        CascadeGate gate = cascadeGate;
+        if (gate == null) {
+            return runDetector(image);
+        }
+        if (!gate.decide(image).passes()) {
+            logger.info("Rejected by the cascade gate, the detector was skipped");
+            return new DetectedObjects(Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+        }
+        DetectedObjects result = runDetector(image);
+        gate.recordDetection(result.getNumberOfObjects() > 0);
+        return result;
+    }
 
-        try (ZooModel<Image, DetectedObjects> model = ModelZoo.loadModel(criteria);
-             Predictor<Image, DetectedObjects> predictor = model.newPredictor()) {
+    /**
+     * The gate configured with {@code -Dnationalid.cascade=true}, which screens every image with the ResNet-18
+     * classifier before the SSD detector, or null when the cascade is off.
+     */
+    static CascadeGate cascadeGateFromSystemProperties() throws IOException, ModelException {
+        if (!Boolean.getBoolean("nationalid.cascade")) {
+            return null;
+        }
+        return CascadeGate.builder(Paths.get(System.getProperty("nationalid.cascade.model", "models/national_id_card")))
+                .optRejectBelow(Float.parseFloat(System.getProperty("nationalid.cascade.reject", "0.1")))
+                .optPositiveAbove(Float.parseFloat(System.getProperty("nationalid.cascade.positive", "0.9")))
+                .build();
+    }
 
-            DetectedObjects result = predictor.predict(image);
+    /**
+     * Turns the cascade mode on with the given gate, or off with null.
+     */
+    static void setCascadeGate(CascadeGate gate) {
+        cascadeGate = gate;
+    }
 
-            // Log the detection results
-            logger.info("Detection Results:");
-            for (DetectedObjects.DetectedObject obj : result.<DetectedObjects.DetectedObject>items()) {
-                logger.info("Class: {}, Probability: {}", obj.getClassName(), obj.getProbability());
-            }
+    /**
+     * Turns the tiled detection of large scans on with the given detector, or off with null.
+     */
+    static void setTiledDetector(TiledDetector tiled) {
+        tiledDetector = tiled;
+    }
 
+    private static DetectedObjects runDetector(Image image) throws IOException, MalformedModelException, TranslateException {
+        TiledDetector tiled = tiledDetector;
+        if (tiled != null) {
+            DetectedObjects result = tiled.detect(image);
+            PipelineMetrics.increment(result.getNumberOfObjects() == 0 ? "no_detection" : "detected");
             return result;
-        } catch (ModelNotFoundException e) {
-            logger.error("Model not found", e);
-            throw new RuntimeException(e);
         }
+
+        // Preprocess the image
+        long start = System.nanoTime();
+        BufferedImage preprocessed = preprocessBuffers.acquire(640, 480, BufferedImage.TYPE_INT_RGB);
+        DetectedObjects result;
+        try {
+            preprocessInto((BufferedImage) image.getWrappedImage(), preprocessed);
+            PipelineMetrics.Stage.PREPROCESS.recordSince(start);
+
+            start = System.nanoTime();
+            result = detector.detect(ImageFactory.getInstance().fromImage(preprocessed));
+            PipelineMetrics.Stage.DETECT.recordSince(start);
+        } finally {
+            // The detector has copied the pixels into its input tensor by now
+            preprocessBuffers.giveBack(preprocessed);
+        }
+        PipelineMetrics.increment(result.getNumberOfObjects() == 0 ? "no_detection" : "detected");
+
+        // Log the detection results
+        logger.info("Detection Results:");
+        for (DetectedObjects.DetectedObject obj : result.<DetectedObjects.DetectedObject>items()) {
+            logger.info("Class: {}, Probability: {}", obj.getClassName(), obj.getProbability());
+        }
+
+        return result;
+    }
+
+    /**
+     * Detects the national ID in an encoded image. A resubmission of the same bytes returns the cached result
+     * without decoding, and a near-duplicate returns it after decoding but without inference.
+     */
+    static DetectedObjects detectNationalID(byte[] imageBytes) throws IOException, MalformedModelException, TranslateException {
+        String key = detectionCache.key(imageBytes);
+        DetectedObjects cached = detectionCache.get(key);
+        if (cached != null) {
+            PipelineMetrics.increment("cache_hit");
+            return cached;
+        }
+
+        long start = System.nanoTime();
+        Image image = ImageFactory.getInstance().fromInputStream(new ByteArrayInputStream(imageBytes));
+        PipelineMetrics.Stage.DECODE.recordSince(start);
+        // The perceptual hash is only worth computing when near-duplicate lookups are on
+        Long perceptualHash = detectionCache.isNearDuplicateEnabled()
+                ? ImageHashes.dHash((BufferedImage) image.getWrappedImage()) : null;
+        DetectedObjects similar = detectionCache.getSimilar(perceptualHash);
+        if (similar != null) {
+            PipelineMetrics.increment("cache_near_hit");
+            return similar;
+        }
+
+        DetectedObjects result = detectNationalID(image);
+        detectionCache.put(key, result, perceptualHash);
+        return result;
+    }
+
+    static ResultCache<DetectedObjects> getDetectionCache() {
+        return detectionCache;
     }
 
-    private static Image preprocessImage(Image image) throws IOException {
-        // Convert DJL Image to BufferedImage
-        BufferedImage bufferedImage = (BufferedImage) image.getWrappedImage();
+    private static ResultCache<DetectedObjects> newDetectionCache() {
+        ResultCache.Builder<DetectedObjects> builder = ResultCache.<DetectedObjects>builder()
+                .optMaxEntries(100_000)
+                .optTtl(24, TimeUnit.HOURS)
+                // Off unless asked for: cards of one template have near-identical hashes
+                .optNearDuplicateDistance(Integer.getInteger("nationalid.cache.near", -1));
+        String cacheDir = System.getProperty("nationalid.cache.dir");
+        if (cacheDir != null) {
+            builder.optDiskTier(Paths.get(cacheDir), new DetectedObjectsCodec());
+        }
+        return builder.build();
+    }
 
-        // Resize the BufferedImage
-        BufferedImage resized = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = resized.createGraphics();
+    /**
+     * Scales the source over the whole of {@code target}. The target is reused between calls, so translucent
+     * sources are drawn over black as they were on a fresh image.
+     */
+    static void preprocessInto(BufferedImage source, BufferedImage target) {
+        Graphics2D g = target.createGraphics();
+        if (source.getColorModel().hasAlpha()) {
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, target.getWidth(), target.getHeight());
+        }
         g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g.drawImage(bufferedImage, 0, 0, 640, 480, null);
+        g.drawImage(source, 0, 0, target.getWidth(), target.getHeight(), null);
         g.dispose();
-
-        // Convert back to DJL Image
-        return ImageFactory.getInstance().fromImage(resized);
     }
 
 
-    private static Image extractNationalID(Image originalImage, Classifications detection) {
-        if (detection.items().isEmpty()) {
-            logger.warn("No classifications found in the image.");
-            return null;
+    /**
+     * Extracts the upright card from the image. The OpenCV localizer runs first and its perspective-corrected
+     * crop is used when it is confident, otherwise the crop comes from the SSD detector and is deskewed
+     * afterwards. Returns null when neither finds a card.
+     */
+    static Image extractNationalID(Image image) throws IOException, MalformedModelException, TranslateException {
+        long start = System.nanoTime();
+        Mat source = CardLocalizer.toMat((BufferedImage) image.getWrappedImage());
+        try {
+            CardLocalizer.Quad quad = localizer.locate(source);
+            if (localizer.isConfident(quad)) {
+                Mat card = localizer.extract(source, quad);
+                try {
+                    PipelineMetrics.increment("localized");
+                    return ImageFactory.getInstance().fromImage(CardLocalizer.toBufferedImage(card));
+                } finally {
+                    card.release();
+                }
+            }
+        } finally {
+            source.release();
+            PipelineMetrics.Stage.LOCALIZE.recordSince(start);
+        }
+
+        PipelineMetrics.increment("localizer_fallback");
+        DetectedObjects detection = detectNationalID(image);
+        Image crop = cropToBestDetection(image, detection);
+        return crop == null ? null : rotateIDToCorrectPosition(crop);
+    }
+
+    /**
+     * Extracts every card of a scan holding several, one upright crop per detection. The localizer is skipped, it
+     * looks for a single card. The tiled detector filters its own detections, the single pass keeps those
+     * {@link TiledDetector#isCard} accepts.
+     */
+    static List<Image> extractAllNationalIDs(Image image) throws IOException, MalformedModelException, TranslateException {
+        List<Image> cards = new ArrayList<>();
+        for (DetectedObjects.DetectedObject obj : detectNationalID(image).<DetectedObjects.DetectedObject>items()) {
+            if (!TiledDetector.isCard(obj, TiledDetector.DEFAULT_MIN_PROBABILITY, cardClasses)) {
+                continue;
+            }
+            cards.add(rotateIDToCorrectPosition(crop(image, obj)));
         }
+        return cards;
+    }
 
-        // Log all classifications
-        for (Classifications.Classification c : detection.items()) {
-            logger.info("Detected class: {} with probability: {}", c.getClassName(), c.getProbability());
+    /**
+     * Crops the original image to the most probable detection.
+     */
+    static Image cropToBestDetection(Image originalImage, DetectedObjects detection) {
+        DetectedObjects.DetectedObject best = null;
+        for (DetectedObjects.DetectedObject obj : detection.<DetectedObjects.DetectedObject>items()) {
+            if (best == null || obj.getProbability() > best.getProbability()) {
+                best = obj;
+            }
         }
+        return best == null ? null : crop(originalImage, best);
+    }
+
+    /**
+     * Crops the original image to a detection. The boxes are relative to the whole original, whether it was
+     * preprocessed in one piece or in tiles, so they map onto it by scaling with its size.
+     */
+    private static Image crop(Image originalImage, DetectedObjects.DetectedObject detection) {
+        long start = System.nanoTime();
+        Rectangle rect = detection.getBoundingBox().getBounds();
+        int x = clamp((int) (rect.getX() * originalImage.getWidth()), 0, originalImage.getWidth() - 1);
+        int y = clamp((int) (rect.getY() * originalImage.getHeight()), 0, originalImage.getHeight() - 1);
+        int width = clamp((int) (rect.getWidth() * originalImage.getWidth()), 1, originalImage.getWidth() - x);
+        int height = clamp((int) (rect.getHeight() * originalImage.getHeight()), 1, originalImage.getHeight() - y);
+        Image crop = originalImage.getSubImage(x, y, width, height);
+        PipelineMetrics.Stage.CROP.recordSince(start);
+        return crop;
+    }
 
-        // For now, we'll just return the entire original image
-        // In a real scenario, you'd need to implement logic to determine if any of the
-        // classifications correspond to a national ID
-        logger.info("Returning full image as no bounding box information is available.");
-        return originalImage;
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
     }
 
-    private static Image rotateIDToCorrectPosition(Image extractedID) {
-        // Implement rotation logic here
-        // You may need to use image processing techniques or machine learning to determine the correct rotation
-        // For simplicity, let's assume the ID is already in the correct position
-        return extractedID;
+    /**
+     * Deskews a crop from the detector. The detector box is axis aligned, so the card outline inside it is
+     * found again and warped upright; when it cannot be found with the localizer's minimum confidence the crop is
+     * only turned to landscape and upright, so a text block or photo inside the box never replaces the card.
+     */
+    static Image rotateIDToCorrectPosition(Image extractedID) {
+        Mat crop = CardLocalizer.toMat((BufferedImage) extractedID.getWrappedImage());
+        Mat card = null;
+        try {
+            CardLocalizer.Quad quad = localizer.locate(crop);
+            if (localizer.isConfident(quad)) {
+                card = localizer.extract(crop, quad);
+            } else {
+                CardLocalizer.orientInPlace(crop);
+            }
+            return ImageFactory.getInstance().fromImage(CardLocalizer.toBufferedImage(card == null ? crop : card));
+        } finally {
+            crop.release();
+            if (card != null) {
+                card.release();
+            }
+        }
     }
 }
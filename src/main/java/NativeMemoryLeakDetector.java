@@ -0,0 +1,111 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Compares the native memory held after each request with a baseline taken once the pipeline is warm. Tracked
+ * Mats and the arrays of watched NDManagers must return to the baseline after every request, anything above it
+ * is held by a request that has finished and is reported as a leak. The resident set size is sampled too, it
+ * catches native allocations that bypass both, but it moves with the allocator so it is only a trend.
+ */
+public class NativeMemoryLeakDetector {
+    private static final Logger logger = LoggerFactory.getLogger(NativeMemoryLeakDetector.class);
+
+    private final long toleranceBytes;
+    private Snapshot baseline;
+    private long requests;
+    private long leakingRequests;
+    private long maxHeldBytes;
+
+    public NativeMemoryLeakDetector(long toleranceBytes) {
+        this.toleranceBytes = toleranceBytes;
+    }
+
+    public void setBaseline() {
+        baseline = Snapshot.take();
+        logger.info("Native memory baseline: {}", baseline);
+    }
+
+    /**
+     * Returns the tracked native bytes held above the baseline after a request, and logs it when it exceeds the
+     * tolerance.
+     */
+    public long check(String request) {
+        if (baseline == null) {
+            setBaseline();
+        }
+        Snapshot now = Snapshot.take();
+        long held = now.trackedBytes() - baseline.trackedBytes();
+        requests++;
+        maxHeldBytes = Math.max(maxHeldBytes, held);
+        if (held > toleranceBytes || now.liveMats > baseline.liveMats || now.ndArrays > baseline.ndArrays) {
+            leakingRequests++;
+            logger.warn("Request {} left {} bytes of native memory behind ({} Mats, {} NDArrays above baseline)",
+                    request, held, now.liveMats - baseline.liveMats, now.ndArrays - baseline.ndArrays);
+        }
+        return held;
+    }
+
+    public long getLeakingRequestCount() {
+        return leakingRequests;
+    }
+
+    public long getRssGrowthBytes() {
+        return baseline == null ? 0 : Snapshot.readRssBytes() - baseline.rssBytes;
+    }
+
+    public void logReport() {
+        logger.info("Leak check over {} requests: {} left native memory behind, max held {} bytes, RSS grew {} MB",
+                requests, leakingRequests, maxHeldBytes, String.format("%.1f", getRssGrowthBytes() / 1e6));
+    }
+
+    static final class Snapshot {
+        final long matBytes;
+        final long liveMats;
+        final long ndBytes;
+        final int ndArrays;
+        final long directBytes;
+        final long rssBytes;
+
+        private Snapshot(long matBytes, long liveMats, long ndBytes, int ndArrays, long directBytes, long rssBytes) {
+            this.matBytes = matBytes;
+            this.liveMats = liveMats;
+            this.ndBytes = ndBytes;
+            this.ndArrays = ndArrays;
+            this.directBytes = directBytes;
+            this.rssBytes = rssBytes;
+        }
+
+        static Snapshot take() {
+            return new Snapshot(PipelineMetrics.getMatBytes(), PipelineMetrics.getLiveMatCount(),
+                    PipelineMetrics.getWatchedNDManagerBytes(), PipelineMetrics.getWatchedNDArrayCount(),
+                    PipelineMetrics.getDirectBufferBytes(), readRssBytes());
+        }
+
+        // Direct buffers are freed by the garbage collector whenever it runs, so they are reported but not checked
+        long trackedBytes() {
+            return matBytes + ndBytes;
+        }
+
+        /**
+         * Resident set size from /proc, 0 where it is not available.
+         */
+        static long readRssBytes() {
+            try {
+                String[] fields = new String(Files.readAllBytes(Paths.get("/proc/self/statm"))).trim().split("\\s+");
+                return Long.parseLong(fields[1]) * 4096;
+            } catch (IOException | RuntimeException e) {
+                return 0;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Mats %d (%d bytes), NDArrays %d (%d bytes), direct buffers %d bytes, RSS %.1f MB",
+                    liveMats, matBytes, ndArrays, ndBytes, directBytes, rssBytes / 1e6);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Runs the feature extractor over a folder of images for many requests and checks after every request that no
+ * native memory was left behind. Exits with status 1 when a request leaked. It needs the native engines and a
+ * trained model, so it runs by hand or in a soak job rather than with the unit tests.
+ *
+ * <p>Usage: {@code NativeMemorySoakCheck [imageFolder] [requests] [toleranceBytes]}
+ */
+public class NativeMemorySoakCheck {
+    static {
+        Bootstrap.loadNativeLibraries();  // Load OpenCV library once per JVM
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path imageFolder = Paths.get(args.length > 0 ? args[0] : "original");
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        long tolerance = args.length > 2 ? Long.parseLong(args[2]) : 0;
+
+        List<byte[]> images = new ArrayList<>();
+        collect(imageFolder.toFile(), images);
+        if (images.isEmpty()) {
+            System.out.println("No images found in " + imageFolder);
+            return;
+        }
+
+        NativeMemoryLeakDetector leaks = new NativeMemoryLeakDetector(tolerance);
+        // One predictor, so the baseline does not depend on how many pooled predictors happen to exist
+        try (NationalIDCardExtractor extractor = new NationalIDCardExtractor("resnet", Paths.get("models/national_id_card"), 1)) {
+            for (int i = 0; i < Math.min(20, images.size() * 2); i++) {
+                extractor.extractFeatures(images.get(i % images.size()));
+            }
+            leaks.setBaseline();
+
+            for (int i = 0; i < requests; i++) {
+                extractor.extractFeatures(images.get(i % images.size()));
+                leaks.check("#" + i);
+                if ((i + 1) % 1000 == 0) {
+                    System.out.printf("%d requests, %d leaking, RSS grew %.1f MB%n",
+                            i + 1, leaks.getLeakingRequestCount(), leaks.getRssGrowthBytes() / 1e6);
+                }
+            }
+        }
+        leaks.logReport();
+        PipelineMetrics.logSummary();
+        if (leaks.getLeakingRequestCount() > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void collect(File file, List<byte[]> images) throws Exception {
+        if (file.isDirectory()) {
+            for (File child : Objects.requireNonNull(file.listFiles())) {
+                collect(child, images);
+            }
+        } else {
+            images.add(Files.readAllBytes(file.toPath()));
+        }
+    }
+}
@@ -0,0 +1,316 @@
+import ai.djl.ndarray.BaseNDManager;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide latency histograms, counters and native memory gauges for the extraction pipeline.
+ *
+ * <p>Each stage is timed with {@code long start = System.nanoTime()} and {@link Stage#recordSince(long)}, which
+ * costs a clock read and a few atomic increments. Metrics are exported as Prometheus text through
+ * {@link MetricsServer} and as a periodic log summary, both can be switched on with {@link #startFromSystemProperties()}.
+ *
+ * <p>Native memory is reported for the NDManagers registered with {@link #watch(String, Supplier)}, summed over
+ * their live arrays when scraped, and for OpenCV Mats passed through {@link #trackMat(Mat)} and
+ * {@link #releaseMat(Mat)}.
+ */
+public final class PipelineMetrics {
+    private static final Logger logger = LoggerFactory.getLogger(PipelineMetrics.class);
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    public enum Stage {
+        FILE_READ,
+        DECODE,
+        PREPROCESS,
+        RESIZE,
+        PROCESS_INPUT,
+        FORWARD,
+        PROCESS_OUTPUT,
+        LOCALIZE,
+        GATE,
+        DETECT,
+        CROP,
+        SAVE;
+
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        public void recordSince(long startNanos) {
+            histogram.record(System.nanoTime() - startNanos);
+        }
+
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
+        public String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, Supplier<NDManager>> managers = new ConcurrentHashMap<>();
+    private static final AtomicLong matBytes = new AtomicLong();
+    private static final AtomicLong liveMats = new AtomicLong();
+    // End of the last processInput on this thread, the forward pass runs between it and the next processOutput
+    private static final ThreadLocal<long[]> forwardStart = ThreadLocal.withInitial(() -> new long[1]);
+    private static volatile ScheduledExecutorService summaryLogger;
+    private static volatile MetricsServer server;
+
+    private PipelineMetrics() {
+    }
+
+    public static void increment(String counter) {
+        counters.computeIfAbsent(counter, k -> new LongAdder()).increment();
+    }
+
+    public static void add(String counter, long amount) {
+        counters.computeIfAbsent(counter, k -> new LongAdder()).add(amount);
+    }
+
+    public static long getCount(String counter) {
+        LongAdder adder = counters.get(counter);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    /**
+     * Called by translators at the end of {@code processInput}.
+     */
+    static void markForwardStart() {
+        forwardStart.get()[0] = System.nanoTime();
+    }
+
+    /**
+     * Called by translators at the start of {@code processOutput}. With a batch only the first output records,
+     * the forward pass ran once for the whole batch.
+     */
+    static void markForwardEnd() {
+        long[] start = forwardStart.get();
+        if (start[0] != 0) {
+            Stage.FORWARD.recordSince(start[0]);
+            start[0] = 0;
+        }
+    }
+
+    /**
+     * Registers an NDManager whose live arrays are reported as native memory. The supplier may return null while
+     * the owner has nothing loaded.
+     */
+    public static void watch(String name, Supplier<NDManager> manager) {
+        managers.put(name, manager);
+    }
+
+    public static void unwatch(String name) {
+        managers.remove(name);
+    }
+
+    public static Mat trackMat(Mat mat) {
+        matBytes.addAndGet(mat.total() * mat.elemSize());
+        liveMats.incrementAndGet();
+        return mat;
+    }
+
+    public static void releaseMat(Mat mat) {
+        matBytes.addAndGet(-mat.total() * mat.elemSize());
+        liveMats.decrementAndGet();
+        mat.release();
+    }
+
+    /**
+     * Stops counting a tracked Mat without releasing it, for a buffer about to be decoded into at a new size.
+     */
+    public static void untrackMat(Mat mat) {
+        matBytes.addAndGet(-mat.total() * mat.elemSize());
+        liveMats.decrementAndGet();
+    }
+
+    public static long getMatBytes() {
+        return matBytes.get();
+    }
+
+    public static long getLiveMatCount() {
+        return liveMats.get();
+    }
+
+    /**
+     * Native bytes held by the live arrays of every watched NDManager.
+     */
+    public static long getWatchedNDManagerBytes() {
+        long bytes = 0;
+        for (Supplier<NDManager> manager : managers.values()) {
+            bytes += getNDManagerBytes(manager.get());
+        }
+        return bytes;
+    }
+
+    public static int getWatchedNDArrayCount() {
+        int count = 0;
+        for (Supplier<NDManager> supplier : managers.values()) {
+            NDManager manager = supplier.get();
+            if (manager instanceof BaseNDManager && manager.isOpen()) {
+                count += ((BaseNDManager) manager).getManagedArrays().size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sums the bytes of the live arrays of a manager and its sub-managers. Walks the arrays, so it belongs on the
+     * scrape path, not the request path.
+     */
+    public static long getNDManagerBytes(NDManager manager) {
+        if (!(manager instanceof BaseNDManager) || !manager.isOpen()) {
+            return 0;
+        }
+        long bytes = 0;
+        for (NDArray array : ((BaseNDManager) manager).getManagedArrays()) {
+            try {
+                bytes += array.size() * array.getDataType().getNumOfBytes();
+            } catch (RuntimeException e) {
+                // Closed by its owner while we were counting
+            }
+        }
+        return bytes;
+    }
+
+    public static long getDirectBufferBytes() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format.
+     */
+    public static String toPrometheus() {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("# HELP nationalid_stage_latency_seconds Latency of each pipeline stage.\n");
+        sb.append("# TYPE nationalid_stage_latency_seconds summary\n");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = stage.getHistogram();
+            for (double quantile : QUANTILES) {
+                sb.append("nationalid_stage_latency_seconds{stage=\"").append(stage.label())
+                        .append("\",quantile=\"").append(quantile).append("\"} ")
+                        .append(histogram.getValueAtQuantile(quantile) / 1e9).append('\n');
+            }
+            sb.append("nationalid_stage_latency_seconds_sum{stage=\"").append(stage.label()).append("\"} ")
+                    .append(histogram.getSumNanos() / 1e9).append('\n');
+            sb.append("nationalid_stage_latency_seconds_count{stage=\"").append(stage.label()).append("\"} ")
+                    .append(histogram.getCount()).append('\n');
+        }
+
+        sb.append("# HELP nationalid_events_total Pipeline event counters.\n");
+        sb.append("# TYPE nationalid_events_total counter\n");
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            sb.append("nationalid_events_total{event=\"").append(counter.getKey()).append("\"} ")
+                    .append(counter.getValue().sum()).append('\n');
+        }
+
+        sb.append("# HELP nationalid_native_bytes Native memory held by the pipeline.\n");
+        sb.append("# TYPE nationalid_native_bytes gauge\n");
+        sb.append("nationalid_native_bytes{pool=\"opencv_mat\"} ").append(matBytes.get()).append('\n');
+        for (Map.Entry<String, Supplier<NDManager>> manager : managers.entrySet()) {
+            sb.append("nationalid_native_bytes{pool=\"ndmanager\",manager=\"").append(manager.getKey()).append("\"} ")
+                    .append(getNDManagerBytes(manager.getValue().get())).append('\n');
+        }
+        sb.append("nationalid_native_bytes{pool=\"jvm_direct\"} ").append(getDirectBufferBytes()).append('\n');
+        sb.append("# HELP nationalid_live_mats OpenCV Mats tracked and not yet released.\n");
+        sb.append("# TYPE nationalid_live_mats gauge\n");
+        sb.append("nationalid_live_mats ").append(liveMats.get()).append('\n');
+        return sb.toString();
+    }
+
+    public static void logSummary() {
+        StringBuilder sb = new StringBuilder("Pipeline latency (ms, p50/p99/max, count):");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = stage.getHistogram();
+            if (histogram.getCount() > 0) {
+                sb.append(String.format(" %s %.2f/%.2f/%.2f (%d)", stage.label(),
+                        histogram.getValueAtQuantile(0.5) / 1e6, histogram.getValueAtQuantile(0.99) / 1e6,
+                        histogram.getMaxNanos() / 1e6, histogram.getCount()));
+            }
+        }
+        logger.info(sb.toString());
+
+        StringBuilder memory = new StringBuilder(String.format("Native memory: Mats %d (%.1f MB)",
+                liveMats.get(), matBytes.get() / 1e6));
+        for (Map.Entry<String, Supplier<NDManager>> manager : managers.entrySet()) {
+            memory.append(String.format(", %s %.1f MB", manager.getKey(), getNDManagerBytes(manager.getValue().get()) / 1e6));
+        }
+        memory.append(String.format(", direct buffers %.1f MB", getDirectBufferBytes() / 1e6));
+        if (!counters.isEmpty()) {
+            memory.append(", events ").append(counters);
+        }
+        logger.info(memory.toString());
+    }
+
+    public static synchronized void startLogSummary(long period, TimeUnit unit) {
+        if (summaryLogger != null) {
+            return;
+        }
+        summaryLogger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-summary");
+            thread.setDaemon(true);
+            return thread;
+        });
+        summaryLogger.scheduleAtFixedRate(PipelineMetrics::logSummary, period, period, unit);
+    }
+
+    public static synchronized void startServer(int port) throws IOException {
+        if (server == null) {
+            server = MetricsServer.start(port);
+        }
+    }
+
+    /**
+     * Stops the endpoint and the log summary. The JDK HTTP server runs a non-daemon dispatcher thread, so command
+     * line tools call this before returning from {@code main}.
+     */
+    public static synchronized void stop() {
+        if (server != null) {
+            server.close();
+            server = null;
+        }
+        if (summaryLogger != null) {
+            summaryLogger.shutdownNow();
+            summaryLogger = null;
+        }
+    }
+
+    /**
+     * Starts the Prometheus endpoint when {@code -Dmetrics.port} is set and the log summary when
+     * {@code -Dmetrics.log.seconds} is set.
+     */
+    public static void startFromSystemProperties() {
+        String port = System.getProperty("metrics.port");
+        if (port != null) {
+            try {
+                startServer(Integer.parseInt(port));
+            } catch (IOException | NumberFormatException e) {
+                logger.warn("Cannot start metrics endpoint on port {}", port, e);
+            }
+        }
+        String seconds = System.getProperty("metrics.log.seconds");
+        if (seconds != null) {
+            startLogSummary(Long.parseLong(seconds), TimeUnit.SECONDS);
+        }
+    }
+}
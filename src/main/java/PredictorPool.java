@@ -0,0 +1,359 @@
+import ai.djl.inference.Predictor;
+import ai.djl.translate.TranslateException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of predictors created from one loaded model, so the weights are shared while every
+ * in-flight prediction gets its own predictor state.
+ *
+ * <p>Predictors are created lazily up to {@code size}. When all of them are busy, callers wait up to the
+ * borrow timeout and then fail with a {@link TimeoutException}, which is the pool's back-pressure signal.
+ *
+ * <p>In pinned mode every predictor is owned by one dedicated worker thread for its whole life, so the
+ * engine's thread-local state is never migrated between threads. Callers then go through
+ * {@link #predict(Object)} and the pool hands the input to the next idle worker. A caller waits at most the
+ * predict timeout for its result. Inputs still queued when the pool closes, or when no worker could create its
+ * predictor, fail instead of waiting forever. For near-linear scaling,
+ * limit the engine's intra-op threads (for example {@code OMP_NUM_THREADS=1}) so pool members do not
+ * compete for the same cores.
+ */
+public class PredictorPool<I, O> implements AutoCloseable {
+    private final Supplier<Predictor<I, O>> factory;
+    private final int size;
+    private final long borrowTimeoutMillis;
+    private final long predictTimeoutMillis;
+    private final BlockingQueue<Predictor<I, O>> idle;
+    private final List<Predictor<I, O>> all = new ArrayList<>();
+    private final BlockingQueue<Task<I, O>> tasks;
+    private final List<Thread> workers = new ArrayList<>();
+    private final AtomicInteger liveWorkers = new AtomicInteger();
+    private volatile RuntimeException workerFailure;
+    private volatile boolean closed;
+
+    private PredictorPool(Builder<I, O> builder) {
+        this.factory = builder.factory;
+        this.size = builder.size;
+        this.borrowTimeoutMillis = builder.borrowTimeoutMillis;
+        this.predictTimeoutMillis = builder.predictTimeoutMillis;
+        this.idle = new ArrayBlockingQueue<>(size);
+        if (builder.pinThreads) {
+            tasks = new ArrayBlockingQueue<>(builder.size * 4);
+            liveWorkers.set(size);
+            for (int i = 0; i < size; i++) {
+                Thread worker = new Thread(this::runPinned, "predictor-worker-" + i);
+                worker.setDaemon(true);
+                workers.add(worker);
+                worker.start();
+            }
+        } else {
+            tasks = null;
+        }
+    }
+
+    public static <I, O> Builder<I, O> builder(Supplier<Predictor<I, O>> factory) {
+        return new Builder<>(factory);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public boolean isPinned() {
+        return tasks != null;
+    }
+
+    /**
+     * The inputs waiting for a pinned worker, always 0 when the pool is not pinned.
+     */
+    public int getQueuedCount() {
+        return tasks == null ? 0 : tasks.size();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Takes a predictor out of the pool. It must be handed back with {@link #giveBack(Predictor)}.
+     */
+    public Predictor<I, O> borrow() throws InterruptedException, TimeoutException {
+        if (isPinned()) {
+            throw new IllegalStateException("Predictors of a pinned pool are owned by worker threads, use predict()");
+        }
+        checkOpen();
+        Predictor<I, O> predictor = idle.poll();
+        if (predictor == null) {
+            predictor = tryCreate();
+        }
+        if (predictor == null) {
+            predictor = idle.poll(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        if (predictor == null) {
+            throw new TimeoutException("No predictor became available within " + borrowTimeoutMillis + " ms");
+        }
+        return predictor;
+    }
+
+    /**
+     * Returns a borrowed predictor. After {@link #close()} it is closed instead, it was still in use when the
+     * pool closed the idle ones.
+     */
+    public void giveBack(Predictor<I, O> predictor) {
+        if (!closed) {
+            idle.offer(predictor);
+            if (!closed) {
+                return;
+            }
+            idle.remove(predictor);
+        }
+        synchronized (all) {
+            // close() may have got to it already
+            if (all.remove(predictor)) {
+                predictor.close();
+            }
+        }
+    }
+
+    /**
+     * Runs one prediction on a pooled predictor, waiting for a free one if needed.
+     */
+    public O predict(I input) throws TranslateException, InterruptedException, TimeoutException {
+        if (isPinned()) {
+            return predictPinned(input);
+        }
+        Predictor<I, O> predictor = borrow();
+        try {
+            return predictor.predict(input);
+        } finally {
+            giveBack(predictor);
+        }
+    }
+
+    /**
+     * Runs the inputs as one batched forward pass on a pooled predictor. In pinned mode every input is queued
+     * as its own task before waiting for any of them, so idle workers run them in parallel.
+     */
+    public List<O> batchPredict(List<I> inputs) throws TranslateException, InterruptedException, TimeoutException {
+        if (isPinned()) {
+            List<Task<I, O>> queued = new ArrayList<>(inputs.size());
+            try {
+                for (I input : inputs) {
+                    queued.add(submitPinned(input));
+                }
+                List<O> outputs = new ArrayList<>(inputs.size());
+                for (Task<I, O> task : queued) {
+                    outputs.add(await(task));
+                }
+                return outputs;
+            } finally {
+                // Nothing is waiting for the rest once one input failed
+                queued.forEach(task -> task.future.cancel(false));
+            }
+        }
+        Predictor<I, O> predictor = borrow();
+        try {
+            return predictor.batchPredict(inputs);
+        } finally {
+            giveBack(predictor);
+        }
+    }
+
+    private O predictPinned(I input) throws TranslateException, InterruptedException, TimeoutException {
+        Task<I, O> task = submitPinned(input);
+        try {
+            return await(task);
+        } finally {
+            task.future.cancel(false);
+        }
+    }
+
+    private Task<I, O> submitPinned(I input) throws InterruptedException, TimeoutException {
+        checkOpen();
+        checkWorkers();
+        Task<I, O> task = new Task<>(input);
+        if (!tasks.offer(task, borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("All predictor workers stayed busy for " + borrowTimeoutMillis + " ms");
+        }
+        // close() or the last worker may have drained the queue while this task was being added
+        if ((closed || liveWorkers.get() == 0) && tasks.remove(task)) {
+            task.future.completeExceptionally(closed
+                    ? new RejectedExecutionException("PredictorPool is closed") : workerFailure);
+        }
+        return task;
+    }
+
+    private O await(Task<I, O> task) throws TranslateException, InterruptedException, TimeoutException {
+        try {
+            return task.future.get(predictTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new TimeoutException("No prediction result within " + predictTimeoutMillis + " ms");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TranslateException) {
+                throw (TranslateException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new TranslateException(cause);
+        }
+    }
+
+    private void runPinned() {
+        // The predictor is created on the worker thread and never leaves it
+        Predictor<I, O> predictor;
+        try {
+            predictor = factory.get();
+        } catch (RuntimeException e) {
+            workerFailure = new IllegalStateException("A predictor worker could not create its predictor", e);
+            if (liveWorkers.decrementAndGet() == 0) {
+                failQueued(workerFailure);
+            }
+            return;
+        }
+        try {
+            while (!closed) {
+                Task<I, O> task;
+                try {
+                    task = tasks.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (task == null || task.future.isDone()) {
+                    // Empty poll, or the caller has given up on it
+                    continue;
+                }
+                try {
+                    task.future.complete(predictor.predict(task.input));
+                } catch (TranslateException | RuntimeException e) {
+                    task.future.completeExceptionally(e);
+                }
+            }
+        } finally {
+            // Closed on the thread that owns it, like every other call it got
+            predictor.close();
+        }
+    }
+
+    private Predictor<I, O> tryCreate() {
+        synchronized (all) {
+            if (all.size() >= size) {
+                return null;
+            }
+            Predictor<I, O> predictor = factory.get();
+            all.add(predictor);
+            return predictor;
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("PredictorPool is closed");
+        }
+    }
+
+    private void checkWorkers() {
+        if (liveWorkers.get() == 0) {
+            throw workerFailure;
+        }
+    }
+
+    private void failQueued(RuntimeException cause) {
+        Task<I, O> task;
+        while ((task = tasks.poll()) != null) {
+            task.future.completeExceptionally(cause);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (tasks != null) {
+            // Every worker has closed its own predictor on the way out
+            failQueued(new RejectedExecutionException("PredictorPool is closed"));
+            return;
+        }
+        // Borrowed predictors are still running, giveBack() closes them when they come back
+        Predictor<I, O> predictor;
+        while ((predictor = idle.poll()) != null) {
+            synchronized (all) {
+                if (all.remove(predictor)) {
+                    predictor.close();
+                }
+            }
+        }
+    }
+
+    private static final class Task<I, O> {
+        final I input;
+        final CompletableFuture<O> future = new CompletableFuture<>();
+
+        Task(I input) {
+            this.input = input;
+        }
+    }
+
+    public static final class Builder<I, O> {
+        private final Supplier<Predictor<I, O>> factory;
+        private int size = Runtime.getRuntime().availableProcessors();
+        private long borrowTimeoutMillis = 30_000;
+        private long predictTimeoutMillis = 60_000;
+        private boolean pinThreads;
+
+        private Builder(Supplier<Predictor<I, O>> factory) {
+            this.factory = factory;
+        }
+
+        public Builder<I, O> optSize(int size) {
+            if (size < 1) {
+                throw new IllegalArgumentException("Pool size must be at least 1");
+            }
+            this.size = size;
+            return this;
+        }
+
+        public Builder<I, O> optBorrowTimeoutMillis(long borrowTimeoutMillis) {
+            this.borrowTimeoutMillis = Math.max(0, borrowTimeoutMillis);
+            return this;
+        }
+
+        /**
+         * How long a pinned-mode caller waits for its result once the input is queued.
+         */
+        public Builder<I, O> optPredictTimeoutMillis(long predictTimeoutMillis) {
+            this.predictTimeoutMillis = Math.max(0, predictTimeoutMillis);
+            return this;
+        }
+
+        public Builder<I, O> optPinThreads(boolean pinThreads) {
+            this.pinThreads = pinThreads;
+            return this;
+        }
+
+        public PredictorPool<I, O> build() {
+            return new PredictorPool<>(this);
+        }
+    }
+}
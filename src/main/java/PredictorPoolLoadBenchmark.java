@@ -0,0 +1,96 @@
+import ai.djl.Model;
+import org.opencv.core.Mat;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a {@link PredictorPool} over the ID card model with 1, 2, 4, ... concurrent callers up to the core
+ * count and prints throughput and scaling efficiency relative to a single caller.
+ *
+ * <p>Usage: {@code PredictorPoolLoadBenchmark [imageFolder] [secondsPerStep] [pinned]}
+ */
+public class PredictorPoolLoadBenchmark {
+    static {
+        Bootstrap.loadNativeLibraries();  // Load OpenCV library once per JVM
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path imageFolder = Paths.get(args.length > 0 ? args[0] : "original");
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        boolean pinned = args.length > 2 && Boolean.parseBoolean(args[2]);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        List<Mat> mats = new ArrayList<>();
+        collect(imageFolder.toFile(), mats);
+        if (mats.isEmpty()) {
+            System.out.println("No images found in " + imageFolder);
+            return;
+        }
+
+        try (Model model = Model.newInstance("resnet")) {
+            model.load(Paths.get("models/national_id_card"));
+
+            double baseline = 0;
+            for (int threads = 1; threads <= cores; threads = threads == cores ? cores + 1 : Math.min(threads * 2, cores)) {
+                try (PredictorPool<Mat, float[]> pool = PredictorPool.<Mat, float[]>builder(() -> model.newPredictor(new MatTranslator()))
+                        .optSize(threads)
+                        .optPinThreads(pinned)
+                        .build()) {
+                    double throughput = run(pool, mats, threads, seconds);
+                    if (threads == 1) {
+                        baseline = throughput;
+                    }
+                    System.out.printf("threads=%-3d %10.1f images/sec  speedup=%5.2fx  efficiency=%5.1f%%%n",
+                            threads, throughput, throughput / baseline, 100 * throughput / baseline / threads);
+                }
+            }
+        }
+        mats.forEach(Mat::release);
+    }
+
+    private static double run(PredictorPool<Mat, float[]> pool, List<Mat> mats, int threads, int seconds) throws InterruptedException {
+        AtomicLong completed = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(threads);
+        long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(seconds);
+
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            Thread caller = new Thread(() -> {
+                try {
+                    for (int i = offset; System.nanoTime() < end; i++) {
+                        pool.predict(mats.get(i % mats.size()));
+                        if (System.nanoTime() > warmupEnd) {
+                            completed.incrementAndGet();
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    done.countDown();
+                }
+            }, "load-" + t);
+            caller.start();
+        }
+        done.await();
+        return (double) completed.get() / seconds;
+    }
+
+    private static void collect(File file, List<Mat> mats) throws Exception {
+        if (file.isDirectory()) {
+            for (File child : Objects.requireNonNull(file.listFiles())) {
+                collect(child, mats);
+            }
+        } else {
+            mats.add(ResizeExampleByOpenCV.resize(file.toPath(), 256, 156, true));
+        }
+    }
+}
@@ -0,0 +1,300 @@
+import ai.djl.ndarray.NDManager;
+import ai.djl.training.Trainer;
+import ai.djl.training.dataset.Batch;
+import ai.djl.training.dataset.BatchSampler;
+import ai.djl.training.dataset.Dataset;
+import ai.djl.training.dataset.RandomAccessDataset;
+import ai.djl.training.dataset.Sampler;
+import ai.djl.training.listener.TrainingListenerAdapter;
+import ai.djl.translate.TranslateException;
+import ai.djl.util.Progress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+/**
+ * Wraps a {@link RandomAccessDataset} so the next batches are assembled on a worker pool while the current
+ * batch trains. A pump thread pulls batches in sampler order and keeps up to {@code prefetchDepth} of them
+ * ready, so the training thread only waits when the pipeline cannot keep up.
+ *
+ * <p>Shuffling uses the loader's own seed, advanced once per epoch, so the batch order is the same on every
+ * run regardless of how many workers assemble them. Time the training thread spends waiting for a batch is
+ * reported by {@link #newWaitLogger()}.
+ *
+ * <p>Close the loader when training ends, also when it fails: that stops the pump threads and frees the batches
+ * they had prefetched.
+ */
+public class PrefetchingDataLoader implements Dataset, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(PrefetchingDataLoader.class);
+    private static final Object END = new Object();
+
+    private final RandomAccessDataset dataset;
+    private final int batchSize;
+    private final boolean shuffle;
+    private final long seed;
+    private final int prefetchDepth;
+    private final ExecutorService workers;
+    private final AtomicInteger epoch = new AtomicInteger();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final Set<PrefetchIterator> iterators = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    private PrefetchingDataLoader(Builder builder) {
+        this.dataset = builder.dataset;
+        this.batchSize = builder.batchSize;
+        this.shuffle = builder.shuffle;
+        this.seed = builder.seed;
+        this.prefetchDepth = builder.prefetchDepth;
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(builder.workers, r -> {
+            Thread thread = new Thread(r, "data-loader-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static Builder builder(RandomAccessDataset dataset) {
+        return new Builder(dataset);
+    }
+
+    @Override
+    public Iterable<Batch> getData(NDManager manager) throws IOException, TranslateException {
+        if (closed) {
+            throw new IllegalStateException("PrefetchingDataLoader is closed");
+        }
+        Sampler sampler = new BatchSampler(new SeededSampler(seed + epoch.getAndIncrement(), shuffle), batchSize, false);
+        Iterable<Batch> source = dataset.getData(manager, sampler, workers);
+        return () -> new PrefetchIterator(source.iterator());
+    }
+
+    @Override
+    public Iterable<Batch> getData(NDManager manager, ExecutorService executorService) throws IOException, TranslateException {
+        // Batches are always assembled on the loader's own workers
+        return getData(manager);
+    }
+
+    @Override
+    public void prepare(Progress progress) throws IOException, TranslateException {
+        dataset.prepare(progress);
+    }
+
+    /**
+     * Returns the time the training thread spent blocked on data since the last call and resets it.
+     */
+    public long getAndResetWaitNanos() {
+        return waitNanos.getAndSet(0);
+    }
+
+    public long getAndResetBatchCount() {
+        return batches.getAndSet(0);
+    }
+
+    /**
+     * Creates a training listener that logs how long each epoch waited on data, so a saturated pipeline
+     * shows up next to the usual training metrics.
+     */
+    public TrainingListenerAdapter newWaitLogger() {
+        return new TrainingListenerAdapter() {
+            private long epochStart;
+
+            @Override
+            public void onTrainingBegin(Trainer trainer) {
+                epochStart = System.nanoTime();
+                getAndResetWaitNanos();
+                getAndResetBatchCount();
+            }
+
+            @Override
+            public void onEpoch(Trainer trainer) {
+                long now = System.nanoTime();
+                long wait = getAndResetWaitNanos();
+                long count = getAndResetBatchCount();
+                double epochMillis = (now - epochStart) / 1e6;
+                logger.info("Data wait: {} ms over {} batches ({}% of {} ms epoch)",
+                        String.format("%.1f", wait / 1e6), count,
+                        String.format("%.1f", epochMillis == 0 ? 0 : 100 * wait / 1e6 / epochMillis),
+                        String.format("%.0f", epochMillis));
+                epochStart = now;
+            }
+
+        };
+    }
+
+    /**
+     * Stops the pump threads and the workers and closes the batches nobody has taken yet.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (PrefetchIterator iterator : iterators) {
+            iterator.stop();
+        }
+        workers.shutdownNow();
+    }
+
+    private final class PrefetchIterator implements Iterator<Batch> {
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(prefetchDepth);
+        private final Thread pump;
+        private Object next;
+
+        PrefetchIterator(Iterator<Batch> source) {
+            pump = new Thread(() -> {
+                try {
+                    Object item;
+                    try {
+                        while (source.hasNext()) {
+                            queue.put(source.next());
+                        }
+                        item = END;
+                    } catch (InterruptedException e) {
+                        // Stopped by close()
+                        throw e;
+                    } catch (Throwable e) {
+                        // Rethrown on the training thread when it reaches this point. Errors too, such as an
+                        // OutOfMemoryError while assembling a batch, or the training thread would wait forever
+                        item = e;
+                    }
+                    queue.put(item);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    iterators.remove(this);
+                }
+            }, "data-loader-pump");
+            pump.setDaemon(true);
+            iterators.add(this);
+            pump.start();
+        }
+
+        void stop() {
+            pump.interrupt();
+            try {
+                pump.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Object item;
+            while ((item = queue.poll()) != null) {
+                if (item instanceof Batch) {
+                    ((Batch) item).close();
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                long start = System.nanoTime();
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the next batch", e);
+                }
+                waitNanos.addAndGet(System.nanoTime() - start);
+            }
+            if (next instanceof RuntimeException) {
+                throw (RuntimeException) next;
+            }
+            if (next instanceof Error) {
+                throw (Error) next;
+            }
+            if (next instanceof Throwable) {
+                throw new IllegalStateException("Assembling a batch failed", (Throwable) next);
+            }
+            return next != END;
+        }
+
+        @Override
+        public Batch next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Batch batch = (Batch) next;
+            next = null;
+            batches.incrementAndGet();
+            return batch;
+        }
+    }
+
+    /**
+     * Shuffles with its own {@link Random} instead of the engine-wide one, so the order only depends on the seed.
+     */
+    private static final class SeededSampler implements Sampler.SubSampler {
+        private final long seed;
+        private final boolean shuffle;
+
+        SeededSampler(long seed, boolean shuffle) {
+            this.seed = seed;
+            this.shuffle = shuffle;
+        }
+
+        @Override
+        public Iterator<Long> sample(RandomAccessDataset dataset) {
+            long[] indices = LongStream.range(0, dataset.size()).toArray();
+            if (shuffle) {
+                Random random = new Random(seed);
+                for (int i = indices.length - 1; i > 0; i--) {
+                    int j = random.nextInt(i + 1);
+                    long swap = indices[i];
+                    indices[i] = indices[j];
+                    indices[j] = swap;
+                }
+            }
+            return LongStream.of(indices).boxed().iterator();
+        }
+    }
+
+    public static final class Builder {
+        private final RandomAccessDataset dataset;
+        private int batchSize = 32;
+        private boolean shuffle = true;
+        private long seed = 42;
+        private int prefetchDepth = 4;
+        private int workers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+        private Builder(RandomAccessDataset dataset) {
+            this.dataset = dataset;
+        }
+
+        public Builder setSampling(int batchSize, boolean shuffle) {
+            this.batchSize = batchSize;
+            this.shuffle = shuffle;
+            return this;
+        }
+
+        public Builder optSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public Builder optPrefetchDepth(int prefetchDepth) {
+            this.prefetchDepth = Math.max(1, prefetchDepth);
+            return this;
+        }
+
+        public Builder optWorkers(int workers) {
+            this.workers = Math.max(1, workers);
+            return this;
+        }
+
+        public PrefetchingDataLoader build() {
+            return new PrefetchingDataLoader(this);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+import ai.djl.Model;
+import ai.djl.inference.Predictor;
+import ai.djl.modality.cv.transform.ToTensor;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDArrays;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.training.dataset.RandomAccessDataset;
+import ai.djl.training.dataset.Record;
+import ai.djl.translate.Batchifier;
+import ai.djl.translate.TranslateException;
+import ai.djl.translate.Translator;
+import ai.djl.translate.TranslatorContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Compares every available {@link ModelVariant} against the FP32 model on the held-out evaluation split of the
+ * dataset: top-1 accuracy, agreement with the FP32 predictions, mean absolute logit drift, batch-1 latency,
+ * batch throughput and the size of the weights on disk. The pruned variant is marked size-only: its pruned
+ * filters are expanded back to dense zeros, so it runs no faster than INT8.
+ *
+ * <p>Usage: {@code QuantizationReport [modelFolder] [datasetFolder] [samples]}
+ */
+public class QuantizationReport {
+    static final int THROUGHPUT_BATCH = 16;
+
+    public static void main(String[] args) throws Exception {
+        Path modelFolder = Paths.get(args.length > 0 ? args[0] : "models/national_id_card");
+        Path datasetFolder = Paths.get(args.length > 1 ? args[1] : "dataset");
+        int samples = args.length > 2 ? Integer.parseInt(args[2]) : 128;
+
+        try (NDManager manager = NDManager.newBaseManager()) {
+            CalibrationSet set = CalibrationSet.load(datasetFolder, MappedShardDataset.Split.EVALUATION, samples, manager);
+            Evaluation reference;
+            try (Model fp32 = ModelVariant.FP32.load("resnet", modelFolder)) {
+                reference = evaluate(fp32, set, null);
+            }
+
+            System.out.printf("%-24s %9s %9s %9s %10s %10s %12s %10s%n",
+                    "variant", "accuracy", "agreement", "drift", "p50 ms", "p99 ms", "images/sec", "size MB");
+            print(ModelVariant.FP32, reference, weightsSize(ModelVariant.FP32, modelFolder));
+            for (ModelVariant variant : new ModelVariant[]{ModelVariant.INT8, ModelVariant.INT8_PRUNED}) {
+                if (!Files.exists(variant.file(modelFolder))) {
+                    System.out.printf("%-24s not exported, run ModelQuantizer%n", variant);
+                    continue;
+                }
+                try (Model model = variant.load("resnet", modelFolder)) {
+                    print(variant, evaluate(model, set, reference), weightsSize(variant, modelFolder));
+                }
+            }
+        }
+    }
+
+    private static void print(ModelVariant variant, Evaluation evaluation, long bytes) {
+        System.out.printf("%-24s %8.2f%% %8.2f%% %9.4f %10.2f %10.2f %12.1f %10.2f%n",
+                label(variant), 100 * evaluation.accuracy, 100 * evaluation.agreement, evaluation.meanAbsDrift,
+                evaluation.latency.getValueAtQuantile(0.5) / 1e6, evaluation.latency.getValueAtQuantile(0.99) / 1e6,
+                evaluation.throughput, bytes / 1e6);
+    }
+
+    private static String label(ModelVariant variant) {
+        return variant == ModelVariant.INT8_PRUNED ? variant + " (size-only)" : variant.toString();
+    }
+
+    private static long weightsSize(ModelVariant variant, Path modelFolder) throws IOException {
+        if (variant != ModelVariant.FP32) {
+            return Files.size(variant.file(modelFolder));
+        }
+        // The latest epoch, which is the one DJL loads
+        try (Stream<Path> files = Files.list(modelFolder)) {
+            return files.filter(f -> f.getFileName().toString().matches(ModelVariant.MODEL_NAME + "-\\d+\\.params"))
+                    .max(Path::compareTo)
+                    .map(f -> f.toFile().length())
+                    .orElse(0L);
+        }
+    }
+
+    /**
+     * Runs the model over the calibration set, once per sample for latency and in batches for throughput.
+     * Agreement and drift are measured against {@code reference}, or against itself when it is null.
+     */
+    static Evaluation evaluate(Model model, CalibrationSet set, Evaluation reference) throws TranslateException {
+        int count = set.samples.size();
+        float[][] logits = new float[count][];
+        LatencyHistogram latency = new LatencyHistogram();
+        try (Predictor<NDList, float[]> predictor = model.newPredictor(new LogitsTranslator())) {
+            // Warm up the engine before timing
+            for (int i = 0; i < Math.min(5, count); i++) {
+                predictor.predict(new NDList(set.samples.get(i)));
+            }
+            for (int i = 0; i < count; i++) {
+                long start = System.nanoTime();
+                logits[i] = predictor.predict(new NDList(set.samples.get(i)));
+                latency.record(System.nanoTime() - start);
+            }
+
+            long batchNanos = 0;
+            int batched = 0;
+            for (int from = 0; from + THROUGHPUT_BATCH <= count; from += THROUGHPUT_BATCH) {
+                NDList batch = new NDList(set.samples.subList(from, from + THROUGHPUT_BATCH).toArray(new NDArray[0]));
+                try (NDArray input = NDArrays.concat(batch)) {
+                    long start = System.nanoTime();
+                    predictor.predict(new NDList(input));
+                    batchNanos += System.nanoTime() - start;
+                    batched += THROUGHPUT_BATCH;
+                }
+            }
+
+            int correct = 0;
+            int agreeing = 0;
+            double drift = 0;
+            for (int i = 0; i < count; i++) {
+                int predicted = argMax(logits[i]);
+                correct += predicted == set.labels[i] ? 1 : 0;
+                float[] expected = reference == null ? logits[i] : reference.logits[i];
+                agreeing += predicted == argMax(expected) ? 1 : 0;
+                for (int k = 0; k < expected.length; k++) {
+                    drift += Math.abs(logits[i][k] - expected[k]) / expected.length;
+                }
+            }
+            double throughput = batchNanos == 0 ? 0 : batched / (batchNanos / 1e9);
+            return new Evaluation(logits, (double) correct / count, (double) agreeing / count, drift / count, latency, throughput);
+        }
+    }
+
+    private static int argMax(float[] values) {
+        int best = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    static final class Evaluation {
+        final float[][] logits;
+        final double accuracy;
+        final double agreement;
+        final double meanAbsDrift;
+        final LatencyHistogram latency;
+        final double throughput;
+
+        Evaluation(float[][] logits, double accuracy, double agreement, double meanAbsDrift, LatencyHistogram latency, double throughput) {
+            this.logits = logits;
+            this.accuracy = accuracy;
+            this.agreement = agreement;
+            this.meanAbsDrift = meanAbsDrift;
+            this.latency = latency;
+            this.throughput = throughput;
+        }
+    }
+
+    /**
+     * A fixed random sample of one held-out split of the dataset, preprocessed the way the model is trained:
+     * 256x256 from the packed shard, scaled to [0, 1] in CHW order.
+     */
+    static final class CalibrationSet {
+        final List<NDArray> samples;
+        final int[] labels;
+
+        private CalibrationSet(List<NDArray> samples, int[] labels) {
+            this.samples = samples;
+            this.labels = labels;
+        }
+
+        static CalibrationSet load(Path datasetFolder, MappedShardDataset.Split split, int count, NDManager manager)
+                throws IOException {
+            if (split == MappedShardDataset.Split.TRAINING) {
+                throw new IllegalArgumentException("Calibrate and evaluate on held-out samples only");
+            }
+            Path shardFile = Paths.get("shards", datasetFolder.getFileName() + "-256x256.shard");
+            if (!Files.exists(shardFile)) {
+                ShardPacker.pack(datasetFolder, shardFile, 256, 256);
+            }
+            MappedShardDataset dataset = MappedShardDataset.builder()
+                    .setShardFile(shardFile)
+                    .setSampling(1, false)
+                    .build();
+            dataset.prepare(null);
+            RandomAccessDataset heldOut = dataset.split(split);
+
+            long size = heldOut.size();
+            if (size == 0) {
+                throw new IOException("No " + split + " samples in " + shardFile);
+            }
+            int n = (int) Math.min(count, size);
+            // A fixed seed, so reports are comparable between runs
+            Random random = new Random(7);
+            List<NDArray> samples = new ArrayList<>(n);
+            int[] labels = new int[n];
+            ToTensor toTensor = new ToTensor();
+            for (int i = 0; i < n; i++) {
+                long index = n == size ? i : (long) (random.nextDouble() * size);
+                Record record = heldOut.get(manager, index);
+                samples.add(toTensor.transform(record.getData().head()).expandDims(0));
+                labels[i] = (int) record.getLabels().head().toType(DataType.FLOAT32, false).getFloat();
+            }
+            return new CalibrationSet(samples, labels);
+        }
+    }
+
+    /**
+     * Copies the logits out of the predictor's memory, one float[] per prediction of a single sample.
+     */
+    private static final class LogitsTranslator implements Translator<NDList, float[]> {
+        @Override
+        public NDList processInput(TranslatorContext ctx, NDList input) {
+            return input;
+        }
+
+        @Override
+        public float[] processOutput(TranslatorContext ctx, NDList list) {
+            NDArray output = list.singletonOrThrow();
+            return output.get(0).toFloatArray();
+        }
+
+        @Override
+        public Batchifier getBatchifier() {
+            return null;
+        }
+    }
+}
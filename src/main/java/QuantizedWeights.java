@@ -0,0 +1,279 @@
+import ai.djl.MalformedModelException;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.nn.Block;
+import ai.djl.nn.Parameter;
+import ai.djl.util.Pair;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An INT8 copy of a model's parameters. Convolution and dense weights are quantized symmetrically per output
+ * channel, everything else (biases, batch norm) stays FP32, which makes the file about a quarter of the FP32
+ * parameters.
+ *
+ * <p>Optionally the convolution filters with the smallest L1 norm are pruned, per layer and except the stem.
+ * Pruned filters are not stored and come back as zeros, so the following batch norm only adds its shift for
+ * that channel.
+ *
+ * <p>The weights are expanded back to FP32 when applied to a block, because the engine has no INT8 kernels
+ * here. The gain is a smaller artifact and less memory while loading, not a faster forward pass.
+ * {@link QuantizationReport} measures both.
+ */
+public class QuantizedWeights {
+    private static final int MAGIC = 0x4E494451;
+    private static final int VERSION = 1;
+    private static final byte FP32 = 0;
+    private static final byte INT8 = 1;
+
+    private final float pruneRatio;
+    private final List<Entry> entries;
+
+    private QuantizedWeights(float pruneRatio, List<Entry> entries) {
+        this.pruneRatio = pruneRatio;
+        this.entries = entries;
+    }
+
+    public float getPruneRatio() {
+        return pruneRatio;
+    }
+
+    /**
+     * Quantizes the parameters of an initialized block, pruning {@code pruneRatio} of the filters of every
+     * convolution after the first.
+     */
+    public static QuantizedWeights quantize(Block block, float pruneRatio) {
+        List<Entry> entries = new ArrayList<>();
+        boolean stem = true;
+        for (Pair<String, Parameter> pair : block.getParameters()) {
+            Parameter parameter = pair.getValue();
+            NDArray array = parameter.getArray();
+            Shape shape = array.getShape();
+            float[] values = array.toFloatArray();
+            if (parameter.getType() == Parameter.Type.WEIGHT && shape.dimension() >= 2) {
+                boolean convolution = shape.dimension() == 4;
+                float ratio = convolution && !stem ? pruneRatio : 0;
+                if (convolution) {
+                    stem = false;
+                }
+                entries.add(quantizeChannels(pair.getKey(), shape, values, ratio));
+            } else {
+                entries.add(new Entry(pair.getKey(), shape, values));
+            }
+        }
+        return new QuantizedWeights(pruneRatio, entries);
+    }
+
+    private static Entry quantizeChannels(String name, Shape shape, float[] values, float pruneRatio) {
+        int channels = (int) shape.get(0);
+        int perChannel = values.length / channels;
+        boolean[] kept = new boolean[channels];
+        Arrays.fill(kept, true);
+
+        int pruned = (int) (channels * pruneRatio);
+        if (pruned > 0) {
+            float[] norms = new float[channels];
+            Integer[] order = new Integer[channels];
+            for (int c = 0; c < channels; c++) {
+                for (int i = 0; i < perChannel; i++) {
+                    norms[c] += Math.abs(values[c * perChannel + i]);
+                }
+                order[c] = c;
+            }
+            Arrays.sort(order, (a, b) -> Float.compare(norms[a], norms[b]));
+            for (int i = 0; i < pruned; i++) {
+                kept[order[i]] = false;
+            }
+        }
+
+        float[] scales = new float[channels];
+        byte[] quantized = new byte[values.length];
+        for (int c = 0; c < channels; c++) {
+            if (!kept[c]) {
+                continue;
+            }
+            float maxAbs = 0;
+            for (int i = 0; i < perChannel; i++) {
+                maxAbs = Math.max(maxAbs, Math.abs(values[c * perChannel + i]));
+            }
+            float scale = maxAbs == 0 ? 1 : maxAbs / 127;
+            scales[c] = scale;
+            for (int i = 0; i < perChannel; i++) {
+                int q = Math.round(values[c * perChannel + i] / scale);
+                quantized[c * perChannel + i] = (byte) Math.max(-127, Math.min(127, q));
+            }
+        }
+        return new Entry(name, shape, kept, scales, quantized);
+    }
+
+    /**
+     * Writes the dequantized weights into the parameters of an initialized block with the same architecture.
+     */
+    public void applyTo(Block block) throws MalformedModelException {
+        for (Pair<String, Parameter> pair : block.getParameters()) {
+            Entry entry = find(pair.getKey());
+            NDArray array = pair.getValue().getArray();
+            if (entry == null || !array.getShape().equals(entry.shape)) {
+                throw new MalformedModelException("Quantized weights do not match parameter " + pair.getKey()
+                        + " " + array.getShape());
+            }
+            array.set(entry.dequantize());
+        }
+    }
+
+    private Entry find(String name) {
+        for (Entry entry : entries) {
+            if (entry.name.equals(name)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The fraction of all weights that were pruned.
+     */
+    public double getSparsity() {
+        long total = 0;
+        long pruned = 0;
+        for (Entry entry : entries) {
+            total += entry.shape.size();
+            if (entry.kept != null) {
+                long perChannel = entry.shape.size() / entry.kept.length;
+                for (boolean kept : entry.kept) {
+                    pruned += kept ? 0 : perChannel;
+                }
+            }
+        }
+        return total == 0 ? 0 : (double) pruned / total;
+    }
+
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeFloat(pruneRatio);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeUTF(entry.name);
+                long[] dims = entry.shape.getShape();
+                out.writeInt(dims.length);
+                for (long dim : dims) {
+                    out.writeLong(dim);
+                }
+                if (entry.kept == null) {
+                    out.writeByte(FP32);
+                    for (float v : entry.values) {
+                        out.writeFloat(v);
+                    }
+                } else {
+                    out.writeByte(INT8);
+                    int perChannel = entry.quantized.length / entry.kept.length;
+                    for (int c = 0; c < entry.kept.length; c++) {
+                        out.writeBoolean(entry.kept[c]);
+                        if (entry.kept[c]) {
+                            out.writeFloat(entry.scales[c]);
+                            out.write(entry.quantized, c * perChannel, perChannel);
+                        }
+                    }
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static QuantizedWeights read(Path file) throws IOException, MalformedModelException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new MalformedModelException("Not a quantized weights file: " + file);
+            }
+            float pruneRatio = in.readFloat();
+            int count = in.readInt();
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                long[] dims = new long[in.readInt()];
+                for (int d = 0; d < dims.length; d++) {
+                    dims[d] = in.readLong();
+                }
+                Shape shape = new Shape(dims);
+                int size = (int) shape.size();
+                if (in.readByte() == FP32) {
+                    float[] values = new float[size];
+                    for (int v = 0; v < size; v++) {
+                        values[v] = in.readFloat();
+                    }
+                    entries.add(new Entry(name, shape, values));
+                } else {
+                    int channels = (int) dims[0];
+                    int perChannel = size / channels;
+                    boolean[] kept = new boolean[channels];
+                    float[] scales = new float[channels];
+                    byte[] quantized = new byte[size];
+                    for (int c = 0; c < channels; c++) {
+                        kept[c] = in.readBoolean();
+                        if (kept[c]) {
+                            scales[c] = in.readFloat();
+                            in.readFully(quantized, c * perChannel, perChannel);
+                        }
+                    }
+                    entries.add(new Entry(name, shape, kept, scales, quantized));
+                }
+            }
+            return new QuantizedWeights(pruneRatio, entries);
+        }
+    }
+
+    private static final class Entry {
+        final String name;
+        final Shape shape;
+        final float[] values;
+        final boolean[] kept;
+        final float[] scales;
+        final byte[] quantized;
+
+        Entry(String name, Shape shape, float[] values) {
+            this(name, shape, values, null, null, null);
+        }
+
+        Entry(String name, Shape shape, boolean[] kept, float[] scales, byte[] quantized) {
+            this(name, shape, null, kept, scales, quantized);
+        }
+
+        private Entry(String name, Shape shape, float[] values, boolean[] kept, float[] scales, byte[] quantized) {
+            this.name = name;
+            this.shape = shape;
+            this.values = values;
+            this.kept = kept;
+            this.scales = scales;
+            this.quantized = quantized;
+        }
+
+        float[] dequantize() {
+            if (kept == null) {
+                return values;
+            }
+            float[] result = new float[quantized.length];
+            int perChannel = quantized.length / kept.length;
+            for (int c = 0; c < kept.length; c++) {
+                if (kept[c]) {
+                    for (int i = c * perChannel; i < (c + 1) * perChannel; i++) {
+                        result[i] = quantized[i] * scales[c];
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
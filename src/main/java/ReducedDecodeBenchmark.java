@@ -0,0 +1,156 @@
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Compares full-resolution decoding against the reduced-scale JPEG decode picked by
+ * {@code ResizeExampleByOpenCV.reducedReadFlag}, both followed by the exact letterbox resize. Prints latency, the
+ * size of the decoded image, the peak resident set size of each variant and checks that both produce the same
+ * output size, with the mean absolute pixel difference between them.
+ *
+ * <p>Use large phone photos to see the effect, small scans are decoded at full scale by both variants.
+ *
+ * <p>Usage: {@code ReducedDecodeBenchmark [imageFolder] [iterations] [targetWidth] [targetHeight]}
+ */
+public class ReducedDecodeBenchmark {
+    static {
+        Bootstrap.loadNativeLibraries();  // Load OpenCV library once per JVM
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path imageFolder = Paths.get(args.length > 0 ? args[0] : "original");
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int targetWidth = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        int targetHeight = args.length > 3 ? Integer.parseInt(args[3]) : 156;
+
+        List<Path> files = new ArrayList<>();
+        collect(imageFolder.toFile(), files);
+        if (files.isEmpty()) {
+            System.out.println("No JPEG images found in " + imageFolder);
+            return;
+        }
+
+        BufferPool<Mat> pool = BufferPool.forMats(2);
+        // Run the reduced variant first, so its peak is not hidden behind the full decode when the kernel cannot reset it
+        Result reduced = run(files, iterations, targetWidth, targetHeight, true, pool);
+        Result full = run(files, iterations, targetWidth, targetHeight, false, pool);
+        reduced.print("reduced decode");
+        full.print("full decode");
+
+        int sameSize = 0;
+        double difference = 0;
+        for (Path file : files) {
+            Mat a = fit(file, targetWidth, targetHeight, false, pool);
+            Mat b = fit(file, targetWidth, targetHeight, true, pool);
+            if (a.size().equals(b.size()) && a.type() == b.type()) {
+                sameSize++;
+                Mat diff = new Mat();
+                Core.absdiff(a, b, diff);
+                Scalar mean = Core.mean(diff);
+                difference += (mean.val[0] + mean.val[1] + mean.val[2]) / 3;
+                diff.release();
+            }
+            pool.giveBack(a);
+            pool.giveBack(b);
+        }
+        System.out.printf("same output size for %d of %d images, mean absolute pixel difference %.2f%n",
+                sameSize, files.size(), sameSize == 0 ? 0 : difference / sameSize);
+        pool.clear();
+    }
+
+    private static Result run(List<Path> files, int iterations, int targetWidth, int targetHeight, boolean reduced, BufferPool<Mat> pool) throws IOException {
+        System.gc();
+        resetPeakRss();
+        long decodedBytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (Path file : files) {
+                JpegHeader header = JpegHeader.read(file);
+                int flags = reduced ? ResizeExampleByOpenCV.reducedReadFlag(header, targetWidth, targetHeight) : Imgcodecs.IMREAD_COLOR;
+                Mat decoded = Imgcodecs.imread(file.toString(), flags);
+                decodedBytes += decoded.total() * decoded.elemSize();
+                double aspectRatio = ResizeExampleByOpenCV.sourceAspectRatio(header, decoded);
+                pool.giveBack(ResizeExampleByOpenCV.resize(decoded, aspectRatio, targetWidth, targetHeight, true, pool));
+                decoded.release();
+            }
+        }
+        long images = (long) iterations * files.size();
+        return new Result((System.nanoTime() - start) / 1e6 / images, decodedBytes / 1e6 / images, readPeakRssMegabytes());
+    }
+
+    private static Mat fit(Path file, int targetWidth, int targetHeight, boolean reduced, BufferPool<Mat> pool) throws IOException {
+        JpegHeader header = JpegHeader.read(file);
+        int flags = reduced ? ResizeExampleByOpenCV.reducedReadFlag(header, targetWidth, targetHeight) : Imgcodecs.IMREAD_COLOR;
+        Mat decoded = Imgcodecs.imread(file.toString(), flags);
+        Mat result = ResizeExampleByOpenCV.resize(decoded, ResizeExampleByOpenCV.sourceAspectRatio(header, decoded),
+                targetWidth, targetHeight, false, pool);
+        decoded.release();
+        return result;
+    }
+
+    private static void collect(File file, List<Path> files) {
+        if (file.isDirectory()) {
+            for (File child : Objects.requireNonNull(file.listFiles())) {
+                collect(child, files);
+            }
+        } else {
+            String name = file.getName().toLowerCase(Locale.ROOT);
+            if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+                files.add(file.toPath());
+            }
+        }
+    }
+
+    /**
+     * Resets the kernel's high-water mark of the resident set, Linux only.
+     */
+    private static void resetPeakRss() {
+        try {
+            Files.write(Paths.get("/proc/self/clear_refs"), "5".getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            // Not supported here, the peak then covers the whole run so far
+        }
+    }
+
+    private static double readPeakRssMegabytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) / 1024.0;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux
+        }
+        return 0;
+    }
+
+    private static final class Result {
+        final double millisPerImage;
+        final double decodedMegabytes;
+        final double peakRssMegabytes;
+
+        Result(double millisPerImage, double decodedMegabytes, double peakRssMegabytes) {
+            this.millisPerImage = millisPerImage;
+            this.decodedMegabytes = decodedMegabytes;
+            this.peakRssMegabytes = peakRssMegabytes;
+        }
+
+        void print(String name) {
+            System.out.printf("%-16s %10.2f ms/image %10.1f MB decoded/image %10.1f MB peak RSS%n",
+                    name, millisPerImage, decodedMegabytes, peakRssMegabytes);
+        }
+    }
+}
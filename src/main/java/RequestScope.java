@@ -0,0 +1,39 @@
+import ai.djl.ndarray.NDManager;
+
+/**
+ * The native memory of one request: a child NDManager of a long-lived manager and a {@link MatArena}. Closing
+ * the scope frees every NDArray and Mat the request allocated, whatever the request returned or threw. Results
+ * must be copied out to Java arrays before the scope closes.
+ */
+public class RequestScope implements AutoCloseable {
+    private final NDManager parent;
+    private final MatArena mats = new MatArena();
+    private NDManager manager;
+
+    public RequestScope(NDManager parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Returns the request's NDManager, created on first use so Mat-only requests do not pay for one.
+     */
+    public NDManager getManager() {
+        if (manager == null) {
+            manager = parent.newSubManager();
+        }
+        return manager;
+    }
+
+    public MatArena getMats() {
+        return mats;
+    }
+
+    @Override
+    public void close() {
+        mats.close();
+        if (manager != null) {
+            manager.close();
+            manager = null;
+        }
+    }
+}
@@ -2,16 +2,22 @@ import org.opencv.core.*;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Objects;
 
 public class ResizeExampleByOpenCV {
     static {
-        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);  // Load OpenCV library
+        Bootstrap.loadNativeLibraries();  // Load OpenCV library once per JVM
     }
 
+    private static final Scalar BLACK = new Scalar(0, 0, 0);
+    // Reused per thread, the resize calls only read it
+    private static final ThreadLocal<Size> SIZE = ThreadLocal.withInitial(Size::new);
+
     public static void main(String[] args) throws Exception {
         Path originalFolder = Paths.get("original");
         Path datasetFolder = Paths.get("dataset");
@@ -20,7 +26,12 @@ public class ResizeExampleByOpenCV {
         int targetWidth = 300;
         int targetHeight = 300;
 
-        resizeAndSave(originalFolder, datasetFolder, targetWidth, targetHeight, true);
+        // Decode, resize and write on separate stages instead of one file at a time
+        DatasetPreparationPipeline.builder(originalFolder, datasetFolder)
+                .optTargetSize(targetWidth, targetHeight)
+                .optAddPadding(true)
+                .build()
+                .run();
     }
 
     public static void resizeAndSave(Path originalFolder, Path datasetFolder, int targetWidth, int targetHeight, boolean addPadding) throws Exception {
@@ -91,51 +102,166 @@ public class ResizeExampleByOpenCV {
     }
 
     public static Mat resize(Path imagePath, int targetWidth, int targetHeight, boolean addPadding) throws Exception {
-        // Read image using OpenCV
-        Mat image = Imgcodecs.imread(imagePath.toString());
+        // Read and decode separately so each shows up in the pipeline metrics
+        long start = System.nanoTime();
+        byte[] bytes = Files.readAllBytes(imagePath);
+        PipelineMetrics.Stage.FILE_READ.recordSince(start);
 
-//        if (image.empty()) {
-//            System.out.println("Failed to load image: " + imagePath);
-//            return;
-//        }
+        // Large JPEGs are decoded at 1/2, 1/4 or 1/8 scale when that still covers the target size
+        JpegHeader header = JpegHeader.read(new ByteArrayInputStream(bytes));
+        start = System.nanoTime();
+        MatOfByte encoded = new MatOfByte(bytes);
+        Mat image = PipelineMetrics.trackMat(Imgcodecs.imdecode(encoded, reducedReadFlag(header, targetWidth, targetHeight)));
+        encoded.release();
+        PipelineMetrics.Stage.DECODE.recordSince(start);
+
+        try {
+            if (image.empty()) {
+                throw new IllegalArgumentException("Cannot decode image " + imagePath);
+            }
+            Mat result = new Mat();
+            try {
+                resizeInto(image, sourceAspectRatio(header, image), result, targetWidth, targetHeight, addPadding);
+            } catch (RuntimeException e) {
+                result.release();
+                throw e;
+            }
+            return result;
+        } finally {
+            PipelineMetrics.releaseMat(image);
+        }
+    }
+
+    public static Mat resize(Mat image, int targetWidth, int targetHeight, boolean addPadding) {
+        Mat result = new Mat();
+        resizeInto(image, result, targetWidth, targetHeight, addPadding);
+        return result;
+    }
+
+    /**
+     * Letterboxes the image into a Mat taken from {@code pool}. The caller hands it back with
+     * {@link BufferPool#giveBack} once done with it, or releases it when {@code addPadding} is off.
+     */
+    public static Mat resize(Mat image, int targetWidth, int targetHeight, boolean addPadding, BufferPool<Mat> pool) {
+        return resize(image, aspectRatio(image), targetWidth, targetHeight, addPadding, pool);
+    }
+
+    /**
+     * The pooled letterbox of an image decoded at reduced scale, fitted with the aspect ratio of the full-size
+     * source so the output has exactly the size a full decode would have produced. Only letterboxed outputs have
+     * one fixed size, without padding the output size follows the aspect ratio and is allocated, not pooled.
+     */
+    public static Mat resize(Mat image, double sourceAspectRatio, int targetWidth, int targetHeight, boolean addPadding, BufferPool<Mat> pool) {
+        Mat result = addPadding ? pool.acquire(targetWidth, targetHeight, image.type()) : new Mat();
+        resizeInto(image, sourceAspectRatio, result, targetWidth, targetHeight, addPadding);
+        return result;
+    }
+
+    /**
+     * Returns the strongest {@code IMREAD_REDUCED_COLOR_*} flag whose output still covers the letterboxed size,
+     * so libjpeg scales in the DCT domain and never materialises the pixels the exact resize would throw away.
+     * Falls back to {@code IMREAD_COLOR} for anything that is not a JPEG. The EXIF orientation may swap width
+     * and height after the header was read, so the reduced image has to cover the target either way round.
+     */
+    public static int reducedReadFlag(JpegHeader header, int targetWidth, int targetHeight) {
+        int scale = header == null ? 1 : header.reducedScale(targetWidth, targetHeight);
+        switch (scale) {
+            case 8:
+                return Imgcodecs.IMREAD_REDUCED_COLOR_8;
+            case 4:
+                return Imgcodecs.IMREAD_REDUCED_COLOR_4;
+            case 2:
+                return Imgcodecs.IMREAD_REDUCED_COLOR_2;
+            default:
+                return Imgcodecs.IMREAD_COLOR;
+        }
+    }
 
-        // Get the original aspect ratio
-        double aspectRatio = (double) image.cols() / image.rows();
-        int newWidth = targetWidth;
-        int newHeight = targetHeight;
-
-        // Resize the image while maintaining the aspect ratio
-        if (aspectRatio > 1) {
-            // Landscape image (wider than tall)
-            newHeight = (int) (targetWidth / aspectRatio);
-        } else {
-            // Portrait image (taller than wide)
-            newWidth = (int) (targetHeight * aspectRatio);
+    /**
+     * Returns the aspect ratio of the full-size source of a decoded image, taking the header size when there is
+     * one and turning it round when the decoder applied an EXIF rotation.
+     */
+    public static double sourceAspectRatio(JpegHeader header, Mat decoded) {
+        if (header == null) {
+            return aspectRatio(decoded);
         }
+        double aspectRatio = (double) header.getWidth() / header.getHeight();
+        boolean rotated = (header.getWidth() > header.getHeight()) != (decoded.cols() > decoded.rows());
+        return rotated ? 1 / aspectRatio : aspectRatio;
+    }
+
+    public static double aspectRatio(Mat image) {
+        return (double) image.cols() / image.rows();
+    }
+
+    /**
+     * Decodes an image file into {@code dst}. OpenCV keeps the existing buffer of {@code dst} when the image has
+     * the same size and type as the previous one, so a reused destination decodes without allocating. File read
+     * and decode are timed together here. Returns false when the file cannot be decoded.
+     */
+    public static boolean decodeInto(Path imagePath, Mat dst) {
+        return decodeInto(imagePath, dst, Imgcodecs.IMREAD_COLOR);
+    }
+
+    /**
+     * Decodes into {@code dst} with the given read flags, such as a {@link #reducedReadFlag} scale.
+     */
+    public static boolean decodeInto(Path imagePath, Mat dst, int flags) {
+        long start = System.nanoTime();
+        Imgcodecs.imread(imagePath.toString(), dst, flags);
+        PipelineMetrics.Stage.DECODE.recordSince(start);
+        return !dst.empty();
+    }
+
+    /**
+     * Resizes the image with its aspect ratio kept into {@code dst}, padded with black to the target size when
+     * {@code addPadding} is set. A {@code dst} that already has the output size and type is written in place.
+     * The letterbox is resized straight into its region of {@code dst}, there is no intermediate image.
+     */
+    public static void resizeInto(Mat image, Mat dst, int targetWidth, int targetHeight, boolean addPadding) {
+        resizeInto(image, aspectRatio(image), dst, targetWidth, targetHeight, addPadding);
+    }
+
+    private static void resizeInto(Mat image, double aspectRatio, Mat dst, int targetWidth, int targetHeight, boolean addPadding) {
+        long start = System.nanoTime();
+        try {
+            // Resize the image while maintaining the aspect ratio
+            int newWidth = fitWidth(aspectRatio, targetWidth, targetHeight);
+            int newHeight = fitHeight(aspectRatio, targetWidth, targetHeight);
+            Size newSize = SIZE.get();
+            newSize.width = newWidth;
+            newSize.height = newHeight;
 
-        Mat resizedImage = new Mat();
-        Size newSize = new Size(newWidth, newHeight);
-        Imgproc.resize(image, resizedImage, newSize);
+            if (!addPadding) {
+                Imgproc.resize(image, dst, newSize);
+                return;
+            }
 
-        if (addPadding) {
             // Calculate padding
-            int paddingTop = (targetHeight - resizedImage.rows()) / 2;
-            int paddingBottom = targetHeight - resizedImage.rows() - paddingTop;
-            int paddingLeft = (targetWidth - resizedImage.cols()) / 2;
-            int paddingRight = targetWidth - resizedImage.cols() - paddingLeft;
-
-            // Add black padding around the resized image
-            Mat paddedImage = new Mat();
-            Core.copyMakeBorder(resizedImage, paddedImage, paddingTop, paddingBottom, paddingLeft, paddingRight, Core.BORDER_CONSTANT, new Scalar(0, 0, 0));
-
-            // Save the final image with padding
-//            Imgcodecs.imwrite(outputFilePath.toString(), paddedImage);
-//            MatOfByte matOfByte = new MatOfByte();
-//            Imgcodecs.imencode(".jpg", paddedImage, matOfByte);
-            return paddedImage;
-        } else {
-            // Save the resized image without padding
-            return resizedImage;
+            int paddingTop = (targetHeight - newHeight) / 2;
+            int paddingLeft = (targetWidth - newWidth) / 2;
+
+            // Black padding around the image, resized in place into its region of the output
+            dst.create(targetHeight, targetWidth, image.type());
+            dst.setTo(BLACK);
+            Mat region = dst.submat(paddingTop, paddingTop + newHeight, paddingLeft, paddingLeft + newWidth);
+            try {
+                // The region already has the size and type, so resize writes through to dst
+                Imgproc.resize(image, region, newSize);
+            } finally {
+                region.release();
+            }
+        } finally {
+            PipelineMetrics.Stage.RESIZE.recordSince(start);
         }
     }
+
+    private static int fitWidth(double aspectRatio, int targetWidth, int targetHeight) {
+        // The same fit as the tensor letterbox, so both preprocessing paths agree
+        return LetterboxTransform.fitWidth(aspectRatio, targetWidth, targetHeight);
+    }
+
+    private static int fitHeight(double aspectRatio, int targetWidth, int targetHeight) {
+        return LetterboxTransform.fitHeight(aspectRatio, targetWidth, targetHeight);
+    }
 }
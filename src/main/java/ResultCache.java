@@ -0,0 +1,395 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Caches extraction results by the content hash of the submitted bytes, so a resubmitted card is answered
+ * without decoding or inference.
+ *
+ * <p>The memory tier is an LRU bounded by entry count and by an estimated byte size. When a folder and a
+ * {@link Codec} are configured, results are also written to a disk tier that survives restarts and is promoted
+ * back into memory on a hit. Entries expire after the TTL in both tiers.
+ *
+ * <p>Near-duplicates are found through a 64-bit perceptual hash of the decoded image. The lookup is off by
+ * default: printed cards of one template are within a few bits of each other, so it only suits inputs where a
+ * close hash really means the same image. When enabled, the hashes are split into {@code distance + 1} bands and
+ * indexed per band. Two hashes within the distance agree on at least one whole band, so a lookup only compares
+ * the entries sharing a band with the query instead of scanning the cache.
+ *
+ * <p>Values are handed out and stored through the copier, so mutable results such as arrays are never shared
+ * between callers.
+ */
+public class ResultCache<V> {
+    private static final Logger logger = LoggerFactory.getLogger(ResultCache.class);
+
+    private final long maxEntries;
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final int maxHammingDistance;
+    private final boolean strongHash;
+    private final ToLongFunction<V> weigher;
+    private final Path diskFolder;
+    private final Codec<V> codec;
+    private final UnaryOperator<V> copier;
+    private final LinkedHashMap<String, Entry<V>> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final List<Map<Long, Set<Entry<V>>>> bands = new ArrayList<>();
+    private long memoryBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong nearHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    private ResultCache(Builder<V> builder) {
+        this.maxEntries = builder.maxEntries;
+        this.maxBytes = builder.maxBytes;
+        this.ttlNanos = builder.ttlNanos;
+        this.maxHammingDistance = builder.maxHammingDistance;
+        this.strongHash = builder.strongHash;
+        this.weigher = builder.weigher;
+        this.diskFolder = builder.diskFolder;
+        this.codec = builder.codec;
+        this.copier = builder.copier;
+        for (int band = 0; band <= maxHammingDistance; band++) {
+            bands.add(new HashMap<>());
+        }
+    }
+
+    public static <V> Builder<V> builder() {
+        return new Builder<>();
+    }
+
+    public boolean isNearDuplicateEnabled() {
+        return maxHammingDistance >= 0;
+    }
+
+    public String key(byte[] bytes) {
+        return strongHash ? ImageHashes.strongHash(bytes) : ImageHashes.contentHash(bytes);
+    }
+
+    /**
+     * Looks a result up by content key in memory, then on disk. Does not count a miss, the caller may still try
+     * {@link #getSimilar(Long)} once it has decoded the image.
+     */
+    public V get(String key) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            Entry<V> entry = memory.get(key);
+            if (entry != null) {
+                if (entry.expiresAt - now > 0) {
+                    hits.incrementAndGet();
+                    return copier.apply(entry.value);
+                }
+                remove(key);
+                expirations.incrementAndGet();
+            }
+        }
+        V value = readDisk(key, now);
+        if (value != null) {
+            diskHits.incrementAndGet();
+        }
+        return value == null ? null : copier.apply(value);
+    }
+
+    /**
+     * Returns the result of the closest cached image whose perceptual hash is within the configured Hamming
+     * distance, or null and counts a miss. Pass a null hash when the lookup is off, to only count the miss.
+     */
+    public V getSimilar(Long perceptualHash) {
+        if (isNearDuplicateEnabled() && perceptualHash != null) {
+            long now = System.nanoTime();
+            synchronized (this) {
+                Entry<V> best = null;
+                int bestDistance = Integer.MAX_VALUE;
+                for (int band = 0; band < bands.size(); band++) {
+                    Set<Entry<V>> candidates = bands.get(band).get(band(perceptualHash, band));
+                    if (candidates == null) {
+                        continue;
+                    }
+                    for (Entry<V> entry : candidates) {
+                        if (entry.expiresAt - now > 0) {
+                            int distance = ImageHashes.hammingDistance(entry.perceptualHash, perceptualHash);
+                            if (distance <= maxHammingDistance && distance < bestDistance) {
+                                best = entry;
+                                bestDistance = distance;
+                            }
+                        }
+                    }
+                }
+                if (best != null) {
+                    nearHits.incrementAndGet();
+                    return copier.apply(best.value);
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String key, V value) {
+        put(key, value, null);
+    }
+
+    public void put(String key, V value, Long perceptualHash) {
+        long expiresAt = System.nanoTime() + ttlNanos;
+        V copy = copier.apply(value);
+        // Only indexed when the lookup is on, the hash is useless otherwise
+        Long indexedHash = isNearDuplicateEnabled() ? perceptualHash : null;
+        synchronized (this) {
+            putMemory(key, new Entry<>(copy, expiresAt, indexedHash, weigher.applyAsLong(copy)));
+        }
+        writeDisk(key, value);
+    }
+
+    private void putMemory(String key, Entry<V> entry) {
+        remove(key);
+        memory.put(key, entry);
+        memoryBytes += entry.weight;
+        index(entry, true);
+        Iterator<Map.Entry<String, Entry<V>>> it = memory.entrySet().iterator();
+        while ((memory.size() > maxEntries || memoryBytes > maxBytes) && it.hasNext()) {
+            Map.Entry<String, Entry<V>> eldest = it.next();
+            if (eldest.getValue() == entry) {
+                break;
+            }
+            memoryBytes -= eldest.getValue().weight;
+            index(eldest.getValue(), false);
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(String key) {
+        Entry<V> old = memory.remove(key);
+        if (old != null) {
+            memoryBytes -= old.weight;
+            index(old, false);
+        }
+    }
+
+    private void index(Entry<V> entry, boolean add) {
+        if (!entry.hasPerceptualHash) {
+            return;
+        }
+        for (int band = 0; band < bands.size(); band++) {
+            Map<Long, Set<Entry<V>>> byValue = bands.get(band);
+            long value = band(entry.perceptualHash, band);
+            if (add) {
+                byValue.computeIfAbsent(value, v -> new HashSet<>()).add(entry);
+            } else {
+                Set<Entry<V>> keys = byValue.get(value);
+                if (keys != null && keys.remove(entry) && keys.isEmpty()) {
+                    byValue.remove(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * The bits of one band of the hash. The 64 bits are split into {@code bands.size()} contiguous bands, the
+     * last one taking the remainder.
+     */
+    private long band(long hash, int band) {
+        int width = 64 / bands.size();
+        int bits = band == bands.size() - 1 ? 64 - width * band : width;
+        long mask = bits == 64 ? -1L : (1L << bits) - 1;
+        return (hash >>> (width * band)) & mask;
+    }
+
+    private V readDisk(String key, long now) {
+        if (diskFolder == null) {
+            return null;
+        }
+        Path file = diskFolder.resolve(key);
+        try {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            long expiresAtMillis = buffer.getLong();
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(expiresAtMillis - System.currentTimeMillis());
+            if (remainingNanos <= 0) {
+                Files.deleteIfExists(file);
+                expirations.incrementAndGet();
+                return null;
+            }
+            byte[] payload = new byte[buffer.remaining()];
+            buffer.get(payload);
+            V value = codec.decode(payload);
+            synchronized (this) {
+                putMemory(key, new Entry<>(value, now + remainingNanos, null, weigher.applyAsLong(value)));
+            }
+            return value;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to read cached result {}", file, e);
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, V value) {
+        if (diskFolder == null) {
+            return;
+        }
+        try {
+            byte[] payload = codec.encode(value);
+            long expiresAtMillis = System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + payload.length).putLong(expiresAtMillis).put(payload);
+            Path temp = Files.createTempFile(diskFolder, key, ".tmp");
+            Files.write(temp, buffer.array());
+            Files.move(temp, diskFolder.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to write cached result {}", key, e);
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getDiskHitCount() {
+        return diskHits.get();
+    }
+
+    public long getNearHitCount() {
+        return nearHits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    public synchronized int size() {
+        return memory.size();
+    }
+
+    public void logStats() {
+        long total = hits.get() + diskHits.get() + nearHits.get() + misses.get();
+        logger.info("Result cache: {} entries, hits {} (disk {}, near {}), misses {}, hit rate {}%, evictions {}, expirations {}",
+                size(), hits.get(), diskHits.get(), nearHits.get(), misses.get(),
+                String.format("%.1f", total == 0 ? 0 : 100.0 * (total - misses.get()) / total),
+                evictions.get(), expirations.get());
+    }
+
+    public interface Codec<V> {
+        byte[] encode(V value) throws IOException;
+
+        V decode(byte[] bytes) throws IOException;
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAt;
+        final boolean hasPerceptualHash;
+        final long perceptualHash;
+        final long weight;
+
+        Entry(V value, long expiresAt, Long perceptualHash, long weight) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.hasPerceptualHash = perceptualHash != null;
+            this.perceptualHash = perceptualHash == null ? 0 : perceptualHash;
+            this.weight = weight;
+        }
+    }
+
+    public static final class Builder<V> {
+        private long maxEntries = 10_000;
+        private long maxBytes = Long.MAX_VALUE;
+        private long ttlNanos = TimeUnit.HOURS.toNanos(24);
+        private int maxHammingDistance = -1;
+        private boolean strongHash;
+        private ToLongFunction<V> weigher = v -> 1;
+        private Path diskFolder;
+        private Codec<V> codec;
+        private UnaryOperator<V> copier = UnaryOperator.identity();
+
+        private Builder() {
+        }
+
+        public Builder<V> optMaxEntries(long maxEntries) {
+            this.maxEntries = Math.max(1, maxEntries);
+            return this;
+        }
+
+        /**
+         * Bounds the memory tier by the sum of {@code weigher} over all entries, usually their size in bytes.
+         */
+        public Builder<V> optMaxBytes(long maxBytes, ToLongFunction<V> weigher) {
+            this.maxBytes = maxBytes;
+            this.weigher = weigher;
+            return this;
+        }
+
+        public Builder<V> optTtl(long ttl, TimeUnit unit) {
+            this.ttlNanos = unit.toNanos(ttl);
+            return this;
+        }
+
+        /**
+         * Enables near-duplicate lookups through {@link #getSimilar(Long)}, off ({@code -1}) by default. A
+         * distance of 4 to 6 bits out of 64 catches re-encoded and rescaled copies, but also different cards
+         * printed on the same template.
+         */
+        public Builder<V> optNearDuplicateDistance(int maxHammingDistance) {
+            this.maxHammingDistance = maxHammingDistance;
+            return this;
+        }
+
+        /**
+         * Copies values on the way in and out, for instance {@code float[]::clone} for arrays.
+         */
+        public Builder<V> optCopier(UnaryOperator<V> copier) {
+            this.copier = copier;
+            return this;
+        }
+
+        public Builder<V> optStrongHash(boolean strongHash) {
+            this.strongHash = strongHash;
+            return this;
+        }
+
+        public Builder<V> optDiskTier(Path diskFolder, Codec<V> codec) {
+            this.diskFolder = diskFolder;
+            this.codec = codec;
+            return this;
+        }
+
+        public ResultCache<V> build() {
+            if (diskFolder != null) {
+                try {
+                    Files.createDirectories(diskFolder);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("Cannot create cache folder " + diskFolder, e);
+                }
+            }
+            return new ResultCache<>(this);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The sidecar {@code <shard>.index} of a shard written by {@link ShardPacker}: a header line with the sample size,
+ * then one line per sample in shard order with its manifest path and content signature. The paths are the stable
+ * keys of the samples, {@link MappedShardDataset.Split} is derived from them.
+ */
+public final class ShardIndex {
+
+    private ShardIndex() {
+    }
+
+    public static Path file(Path shardFile) {
+        return shardFile.resolveSibling(shardFile.getFileName() + ".index");
+    }
+
+    /**
+     * The signatures of the samples by manifest path, in shard order, or null when the shard or its sidecar is
+     * missing or holds another sample size.
+     */
+    public static Map<String, String> read(Path shardFile, int width, int height) throws IOException {
+        Path indexFile = file(shardFile);
+        if (!Files.exists(shardFile) || !Files.exists(indexFile)) {
+            return null;
+        }
+        List<String> lines = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(header(width, height))) {
+            return null;
+        }
+        Map<String, String> index = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            int tab = line.lastIndexOf('\t');
+            index.put(line.substring(0, tab), line.substring(tab + 1));
+        }
+        return index;
+    }
+
+    public static void write(Path shardFile, int width, int height, Map<String, String> index) throws IOException {
+        Path indexFile = file(shardFile);
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        List<String> lines = new ArrayList<>(index.size() + 1);
+        lines.add(header(width, height));
+        index.forEach((path, signature) -> lines.add(path + "\t" + signature));
+        Files.write(temp, lines, StandardCharsets.UTF_8);
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String header(int width, int height) {
+        return "#shard-index\t" + ShardPacker.VERSION + "\t" + width + "x" + height;
+    }
+}
@@ -0,0 +1,359 @@
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Packs an image folder (one sub folder per class, the layout {@code ImageFolder} reads) into a single shard
+ * file of fixed-shape RGB HWC uint8 samples that {@link MappedShardDataset} maps into memory.
+ *
+ * <p>Layout, all integers big-endian:
+ * <pre>
+ * int magic, int version, int count, int height, int width, int channels, int classCount,
+ * long dataOffset, long labelsOffset,
+ * classCount x (short length, UTF-8 bytes),
+ * padding up to dataOffset (64-byte aligned),
+ * count x (height * width * channels) bytes of pixels,
+ * count x int label
+ * </pre>
+ *
+ * <p>While images are appended in place the version field holds {@link #APPENDING}. The real version is written
+ * back last, so a shard whose append was interrupted is recognised and packed again.
+ */
+public class ShardPacker {
+    static {
+        Bootstrap.loadNativeLibraries();  // Load OpenCV library once per JVM
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardPacker.class);
+
+    static final int MAGIC = 0x4E494453; // "NIDS"
+    static final int VERSION = 1;
+    static final int APPENDING = 0;
+    static final int CHANNELS = 3;
+    private static final int ALIGNMENT = 64;
+
+    private ShardPacker() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path datasetFolder = Paths.get(args.length > 0 ? args[0] : "dataset");
+        Path shardFile = Paths.get(args.length > 1 ? args[1] : "shards/dataset-256x256.shard");
+        pack(datasetFolder, shardFile, 256, 256);
+    }
+
+    /**
+     * Decodes and resizes every image under {@code datasetFolder} once and writes them to {@code shardFile}.
+     * Images that cannot be decoded are logged and left out.
+     */
+    public static void pack(Path datasetFolder, Path shardFile, int width, int height) throws IOException {
+        List<String> classes;
+        try (Stream<Path> folders = Files.list(datasetFolder)) {
+            classes = folders.filter(Files::isDirectory)
+                    .map(p -> p.getFileName().toString())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        List<Path> images = new ArrayList<>();
+        List<Integer> labels = new ArrayList<>();
+        for (int label = 0; label < classes.size(); label++) {
+            try (Stream<Path> files = Files.list(datasetFolder.resolve(classes.get(label)))) {
+                for (Path image : (Iterable<Path>) files.filter(Files::isRegularFile).sorted()::iterator) {
+                    images.add(image);
+                    labels.add(label);
+                }
+            }
+        }
+        List<Path> written = pack(images, labels, classes, shardFile, width, height);
+
+        // No manifest, so no signatures: the next sync packs the shard again, but the split keys are there
+        Map<String, String> index = new LinkedHashMap<>();
+        for (Path image : written) {
+            index.put(datasetFolder.relativize(image).toString().replace('\\', '/'), "");
+        }
+        ShardIndex.write(shardFile, width, height, index);
+    }
+
+    /**
+     * Brings the shard up to date with a {@link DatasetManifest}, decoding only what is not in the shard yet.
+     *
+     * <p>A {@link ShardIndex} sidecar lists the manifest path and content signature of every sample in shard order. Images new to the manifest are appended to the shard in place, so an append writes only the new
+     * samples and the label table instead of copying the shard. A changed
+     * or removed image, a new label or a different sample size packs the shard again from the manifest. When
+     * nothing changed only the manifest and the sidecar are read. A repack reorders the samples, but the splits
+     * follow the manifest paths, so no sample moves between them. Returns the number of images decoded.
+     */
+    public static int sync(DatasetManifest manifest, Path shardFile, int width, int height) throws IOException {
+        long start = System.nanoTime();
+        List<DatasetManifest.Entry> entries = new ArrayList<>();
+        for (DatasetManifest.Entry entry : manifest.entries()) {
+            // ImageFolder ignores images outside a label folder, so does the shard
+            if (!entry.getLabel().isEmpty()) {
+                entries.add(entry);
+            }
+        }
+        List<String> classes = entries.stream().map(DatasetManifest.Entry::getLabel).distinct().sorted().collect(Collectors.toList());
+
+        Map<String, String> packed = ShardIndex.read(shardFile, width, height);
+        boolean repack = packed == null || !classes.equals(readClasses(shardFile, packed.size()));
+        Map<String, DatasetManifest.Entry> byPath = new HashMap<>();
+        for (DatasetManifest.Entry entry : entries) {
+            byPath.put(entry.getPath(), entry);
+        }
+        if (!repack) {
+            for (Map.Entry<String, String> sample : packed.entrySet()) {
+                DatasetManifest.Entry entry = byPath.get(sample.getKey());
+                if (entry == null || !entry.signature().equals(sample.getValue())) {
+                    repack = true;
+                    break;
+                }
+            }
+        }
+
+        List<DatasetManifest.Entry> pending = new ArrayList<>();
+        for (DatasetManifest.Entry entry : entries) {
+            if (repack || !packed.containsKey(entry.getPath())) {
+                pending.add(entry);
+            }
+        }
+        if (pending.isEmpty()) {
+            logger.info("Shard {} is up to date with {} images, checked in {} ms", shardFile, entries.size(),
+                    (System.nanoTime() - start) / 1_000_000);
+            return 0;
+        }
+
+        List<Path> images = new ArrayList<>(pending.size());
+        List<Integer> labels = new ArrayList<>(pending.size());
+        for (DatasetManifest.Entry entry : pending) {
+            images.add(manifest.getDatasetRoot().resolve(entry.getPath()));
+            labels.add(classes.indexOf(entry.getLabel()));
+        }
+        List<Path> written = repack
+                ? pack(images, labels, classes, shardFile, width, height)
+                : append(images, labels, shardFile, width, height);
+
+        // The sidecar follows the shard, a crash in between only costs a repack
+        Map<String, String> index = repack ? new LinkedHashMap<>() : packed;
+        Set<Path> writtenImages = new HashSet<>(written);
+        for (int i = 0; i < pending.size(); i++) {
+            if (writtenImages.contains(images.get(i))) {
+                index.put(pending.get(i).getPath(), pending.get(i).signature());
+            }
+        }
+        ShardIndex.write(shardFile, width, height, index);
+        logger.info("{} shard {}: {} images decoded, {} in total", repack ? "Repacked" : "Appended to", shardFile,
+                written.size(), index.size());
+        return written.size();
+    }
+
+    /**
+     * Writes the images with their labels into a new shard. Returns the images written, unreadable ones are left
+     * out.
+     */
+    private static List<Path> pack(List<Path> images, List<Integer> imageLabels, List<String> classes, Path shardFile,
+                                   int width, int height) throws IOException {
+        long start = System.nanoTime();
+        int sampleBytes = width * height * CHANNELS;
+        long dataOffset = align(headerSize(classes));
+        List<Integer> labels = new ArrayList<>();
+        List<Path> written;
+
+        if (shardFile.getParent() != null) {
+            Files.createDirectories(shardFile.getParent());
+        }
+        Path temp = shardFile.resolveSibling(shardFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(dataOffset);
+            written = writeSamples(channel, images, imageLabels, labels, width, height);
+
+            long labelsOffset = dataOffset + (long) labels.size() * sampleBytes;
+            writeLabels(channel, labels, labelsOffset);
+
+            ByteBuffer header = ByteBuffer.allocate(headerSize(classes));
+            header.putInt(MAGIC).putInt(VERSION).putInt(labels.size())
+                    .putInt(height).putInt(width).putInt(CHANNELS).putInt(classes.size())
+                    .putLong(dataOffset).putLong(labelsOffset);
+            for (String name : classes) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                header.putShort((short) bytes.length).put(bytes);
+            }
+            header.flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+        Files.move(temp, shardFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        logger.info("Packed {} images of {} classes into {} in {} ms", labels.size(), classes.size(), shardFile,
+                (System.nanoTime() - start) / 1_000_000);
+        return written;
+    }
+
+    /**
+     * Appends the images to the shard in place. The shard is first marked as {@link #APPENDING}, then the new
+     * samples take the place of the label table, the label table is written again after them, and the header is
+     * written last. An append cut short leaves the mark, and the next sync packs the shard again.
+     */
+    private static List<Path> append(List<Path> images, List<Integer> imageLabels, Path shardFile, int width, int height)
+            throws IOException {
+        List<Path> written;
+        try (FileChannel channel = FileChannel.open(shardFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer fixed = ByteBuffer.allocate(7 * Integer.BYTES + 2 * Long.BYTES);
+            if (!MappedShardDataset.readFully(channel, fixed, 0)) {
+                throw new EOFException("Truncated shard header in " + shardFile);
+            }
+            fixed.flip();
+            fixed.position(2 * Integer.BYTES);
+            int count = fixed.getInt();
+            fixed.position(7 * Integer.BYTES);
+            long dataOffset = fixed.getLong();
+            long labelsOffset = fixed.getLong();
+
+            ByteBuffer oldLabels = ByteBuffer.allocate(count * Integer.BYTES);
+            if (!MappedShardDataset.readFully(channel, oldLabels, labelsOffset)) {
+                throw new EOFException("Truncated label table in " + shardFile);
+            }
+            oldLabels.flip();
+            List<Integer> labels = new ArrayList<>(count + images.size());
+            while (oldLabels.hasRemaining()) {
+                labels.add(oldLabels.getInt());
+            }
+            writeInt(channel, Integer.BYTES, APPENDING);
+            channel.force(false);
+
+            channel.position(labelsOffset);
+            written = writeSamples(channel, images, imageLabels, labels, width, height);
+            long newLabelsOffset = dataOffset + (long) labels.size() * width * height * CHANNELS;
+            writeLabels(channel, labels, newLabelsOffset);
+            channel.truncate(newLabelsOffset + (long) labels.size() * Integer.BYTES);
+
+            writeInt(channel, 2 * Integer.BYTES, labels.size());
+            ByteBuffer offset = ByteBuffer.allocate(Long.BYTES);
+            offset.putLong(newLabelsOffset).flip();
+            channel.write(offset, 7 * Integer.BYTES + Long.BYTES);
+            channel.force(true);
+            // Only now the shard is whole again
+            writeInt(channel, Integer.BYTES, VERSION);
+            channel.force(true);
+        }
+        return written;
+    }
+
+    private static void writeInt(FileChannel channel, long position, int value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+        buffer.putInt(value).flip();
+        channel.write(buffer, position);
+    }
+
+    /**
+     * Decodes, resizes and writes the images at the channel's position, adding the label of every image written.
+     */
+    private static List<Path> writeSamples(FileChannel channel, List<Path> images, List<Integer> imageLabels,
+                                           List<Integer> labels, int width, int height) throws IOException {
+        List<Path> written = new ArrayList<>();
+        // One reusable off-heap buffer wrapped as the colour conversion target
+        ByteBuffer sample = ByteBuffer.allocateDirect(width * height * CHANNELS);
+        Mat rgb = new Mat(height, width, CvType.CV_8UC3, sample);
+        Mat resized = new Mat();
+        try {
+            for (int i = 0; i < images.size(); i++) {
+                Path image = images.get(i);
+                Mat decoded = Imgcodecs.imread(image.toString(), Imgcodecs.IMREAD_COLOR);
+                if (decoded.empty()) {
+                    logger.warn("Skipping unreadable image {}", image);
+                    continue;
+                }
+                Imgproc.resize(decoded, resized, new Size(width, height), 0, 0, Imgproc.INTER_LINEAR);
+                Imgproc.cvtColor(resized, rgb, Imgproc.COLOR_BGR2RGB);
+                decoded.release();
+
+                sample.clear();
+                while (sample.hasRemaining()) {
+                    channel.write(sample);
+                }
+                labels.add(imageLabels.get(i));
+                written.add(image);
+            }
+        } finally {
+            rgb.release();
+            resized.release();
+        }
+        return written;
+    }
+
+    private static void writeLabels(FileChannel channel, List<Integer> labels, long labelsOffset) throws IOException {
+        ByteBuffer labelBuffer = ByteBuffer.allocate(labels.size() * Integer.BYTES);
+        labels.forEach(labelBuffer::putInt);
+        labelBuffer.flip();
+        while (labelBuffer.hasRemaining()) {
+            channel.write(labelBuffer, labelsOffset + labelBuffer.position());
+        }
+    }
+
+    /**
+     * The class names of a whole shard of {@code count} samples, or null when the shard is of another version, was
+     * cut short during an append or holds another number of samples than its sidecar lists.
+     */
+    private static List<String> readClasses(Path shardFile, int count) throws IOException {
+        List<String> classes = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(shardFile, StandardOpenOption.READ)) {
+            ByteBuffer fixed = ByteBuffer.allocate(7 * Integer.BYTES + 2 * Long.BYTES);
+            if (!MappedShardDataset.readFully(channel, fixed, 0)) {
+                return null;
+            }
+            fixed.flip();
+            if (fixed.getInt() != MAGIC || fixed.getInt() != VERSION || fixed.getInt() != count) {
+                return null;
+            }
+            fixed.position(6 * Integer.BYTES);
+            int classCount = fixed.getInt();
+            long dataOffset = fixed.getLong();
+            ByteBuffer names = ByteBuffer.allocate((int) (dataOffset - fixed.capacity()));
+            if (!MappedShardDataset.readFully(channel, names, fixed.capacity())) {
+                return null;
+            }
+            names.flip();
+            for (int i = 0; i < classCount; i++) {
+                byte[] bytes = new byte[names.getShort()];
+                names.get(bytes);
+                classes.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+        return classes;
+    }
+
+    private static int headerSize(List<String> classes) {
+        int size = 7 * Integer.BYTES + 2 * Long.BYTES;
+        for (String name : classes) {
+            size += Short.BYTES + name.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return size;
+    }
+
+    private static long align(long offset) {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
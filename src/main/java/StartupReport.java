@@ -0,0 +1,88 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the time from launching a worker JVM to its first extracted card. It runs {@link Bootstrap#main} in
+ * fresh JVMs, first with the default CDS archive of the JDK classes and then with an AppCDS archive of the
+ * application and library classes. The AppCDS archive is created first by a training run with
+ * {@code -XX:ArchiveClassesAtExit}. Run it with {@code mvn -Pstartup verify} or {@code ./gradlew startupReport}.
+ *
+ * <p>Usage: {@code StartupReport [runs] [archive] [image]}
+ */
+public class StartupReport {
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        Path archive = Paths.get(args.length > 1 ? args[1] : "target/nationalid.jsa");
+        String image = args.length > 2 ? args[2] : "samples/tai-phoi-can-cuoc-cong-dan-psd.png";
+
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String classpath = System.getProperty("java.class.path");
+        Files.createDirectories(archive.toAbsolutePath().getParent());
+        Files.deleteIfExists(archive);
+
+        long start = System.nanoTime();
+        launch(List.of(java, "-XX:ArchiveClassesAtExit=" + archive, "-cp", classpath, "Bootstrap", image));
+        System.out.printf("AppCDS archive %s written in %.1f s, %d MB%n", archive, (System.nanoTime() - start) / 1e9,
+                Files.size(archive) >> 20);
+
+        System.out.printf("%-10s %22s %22s%n", "classes", "first result p50 ms", "first result min ms");
+        long[] plain = measure(runs, List.of(java, "-cp", classpath, "Bootstrap", image));
+        print("JDK CDS", plain);
+        long[] appCds = measure(runs, List.of(java, "-XX:SharedArchiveFile=" + archive, "-cp", classpath, "Bootstrap", image));
+        print("AppCDS", appCds);
+        System.out.printf("AppCDS saves %d ms (%.0f%%) to the first result%n", median(plain) - median(appCds),
+                100.0 * (median(plain) - median(appCds)) / median(plain));
+    }
+
+    private static long[] measure(int runs, List<String> command) throws IOException, InterruptedException {
+        long[] millis = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            millis[i] = launch(command);
+        }
+        return millis;
+    }
+
+    /**
+     * Runs the command and returns the milliseconds from launch until it reports its first result.
+     */
+    private static long launch(List<String> command) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        long firstResult = -1;
+        List<String> output = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("time-to-first-result") && firstResult < 0) {
+                    firstResult = (System.nanoTime() - start) / 1_000_000;
+                }
+                output.add(line);
+            }
+        }
+        int exit = process.waitFor();
+        if (exit != 0 || firstResult < 0) {
+            output.forEach(System.err::println);
+            throw new IllegalStateException("Startup run failed with exit code " + exit + ": " + String.join(" ", command));
+        }
+        return firstResult;
+    }
+
+    private static void print(String label, long[] millis) {
+        System.out.printf("%-10s %22d %22d%n", label, median(millis), Arrays.stream(millis).min().orElse(0));
+    }
+
+    private static long median(long[] millis) {
+        long[] sorted = millis.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,160 @@
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+import ai.djl.modality.cv.output.DetectedObjects;
+import ai.djl.modality.cv.output.Rectangle;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares single-pass, tiled and coarse-to-fine detection on synthetic flatbed scans: A4 pages at the given
+ * resolution with several card images from {@code original/} pasted at their real size (85.6 x 54 mm) and
+ * random positions. Reports per mode the fraction of planted cards found (IoU of at least 0.5), the false
+ * detections per page, the latency and how many tiles ran.
+ *
+ * <p>Usage: {@code TiledDetectionBenchmark [imageFolder] [pages] [cardsPerPage] [dpi] [tileSize]}
+ */
+public class TiledDetectionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        File imageFolder = new File(args.length > 0 ? args[0] : "original");
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int cardsPerPage = args.length > 2 ? Integer.parseInt(args[2]) : 6;
+        int dpi = args.length > 3 ? Integer.parseInt(args[3]) : 150;
+        int tileSize = args.length > 4 ? Integer.parseInt(args[4]) : 1024;
+
+        List<BufferedImage> cards = new ArrayList<>();
+        collect(imageFolder, cards);
+        if (cards.isEmpty()) {
+            System.out.println("No images found in " + imageFolder);
+            return;
+        }
+
+        Random random = new Random(42);
+        List<BufferedImage> scans = new ArrayList<>();
+        List<List<java.awt.Rectangle>> truth = new ArrayList<>();
+        for (int p = 0; p < pages; p++) {
+            List<java.awt.Rectangle> planted = new ArrayList<>();
+            scans.add(page(cards, cardsPerPage, dpi, random, planted));
+            truth.add(planted);
+        }
+
+        NationalIDDetector detector = new NationalIDDetector();
+        detector.warmUp(3);
+        TiledDetector tiled = TiledDetector.builder(detector).optTileSize(tileSize).build();
+        TiledDetector coarse = TiledDetector.builder(detector).optTileSize(tileSize)
+                .optMode(TiledDetector.Mode.COARSE_TO_FINE).build();
+
+        System.out.printf("%d pages of %d cards at %d dpi (%dx%d), tiles of %d%n", pages, cardsPerPage, dpi,
+                scans.get(0).getWidth(), scans.get(0).getHeight(), tileSize);
+        System.out.printf("%-16s %10s %12s %10s %10s %12s%n", "mode", "recall", "false/page", "p50 ms", "p99 ms", "tiles/page");
+        for (String mode : new String[]{"single pass", "tiled", "coarse-to-fine"}) {
+            LatencyHistogram latency = new LatencyHistogram();
+            long found = 0;
+            long falsePositives = 0;
+            long tilesBefore = PipelineMetrics.getCount("tiles_run");
+            for (int p = 0; p < pages; p++) {
+                Image image = ImageFactory.getInstance().fromImage(scans.get(p));
+                long start = System.nanoTime();
+                DetectedObjects result = switch (mode) {
+                    case "tiled" -> tiled.detect(image);
+                    case "coarse-to-fine" -> coarse.detect(image);
+                    default -> singlePass(detector, scans.get(p));
+                };
+                latency.record(System.nanoTime() - start);
+                int matched = match(result, truth.get(p), scans.get(p).getWidth(), scans.get(p).getHeight());
+                found += matched;
+                falsePositives += result.getNumberOfObjects() - matched;
+            }
+            long tiles = PipelineMetrics.getCount("tiles_run") - tilesBefore;
+            System.out.printf("%-16s %10.3f %12.2f %10.1f %10.1f %12s%n", mode, (double) found / (pages * cardsPerPage),
+                    (double) falsePositives / pages, latency.getValueAtQuantile(0.5) / 1e6,
+                    latency.getValueAtQuantile(0.99) / 1e6, mode.equals("single pass") ? "1" : String.format("%.1f", (double) tiles / pages));
+        }
+        detector.close();
+    }
+
+    /**
+     * The pipeline's single pass: the whole page squashed to 640x480.
+     */
+    private static DetectedObjects singlePass(NationalIDDetector detector, BufferedImage scan) throws Exception {
+        BufferedImage preprocessed = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        NationalIDProcessor.preprocessInto(scan, preprocessed);
+        return detector.detect(ImageFactory.getInstance().fromImage(preprocessed));
+    }
+
+    /**
+     * Pastes the cards on a white page in the cells of a grid, at a random position inside each cell.
+     */
+    private static BufferedImage page(List<BufferedImage> cards, int count, int dpi, Random random, List<java.awt.Rectangle> planted) {
+        int width = (int) Math.round(210 / 25.4 * dpi);
+        int height = (int) Math.round(297 / 25.4 * dpi);
+        int cardWidth = (int) Math.round(85.6 / 25.4 * dpi);
+        int cardHeight = (int) Math.round(54 / 25.4 * dpi);
+        int columns = Math.max(1, width / (cardWidth + cardWidth / 4));
+        int rows = (count + columns - 1) / columns;
+        int cellWidth = width / columns;
+        int cellHeight = height / Math.max(rows, 1);
+
+        BufferedImage page = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = page.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        for (int i = 0; i < count; i++) {
+            int x = (i % columns) * cellWidth + random.nextInt(Math.max(1, cellWidth - cardWidth));
+            int y = (i / columns) * cellHeight + random.nextInt(Math.max(1, cellHeight - cardHeight));
+            g.drawImage(cards.get(random.nextInt(cards.size())), x, y, cardWidth, cardHeight, null);
+            planted.add(new java.awt.Rectangle(x, y, cardWidth, cardHeight));
+        }
+        g.dispose();
+        return page;
+    }
+
+    /**
+     * How many planted cards a detection overlaps with an IoU of at least 0.5, each counted once.
+     */
+    private static int match(DetectedObjects result, List<java.awt.Rectangle> planted, int width, int height) {
+        boolean[] taken = new boolean[planted.size()];
+        int matched = 0;
+        for (DetectedObjects.DetectedObject object : result.<DetectedObjects.DetectedObject>items()) {
+            Rectangle box = object.getBoundingBox().getBounds();
+            java.awt.Rectangle found = new java.awt.Rectangle((int) (box.getX() * width), (int) (box.getY() * height),
+                    (int) (box.getWidth() * width), (int) (box.getHeight() * height));
+            for (int i = 0; i < planted.size(); i++) {
+                java.awt.Rectangle card = planted.get(i);
+                java.awt.Rectangle overlap = card.intersection(found);
+                double intersection = overlap.isEmpty() ? 0 : (double) overlap.width * overlap.height;
+                double union = (double) card.width * card.height + (double) found.width * found.height - intersection;
+                if (!taken[i] && intersection / union >= 0.5) {
+                    taken[i] = true;
+                    matched++;
+                    break;
+                }
+            }
+        }
+        return matched;
+    }
+
+    private static void collect(File folder, List<BufferedImage> cards) throws Exception {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collect(child, cards);
+            } else if (child.getName().matches("(?i).*\\.(jpe?g|png)")) {
+                BufferedImage card = ImageIO.read(child);
+                if (card != null) {
+                    cards.add(card);
+                }
+            }
+        }
+    }
+}
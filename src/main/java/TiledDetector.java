@@ -0,0 +1,423 @@
+import ai.djl.MalformedModelException;
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+import ai.djl.modality.cv.output.BoundingBox;
+import ai.djl.modality.cv.output.DetectedObjects;
+import ai.djl.modality.cv.output.Rectangle;
+import ai.djl.translate.TranslateException;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Runs the SSD detector on large scans, for example a flatbed page holding several cards, without squashing the
+ * whole page into one 512 pixel input where small cards disappear.
+ *
+ * <p>In {@link Mode#TILED} the image is cut into square, overlapping tiles of {@code tileSize} pixels. Each tile
+ * is scaled to the detector input without distortion and the tiles run in batches. The boxes are mapped back to
+ * the image and merged across tiles with non-maximum suppression. A box is also dropped when a stronger one
+ * mostly contains it, the piece of a card cut off by a tile edge. In {@link Mode#COARSE_TO_FINE} a
+ * low-resolution pass over the whole image runs first, and full-resolution tiles run only where it found
+ * something. Images no larger than one tile take a single pass in both modes.
+ *
+ * <p>Only detections of a card class at or above {@code minProbability} are kept, see {@link #isCard}. Boxes in
+ * the result are relative to the original image, like those of the single-pass detector.
+ */
+public class TiledDetector {
+
+    // The probability a detection needs to be served as a card, tiled or not
+    public static final double DEFAULT_MIN_PROBABILITY = 0.5;
+
+    public enum Mode {
+        TILED,
+        COARSE_TO_FINE
+    }
+
+    private final NationalIDDetector detector;
+    private final Mode mode;
+    private final int tileSize;
+    private final double overlap;
+    private final int inputSize;
+    private final int batchSize;
+    private final double minProbability;
+    private final double coarseProbability;
+    private final double nmsThreshold;
+    private final double containmentThreshold;
+    private final Set<String> cardClasses;
+
+    private TiledDetector(Builder builder) {
+        this.detector = builder.detector;
+        this.mode = builder.mode;
+        this.tileSize = builder.tileSize;
+        this.overlap = builder.overlap;
+        this.inputSize = builder.inputSize;
+        this.batchSize = builder.batchSize;
+        this.minProbability = builder.minProbability;
+        this.coarseProbability = builder.coarseProbability;
+        this.nmsThreshold = builder.nmsThreshold;
+        this.containmentThreshold = builder.containmentThreshold;
+        this.cardClasses = builder.cardClasses;
+    }
+
+    public static Builder builder(NationalIDDetector detector) {
+        return new Builder(detector);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Whether a detection can be served as a card: at least {@code minProbability}, and of one of the card classes,
+     * or with no card classes given of any class not named like a background class
+     * ({@link CascadeGate#NEGATIVE_CLASS_NAMES}).
+     */
+    static boolean isCard(DetectedObjects.DetectedObject object, double minProbability, Set<String> cardClasses) {
+        if (object.getProbability() < minProbability) {
+            return false;
+        }
+        String className = object.getClassName();
+        return cardClasses != null
+                ? cardClasses.contains(className)
+                : !CascadeGate.NEGATIVE_CLASS_NAMES.contains(className.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Detects every card in the image, with boxes relative to the whole image.
+     */
+    public DetectedObjects detect(Image image) throws IOException, MalformedModelException, TranslateException {
+        BufferedImage source = (BufferedImage) image.getWrappedImage();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (Math.max(width, height) <= tileSize) {
+            return toDetectedObjects(suppress(run(source, List.of(new Tile(0, 0, Math.max(width, height))), minProbability)),
+                    width, height);
+        }
+
+        List<Tile> tiles = tiles(width, height);
+        int total = tiles.size();
+        if (mode == Mode.COARSE_TO_FINE) {
+            // The whole image as one tile, scaled down to the detector input
+            List<Detection> coarse = run(source, List.of(new Tile(0, 0, Math.max(width, height))), coarseProbability);
+            tiles = covering(tiles, coarse);
+        }
+        PipelineMetrics.add("tiles_run", tiles.size());
+        PipelineMetrics.add("tiles_skipped", total - tiles.size());
+        return toDetectedObjects(suppress(run(source, tiles, minProbability)), width, height);
+    }
+
+    /**
+     * Square tiles covering the image with the configured overlap. The last row and column are moved back to end
+     * at the image edge, so no tile reaches past it unless the image is smaller than a tile.
+     */
+    List<Tile> tiles(int width, int height) {
+        int stride = Math.max(1, (int) Math.round(tileSize * (1 - overlap)));
+        List<Tile> tiles = new ArrayList<>();
+        for (int y : offsets(height, stride)) {
+            for (int x : offsets(width, stride)) {
+                tiles.add(new Tile(x, y, tileSize));
+            }
+        }
+        return tiles;
+    }
+
+    private List<Integer> offsets(int length, int stride) {
+        List<Integer> offsets = new ArrayList<>();
+        if (length <= tileSize) {
+            offsets.add(0);
+            return offsets;
+        }
+        for (int offset = 0; ; offset += stride) {
+            if (offset + tileSize >= length) {
+                offsets.add(length - tileSize);
+                return offsets;
+            }
+            offsets.add(offset);
+        }
+    }
+
+    /**
+     * The tiles that hold a whole coarse detection, one per detection: the tile whose centre is closest to the
+     * detection's centre among those containing it, or every tile it touches when it is larger than the overlap.
+     */
+    private List<Tile> covering(List<Tile> tiles, List<Detection> coarse) {
+        List<Tile> selected = new ArrayList<>();
+        for (Detection detection : coarse) {
+            Tile best = null;
+            double bestDistance = Double.MAX_VALUE;
+            for (Tile tile : tiles) {
+                if (tile.contains(detection)) {
+                    double dx = tile.x + tileSize / 2.0 - (detection.x0 + detection.x1) / 2;
+                    double dy = tile.y + tileSize / 2.0 - (detection.y0 + detection.y1) / 2;
+                    double distance = dx * dx + dy * dy;
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = tile;
+                    }
+                }
+            }
+            if (best != null) {
+                addOnce(selected, best);
+            } else {
+                for (Tile tile : tiles) {
+                    if (tile.intersects(detection)) {
+                        addOnce(selected, tile);
+                    }
+                }
+            }
+        }
+        return selected;
+    }
+
+    private static void addOnce(List<Tile> tiles, Tile tile) {
+        if (!tiles.contains(tile)) {
+            tiles.add(tile);
+        }
+    }
+
+    /**
+     * Runs the tiles through the detector in batches and returns the detections in image pixels.
+     */
+    private List<Detection> run(BufferedImage source, List<Tile> tiles, double threshold)
+            throws IOException, MalformedModelException, TranslateException {
+        List<Detection> detections = new ArrayList<>();
+        for (int from = 0; from < tiles.size(); from += batchSize) {
+            List<Tile> batch = tiles.subList(from, Math.min(tiles.size(), from + batchSize));
+            long start = System.nanoTime();
+            List<Image> inputs = new ArrayList<>(batch.size());
+            for (Tile tile : batch) {
+                inputs.add(ImageFactory.getInstance().fromImage(render(source, tile)));
+            }
+            PipelineMetrics.Stage.PREPROCESS.recordSince(start);
+
+            start = System.nanoTime();
+            List<DetectedObjects> results = inputs.size() == 1
+                    ? List.of(detector.detect(inputs.get(0)))
+                    : detector.detectBatch(inputs);
+            PipelineMetrics.Stage.DETECT.recordSince(start);
+
+            for (int i = 0; i < batch.size(); i++) {
+                Tile tile = batch.get(i);
+                for (DetectedObjects.DetectedObject object : results.get(i).<DetectedObjects.DetectedObject>items()) {
+                    if (!isCard(object, threshold, cardClasses)) {
+                        continue;
+                    }
+                    // Relative to the input, which shows tileSize image pixels on each side
+                    Rectangle box = object.getBoundingBox().getBounds();
+                    double x0 = tile.x + box.getX() * tile.size;
+                    double y0 = tile.y + box.getY() * tile.size;
+                    detections.add(new Detection(object.getClassName(), object.getProbability(),
+                            x0, y0, x0 + box.getWidth() * tile.size, y0 + box.getHeight() * tile.size,
+                            source.getWidth(), source.getHeight()));
+                }
+            }
+        }
+        return detections;
+    }
+
+    /**
+     * Draws the tile at the detector input size with one scale for both axes. Parts of the tile beyond the image
+     * stay black.
+     */
+    private BufferedImage render(BufferedImage source, Tile tile) {
+        BufferedImage input = new BufferedImage(inputSize, inputSize, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = input.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        double scale = (double) inputSize / tile.size;
+        int right = Math.min(source.getWidth(), tile.x + tile.size);
+        int bottom = Math.min(source.getHeight(), tile.y + tile.size);
+        g.drawImage(source, 0, 0, (int) Math.round((right - tile.x) * scale), (int) Math.round((bottom - tile.y) * scale),
+                tile.x, tile.y, right, bottom, null);
+        g.dispose();
+        return input;
+    }
+
+    /**
+     * Greedy non-maximum suppression, strongest first. A box is dropped when it overlaps a kept box by more than
+     * the IoU threshold, or when a kept box covers most of it.
+     */
+    List<Detection> suppress(List<Detection> detections) {
+        List<Detection> sorted = new ArrayList<>(detections);
+        sorted.sort(Comparator.comparingDouble((Detection d) -> d.probability).reversed());
+        List<Detection> kept = new ArrayList<>();
+        for (Detection candidate : sorted) {
+            boolean suppressed = false;
+            for (Detection keeper : kept) {
+                double intersection = keeper.intersection(candidate);
+                double union = keeper.area() + candidate.area() - intersection;
+                if (intersection / union > nmsThreshold
+                        || intersection / Math.min(keeper.area(), candidate.area()) > containmentThreshold) {
+                    suppressed = true;
+                    break;
+                }
+            }
+            if (!suppressed) {
+                kept.add(candidate);
+            }
+        }
+        return kept;
+    }
+
+    private static DetectedObjects toDetectedObjects(List<Detection> detections, int width, int height) {
+        List<String> classNames = new ArrayList<>(detections.size());
+        List<Double> probabilities = new ArrayList<>(detections.size());
+        List<BoundingBox> boxes = new ArrayList<>(detections.size());
+        for (Detection detection : detections) {
+            classNames.add(detection.className);
+            probabilities.add(detection.probability);
+            boxes.add(new Rectangle(detection.x0 / width, detection.y0 / height,
+                    (detection.x1 - detection.x0) / width, (detection.y1 - detection.y0) / height));
+        }
+        return new DetectedObjects(classNames, probabilities, boxes);
+    }
+
+    /**
+     * A square region of the image, in pixels. It may reach past the image when the image is smaller than a tile.
+     */
+    record Tile(int x, int y, int size) {
+
+        boolean contains(Detection detection) {
+            return detection.x0 >= x && detection.y0 >= y && detection.x1 <= x + size && detection.y1 <= y + size;
+        }
+
+        boolean intersects(Detection detection) {
+            return detection.x0 < x + size && detection.x1 > x && detection.y0 < y + size && detection.y1 > y;
+        }
+    }
+
+    /**
+     * A detection in image pixels, clipped to the image.
+     */
+    static final class Detection {
+        final String className;
+        final double probability;
+        final double x0;
+        final double y0;
+        final double x1;
+        final double y1;
+
+        Detection(String className, double probability, double x0, double y0, double x1, double y1, int width, int height) {
+            this.className = className;
+            this.probability = probability;
+            this.x0 = Math.max(0, x0);
+            this.y0 = Math.max(0, y0);
+            this.x1 = Math.min(width, x1);
+            this.y1 = Math.min(height, y1);
+        }
+
+        double area() {
+            return Math.max(0, x1 - x0) * Math.max(0, y1 - y0);
+        }
+
+        double intersection(Detection other) {
+            double w = Math.min(x1, other.x1) - Math.max(x0, other.x0);
+            double h = Math.min(y1, other.y1) - Math.max(y0, other.y0);
+            return w <= 0 || h <= 0 ? 0 : w * h;
+        }
+    }
+
+    public static final class Builder {
+        private final NationalIDDetector detector;
+        private Mode mode = Mode.TILED;
+        private int tileSize = 1024;
+        private double overlap = 0.5;
+        private int inputSize = 512;
+        private int batchSize = 4;
+        private double minProbability = DEFAULT_MIN_PROBABILITY;
+        private double coarseProbability = 0.2;
+        private double nmsThreshold = 0.45;
+        private double containmentThreshold = 0.8;
+        private Set<String> cardClasses;
+
+        private Builder(NationalIDDetector detector) {
+            this.detector = detector;
+        }
+
+        public Builder optMode(Mode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * The side of a tile in image pixels. Every card is whole in some tile when it is no larger than the
+         * overlap times the tile size, 512 pixels by default, a card scanned at 150 dpi.
+         */
+        public Builder optTileSize(int tileSize) {
+            this.tileSize = tileSize;
+            return this;
+        }
+
+        /**
+         * The fraction of a tile shared with its neighbour, from 0 to below 1.
+         */
+        public Builder optOverlap(double overlap) {
+            this.overlap = overlap;
+            return this;
+        }
+
+        /**
+         * The side of the detector input every tile is scaled to, 512 for the SSD model.
+         */
+        public Builder optInputSize(int inputSize) {
+            this.inputSize = inputSize;
+            return this;
+        }
+
+        /**
+         * How many tiles go through the detector in one forward pass.
+         */
+        public Builder optBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder optMinProbability(double minProbability) {
+            this.minProbability = minProbability;
+            return this;
+        }
+
+        /**
+         * The lower probability a detection of the coarse pass needs to trigger the full-resolution tiles around
+         * it. A false trigger only costs a tile, a missed card is lost.
+         */
+        public Builder optCoarseProbability(double coarseProbability) {
+            this.coarseProbability = coarseProbability;
+            return this;
+        }
+
+        public Builder optNmsThreshold(double nmsThreshold) {
+            this.nmsThreshold = nmsThreshold;
+            return this;
+        }
+
+        /**
+         * The fraction of a box covered by a stronger box above which it counts as a fragment of the same card.
+         */
+        public Builder optContainmentThreshold(double containmentThreshold) {
+            this.containmentThreshold = containmentThreshold;
+            return this;
+        }
+
+        /**
+         * The class names a detection must have to count as a card. Without them any class not named like a
+         * background class counts.
+         */
+        public Builder optCardClasses(Set<String> cardClasses) {
+            this.cardClasses = cardClasses == null ? null : Set.copyOf(cardClasses);
+            return this;
+        }
+
+        public TiledDetector build() {
+            if (overlap < 0 || overlap >= 1) {
+                throw new IllegalArgumentException("The overlap must be in [0, 1), got " + overlap);
+            }
+            return new TiledDetector(this);
+        }
+    }
+}
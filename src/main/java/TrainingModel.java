@@ -20,28 +20,35 @@ public class TrainingModel {
     public static void main(String[] args) throws IOException, TranslateException {
         int batchSize = 32;
         Mnist mnist = Mnist.builder().setSampling(batchSize, true).build();
-        mnist.prepare(new ProgressBar());
-        Model model = Model.newInstance("mlp");
-        model.setBlock(new Mlp(28 * 28, 10, new int[]{128, 64}));
-        DefaultTrainingConfig config = new DefaultTrainingConfig(Loss.softmaxCrossEntropyLoss())
-                //softmaxCrossEntropyLoss is a standard loss for classification problems
-                .addEvaluator(new Accuracy()) // Use accuracy so we humans can understand how accurate the model is
-                .addTrainingListeners(TrainingListener.Defaults.logging());
+        // Assemble the next batches on worker threads while the current one trains
+        try (PrefetchingDataLoader loader = PrefetchingDataLoader.builder(mnist)
+                .setSampling(batchSize, true)
+                .optSeed(42)
+                .build()) {
+            loader.prepare(new ProgressBar());
+            Model model = Model.newInstance("mlp");
+            model.setBlock(new Mlp(28 * 28, 10, new int[]{128, 64}));
+            DefaultTrainingConfig config = new DefaultTrainingConfig(Loss.softmaxCrossEntropyLoss())
+                    //softmaxCrossEntropyLoss is a standard loss for classification problems
+                    .addEvaluator(new Accuracy()) // Use accuracy so we humans can understand how accurate the model is
+                    .addTrainingListeners(TrainingListener.Defaults.logging())
+                    .addTrainingListeners(loader.newWaitLogger());
 
-        // Now that we have our training configuration, we should create a new trainer for our model
-        Trainer trainer = model.newTrainer(config);
-        trainer.initialize(new Shape(1, 28 * 28));
-        // Deep learning is typically trained in epochs where each epoch trains the model on each item in the dataset once.
-        int epoch = 2;
+            // Now that we have our training configuration, we should create a new trainer for our model
+            Trainer trainer = model.newTrainer(config);
+            trainer.initialize(new Shape(1, 28 * 28));
+            // Deep learning is typically trained in epochs where each epoch trains the model on each item in the dataset once.
+            int epoch = 2;
 
-        EasyTrain.fit(trainer, epoch, mnist, null);
-        Path modelDir = Paths.get("models/mlp");
-        Files.createDirectories(modelDir);
+            EasyTrain.fit(trainer, epoch, loader, null);
+            Path modelDir = Paths.get("models/mlp");
+            Files.createDirectories(modelDir);
 
-        model.setProperty("Epoch", String.valueOf(epoch));
+            model.setProperty("Epoch", String.valueOf(epoch));
 
-        model.save(modelDir, "mlp");
+            model.save(modelDir, "mlp");
 
-        System.out.println(model);
+            System.out.println(model);
+        }
     }
 }
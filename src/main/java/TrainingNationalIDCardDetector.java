@@ -1,14 +1,11 @@
 import ai.djl.Model;
-import ai.djl.basicdataset.cv.classification.ImageFolder;
-import ai.djl.basicmodelzoo.cv.classification.ResNetV1;
-import ai.djl.modality.cv.Image;
-import ai.djl.modality.cv.transform.Resize;
 import ai.djl.modality.cv.transform.ToTensor;
 import ai.djl.ndarray.types.Shape;
 import ai.djl.nn.Block;
 import ai.djl.training.DefaultTrainingConfig;
 import ai.djl.training.EasyTrain;
 import ai.djl.training.Trainer;
+import ai.djl.training.dataset.RandomAccessDataset;
 import ai.djl.training.evaluator.Accuracy;
 import ai.djl.training.listener.TrainingListener;
 import ai.djl.training.loss.Loss;
@@ -24,37 +21,58 @@ public class TrainingNationalIDCardDetector {
     public static void main(String[] args) throws IOException, TranslateException {
         int batchSize = 16;
 
-        ImageFolder dataset = ImageFolder.builder()
-                .setRepositoryPath(Paths.get("dataset"))
-                .addTransform(new Resize(256, 256, Image.Interpolation.BILINEAR)) // Resizing the images to 256x256
+        // Decode and resize the images once into a memory-mapped shard, later runs read pixels straight from it.
+        // The manifest says which images are new since the last run, only those are decoded and appended.
+        Path shardFile = Paths.get("shards/dataset-256x256.shard");
+        try (DatasetManifest manifest = DatasetManifest.load(Paths.get("dataset"))) {
+            // Cheap when nothing changed: only images that are new or whose size or time changed are read
+            manifest.index();
+            ShardPacker.sync(manifest, shardFile, 256, 256);
+        }
+
+        MappedShardDataset dataset = MappedShardDataset.builder()
+                .setShardFile(shardFile)
                 .addTransform(new ToTensor())  // Normalizing data
                 .setSampling(batchSize, true)
                 .build();
-
         dataset.prepare(new ProgressBar());
+        // The held-out samples are left for ModelQuantizer and QuantizationReport
+        RandomAccessDataset training = dataset.split(MappedShardDataset.Split.TRAINING);
+
+        // Assemble the next batches on worker threads while the current one trains
+        try (PrefetchingDataLoader loader = PrefetchingDataLoader.builder(training)
+                .setSampling(batchSize, true)
+                .optSeed(42)
+                .optPrefetchDepth(4)
+                .build()) {
+            loader.prepare(new ProgressBar());
 
-        // Load or Build a more complex model, for instance, a pretrained ResNet
-        Block block = ResNetV1.builder().setImageShape(new Shape(3, 256, 256)).setOutSize(10).setNumLayers(18).build();
-        Model model = Model.newInstance("resnet");
-        model.setBlock(block);
+            // Load or Build a more complex model, for instance, a pretrained ResNet
+            Block block = ModelVariant.newBlock();
+            Model model = Model.newInstance("resnet");
+            model.setBlock(block);
 
-        // Configure training parameters
-        DefaultTrainingConfig config = new DefaultTrainingConfig(Loss.softmaxCrossEntropyLoss())
-                .addEvaluator(new Accuracy())
-                .addTrainingListeners(TrainingListener.Defaults.logging());
+            // Configure training parameters
+            DefaultTrainingConfig config = new DefaultTrainingConfig(Loss.softmaxCrossEntropyLoss())
+                    .addEvaluator(new Accuracy())
+                    .addTrainingListeners(TrainingListener.Defaults.logging())
+                    .addTrainingListeners(loader.newWaitLogger());
 
-        Trainer trainer = model.newTrainer(config);
-        trainer.initialize(new Shape(1, 3, 256, 256));
+            Trainer trainer = model.newTrainer(config);
+            trainer.initialize(new Shape(1, 3, 256, 256));
 
-        int epoch = 10;  // Adjust the number of epochs
-        EasyTrain.fit(trainer, epoch, dataset, null);
+            int epoch = 10;  // Adjust the number of epochs
+            EasyTrain.fit(trainer, epoch, loader, null);
 
-        Path modelDir = Paths.get("models/national_id_card");
-        Files.createDirectories(modelDir);
+            Path modelDir = Paths.get("models/national_id_card");
+            Files.createDirectories(modelDir);
 
-        model.setProperty("Epoch", String.valueOf(epoch));
-        model.save(modelDir, "national_id_card");
+            model.setProperty("Epoch", String.valueOf(epoch));
+            model.save(modelDir, "national_id_card");
+            // The class names in label order, CascadeGate tells the card classes from the background by them
+            ModelVariant.writeClasses(modelDir, dataset.getClasses());
 
-        System.out.println(model);
+            System.out.println(model);
+        }
     }
 }
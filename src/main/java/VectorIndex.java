@@ -0,0 +1,557 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * An approximate nearest-neighbour index over feature vectors, kept off the heap in memory-mapped files so it
+ * survives restarts and scales past the heap. Used to find earlier submissions of the same card: a reused card
+ * or a forgery edited from a real one lands next to the original.
+ *
+ * <p>The index is an inverted file (IVF): k-means centroids split the space into {@code lists} and every
+ * vector is filed under its nearest centroid. A query scans only the {@code nprobe} lists closest to it, about
+ * {@code nprobe / lists} of the vectors. Vectors are normalized on insert, so the score is cosine similarity.
+ *
+ * <p>Each list stores its vectors in blocks of {@value #BLOCK}, allocated at the end of the file as the list
+ * grows, so a list is scanned block by block from contiguous memory instead of one page per vector. A folder
+ * holds {@code centroids.f32}, {@code vectors.f32} (the blocks) and {@code blocks.i32} (a header with the
+ * counts, then the list and the ids of every block). The heap only keeps the ids per list, rebuilt from
+ * {@code blocks.i32} when the index is opened. Inserts are visible to queries right away. Queries run
+ * concurrently, inserts are serialized.
+ */
+public class VectorIndex implements AutoCloseable {
+    static final int BLOCK = 64;
+    private static final int MAGIC = 0x4E495649;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int RECORD_INTS = 1 + BLOCK;
+    private static final long REGION_BYTES = 1L << 30;
+
+    private final Path folder;
+    private final int dimension;
+    private final float[] centroids;
+    private final int lists;
+    private final FileChannel vectorChannel;
+    private final FileChannel blockChannel;
+    private final List<FloatBuffer> vectorRegions = new ArrayList<>();
+    private final List<IntBuffer> recordRegions = new ArrayList<>();
+    private final List<MappedByteBuffer> mappings = new ArrayList<>();
+    private final MappedByteBuffer header;
+    private final int blocksPerRegion;
+    private final int recordsPerRegion;
+    // Per list: the ids in storage order and the blocks holding them
+    private final int[][] postings;
+    private final int[] postingSizes;
+    private final int[][] listBlocks;
+    // Per id: block * BLOCK + slot
+    private int[] locations = new int[1024];
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int count;
+    private int blockCount;
+
+    private VectorIndex(Path folder, int dimension, float[] centroids) throws IOException {
+        this.folder = folder;
+        this.dimension = dimension;
+        this.centroids = centroids;
+        this.lists = centroids.length / dimension;
+        this.blocksPerRegion = (int) (REGION_BYTES / ((long) BLOCK * dimension * Float.BYTES));
+        this.recordsPerRegion = (int) (REGION_BYTES / (RECORD_INTS * Integer.BYTES));
+        this.postings = new int[lists][BLOCK];
+        this.postingSizes = new int[lists];
+        this.listBlocks = new int[lists][4];
+        this.vectorChannel = FileChannel.open(folder.resolve("vectors.f32"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.blockChannel = FileChannel.open(folder.resolve("blocks.i32"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.header = blockChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Creates an empty index in {@code folder}, training {@code lists} centroids with k-means on a sample of the
+     * vectors it will hold. About the square root of the expected size is a good number of lists, for example
+     * 4096 for 10 million vectors.
+     */
+    public static VectorIndex create(Path folder, int lists, List<float[]> sample, long seed) throws IOException {
+        if (sample.size() < lists) {
+            throw new IllegalArgumentException("Need at least " + lists + " training vectors, got " + sample.size());
+        }
+        int dimension = sample.get(0).length;
+        float[] centroids = KMeans.train(sample, lists, dimension, 10, new Random(seed));
+        Files.createDirectories(folder);
+        ByteBuffer bytes = ByteBuffer.allocate(2 * Integer.BYTES + centroids.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.putInt(dimension).putInt(lists);
+        bytes.asFloatBuffer().put(centroids);
+        Files.write(folder.resolve("centroids.f32"), bytes.array());
+        Files.deleteIfExists(folder.resolve("vectors.f32"));
+        Files.deleteIfExists(folder.resolve("blocks.i32"));
+
+        VectorIndex index = new VectorIndex(folder, dimension, centroids);
+        index.header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, dimension).putInt(12, lists)
+                .putLong(16, 0).putInt(24, 0);
+        return index;
+    }
+
+    /**
+     * Opens an index created before and rebuilds its posting lists.
+     */
+    public static VectorIndex open(Path folder) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(folder.resolve("centroids.f32"))).order(ByteOrder.LITTLE_ENDIAN);
+        int dimension = bytes.remaining() >= 2 * Integer.BYTES ? bytes.getInt() : 0;
+        int lists = dimension > 0 ? bytes.getInt() : 0;
+        if (dimension <= 0 || lists <= 0 || bytes.remaining() != (long) dimension * lists * Float.BYTES) {
+            throw new IOException("Not a vector index or a truncated one: " + folder);
+        }
+        float[] centroids = new float[dimension * lists];
+        bytes.asFloatBuffer().get(centroids);
+
+        VectorIndex index = new VectorIndex(folder, dimension, centroids);
+        if (index.header.getInt(0) != MAGIC || index.header.getInt(4) != VERSION || index.header.getInt(8) != dimension) {
+            index.close();
+            throw new IOException("Not a vector index or a different version: " + folder);
+        }
+        int count = (int) index.header.getLong(16);
+        int blockCount = index.header.getInt(24);
+        index.locations = new int[Math.max(1024, count)];
+        int[] record = new int[RECORD_INTS];
+        for (int block = 0; block < blockCount; block++) {
+            index.vectors(block);
+            index.records(block).get((block % index.recordsPerRegion) * RECORD_INTS, record);
+            int list = record[0];
+            index.chain(list, block);
+            for (int slot = 0; slot < BLOCK; slot++) {
+                // Ids are stored plus one, so the zeros of a fresh block read as empty slots
+                int id = record[1 + slot] - 1;
+                if (id >= 0 && id < count) {
+                    index.post(list, id);
+                    index.locations[id] = block * BLOCK + slot;
+                }
+            }
+        }
+        index.count = count;
+        index.blockCount = blockCount;
+        return index;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a vector and returns its id, the position in insertion order.
+     */
+    public int add(float[] vector) throws IOException {
+        checkDimension(vector);
+        float[] normalized = normalize(vector);
+        int list = nearestLists(normalized, 1)[0];
+        lock.writeLock().lock();
+        try {
+            int id = count;
+            int slot = postingSizes[list] % BLOCK;
+            int block;
+            if (slot == 0) {
+                block = blockCount;
+                records(block).put((block % recordsPerRegion) * RECORD_INTS, list);
+                chain(list, block);
+            } else {
+                block = listBlocks[list][postingSizes[list] / BLOCK];
+            }
+            vectors(block).put(((block % blocksPerRegion) * BLOCK + slot) * dimension, normalized);
+            records(block).put((block % recordsPerRegion) * RECORD_INTS + 1 + slot, id + 1);
+            post(list, id);
+            if (id == locations.length) {
+                locations = Arrays.copyOf(locations, id * 2);
+            }
+            locations[id] = block * BLOCK + slot;
+            count = id + 1;
+            blockCount = Math.max(blockCount, block + 1);
+            // The counts are written last, so a process dying mid-insert never exposes a half-written vector
+            header.putLong(16, count).putInt(24, blockCount);
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The {@code k} stored vectors most similar to the query, scanning the {@code nprobe} closest lists.
+     */
+    public Neighbor[] search(float[] query, int k, int nprobe) {
+        checkDimension(query);
+        float[] normalized = normalize(query);
+        float[] scratch = new float[BLOCK * dimension];
+        TopK top = new TopK(k);
+        lock.readLock().lock();
+        try {
+            for (int list : nearestLists(normalized, Math.min(nprobe, lists))) {
+                scan(list, normalized, scratch, top);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return top.sorted();
+    }
+
+    /**
+     * The exact {@code k} nearest vectors by scanning every one of them, the reference for recall.
+     */
+    public Neighbor[] searchExact(float[] query, int k) {
+        checkDimension(query);
+        float[] normalized = normalize(query);
+        float[] scratch = new float[BLOCK * dimension];
+        TopK top = new TopK(k);
+        lock.readLock().lock();
+        try {
+            for (int list = 0; list < lists; list++) {
+                scan(list, normalized, scratch, top);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return top.sorted();
+    }
+
+    private void scan(int list, float[] query, float[] scratch, TopK top) {
+        int[] ids = postings[list];
+        int size = postingSizes[list];
+        for (int start = 0; start < size; start += BLOCK) {
+            int block = listBlocks[list][start / BLOCK];
+            int filled = Math.min(BLOCK, size - start);
+            // One bulk copy of the block out of the mapping, then plain array loops the JIT can unroll
+            vectorRegions.get(block / blocksPerRegion).get((block % blocksPerRegion) * BLOCK * dimension, scratch, 0, filled * dimension);
+            for (int slot = 0; slot < filled; slot++) {
+                top.offer(ids[start + slot], dot(query, scratch, slot * dimension));
+            }
+        }
+    }
+
+    /**
+     * Copies a stored, normalized vector out of the index.
+     */
+    public float[] get(int id) {
+        float[] vector = new float[dimension];
+        lock.readLock().lock();
+        try {
+            if (id < 0 || id >= count) {
+                throw new IndexOutOfBoundsException("No vector " + id + " in an index of " + count);
+            }
+            int block = locations[id] / BLOCK;
+            int slot = locations[id] % BLOCK;
+            vectorRegions.get(block / blocksPerRegion).get(((block % blocksPerRegion) * BLOCK + slot) * dimension, vector);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return vector;
+    }
+
+    private void post(int list, int id) {
+        int size = postingSizes[list];
+        if (size == postings[list].length) {
+            postings[list] = Arrays.copyOf(postings[list], size * 2);
+        }
+        postings[list][size] = id;
+        postingSizes[list] = size + 1;
+    }
+
+    private void chain(int list, int block) {
+        int blocks = (postingSizes[list] + BLOCK - 1) / BLOCK;
+        if (blocks == listBlocks[list].length) {
+            listBlocks[list] = Arrays.copyOf(listBlocks[list], blocks * 2);
+        }
+        listBlocks[list][blocks] = block;
+    }
+
+    private int[] nearestLists(float[] vector, int n) {
+        TopK top = new TopK(n);
+        for (int list = 0; list < lists; list++) {
+            top.offer(list, dot(vector, centroids, list * dimension));
+        }
+        Neighbor[] nearest = top.sorted();
+        int[] result = new int[nearest.length];
+        for (int i = 0; i < nearest.length; i++) {
+            result[i] = nearest[i].getId();
+        }
+        return result;
+    }
+
+    private static float dot(float[] query, float[] vectors, int offset) {
+        // Four accumulators break the dependency between additions
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int d = 0;
+        for (; d + 3 < query.length; d += 4) {
+            s0 += query[d] * vectors[offset + d];
+            s1 += query[d + 1] * vectors[offset + d + 1];
+            s2 += query[d + 2] * vectors[offset + d + 2];
+            s3 += query[d + 3] * vectors[offset + d + 3];
+        }
+        for (; d < query.length; d++) {
+            s0 += query[d] * vectors[offset + d];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * The region holding a block's vectors, mapped first when the index grows into it. Called under the write
+     * lock or while opening.
+     */
+    private FloatBuffer vectors(int block) throws IOException {
+        int region = block / blocksPerRegion;
+        while (vectorRegions.size() <= region) {
+            long size = (long) blocksPerRegion * BLOCK * dimension * Float.BYTES;
+            vectorRegions.add(map(vectorChannel, vectorRegions.size() * size, size).asFloatBuffer());
+        }
+        return vectorRegions.get(region);
+    }
+
+    private IntBuffer records(int block) throws IOException {
+        int region = block / recordsPerRegion;
+        while (recordRegions.size() <= region) {
+            long size = (long) recordsPerRegion * RECORD_INTS * Integer.BYTES;
+            recordRegions.add(map(blockChannel, HEADER_BYTES + recordRegions.size() * size, size).asIntBuffer());
+        }
+        return recordRegions.get(region);
+    }
+
+    private MappedByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        // Mapping past the end grows the file, sparsely, so only the written pages take disk space
+        MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        mapping.order(ByteOrder.LITTLE_ENDIAN);
+        mappings.add(mapping);
+        return mapping;
+    }
+
+    private void checkDimension(float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Expected a vector of " + dimension + " values, got " + vector.length);
+        }
+    }
+
+    static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        float scale = norm == 0 ? 0 : (float) (1 / Math.sqrt(norm));
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] * scale;
+        }
+        return normalized;
+    }
+
+    /**
+     * Flushes the written vectors to disk.
+     */
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            for (MappedByteBuffer mapping : mappings) {
+                mapping.force();
+            }
+            header.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        vectorChannel.close();
+        blockChannel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "VectorIndex{" + folder + ", " + count + " vectors of " + dimension + ", " + lists + " lists}";
+    }
+
+    /**
+     * A stored vector and its cosine similarity to the query.
+     */
+    public static final class Neighbor {
+        private final int id;
+        private final float similarity;
+
+        Neighbor(int id, float similarity) {
+            this.id = id;
+            this.similarity = similarity;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public float getSimilarity() {
+            return similarity;
+        }
+    }
+
+    /**
+     * Keeps the k highest scores in a min-heap on parallel primitive arrays.
+     */
+    private static final class TopK {
+        private final int[] ids;
+        private final float[] scores;
+        private int size;
+
+        TopK(int k) {
+            ids = new int[k];
+            scores = new float[k];
+        }
+
+        void offer(int id, float score) {
+            if (size < ids.length) {
+                ids[size] = id;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (ids.length > 0 && score > scores[0]) {
+                ids[0] = id;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (scores[parent] <= scores[i]) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int smallest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && scores[left] < scores[smallest]) {
+                    smallest = left;
+                }
+                if (right < size && scores[right] < scores[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            float score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+
+        Neighbor[] sorted() {
+            Neighbor[] result = new Neighbor[size];
+            for (int i = 0; i < size; i++) {
+                result[i] = new Neighbor(ids[i], scores[i]);
+            }
+            Arrays.sort(result, (a, b) -> Float.compare(b.similarity, a.similarity));
+            return result;
+        }
+    }
+
+    /**
+     * Spherical k-means: centroids are kept at unit length and vectors go to the centroid with the highest dot
+     * product, matching the cosine similarity of the index.
+     */
+    static final class KMeans {
+        private KMeans() {
+        }
+
+        static float[] train(List<float[]> sample, int k, int dimension, int iterations, Random random) {
+            List<float[]> points = new ArrayList<>(sample.size());
+            for (float[] vector : sample) {
+                points.add(normalize(vector));
+            }
+            float[] centroids = new float[k * dimension];
+            List<float[]> shuffled = new ArrayList<>(points);
+            Collections.shuffle(shuffled, random);
+            for (int c = 0; c < k; c++) {
+                System.arraycopy(shuffled.get(c), 0, centroids, c * dimension, dimension);
+            }
+
+            int[] assignment = new int[points.size()];
+            for (int iteration = 0; iteration < iterations; iteration++) {
+                // The assignment step is the bulk of the work and independent per point
+                IntStream.range(0, points.size()).parallel()
+                        .forEach(p -> assignment[p] = nearest(points.get(p), centroids, k, dimension));
+                float[] sums = new float[k * dimension];
+                int[] sizes = new int[k];
+                for (int p = 0; p < points.size(); p++) {
+                    float[] point = points.get(p);
+                    int offset = assignment[p] * dimension;
+                    for (int d = 0; d < dimension; d++) {
+                        sums[offset + d] += point[d];
+                    }
+                    sizes[assignment[p]]++;
+                }
+                for (int c = 0; c < k; c++) {
+                    float[] centroid = new float[dimension];
+                    if (sizes[c] == 0) {
+                        // An empty list restarts from a random point, so no list stays unused
+                        centroid = points.get(random.nextInt(points.size()));
+                    } else {
+                        System.arraycopy(sums, c * dimension, centroid, 0, dimension);
+                        centroid = normalize(centroid);
+                    }
+                    System.arraycopy(centroid, 0, centroids, c * dimension, dimension);
+                }
+            }
+            return centroids;
+        }
+
+        private static int nearest(float[] point, float[] centroids, int k, int dimension) {
+            int best = 0;
+            float bestScore = -Float.MAX_VALUE;
+            for (int c = 0; c < k; c++) {
+                float score = 0;
+                int offset = c * dimension;
+                for (int d = 0; d < dimension; d++) {
+                    score += point[d] * centroids[offset + d];
+                }
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = c;
+                }
+            }
+            return best;
+        }
+    }
+}
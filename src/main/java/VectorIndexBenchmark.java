@@ -0,0 +1,132 @@
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Builds a {@link VectorIndex} of synthetic clustered vectors and measures insert throughput, query latency
+ * and recall@k against brute force for a range of {@code nprobe}. Half of the queries are perturbed copies
+ * of stored vectors, like a resubmitted card, the other half fresh vectors from the same clusters. The
+ * index is then closed and opened again to check that it persisted.
+ *
+ * <p>Usage: {@code VectorIndexBenchmark [count] [dimension] [lists] [queries] [folder]}, for example
+ * {@code 10000000 128 4096 100} for the 10M scale (the brute-force reference then takes a while).
+ */
+public class VectorIndexBenchmark {
+    private static final int K = 10;
+    private static final int CLUSTERS = 1000;
+    private static final int[] NPROBES = {1, 4, 8, 16, 32, 64};
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int dimension = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+        int lists = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+        int queryCount = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        Path folder = Paths.get(args.length > 4 ? args[4] : "indexes/benchmark");
+
+        Random random = new Random(42);
+        float[][] centres = new float[CLUSTERS][];
+        for (int c = 0; c < CLUSTERS; c++) {
+            centres[c] = gaussian(random, dimension, 1);
+        }
+
+        // Train on a sample of the distribution, the vectors themselves are generated again while inserting
+        List<float[]> sample = new ArrayList<>();
+        for (int i = 0; i < Math.min(count, lists * 32); i++) {
+            sample.add(draw(random, centres));
+        }
+        long start = System.nanoTime();
+        VectorIndex index = VectorIndex.create(folder, lists, sample, 42);
+        System.out.printf("trained %d lists on %d vectors in %.1f s%n", lists, sample.size(), (System.nanoTime() - start) / 1e9);
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            index.add(draw(random, centres));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("inserted %d vectors of %d in %.1f s, %.0f inserts/sec%n", count, dimension, seconds, count / seconds);
+
+        List<float[]> queries = new ArrayList<>();
+        for (int q = 0; q < queryCount; q++) {
+            if (q % 2 == 0) {
+                float[] stored = index.get(random.nextInt(count));
+                float[] noise = gaussian(random, dimension, 0.02f);
+                for (int d = 0; d < dimension; d++) {
+                    stored[d] += noise[d];
+                }
+                queries.add(stored);
+            } else {
+                queries.add(draw(random, centres));
+            }
+        }
+
+        // Let the JIT compile the scan loops before anything is timed
+        for (int pass = 0; pass < 3; pass++) {
+            for (float[] query : queries) {
+                index.search(query, K, 8);
+            }
+        }
+
+        LatencyHistogram exactLatency = new LatencyHistogram();
+        List<Set<Integer>> truth = new ArrayList<>();
+        for (float[] query : queries) {
+            long queryStart = System.nanoTime();
+            VectorIndex.Neighbor[] exact = index.searchExact(query, K);
+            exactLatency.record(System.nanoTime() - queryStart);
+            Set<Integer> ids = new HashSet<>();
+            for (VectorIndex.Neighbor neighbor : exact) {
+                ids.add(neighbor.getId());
+            }
+            truth.add(ids);
+        }
+        System.out.printf("%-12s %10s %10s %12s%n", "search", "p50 ms", "p99 ms", "recall@" + K);
+        System.out.printf("%-12s %10.2f %10.2f %12.4f%n", "brute force", exactLatency.getValueAtQuantile(0.5) / 1e6,
+                exactLatency.getValueAtQuantile(0.99) / 1e6, 1.0);
+        for (int nprobe : NPROBES) {
+            if (nprobe > lists) {
+                break;
+            }
+            LatencyHistogram latency = new LatencyHistogram();
+            long found = 0;
+            for (int q = 0; q < queries.size(); q++) {
+                long queryStart = System.nanoTime();
+                VectorIndex.Neighbor[] neighbors = index.search(queries.get(q), K, nprobe);
+                latency.record(System.nanoTime() - queryStart);
+                for (VectorIndex.Neighbor neighbor : neighbors) {
+                    found += truth.get(q).contains(neighbor.getId()) ? 1 : 0;
+                }
+            }
+            System.out.printf("%-12s %10.2f %10.2f %12.4f%n", "nprobe " + nprobe, latency.getValueAtQuantile(0.5) / 1e6,
+                    latency.getValueAtQuantile(0.99) / 1e6, (double) found / ((long) K * queries.size()));
+        }
+
+        index.close();
+        start = System.nanoTime();
+        try (VectorIndex reopened = VectorIndex.open(folder)) {
+            VectorIndex.Neighbor[] again = reopened.search(queries.get(0), K, 16);
+            System.out.printf("reopened %d vectors in %.1f s, first query %s%n", reopened.size(),
+                    (System.nanoTime() - start) / 1e9,
+                    again.length > 0 && truth.get(0).contains(again[0].getId()) ? "matches" : "differs");
+        }
+    }
+
+    private static float[] draw(Random random, float[][] centres) {
+        float[] centre = centres[random.nextInt(centres.length)];
+        float[] vector = gaussian(random, centre.length, 0.3f);
+        for (int d = 0; d < vector.length; d++) {
+            vector[d] += centre[d];
+        }
+        return vector;
+    }
+
+    private static float[] gaussian(Random random, int dimension, float sigma) {
+        float[] vector = new float[dimension];
+        for (int d = 0; d < dimension; d++) {
+            vector[d] = (float) random.nextGaussian() * sigma;
+        }
+        return vector;
+    }
+}
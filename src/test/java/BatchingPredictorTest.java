@@ -0,0 +1,188 @@
+import ai.djl.Device;
+import ai.djl.Model;
+import ai.djl.inference.Predictor;
+import ai.djl.ndarray.NDManager;
+import ai.djl.translate.TranslateException;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchingPredictorTest {
+
+    @Test
+    void fullBatchesRunWithoutWaitingForTheDeadline() throws Exception {
+        FakePredictor predictor = new FakePredictor(null);
+        try (BatchingPredictor<Integer, Integer> batching = BatchingPredictor.builder(predictor)
+                .optMaxBatchSize(4).optMaxDelayMillis(60_000).build()) {
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(batching.submit(i));
+            }
+            for (int i = 0; i < 8; i++) {
+                assertEquals(i + 1, futures.get(i).get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(List.of(4, 4), predictor.batchSizes);
+            assertEquals(2, batching.getBatchSizeHistogram()[4]);
+            assertEquals(4.0, batching.getAverageBatchSize());
+        }
+    }
+
+    @Test
+    void partialBatchRunsAtTheDeadline() throws Exception {
+        FakePredictor predictor = new FakePredictor(null);
+        try (BatchingPredictor<Integer, Integer> batching = BatchingPredictor.builder(predictor)
+                .optMaxBatchSize(8).optMaxDelayMillis(20).build()) {
+            assertEquals(2, batching.submit(1).get(5, TimeUnit.SECONDS));
+            assertEquals(List.of(1), predictor.batchSizes);
+            assertEquals(0, batching.getQueueDepth());
+        }
+    }
+
+    @Test
+    void fullQueueRejectsRightAway() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        FakePredictor predictor = new FakePredictor(release);
+        try (BatchingPredictor<Integer, Integer> batching = BatchingPredictor.builder(predictor)
+                .optMaxBatchSize(1).optMaxDelayMillis(0).optQueueCapacity(1).build()) {
+            CompletableFuture<Integer> running = batching.submit(1);
+            assertTrue(predictor.entered.await(5, TimeUnit.SECONDS));
+            CompletableFuture<Integer> queued = batching.submit(2);
+            CompletableFuture<Integer> rejected = batching.submit(3);
+
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> rejected.get(1, TimeUnit.SECONDS));
+            assertInstanceOf(RejectedExecutionException.class, failure.getCause());
+            assertEquals(1, batching.getRejectedCount());
+            release.countDown();
+            assertEquals(2, running.get(5, TimeUnit.SECONDS));
+            assertEquals(3, queued.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void closeRunsWhatIsQueuedAndRefusesTheRest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        FakePredictor predictor = new FakePredictor(release);
+        BatchingPredictor<Integer, Integer> batching = BatchingPredictor.builder(predictor)
+                .optMaxBatchSize(1).optMaxDelayMillis(0).build();
+        CompletableFuture<Integer> running = batching.submit(1);
+        assertTrue(predictor.entered.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Integer> queued = batching.submit(2);
+
+        CompletableFuture<Void> closing = CompletableFuture.runAsync(batching::close);
+        // close() waits for the scheduler, which is stuck on the first input
+        assertThrows(TimeoutException.class, () -> closing.get(100, TimeUnit.MILLISECONDS));
+        release.countDown();
+        closing.get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, running.get());
+        assertEquals(3, queued.get());
+        assertEquals(1, predictor.closed.get());
+        assertThrows(IllegalStateException.class, () -> batching.submit(3));
+    }
+
+    @Test
+    void submitsRacingCloseAreNeverLeftPending() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            BatchingPredictor<Integer, Integer> batching = BatchingPredictor.builder(new FakePredictor(null))
+                    .optMaxBatchSize(4).optMaxDelayMillis(1).optQueueCapacity(64).build();
+            List<CompletableFuture<Integer>> futures = new CopyOnWriteArrayList<>();
+            ExecutorService submitters = Executors.newFixedThreadPool(4);
+            CountDownLatch started = new CountDownLatch(4);
+            for (int t = 0; t < 4; t++) {
+                submitters.execute(() -> {
+                    started.countDown();
+                    try {
+                        for (int i = 0; ; i++) {
+                            futures.add(batching.submit(i));
+                        }
+                    } catch (IllegalStateException closed) {
+                        // Expected once close() began
+                    }
+                });
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            batching.close();
+            submitters.shutdown();
+            assertTrue(submitters.awaitTermination(5, TimeUnit.SECONDS));
+            for (CompletableFuture<Integer> future : futures) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                } catch (ExecutionException expected) {
+                    // Rejected or refused by close(), but done
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds one to every input and records the size of each batch, optionally blocking until a latch opens. The
+     * model behind it is a stub, so no engine is loaded.
+     */
+    private static final class FakePredictor extends Predictor<Integer, Integer> {
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final AtomicInteger closed = new AtomicInteger();
+        private final CountDownLatch release;
+
+        FakePredictor(CountDownLatch release) {
+            super(stub(Model.class), null, Device.cpu(), false);
+            this.release = release;
+        }
+
+        @Override
+        public List<Integer> batchPredict(List<Integer> inputs) throws TranslateException {
+            batchSizes.add(inputs.size());
+            entered.countDown();
+            try {
+                if (release != null) {
+                    release.await();
+                }
+            } catch (InterruptedException e) {
+                throw new TranslateException(e);
+            }
+            List<Integer> outputs = new ArrayList<>(inputs.size());
+            for (Integer input : inputs) {
+                outputs.add(input + 1);
+            }
+            return outputs;
+        }
+
+        @Override
+        public void close() {
+            closed.incrementAndGet();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Class<?> returns = method.getReturnType();
+            if (returns == NDManager.class) {
+                return type == NDManager.class ? proxy : stub(NDManager.class);
+            }
+            if (returns == Device.class) {
+                return Device.cpu();
+            }
+            // The zero value of primitives, null for everything else
+            return returns.isPrimitive() && returns != void.class ? Array.get(Array.newInstance(returns, 1), 0) : null;
+        });
+    }
+}
@@ -0,0 +1,61 @@
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class BgrImagesTest {
+
+    @Test
+    void wholeBgrImageIsNotCopied() {
+        BufferedImage image = gradient(BufferedImage.TYPE_3BYTE_BGR, 40, 30);
+        assertSame(((DataBufferByte) image.getRaster().getDataBuffer()).getData(), BgrImages.bytes(image));
+    }
+
+    @Test
+    void subimageHoldsOnlyTheCrop() {
+        BufferedImage image = gradient(BufferedImage.TYPE_3BYTE_BGR, 40, 30);
+        BufferedImage crop = image.getSubimage(7, 5, 20, 12);
+        byte[] bytes = BgrImages.bytes(crop);
+        assertEquals(20 * 12 * 3, bytes.length);
+        assertArrayEquals(expected(image, 7, 5, 20, 12), bytes);
+    }
+
+    @Test
+    void otherTypesAreConvertedToBgr() {
+        BufferedImage image = gradient(BufferedImage.TYPE_INT_RGB, 16, 9);
+        assertArrayEquals(expected(image, 0, 0, 16, 9), BgrImages.bytes(image));
+        BufferedImage crop = image.getSubimage(3, 2, 8, 4);
+        assertArrayEquals(expected(image, 3, 2, 8, 4), BgrImages.bytes(crop));
+    }
+
+    /**
+     * Every pixel has its own colour, so a crop taken from the wrong place cannot match.
+     */
+    private static BufferedImage gradient(int type, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 6) << 16 | (y * 8) << 8 | (x + y) * 3);
+            }
+        }
+        return image;
+    }
+
+    private static byte[] expected(BufferedImage image, int left, int top, int width, int height) {
+        byte[] bytes = new byte[width * height * 3];
+        int i = 0;
+        for (int y = top; y < top + height; y++) {
+            for (int x = left; x < left + width; x++) {
+                int rgb = image.getRGB(x, y);
+                bytes[i++] = (byte) rgb;
+                bytes[i++] = (byte) (rgb >> 8);
+                bytes[i++] = (byte) (rgb >> 16);
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,92 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BufferPoolTest {
+
+    @Test
+    void reusesBuffersOfTheSameShape() {
+        List<Buffer> disposed = new ArrayList<>();
+        BufferPool<Buffer> pool = newPool(disposed, 2, 8);
+        Buffer first = pool.acquire(256, 156, 16);
+        pool.giveBack(first);
+        assertSame(first, pool.acquire(256, 156, 16));
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+    }
+
+    @Test
+    void disposesBuffersBeyondMaxPerKey() {
+        List<Buffer> disposed = new ArrayList<>();
+        BufferPool<Buffer> pool = newPool(disposed, 2, 8);
+        for (int i = 0; i < 3; i++) {
+            pool.giveBack(new Buffer(10, 10, 0));
+        }
+        assertEquals(1, disposed.size());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedShape() {
+        List<Buffer> disposed = new ArrayList<>();
+        BufferPool<Buffer> pool = newPool(disposed, 4, 2);
+        Buffer a = new Buffer(1, 1, 0);
+        Buffer b = new Buffer(2, 2, 0);
+        pool.giveBack(a);
+        pool.giveBack(b);
+        // Touch shape a, so shape b is the eldest when a third shape comes in
+        pool.giveBack(pool.acquire(1, 1, 0));
+        pool.giveBack(new Buffer(3, 3, 0));
+        assertEquals(2, pool.getKeyCount());
+        assertEquals(List.of(b), disposed);
+        assertSame(a, pool.acquire(1, 1, 0));
+    }
+
+    @Test
+    void manyShapesStayBounded() {
+        List<Buffer> disposed = new ArrayList<>();
+        BufferPool<Buffer> pool = newPool(disposed, 4, 8);
+        for (int width = 1; width <= 1000; width++) {
+            pool.giveBack(pool.acquire(width, 100, 0));
+        }
+        assertTrue(pool.getKeyCount() <= 8);
+        assertEquals(1000 - pool.getKeyCount(), disposed.size());
+        pool.clear();
+        assertEquals(1000, disposed.size());
+    }
+
+    private static BufferPool<Buffer> newPool(List<Buffer> disposed, int maxPerKey, int maxKeys) {
+        return new BufferPool<>(Buffer::new, new BufferPool.Describer<>() {
+            @Override
+            public int width(Buffer buffer) {
+                return buffer.width;
+            }
+
+            @Override
+            public int height(Buffer buffer) {
+                return buffer.height;
+            }
+
+            @Override
+            public int type(Buffer buffer) {
+                return buffer.type;
+            }
+        }, disposed::add, maxPerKey, maxKeys);
+    }
+
+    private static final class Buffer {
+        final int width;
+        final int height;
+        final int type;
+
+        Buffer(int width, int height, int type) {
+            this.width = width;
+            this.height = height;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CascadeGateTest {
+
+    @Test
+    void cardClassesLeaveOutTheBackground() {
+        assertArrayEquals(new int[]{1, 2},
+                CascadeGate.cardClasses(List.of("background", "citizen-identification-card", "identification-card")));
+        assertArrayEquals(new int[]{0, 2}, CascadeGate.cardClasses(List.of("id-card", "Negatives", "passport")));
+    }
+
+    @Test
+    void cardFoldersAloneAreAllCardClasses() {
+        assertArrayEquals(new int[]{0, 1},
+                CascadeGate.cardClasses(List.of("citizen-identification-card", "identification-card")));
+    }
+
+    @Test
+    void aModelWithoutCardClassesIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> CascadeGate.cardClasses(List.of("background")));
+    }
+}
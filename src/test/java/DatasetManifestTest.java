@@ -0,0 +1,149 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DatasetManifestTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void replayKeepsTheLastLineOfEveryPath() throws IOException {
+        try (DatasetManifest manifest = DatasetManifest.load(root)) {
+            manifest.put(entry("cards/a.jpg", 1));
+            manifest.put(entry("cards/b.jpg", 2));
+            manifest.put(entry("cards/a.jpg", 3));
+            manifest.put(entry("other/c.jpg", 4));
+            manifest.remove("cards/b.jpg");
+        }
+        try (DatasetManifest manifest = DatasetManifest.load(root)) {
+            assertEquals(2, manifest.size());
+            assertEquals(3, manifest.get("cards/a.jpg").getHash());
+            assertNull(manifest.get("cards/b.jpg"));
+            assertEquals(List.of("cards", "other"), manifest.labels());
+        }
+    }
+
+    @Test
+    void tornLastLineIsIgnoredAndTheNextAppendStartsOnItsOwnLine() throws IOException {
+        try (DatasetManifest manifest = DatasetManifest.load(root)) {
+            manifest.put(entry("cards/a.jpg", 1));
+        }
+        Path file = root.resolve(DatasetManifest.FILE_NAME);
+        // Every field is there, but the hash and the preprocessing were cut off with the newline
+        Files.writeString(file, "cards/b.jpg\tcards\t10\t10\t100\t5\t12\texter", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        try (DatasetManifest manifest = DatasetManifest.load(root)) {
+            assertEquals(1, manifest.size());
+            assertNull(manifest.get("cards/b.jpg"));
+            manifest.put(entry("cards/b.jpg", 2));
+        }
+        try (DatasetManifest manifest = DatasetManifest.load(root)) {
+            assertEquals(2, manifest.size());
+            assertEquals(1, manifest.get("cards/a.jpg").getHash());
+            assertEquals(2, manifest.get("cards/b.jpg").getHash());
+            assertEquals(DatasetManifest.EXTERNAL, manifest.get("cards/b.jpg").getPreprocessing());
+        }
+    }
+
+    @Test
+    void compactKeepsOnlyLiveEntries() throws IOException {
+        try (DatasetManifest manifest = DatasetManifest.load(root)) {
+            for (int i = 0; i < 5; i++) {
+                manifest.put(entry("cards/a.jpg", i));
+            }
+            manifest.put(entry("cards/b.jpg", 9));
+            manifest.remove("cards/b.jpg");
+            manifest.compactIfWasteful();
+        }
+        Path file = root.resolve(DatasetManifest.FILE_NAME);
+        assertEquals(2, Files.readAllLines(file).size());
+        try (DatasetManifest manifest = DatasetManifest.load(root)) {
+            assertEquals(1, manifest.size());
+            assertEquals(4, manifest.get("cards/a.jpg").getHash());
+        }
+    }
+
+    @Test
+    void indexFollowsTheFolder() throws IOException {
+        Files.createDirectories(root.resolve("cards"));
+        Files.createDirectories(root.resolve("background"));
+        image(root.resolve("cards/a.png"), 40, 25);
+        image(root.resolve("background/b.png"), 30, 30);
+        // Images outside a label folder are not part of the dataset
+        image(root.resolve("loose.png"), 10, 10);
+        try (DatasetManifest manifest = DatasetManifest.load(root)) {
+            assertTrue(manifest.index());
+            assertEquals(2, manifest.size());
+            assertEquals(40, manifest.get("cards/a.png").getWidth());
+            assertEquals("background", manifest.get("background/b.png").getLabel());
+            assertFalse(manifest.index());
+        }
+
+        Files.delete(root.resolve("cards/a.png"));
+        try (DatasetManifest manifest = DatasetManifest.load(root)) {
+            assertEquals(2, manifest.size());
+            assertTrue(manifest.index());
+            assertEquals(List.of("background"), manifest.labels());
+        }
+    }
+
+    @Test
+    void indexRehashesImagesReplacedInPlace() throws IOException {
+        Files.createDirectories(root.resolve("cards"));
+        Path image = root.resolve("cards/a.png");
+        image(image, 40, 25);
+        long firstHash;
+        try (DatasetManifest manifest = DatasetManifest.load(root)) {
+            assertTrue(manifest.index());
+            firstHash = manifest.get("cards/a.png").getHash();
+        }
+
+        // Touched without a change in content: the new time is remembered, nothing changed
+        Files.setLastModifiedTime(image, FileTime.fromMillis(Files.getLastModifiedTime(image).toMillis() + 60_000));
+        try (DatasetManifest manifest = DatasetManifest.load(root)) {
+            assertFalse(manifest.index());
+            assertEquals(firstHash, manifest.get("cards/a.png").getHash());
+        }
+
+        image(image, 30, 30);
+        Files.setLastModifiedTime(image, FileTime.fromMillis(Files.getLastModifiedTime(image).toMillis() + 120_000));
+        try (DatasetManifest manifest = DatasetManifest.load(root)) {
+            assertTrue(manifest.index());
+            DatasetManifest.Entry entry = manifest.get("cards/a.png");
+            assertNotEquals(firstHash, entry.getHash());
+            assertEquals(30, entry.getWidth());
+        }
+    }
+
+    @Test
+    void refusesAnotherFile() throws IOException {
+        Files.writeString(root.resolve(DatasetManifest.FILE_NAME), "path,label\n");
+        assertThrows(IOException.class, () -> DatasetManifest.load(root));
+    }
+
+    private static DatasetManifest.Entry entry(String path, long hash) {
+        return new DatasetManifest.Entry(path, path.substring(0, path.indexOf('/')), 10, 10, 100, 5, hash,
+                DatasetManifest.EXTERNAL);
+    }
+
+    private static void image(Path file, int width, int height) throws IOException {
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR), "png", file.toFile());
+    }
+}
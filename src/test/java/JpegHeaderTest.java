@@ -0,0 +1,66 @@
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JpegHeaderTest {
+
+    @Test
+    void readsTheFrameSize() throws IOException {
+        JpegHeader header = JpegHeader.read(new ByteArrayInputStream(jpeg(640, 404)));
+        assertNotNull(header);
+        assertEquals(640, header.getWidth());
+        assertEquals(404, header.getHeight());
+    }
+
+    @Test
+    void rejectsOtherFormatsAndTruncatedFiles() throws IOException {
+        assertNull(JpegHeader.read(new ByteArrayInputStream("\u0089PNG\r\n".getBytes())));
+        assertNull(JpegHeader.read(new ByteArrayInputStream(new byte[0])));
+        byte[] jpeg = jpeg(64, 48);
+        // Cut the file right after the start-of-image marker and a few header bytes
+        assertNull(JpegHeader.read(new ByteArrayInputStream(Arrays.copyOf(jpeg, 8))));
+    }
+
+    @Test
+    void cardAspectFitsInsideTheTarget() {
+        double card = 85.6 / 53.98;
+        assertEquals(247, LetterboxTransform.fitWidth(card, 256, 156));
+        assertEquals(156, LetterboxTransform.fitHeight(card, 256, 156));
+        assertEquals(256, LetterboxTransform.fitWidth(2.0, 256, 156));
+        assertEquals(128, LetterboxTransform.fitHeight(2.0, 256, 156));
+        assertEquals(98, LetterboxTransform.fitWidth(1 / card, 256, 156));
+        for (double aspect = 0.2; aspect < 5; aspect += 0.01) {
+            assertTrue(LetterboxTransform.fitWidth(aspect, 256, 156) <= 256, "aspect " + aspect);
+            assertTrue(LetterboxTransform.fitHeight(aspect, 256, 156) <= 156, "aspect " + aspect);
+        }
+    }
+
+    @Test
+    void reducedScaleStillCoversTheFit() throws IOException {
+        assertEquals(8, header(4000, 2520).reducedScale(256, 156));
+        assertEquals(8, header(2520, 4000).reducedScale(256, 156));
+        assertEquals(4, header(1280, 808).reducedScale(256, 156));
+        assertEquals(2, header(640, 404).reducedScale(256, 156));
+        assertEquals(1, header(300, 190).reducedScale(256, 156));
+    }
+
+    private static JpegHeader header(int width, int height) throws IOException {
+        return JpegHeader.read(new ByteArrayInputStream(jpeg(width, height)));
+    }
+
+    private static byte[] jpeg(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR), "jpg", out);
+        return out.toByteArray();
+    }
+}
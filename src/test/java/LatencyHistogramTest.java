@@ -0,0 +1,88 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtQuantile(0.99));
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 0; value < 32; value++) {
+            histogram.record(value);
+        }
+        assertEquals(15, histogram.getValueAtQuantile(0.5));
+        assertEquals(31, histogram.getValueAtQuantile(1.0));
+        assertEquals(31, histogram.getMaxNanos());
+        assertEquals(32 * 31 / 2, histogram.getSumNanos());
+    }
+
+    @Test
+    void everyValueLiesInItsBucket() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong(1L << 44);
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value <= LatencyHistogram.upperBoundOf(bucket), "value " + value);
+            assertTrue(bucket == 0 || value > LatencyHistogram.upperBoundOf(bucket - 1), "value " + value);
+        }
+    }
+
+    @Test
+    void quantilesAreWithinThreePercent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(2);
+        long[] values = new long[50_000];
+        for (int i = 0; i < values.length; i++) {
+            // Log-normal around 5 ms, like request latencies
+            values[i] = (long) (5e6 * Math.exp(random.nextGaussian()));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            long exact = values[(int) Math.ceil(quantile * values.length) - 1];
+            long reported = histogram.getValueAtQuantile(quantile);
+            assertTrue(reported >= exact && reported <= exact * 1.035,
+                    "p" + quantile + " exact " + exact + " reported " + reported);
+        }
+    }
+
+    @Test
+    void hugeAndNegativeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE / 2);
+        assertEquals(0, histogram.getValueAtQuantile(0.5));
+        assertEquals(Long.MAX_VALUE / 2, histogram.getValueAtQuantile(1.0));
+    }
+
+    @Test
+    void concurrentRecordsAreAllCounted() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    histogram.record(1_000 + i);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(80_000, histogram.getCount());
+        assertEquals(10_999, histogram.getMaxNanos());
+    }
+}
@@ -0,0 +1,109 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedShardDatasetTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void splitsHoldOutAboutOneImageInTen() {
+        Map<MappedShardDataset.Split, Integer> counts = new EnumMap<>(MappedShardDataset.Split.class);
+        for (int i = 0; i < 10_000; i++) {
+            counts.merge(MappedShardDataset.Split.of("cards/IMG_" + i + ".jpg"), 1, Integer::sum);
+        }
+        assertTrue(Math.abs(counts.get(MappedShardDataset.Split.CALIBRATION) - 1000) < 150, counts.toString());
+        assertTrue(Math.abs(counts.get(MappedShardDataset.Split.EVALUATION) - 1000) < 150, counts.toString());
+    }
+
+    @Test
+    void splitsFollowThePathsWhenTheShardIsRepacked() throws IOException {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            paths.add("cards/IMG_" + i + ".jpg");
+        }
+        Map<MappedShardDataset.Split, Long> expected = new EnumMap<>(MappedShardDataset.Split.class);
+        for (String path : paths) {
+            expected.merge(MappedShardDataset.Split.of(path), 1L, Long::sum);
+        }
+
+        MappedShardDataset packed = prepare(writeShard("packed.shard", paths));
+        // A repack after a change writes the same images in another order
+        List<String> reordered = new ArrayList<>(paths);
+        Collections.reverse(reordered);
+        MappedShardDataset repacked = prepare(writeShard("repacked.shard", reordered));
+
+        for (MappedShardDataset.Split split : MappedShardDataset.Split.values()) {
+            assertEquals(expected.get(split), packed.split(split).size());
+            assertEquals(expected.get(split), repacked.split(split).size());
+        }
+    }
+
+    @Test
+    void refusesToSplitWithoutAMatchingIndex() throws IOException {
+        Path shard = writeShard("stale.shard", List.of("cards/a.jpg", "cards/b.jpg"));
+        Map<String, String> stale = new LinkedHashMap<>();
+        stale.put("cards/a.jpg", "1:external");
+        ShardIndex.write(shard, 2, 2, stale);
+        MappedShardDataset dataset = prepare(shard);
+        assertEquals(2, dataset.size());
+        assertThrows(IllegalStateException.class, () -> dataset.split(MappedShardDataset.Split.TRAINING));
+    }
+
+    @Test
+    void refusesAnInterruptedAppend() throws IOException {
+        Path shard = writeShard("appending.shard", List.of("cards/a.jpg"));
+        byte[] bytes = Files.readAllBytes(shard);
+        ByteBuffer.wrap(bytes).putInt(Integer.BYTES, ShardPacker.APPENDING);
+        Files.write(shard, bytes);
+        MappedShardDataset dataset = MappedShardDataset.builder().setShardFile(shard).setSampling(1, false).build();
+        IOException failure = assertThrows(IOException.class, () -> dataset.prepare(null));
+        assertTrue(failure.getMessage().contains("interrupted"), failure.getMessage());
+    }
+
+    private static MappedShardDataset prepare(Path shard) throws IOException {
+        MappedShardDataset dataset = MappedShardDataset.builder().setShardFile(shard).setSampling(1, false).build();
+        dataset.prepare(null);
+        return dataset;
+    }
+
+    /**
+     * Writes a shard of 2x2 samples in the layout ShardPacker writes, one class, and its sidecar.
+     */
+    private Path writeShard(String name, List<String> paths) throws IOException {
+        int sampleBytes = 2 * 2 * ShardPacker.CHANNELS;
+        byte[] className = "cards".getBytes(StandardCharsets.UTF_8);
+        long dataOffset = 64;
+        long labelsOffset = dataOffset + (long) paths.size() * sampleBytes;
+        ByteBuffer shard = ByteBuffer.allocate((int) labelsOffset + paths.size() * Integer.BYTES);
+        shard.putInt(ShardPacker.MAGIC).putInt(ShardPacker.VERSION).putInt(paths.size())
+                .putInt(2).putInt(2).putInt(ShardPacker.CHANNELS).putInt(1)
+                .putLong(dataOffset).putLong(labelsOffset)
+                .putShort((short) className.length).put(className);
+        Path file = folder.resolve(name);
+        Files.write(file, shard.array());
+
+        Map<String, String> index = new LinkedHashMap<>();
+        for (String path : paths) {
+            index.put(path, "1:external");
+        }
+        ShardIndex.write(file, 2, 2, index);
+        return file;
+    }
+}
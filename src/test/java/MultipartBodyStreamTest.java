@@ -0,0 +1,126 @@
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultipartBodyStreamTest {
+    private static final String BOUNDARY = "----form7MA4YWxk";
+
+    @Test
+    void parsesTheBoundaryParameter() {
+        assertEquals("abc", MultipartBodyStream.boundary("multipart/form-data; boundary=abc"));
+        assertEquals("a b", MultipartBodyStream.boundary("Multipart/Form-Data; charset=utf-8; boundary=\"a b\""));
+        assertNull(MultipartBodyStream.boundary("image/jpeg"));
+        assertNull(MultipartBodyStream.boundary(null));
+    }
+
+    @Test
+    void skipsFieldsAndReturnsTheFilePart() throws IOException {
+        byte[] content = {1, 2, 3, 4, 5};
+        byte[] body = body(content, true);
+        assertArrayEquals(content, readPart(new ByteArrayInputStream(body)));
+    }
+
+    @Test
+    void delimiterSplitAcrossReadsIsFound() throws IOException {
+        byte[] content = new byte[10_000];
+        Arrays.fill(content, (byte) 'x');
+        byte[] body = body(content, true);
+        // The socket hands out one to three bytes per call, so the delimiter arrives in pieces and straddles the
+        // refills of the server's buffer
+        for (int chunk = 1; chunk <= 3; chunk++) {
+            assertArrayEquals(content, readPart(new BufferedInputStream(new Trickle(body, chunk), 7)));
+        }
+    }
+
+    @Test
+    void crlfAndPartialDelimitersInsideTheDataAreKept() throws IOException {
+        String tricky = "a\r\nb\r\n--c\r\n--" + BOUNDARY.substring(0, BOUNDARY.length() - 1) + "!\r\n-\r\n";
+        byte[] content = tricky.getBytes(StandardCharsets.ISO_8859_1);
+        assertArrayEquals(content, readPart(new BufferedInputStream(new Trickle(body(content, true), 2), 5)));
+    }
+
+    @Test
+    void bodyWithoutAFilePartHasNoImage() throws IOException {
+        String body = "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"note\"\r\n\r\nhello\r\n--" + BOUNDARY + "--\r\n";
+        assertNull(MultipartBodyStream.firstFilePart(stream(body), BOUNDARY));
+        assertNull(MultipartBodyStream.firstFilePart(stream("no delimiter at all"), BOUNDARY));
+    }
+
+    @Test
+    void bodyCutInTheHeadersIsMalformed() {
+        String body = "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"image\"; filename=\"a.jpg\"\r\n";
+        IOException e = assertThrows(IOException.class, () -> MultipartBodyStream.firstFilePart(stream(body), BOUNDARY));
+        assertTrue(MultipartBodyStream.isMalformedBody(e));
+    }
+
+    @Test
+    void bodyCutInTheDataIsMalformed() throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(64, 64, BufferedImage.TYPE_3BYTE_BGR), "png", png);
+        byte[] body = body(png.toByteArray(), false);
+        byte[] truncated = Arrays.copyOf(body, body.length - 40);
+        InputStream part = MultipartBodyStream.firstFilePart(new ByteArrayInputStream(truncated), BOUNDARY);
+        assertNotNull(part);
+        IOException e = assertThrows(IOException.class, () -> ImageIO.read(part));
+        assertTrue(MultipartBodyStream.isMalformedBody(e), e.toString());
+    }
+
+    private static byte[] readPart(InputStream body) throws IOException {
+        InputStream part = MultipartBodyStream.firstFilePart(body, BOUNDARY);
+        assertNotNull(part);
+        return part.readAllBytes();
+    }
+
+    /**
+     * A form field, then the file part, then the closing delimiter when {@code closed}.
+     */
+    private static byte[] body(byte[] content, boolean closed) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(("preamble\r\n--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"note\"\r\n\r\n"
+                + "not the image\r\n--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"image\"; filename=\"card.png\"\r\n"
+                + "Content-Type: image/png\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.write(content);
+        if (closed) {
+            out.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return out.toByteArray();
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Returns at most {@code chunk} bytes per read, like a socket delivering small packets.
+     */
+    private static final class Trickle extends ByteArrayInputStream {
+        private final int chunk;
+
+        Trickle(byte[] bytes, int chunk) {
+            super(bytes);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public synchronized int read(byte[] buffer, int offset, int length) {
+            return super.read(buffer, offset, Math.min(length, chunk));
+        }
+    }
+}
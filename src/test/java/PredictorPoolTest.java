@@ -0,0 +1,178 @@
+import ai.djl.Device;
+import ai.djl.Model;
+import ai.djl.inference.Predictor;
+import ai.djl.ndarray.NDManager;
+import ai.djl.translate.TranslateException;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PredictorPoolTest {
+
+    @Test
+    void createsAtMostSizePredictors() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        try (PredictorPool<Integer, Integer> pool = PredictorPool.<Integer, Integer>builder(() -> {
+            created.incrementAndGet();
+            return new FakePredictor(null, null);
+        }).optSize(2).build()) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i + 1, pool.predict(i));
+            }
+            assertTrue(created.get() <= 2);
+        }
+    }
+
+    @Test
+    void predictorGivenBackAfterCloseIsClosedOnce() throws Exception {
+        FakePredictor predictor = new FakePredictor(null, null);
+        PredictorPool<Integer, Integer> pool = PredictorPool.<Integer, Integer>builder(() -> predictor).optSize(1).build();
+        Predictor<Integer, Integer> borrowed = pool.borrow();
+        pool.close();
+        assertEquals(0, predictor.closed.get(), "a borrowed predictor is still in use");
+        pool.giveBack(borrowed);
+        assertEquals(1, predictor.closed.get());
+    }
+
+    @Test
+    void pinnedCallersFailWhenNoWorkerCanCreateAPredictor() {
+        try (PredictorPool<Integer, Integer> pool = PredictorPool.<Integer, Integer>builder(() -> {
+            throw new IllegalStateException("no model");
+        }).optSize(2).optPinThreads(true).build()) {
+            // Waiting for a worker that never comes would end in a TimeoutException instead
+            assertThrows(IllegalStateException.class, () -> pool.predict(1));
+        }
+    }
+
+    @Test
+    void pinnedCallerTimesOutOnAStuckPrediction() {
+        CountDownLatch release = new CountDownLatch(1);
+        try (PredictorPool<Integer, Integer> pool = PredictorPool.<Integer, Integer>builder(() -> new FakePredictor(release, null))
+                .optSize(1).optPinThreads(true).optPredictTimeoutMillis(200).build()) {
+            assertThrows(TimeoutException.class, () -> pool.predict(1));
+            release.countDown();
+        }
+    }
+
+    @Test
+    void closeFailsQueuedPinnedTasks() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        FakePredictor predictor = new FakePredictor(release, null);
+        PredictorPool<Integer, Integer> pool = PredictorPool.<Integer, Integer>builder(() -> predictor)
+                .optSize(1).optPinThreads(true).build();
+        CompletableFuture<Integer> running = CompletableFuture.supplyAsync(() -> call(pool, 1));
+        // The worker has taken the first input before the second one is queued behind it
+        assertTrue(predictor.entered.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Integer> queued = CompletableFuture.supplyAsync(() -> call(pool, 2));
+        awaitCondition(() -> pool.getQueuedCount() == 1);
+        // The worker is stuck on the first input, so close() waits for it with the second one still queued
+        CompletableFuture<Void> closing = CompletableFuture.runAsync(pool::close);
+        awaitCondition(pool::isClosed);
+        release.countDown();
+        closing.get(5, TimeUnit.SECONDS);
+        assertEquals(2, running.get(5, TimeUnit.SECONDS));
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> queued.get(5, TimeUnit.SECONDS));
+        assertTrue(failure.getCause().getMessage().contains("closed"), failure.getCause().toString());
+        assertEquals(1, predictor.closed.get());
+        assertEquals(predictor.predictedOn, predictor.closedOn, "closed on another thread than it predicted on");
+    }
+
+    @Test
+    void pinnedBatchRunsOnAllWorkers() throws Exception {
+        // Every input waits until all four are running, so inputs run one after another would never finish
+        CountDownLatch together = new CountDownLatch(4);
+        try (PredictorPool<Integer, Integer> pool = PredictorPool.<Integer, Integer>builder(() -> new FakePredictor(null, together))
+                .optSize(4).optPinThreads(true).build()) {
+            assertEquals(List.of(1, 2, 3, 4), pool.batchPredict(List.of(0, 1, 2, 3)));
+        }
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not reached");
+            Thread.sleep(1);
+        }
+    }
+
+    private static Integer call(PredictorPool<Integer, Integer> pool, int input) {
+        try {
+            return pool.predict(input);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Adds one to its input and signals {@code entered}, optionally once a latch opens or once all callers of a
+     * shared latch are running. The model behind it is a stub, so no engine is loaded.
+     */
+    private static final class FakePredictor extends Predictor<Integer, Integer> {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final AtomicInteger closed = new AtomicInteger();
+        volatile Thread predictedOn;
+        volatile Thread closedOn;
+        private final CountDownLatch release;
+        private final CountDownLatch together;
+
+        FakePredictor(CountDownLatch release, CountDownLatch together) {
+            super(stub(Model.class), null, Device.cpu(), false);
+            this.release = release;
+            this.together = together;
+        }
+
+        @Override
+        public Integer predict(Integer input) throws TranslateException {
+            predictedOn = Thread.currentThread();
+            entered.countDown();
+            try {
+                if (release != null) {
+                    release.await();
+                }
+                if (together != null) {
+                    together.countDown();
+                    if (!together.await(5, TimeUnit.SECONDS)) {
+                        throw new TranslateException("The inputs did not run in parallel");
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new TranslateException(e);
+            }
+            return input + 1;
+        }
+
+        @Override
+        public void close() {
+            closedOn = Thread.currentThread();
+            closed.incrementAndGet();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Class<?> returns = method.getReturnType();
+            if (returns == NDManager.class) {
+                return type == NDManager.class ? proxy : stub(NDManager.class);
+            }
+            if (returns == Device.class) {
+                return Device.cpu();
+            }
+            // The zero value of primitives, null for everything else
+            return returns.isPrimitive() && returns != void.class ? Array.get(Array.newInstance(returns, 1), 0) : null;
+        });
+    }
+}
@@ -0,0 +1,162 @@
+import ai.djl.MalformedModelException;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.nn.Block;
+import ai.djl.nn.Parameter;
+import ai.djl.nn.ParameterList;
+import ai.djl.util.Pair;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Proxy;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuantizedWeightsTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void roundTripKeepsWeightsWithinHalfAStep() throws Exception {
+        FakeBlock original = FakeBlock.random(1);
+        Path file = folder.resolve("model.qparams");
+        QuantizedWeights.quantize(original.block, 0).write(file);
+
+        FakeBlock restored = FakeBlock.random(2);
+        QuantizedWeights.read(file).applyTo(restored.block);
+        for (int p = 0; p < original.values.size(); p++) {
+            float[] expected = original.values.get(p);
+            float[] actual = restored.values.get(p);
+            Shape shape = original.shapes.get(p);
+            if (shape.dimension() < 2) {
+                // Biases stay FP32
+                assertArrayEquals(expected, actual);
+                continue;
+            }
+            int perChannel = expected.length / (int) shape.get(0);
+            for (int c = 0; c < shape.get(0); c++) {
+                float maxAbs = 0;
+                for (int i = c * perChannel; i < (c + 1) * perChannel; i++) {
+                    maxAbs = Math.max(maxAbs, Math.abs(expected[i]));
+                }
+                for (int i = c * perChannel; i < (c + 1) * perChannel; i++) {
+                    assertEquals(expected[i], actual[i], maxAbs / 127 / 2 + 1e-6f, "parameter " + p + " index " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    void prunedFiltersComeBackAsZerosExceptInTheStem() throws Exception {
+        FakeBlock original = FakeBlock.random(3);
+        QuantizedWeights pruned = QuantizedWeights.quantize(original.block, 0.5f);
+        Path file = folder.resolve("model-pruned.qparams");
+        pruned.write(file);
+
+        QuantizedWeights read = QuantizedWeights.read(file);
+        assertEquals(0.5f, read.getPruneRatio());
+        assertEquals(pruned.getSparsity(), read.getSparsity());
+        assertTrue(read.getSparsity() > 0);
+
+        FakeBlock restored = FakeBlock.random(4);
+        read.applyTo(restored.block);
+        assertEquals(0, zeroChannels(restored.values.get(0), 8), "the stem is never pruned");
+        assertEquals(8, zeroChannels(restored.values.get(2), 16));
+        assertEquals(0, zeroChannels(restored.values.get(4), 10), "dense layers are not pruned");
+    }
+
+    @Test
+    void rejectsMismatchedBlocksAndOtherFiles() throws Exception {
+        Path file = folder.resolve("model.qparams");
+        QuantizedWeights.quantize(FakeBlock.random(5).block, 0).write(file);
+        FakeBlock other = new FakeBlock(List.of(new Shape(4, 3, 3, 3)), new Random(6));
+        assertThrows(MalformedModelException.class, () -> QuantizedWeights.read(file).applyTo(other.block));
+
+        Path text = folder.resolve("notes.txt");
+        Files.writeString(text, "not weights at all");
+        assertThrows(MalformedModelException.class, () -> QuantizedWeights.read(text));
+    }
+
+    private static int zeroChannels(float[] values, int channels) {
+        int perChannel = values.length / channels;
+        int zero = 0;
+        for (int c = 0; c < channels; c++) {
+            boolean allZero = true;
+            for (int i = c * perChannel; i < (c + 1) * perChannel; i++) {
+                allZero &= values[i] == 0;
+            }
+            zero += allZero ? 1 : 0;
+        }
+        return zero;
+    }
+
+    /**
+     * A small conv, conv, dense stack whose parameters are plain float arrays behind NDArray stubs, so no
+     * engine is loaded.
+     */
+    private static final class FakeBlock {
+        final List<Shape> shapes;
+        final List<float[]> values = new ArrayList<>();
+        final Block block;
+
+        FakeBlock(List<Shape> shapes, Random random) {
+            this.shapes = shapes;
+            ParameterList parameters = new ParameterList();
+            for (int p = 0; p < shapes.size(); p++) {
+                Shape shape = shapes.get(p);
+                float[] data = new float[(int) shape.size()];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = (float) random.nextGaussian();
+                }
+                values.add(data);
+                Parameter parameter = Parameter.builder()
+                        .setName("p" + p)
+                        .setType(shape.dimension() >= 2 ? Parameter.Type.WEIGHT : Parameter.Type.BIAS)
+                        .build();
+                parameter.setArray(array(shape, p));
+                parameters.add(new Pair<>("p" + p, parameter));
+            }
+            block = (Block) Proxy.newProxyInstance(Block.class.getClassLoader(), new Class<?>[]{Block.class},
+                    (proxy, method, args) -> method.getName().equals("getParameters") ? parameters : null);
+        }
+
+        static FakeBlock random(long seed) {
+            return new FakeBlock(List.of(new Shape(8, 3, 3, 3), new Shape(8), new Shape(16, 8, 3, 3), new Shape(16),
+                    new Shape(10, 16), new Shape(10)), new Random(seed));
+        }
+
+        private NDArray array(Shape shape, int p) {
+            return (NDArray) Proxy.newProxyInstance(NDArray.class.getClassLoader(), new Class<?>[]{NDArray.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getShape":
+                                return shape;
+                            case "toFloatArray":
+                                return values.get(p).clone();
+                            case "set":
+                                if (args[0] instanceof float[]) {
+                                    values.set(p, ((float[]) args[0]).clone());
+                                } else {
+                                    FloatBuffer buffer = (FloatBuffer) args[0];
+                                    float[] data = new float[buffer.remaining()];
+                                    buffer.get(data);
+                                    values.set(p, data);
+                                }
+                                return null;
+                            default:
+                                return null;
+                        }
+                    });
+        }
+    }
+}
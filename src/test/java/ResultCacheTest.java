@@ -0,0 +1,89 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ResultCacheTest {
+
+    @Test
+    void nearDuplicateLookupIsOffByDefault() {
+        ResultCache<String> cache = ResultCache.<String>builder().build();
+        assertFalse(cache.isNearDuplicateEnabled());
+        cache.put("a", "card a", 0x0123456789abcdefL);
+        assertNull(cache.getSimilar(0x0123456789abcdefL));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void findsHashesWithinTheDistanceOnly() {
+        ResultCache<String> cache = ResultCache.<String>builder().optNearDuplicateDistance(4).build();
+        long hash = 0x0123456789abcdefL;
+        cache.put("a", "card a", hash);
+        // Four flipped bits, one in each of four of the five bands
+        assertEquals("card a", cache.getSimilar(hash ^ (1L | 1L << 14 | 1L << 27 | 1L << 40)));
+        // Four bits in a single band
+        assertEquals("card a", cache.getSimilar(hash ^ 0xfL << 60));
+        assertNull(cache.getSimilar(hash ^ 0x1fL));
+    }
+
+    @Test
+    void indexAgreesWithALinearScan() {
+        int distance = 6;
+        ResultCache<Integer> cache = ResultCache.<Integer>builder().optNearDuplicateDistance(distance).build();
+        Random random = new Random(7);
+        long[] hashes = new long[2000];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = random.nextLong();
+            cache.put("k" + i, i, hashes[i]);
+        }
+        for (int q = 0; q < 500; q++) {
+            long query = hashes[random.nextInt(hashes.length)];
+            for (int flips = random.nextInt(10); flips > 0; flips--) {
+                query ^= 1L << random.nextInt(64);
+            }
+            int best = -1;
+            int bestDistance = Integer.MAX_VALUE;
+            for (int i = 0; i < hashes.length; i++) {
+                int d = ImageHashes.hammingDistance(hashes[i], query);
+                if (d <= distance && d < bestDistance) {
+                    best = i;
+                    bestDistance = d;
+                }
+            }
+            Integer found = cache.getSimilar(query);
+            if (best < 0) {
+                assertNull(found);
+            } else {
+                assertEquals(bestDistance, ImageHashes.hammingDistance(hashes[found], query));
+            }
+        }
+    }
+
+    @Test
+    void evictedEntriesLeaveTheIndex() {
+        ResultCache<String> cache = ResultCache.<String>builder().optMaxEntries(1).optNearDuplicateDistance(2).build();
+        cache.put("a", "card a", 1L);
+        cache.put("b", "card b", -1L);
+        assertNull(cache.getSimilar(1L));
+        assertEquals("card b", cache.getSimilar(-1L));
+    }
+
+    @Test
+    void arraysAreCopiedInAndOut() {
+        ResultCache<float[]> cache = ResultCache.<float[]>builder().optCopier(float[]::clone).build();
+        float[] features = {1, 2, 3};
+        cache.put("a", features);
+        features[0] = 42;
+        float[] first = cache.get("a");
+        assertArrayEquals(new float[]{1, 2, 3}, first);
+        first[1] = 42;
+        float[] second = cache.get("a");
+        assertArrayEquals(new float[]{1, 2, 3}, second);
+        assertNotSame(first, second);
+    }
+}
@@ -0,0 +1,106 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VectorIndexTest {
+    private static final int DIMENSION = 24;
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void storedVectorsFindThemselves() throws IOException {
+        List<float[]> vectors = random(300, 1);
+        try (VectorIndex index = VectorIndex.create(folder, 8, vectors, 42)) {
+            for (float[] vector : vectors) {
+                index.add(vector);
+            }
+            for (int id = 0; id < vectors.size(); id += 17) {
+                VectorIndex.Neighbor[] nearest = index.searchExact(vectors.get(id), 1);
+                assertEquals(id, nearest[0].getId());
+                assertEquals(1, nearest[0].getSimilarity(), 1e-5);
+            }
+        }
+    }
+
+    @Test
+    void reopenedIndexHasTheSameVectorsAndResults() throws IOException {
+        // Enough vectors that lists span several blocks
+        List<float[]> vectors = random(1000, 2);
+        List<float[]> queries = random(20, 3);
+        List<VectorIndex.Neighbor[]> before = new ArrayList<>();
+        try (VectorIndex index = VectorIndex.create(folder, 4, vectors, 42)) {
+            for (float[] vector : vectors) {
+                index.add(vector);
+            }
+            index.flush();
+            for (float[] query : queries) {
+                before.add(index.search(query, 5, 2));
+            }
+        }
+
+        try (VectorIndex index = VectorIndex.open(folder)) {
+            assertEquals(vectors.size(), index.size());
+            assertEquals(DIMENSION, index.getDimension());
+            for (int id = 0; id < vectors.size(); id += 37) {
+                assertArrayEquals(VectorIndex.normalize(vectors.get(id)), index.get(id), 1e-6f);
+            }
+            for (int q = 0; q < queries.size(); q++) {
+                VectorIndex.Neighbor[] after = index.search(queries.get(q), 5, 2);
+                assertEquals(before.get(q).length, after.length);
+                for (int i = 0; i < after.length; i++) {
+                    assertEquals(before.get(q)[i].getId(), after[i].getId());
+                }
+            }
+        }
+    }
+
+    @Test
+    void addsAfterReopeningContinueTheIds() throws IOException {
+        List<float[]> vectors = random(200, 4);
+        try (VectorIndex index = VectorIndex.create(folder, 4, vectors, 42)) {
+            for (float[] vector : vectors.subList(0, 100)) {
+                index.add(vector);
+            }
+        }
+        try (VectorIndex index = VectorIndex.open(folder)) {
+            for (int i = 100; i < 200; i++) {
+                assertEquals(i, index.add(vectors.get(i)));
+            }
+        }
+        try (VectorIndex index = VectorIndex.open(folder)) {
+            assertEquals(200, index.size());
+            assertEquals(150, index.searchExact(vectors.get(150), 1)[0].getId());
+            assertEquals(50, index.searchExact(vectors.get(50), 1)[0].getId());
+        }
+    }
+
+    @Test
+    void refusesAFolderThatIsNotAnIndex() throws IOException {
+        Files.write(folder.resolve("centroids.f32"), new byte[]{DIMENSION, 0, 0, 0, 1, 0, 0, 0});
+        assertThrows(IOException.class, () -> VectorIndex.open(folder).close());
+    }
+
+    private static List<float[]> random(int count, long seed) {
+        Random random = new Random(seed);
+        List<float[]> vectors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] vector = new float[DIMENSION];
+            for (int d = 0; d < DIMENSION; d++) {
+                vector[d] = (float) random.nextGaussian();
+            }
+            vectors.add(vector);
+        }
+        return vectors;
+    }
+}